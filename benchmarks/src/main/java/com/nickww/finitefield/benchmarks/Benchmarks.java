@@ -0,0 +1,72 @@
+package com.nickww.finitefield.benchmarks;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+
+/**
+ * Runs the benchmarks, taking the usual JMH command line options, and then prints each result again with its
+ * throughput in MB/s beside its time in ns/op. The throughput counts the bytes of data an operation covers: the region
+ * length for the region operations, and the data shards of a stripe for the checksum vectors (not the checksums, so
+ * encoding and decoding the same stripe are compared like for like). Benchmarks with no data size, like the scalar and
+ * matrix operations, only have a time.
+ * 
+ * @author Nick Wuensch
+ */
+public final class Benchmarks
+{
+	private Benchmarks()
+	{
+	}
+	
+	public static void main(String[] args) throws Exception
+	{
+		Options options = new CommandLineOptions(args);
+		Collection<RunResult> results = new Runner(options).run();
+		
+		System.out.println();
+		System.out.println(String.format("%-60s %-40s %14s %12s", "Benchmark", "Parameters", "ns/op", "MB/s"));
+		for(RunResult result : results)
+		{
+			BenchmarkParams params = result.getParams();
+			Result<?> primary = result.getPrimaryResult();
+			long bytes = bytesPerOperation(params);
+			String throughput = "";
+			if(bytes > 0 && "ns/op".equals(primary.getScoreUnit()))
+				throughput = String.format("%12.1f", bytes * 1000 / primary.getScore()); // bytes per ns is GB/s
+			System.out.println(String.format("%-60s %-40s %14.1f %12s", shortName(params.getBenchmark()),
+					parameters(params), primary.getScore(), throughput));
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes of data one operation of the benchmark covers, or 0 if it doesn't have a size.
+	 */
+	private static long bytesPerOperation(BenchmarkParams params)
+	{
+		if(params.getParam("length") != null)
+			return Long.parseLong(params.getParam("length"));
+		if(params.getParam("shardSize") != null && params.getParam("layout") != null)
+			return ChecksumVectorBenchmark.dataShards(params.getParam("layout"))
+					* Long.parseLong(params.getParam("shardSize"));
+		return 0;
+	}
+	
+	private static String shortName(String benchmark)
+	{
+		return benchmark.substring(ChecksumVectorBenchmark.class.getPackage().getName().length() + 1);
+	}
+	
+	private static String parameters(BenchmarkParams params)
+	{
+		StringBuilder builder = new StringBuilder();
+		for(String key : params.getParamsKeys())
+			builder.append(builder.length() == 0 ? "" : " ").append(key).append('=').append(params.getParam(key));
+		return builder.toString();
+	}
+}
@@ -0,0 +1,130 @@
+package com.nickww.finitefield.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * Benchmarks encoding and decoding whole stripes with the vectors from {@link ChecksumVector#build(int)}: the XOR
+ * vector for one checksum, the RAID-6 vector for two, and the matrix vector for more. The layout is written as
+ * <code>k+m</code>, for <code>k</code> data shards and <code>m</code> checksums. Decoding erases either one data shard
+ * or, for the worst case, as many data shards as there are checksums, always the first ones.
+ * 
+ * @author Nick Wuensch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChecksumVectorBenchmark
+{
+	@Param({ "4+1", "10+1", "4+2", "10+2", "6+3", "10+4", "20+4" })
+	public String layout;
+	
+	@Param({ "4096", "65536", "1048576" })
+	public int shardSize;
+	
+	private ChecksumVector vector;
+	private byte[][] shards;
+	private ByteBuffer[] buffers;
+	private boolean[] oneMissing;
+	private boolean[] allMissing;
+	
+	/**
+	 * How many data shards the decoding benchmarks erase, kept apart so the encoding benchmarks don't run once for
+	 * each.
+	 */
+	@State(Scope.Thread)
+	public static class Erasures
+	{
+		@Param({ "one", "all" })
+		public String erasures;
+		
+		private boolean all;
+		
+		@Setup
+		public void setup()
+		{
+			all = "all".equals(erasures);
+		}
+	}
+	
+	@Setup
+	public void setup()
+	{
+		int dataCount = dataShards(layout);
+		int checksumCount = Integer.parseInt(layout.substring(layout.indexOf('+') + 1));
+		vector = ChecksumVector.build(checksumCount);
+		
+		Random random = new Random(shardSize);
+		shards = new byte[dataCount + checksumCount][shardSize];
+		buffers = new ByteBuffer[shards.length];
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			if(shard < dataCount)
+				random.nextBytes(shards[shard]);
+			buffers[shard] = ByteBuffer.allocateDirect(shardSize);
+		}
+		vector.encode(shards, 0, shardSize);
+		for(int shard = 0; shard < shards.length; shard++)
+			buffers[shard].put(shards[shard]).flip();
+		
+		oneMissing = new boolean[shards.length];
+		Arrays.fill(oneMissing, 1, shards.length, true);
+		allMissing = new boolean[shards.length];
+		Arrays.fill(allMissing, checksumCount, shards.length, true);
+	}
+	
+	/**
+	 * Returns the number of data shards in the given layout.
+	 */
+	static int dataShards(String layout)
+	{
+		return Integer.parseInt(layout.substring(0, layout.indexOf('+')));
+	}
+	
+	@Benchmark
+	public byte[][] encode()
+	{
+		vector.encode(shards, 0, shardSize);
+		return shards;
+	}
+	
+	@Benchmark
+	public byte[][] decode(Erasures erasures)
+	{
+		vector.reconstruct(shards, erasures.all ? allMissing : oneMissing, 0, shardSize);
+		return shards;
+	}
+	
+	@Benchmark
+	public ByteBuffer[] encodeDirect()
+	{
+		vector.encode(buffers);
+		return buffers;
+	}
+	
+	@Benchmark
+	public ByteBuffer[] decodeDirect(Erasures erasures)
+	{
+		vector.reconstruct(buffers, erasures.all ? allMissing : oneMissing);
+		return buffers;
+	}
+}
@@ -0,0 +1,183 @@
+package com.nickww.finitefield.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nickww.finitefield.FiniteByteField;
+
+/**
+ * Benchmarks the scalar and region operations of {@link FiniteByteField}. The scalar operations step through a table
+ * of random operands, so the JIT can't fold them into constants, and the cost of stepping is part of every scalar
+ * result (see {@link #baseline(Scalars)}).
+ * 
+ * @author Nick Wuensch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldBenchmark
+{
+	@State(Scope.Thread)
+	public static class Scalars
+	{
+		private final byte[] a = new byte[256];
+		private final byte[] b = new byte[256];
+		private int index;
+		
+		@Setup
+		public void setup()
+		{
+			Random random = new Random(1);
+			random.nextBytes(a);
+			random.nextBytes(b);
+			for(int i = 0; i < b.length; i++)
+				if(b[i] == 0)
+					b[i] = 1; // divisors
+		}
+		
+		private int next()
+		{
+			return index = (index + 1) & 0xff;
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Regions
+	{
+		@Param({ "4096", "65536", "1048576" })
+		public int length;
+		
+		private byte[] src;
+		private byte[] dst;
+		private ByteBuffer heapSrc;
+		private ByteBuffer heapDst;
+		private ByteBuffer directSrc;
+		private ByteBuffer directDst;
+		
+		@Setup
+		public void setup()
+		{
+			Random random = new Random(length);
+			src = new byte[length];
+			dst = new byte[length];
+			random.nextBytes(src);
+			random.nextBytes(dst);
+			heapSrc = ByteBuffer.wrap(src.clone());
+			heapDst = ByteBuffer.wrap(dst.clone());
+			directSrc = ByteBuffer.allocateDirect(length).put(src);
+			directDst = ByteBuffer.allocateDirect(length).put(dst);
+			directSrc.flip();
+			directDst.flip();
+		}
+	}
+	
+	@Benchmark
+	public int baseline(Scalars scalars)
+	{
+		int i = scalars.next();
+		return scalars.a[i] ^ scalars.b[i];
+	}
+	
+	@Benchmark
+	public byte add(Scalars scalars)
+	{
+		int i = scalars.next();
+		return FiniteByteField.add(scalars.a[i], scalars.b[i]);
+	}
+	
+	@Benchmark
+	public byte mul(Scalars scalars)
+	{
+		int i = scalars.next();
+		return FiniteByteField.mul(scalars.a[i], scalars.b[i]);
+	}
+	
+	@Benchmark
+	public byte div(Scalars scalars)
+	{
+		int i = scalars.next();
+		return FiniteByteField.div(scalars.a[i], scalars.b[i]);
+	}
+	
+	@Benchmark
+	public byte dbl(Scalars scalars)
+	{
+		return FiniteByteField.dbl(scalars.a[scalars.next()]);
+	}
+	
+	@Benchmark
+	public byte sqr(Scalars scalars)
+	{
+		return FiniteByteField.sqr(scalars.a[scalars.next()]);
+	}
+	
+	@Benchmark
+	public byte sqrt(Scalars scalars)
+	{
+		return FiniteByteField.sqrt(scalars.a[scalars.next()]);
+	}
+	
+	@Benchmark
+	public byte pow(Scalars scalars)
+	{
+		int i = scalars.next();
+		return FiniteByteField.pow(scalars.a[i], scalars.b[i]);
+	}
+	
+	@Benchmark
+	public void addRegion(Regions regions)
+	{
+		FiniteByteField.addRegion(regions.src, 0, regions.dst, 0, regions.length);
+	}
+	
+	@Benchmark
+	public void mulRegion(Regions regions)
+	{
+		FiniteByteField.mulRegion((byte) 0x57, regions.src, 0, regions.dst, 0, regions.length);
+	}
+	
+	@Benchmark
+	public void mulAddRegion(Regions regions)
+	{
+		FiniteByteField.mulAddRegion((byte) 0x57, regions.src, 0, regions.dst, 0, regions.length);
+	}
+	
+	@Benchmark
+	public void addRegionHeapBuffer(Regions regions)
+	{
+		FiniteByteField.addRegion(regions.heapSrc, regions.heapDst);
+	}
+	
+	@Benchmark
+	public void mulAddRegionHeapBuffer(Regions regions)
+	{
+		FiniteByteField.mulAddRegion((byte) 0x57, regions.heapSrc, regions.heapDst);
+	}
+	
+	@Benchmark
+	public void addRegionDirectBuffer(Regions regions)
+	{
+		FiniteByteField.addRegion(regions.directSrc, regions.directDst);
+	}
+	
+	@Benchmark
+	public void mulAddRegionDirectBuffer(Regions regions)
+	{
+		FiniteByteField.mulAddRegion((byte) 0x57, regions.directSrc, regions.directDst);
+	}
+}
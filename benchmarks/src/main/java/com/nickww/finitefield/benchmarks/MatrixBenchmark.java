@@ -0,0 +1,106 @@
+package com.nickww.finitefield.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nickww.finitefield.FiniteByteFieldMatrix;
+
+/**
+ * Benchmarks {@link FiniteByteFieldMatrix}. A matrix caches its determinant and inverse, so every operation is on a
+ * new matrix, and the cost of copying the elements into it is part of every result. The determinant is calculated by
+ * cofactor expansion, whose cost grows factorially, so the inverse and determinant are only measured for small
+ * matrices; multiplication is measured up to the sizes of large storage stripes.
+ * 
+ * @author Nick Wuensch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixBenchmark
+{
+	@State(Scope.Thread)
+	public static class Square
+	{
+		@Param({ "3", "5", "7" })
+		public int size;
+		
+		private byte[][] elements;
+		
+		@Setup
+		public void setup()
+		{
+			elements = invertible(size, new Random(size));
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Product
+	{
+		@Param({ "4", "16", "64", "128" })
+		public int size;
+		
+		private FiniteByteFieldMatrix left;
+		private FiniteByteFieldMatrix right;
+		
+		@Setup
+		public void setup()
+		{
+			Random random = new Random(size);
+			left = new FiniteByteFieldMatrix(random(size, random));
+			right = new FiniteByteFieldMatrix(random(size, random));
+		}
+	}
+	
+	@Benchmark
+	public byte determinant(Square square)
+	{
+		return new FiniteByteFieldMatrix(square.elements).determinant();
+	}
+	
+	@Benchmark
+	public FiniteByteFieldMatrix inverse(Square square)
+	{
+		return new FiniteByteFieldMatrix(square.elements).inverse();
+	}
+	
+	@Benchmark
+	public FiniteByteFieldMatrix times(Product product)
+	{
+		// transposes are cached too, so the right-hand side is new every time
+		return product.left.times(new FiniteByteFieldMatrix(product.right.getData()));
+	}
+	
+	private static byte[][] random(int size, Random random)
+	{
+		byte[][] elements = new byte[size][size];
+		for(byte[] row : elements)
+			random.nextBytes(row);
+		return elements;
+	}
+	
+	/**
+	 * Returns random elements whose matrix has an inverse.
+	 */
+	private static byte[][] invertible(int size, Random random)
+	{
+		byte[][] elements;
+		do
+			elements = random(size, random);
+		while(new FiniteByteFieldMatrix(elements).determinant() == 0);
+		return elements;
+	}
+}
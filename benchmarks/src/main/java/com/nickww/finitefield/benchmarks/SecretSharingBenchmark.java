@@ -0,0 +1,66 @@
+package com.nickww.finitefield.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nickww.finitefield.sharing.SecretShare;
+import com.nickww.finitefield.sharing.SecretSharing;
+
+/**
+ * Benchmarks {@link SecretSharing} on secrets of a few sizes. Splitting draws its coefficients from a plain
+ * {@link Random} rather than a secure one, so that the field arithmetic is measured rather than the random number
+ * generator, which dominates splitting in real use.
+ * 
+ * @author Nick Wuensch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SecretSharingBenchmark
+{
+	@Param({ "3", "5" })
+	public int threshold;
+	
+	@Param({ "4096", "1048576" })
+	public int length;
+	
+	private SecretSharing sharing;
+	private byte[] secret;
+	private SecretShare[] shares;
+	
+	@Setup
+	public void setup()
+	{
+		sharing = new SecretSharing(threshold, threshold + 2, new Random(threshold));
+		secret = new byte[length];
+		new Random(length).nextBytes(secret);
+		shares = sharing.split(secret);
+	}
+	
+	@Benchmark
+	public SecretShare[] split()
+	{
+		return sharing.split(secret);
+	}
+	
+	@Benchmark
+	public byte[] combine()
+	{
+		return SecretSharing.combine(shares);
+	}
+}
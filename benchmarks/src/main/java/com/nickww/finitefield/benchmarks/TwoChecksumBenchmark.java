@@ -0,0 +1,126 @@
+package com.nickww.finitefield.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * Compares the two ways of calculating two checksums: the RAID-6 vector from {@link ChecksumVector#build(int)}, which
+ * multiplies in the field, and the row-diagonal parity vector from {@link ChecksumVector#buildRowDiagonal()}, which
+ * only XORs. The layout is written as <code>k+2</code>, for <code>k</code> data shards. The shard sizes are multiples
+ * of 480 bytes, close to 4KB, 64KB and 1MB, since row-diagonal parity needs every region to be a whole number of its
+ * units, and 480 bytes is a whole number of them for each layout. Decoding erases either one data shard or the first
+ * two.
+ * 
+ * @author Nick Wuensch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TwoChecksumBenchmark
+{
+	@Param({ "raid6", "rdp" })
+	public String vector;
+	
+	@Param({ "4+2", "6+2", "10+2" })
+	public String layout;
+	
+	@Param({ "3840", "65280", "1044480" })
+	public int shardSize;
+	
+	private ChecksumVector checksums;
+	private byte[][] shards;
+	private ByteBuffer[] buffers;
+	private boolean[] oneMissing;
+	private boolean[] twoMissing;
+	
+	/**
+	 * How many data shards the decoding benchmarks erase, kept apart so the encoding benchmarks don't run once for
+	 * each.
+	 */
+	@State(Scope.Thread)
+	public static class Erasures
+	{
+		@Param({ "one", "two" })
+		public String erasures;
+		
+		private boolean two;
+		
+		@Setup
+		public void setup()
+		{
+			two = "two".equals(erasures);
+		}
+	}
+	
+	@Setup
+	public void setup()
+	{
+		int dataCount = ChecksumVectorBenchmark.dataShards(layout);
+		checksums = "rdp".equals(vector) ? ChecksumVector.buildRowDiagonal() : ChecksumVector.build(2);
+		
+		Random random = new Random(shardSize);
+		shards = new byte[dataCount + 2][shardSize];
+		buffers = new ByteBuffer[shards.length];
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			if(shard < dataCount)
+				random.nextBytes(shards[shard]);
+			buffers[shard] = ByteBuffer.allocateDirect(shardSize);
+		}
+		checksums.encode(shards, 0, shardSize);
+		for(int shard = 0; shard < shards.length; shard++)
+			buffers[shard].put(shards[shard]).flip();
+		
+		oneMissing = new boolean[shards.length];
+		Arrays.fill(oneMissing, 1, shards.length, true);
+		twoMissing = new boolean[shards.length];
+		Arrays.fill(twoMissing, 2, shards.length, true);
+	}
+	
+	@Benchmark
+	public byte[][] encode()
+	{
+		checksums.encode(shards, 0, shardSize);
+		return shards;
+	}
+	
+	@Benchmark
+	public byte[][] decode(Erasures erasures)
+	{
+		checksums.reconstruct(shards, erasures.two ? twoMissing : oneMissing, 0, shardSize);
+		return shards;
+	}
+	
+	@Benchmark
+	public ByteBuffer[] encodeDirect()
+	{
+		checksums.encode(buffers);
+		return buffers;
+	}
+	
+	@Benchmark
+	public ByteBuffer[] decodeDirect(Erasures erasures)
+	{
+		checksums.reconstruct(buffers, erasures.two ? twoMissing : oneMissing);
+		return buffers;
+	}
+}
@@ -1,5 +1,7 @@
 package com.nickww.finitefield;
 
+import java.nio.ByteBuffer;
+
 /**
  * A class to perform finite field arithmetic for Galois fields of order 2<sup>8</sup>. The implementation of this class
  * works by treating Java's byte as an unsigned byte, where the positive numbers are 0-127 and the negative numbers are
@@ -130,6 +132,18 @@ public class FiniteByteField
 		return div[a & 0xff][b & 0xff];
 	}
 	
+	/**
+	 * Returns the row of the multiplication table for the given value, so that loops which multiply many bytes by the
+	 * same value can look the products up directly. The row is shared, and must not be modified.
+	 * 
+	 * @param a The multiplier.
+	 * @return The products of the multiplier and each unsigned byte value, indexed by that value.
+	 */
+	static byte[] products(byte a)
+	{
+		return mul[a & 0xff];
+	}
+	
 	/**
 	 * This adds the given bytes, which in GF(2<sup>8</sup>) is simply the same as applying XOR.
 	 * 
@@ -209,6 +223,287 @@ public class FiniteByteField
 		return product;
 	}
 	
+	/**
+	 * Adds (XORs) each byte of the source region into the corresponding byte of the destination region. This is the
+	 * region equivalent of {@link #add(byte, byte...)}.
+	 * 
+	 * @param src The bytes to add.
+	 * @param srcOffset The first index of the source region.
+	 * @param dst The bytes to add to, which are overwritten with the sums.
+	 * @param dstOffset The first index of the destination region.
+	 * @param length The number of bytes in each region.
+	 * @throws ArrayIndexOutOfBoundsException if either region extends past the end of its array.
+	 */
+	public static void addRegion(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length)
+	{
+		for(int i = 0; i < length; i++)
+			dst[dstOffset + i] ^= src[srcOffset + i];
+	}
+	
+	/**
+	 * Multiplies each byte of the source region by the given coefficient, writing the products into the destination
+	 * region. The two regions may be the same.
+	 * 
+	 * @param coefficient The value to multiply each byte by.
+	 * @param src The bytes to multiply.
+	 * @param srcOffset The first index of the source region.
+	 * @param dst The array to write the products to.
+	 * @param dstOffset The first index of the destination region.
+	 * @param length The number of bytes in each region.
+	 * @throws ArrayIndexOutOfBoundsException if either region extends past the end of its array.
+	 */
+	public static void mulRegion(byte coefficient, byte[] src, int srcOffset, byte[] dst, int dstOffset, int length)
+	{
+		if(coefficient == 1)
+		{
+			System.arraycopy(src, srcOffset, dst, dstOffset, length);
+			return;
+		}
+		
+		byte[] products = mul[coefficient & 0xff];
+		for(int i = 0; i < length; i++)
+			dst[dstOffset + i] = products[src[srcOffset + i] & 0xff];
+	}
+	
+	/**
+	 * Multiplies each byte of the source region by the given coefficient, and adds the products into the destination
+	 * region. This is the basic operation of every checksum calculation, so coefficients of 0 and 1 are special-cased
+	 * to skip the region entirely or to use plain addition.
+	 * 
+	 * @param coefficient The value to multiply each source byte by.
+	 * @param src The bytes to multiply.
+	 * @param srcOffset The first index of the source region.
+	 * @param dst The bytes to add the products to.
+	 * @param dstOffset The first index of the destination region.
+	 * @param length The number of bytes in each region.
+	 * @throws ArrayIndexOutOfBoundsException if either region extends past the end of its array.
+	 */
+	public static void mulAddRegion(byte coefficient, byte[] src, int srcOffset, byte[] dst, int dstOffset, int length)
+	{
+		if(coefficient == 0)
+			return;
+		if(coefficient == 1)
+		{
+			addRegion(src, srcOffset, dst, dstOffset, length);
+			return;
+		}
+		
+		byte[] products = mul[coefficient & 0xff];
+		for(int i = 0; i < length; i++)
+			dst[dstOffset + i] ^= products[src[srcOffset + i] & 0xff];
+	}
+	
+	/**
+	 * Adds (XORs) the remaining bytes of the source buffer into the destination buffer, starting at each buffer's
+	 * position. Neither buffer's position is changed. When both buffers have the same byte order, eight bytes are added
+	 * at a time.
+	 * 
+	 * @param src The bytes to add.
+	 * @param dst The bytes to add to, which are overwritten with the sums.
+	 * @throws IndexOutOfBoundsException if the destination has fewer bytes remaining than the source.
+	 * @see #addRegion(byte[], int, byte[], int, int)
+	 */
+	public static void addRegion(ByteBuffer src, ByteBuffer dst)
+	{
+		if(dst.remaining() < src.remaining())
+			throw new IndexOutOfBoundsException("Destination region is smaller than source region");
+		addRegion(src, src.position(), dst, dst.position(), src.remaining());
+	}
+	
+	/**
+	 * Adds (XORs) a region of the source buffer into a region of the destination buffer, at absolute indices, so that
+	 * neither buffer's position is read or changed and no views of them are needed. When both buffers have the same
+	 * byte order, eight bytes are added at a time.
+	 * 
+	 * @param src The bytes to add.
+	 * @param srcOffset The index of the first byte of the source region.
+	 * @param dst The bytes to add to, which are overwritten with the sums.
+	 * @param dstOffset The index of the first byte of the destination region.
+	 * @param length The number of bytes in each region.
+	 * @throws IndexOutOfBoundsException if either region extends past its buffer's limit.
+	 * @see #addRegion(byte[], int, byte[], int, int)
+	 */
+	public static void addRegion(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int length)
+	{
+		int i = 0;
+		if(src.order() == dst.order())
+			for(; i + Long.BYTES <= length; i += Long.BYTES)
+				dst.putLong(dstOffset + i, dst.getLong(dstOffset + i) ^ src.getLong(srcOffset + i));
+		for(; i < length; i++)
+			dst.put(dstOffset + i, (byte) (dst.get(dstOffset + i) ^ src.get(srcOffset + i)));
+	}
+	
+	/**
+	 * Multiplies the remaining bytes of the source buffer by the given coefficient, writing the products into the
+	 * destination buffer, starting at each buffer's position. Neither buffer's position is changed.
+	 * 
+	 * @param coefficient The value to multiply each byte by.
+	 * @param src The bytes to multiply.
+	 * @param dst The buffer to write the products to.
+	 * @throws IndexOutOfBoundsException if the destination has fewer bytes remaining than the source.
+	 * @see #mulRegion(byte, byte[], int, byte[], int, int)
+	 */
+	public static void mulRegion(byte coefficient, ByteBuffer src, ByteBuffer dst)
+	{
+		if(dst.remaining() < src.remaining())
+			throw new IndexOutOfBoundsException("Destination region is smaller than source region");
+		mulRegion(coefficient, src, src.position(), dst, dst.position(), src.remaining());
+	}
+	
+	/**
+	 * Multiplies a region of the source buffer by the given coefficient, writing the products into a region of the
+	 * destination buffer, at absolute indices. Neither buffer's position is read or changed.
+	 * 
+	 * @param coefficient The value to multiply each byte by.
+	 * @param src The bytes to multiply.
+	 * @param srcOffset The index of the first byte of the source region.
+	 * @param dst The buffer to write the products to.
+	 * @param dstOffset The index of the first byte of the destination region.
+	 * @param length The number of bytes in each region.
+	 * @throws IndexOutOfBoundsException if either region extends past its buffer's limit.
+	 * @see #mulRegion(byte, byte[], int, byte[], int, int)
+	 */
+	public static void mulRegion(byte coefficient, ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset,
+			int length)
+	{
+		if(coefficient == 1)
+		{
+			copyRegion(src, srcOffset, dst, dstOffset, length);
+			return;
+		}
+		
+		byte[] products = mul[coefficient & 0xff];
+		for(int i = 0; i < length; i++)
+			dst.put(dstOffset + i, products[src.get(srcOffset + i) & 0xff]);
+	}
+	
+	/**
+	 * Multiplies the remaining bytes of the source buffer by the given coefficient, and adds the products into the
+	 * destination buffer, starting at each buffer's position. Neither buffer's position is changed.
+	 * 
+	 * @param coefficient The value to multiply each source byte by.
+	 * @param src The bytes to multiply.
+	 * @param dst The bytes to add the products to.
+	 * @throws IndexOutOfBoundsException if the destination has fewer bytes remaining than the source.
+	 * @see #mulAddRegion(byte, byte[], int, byte[], int, int)
+	 */
+	public static void mulAddRegion(byte coefficient, ByteBuffer src, ByteBuffer dst)
+	{
+		if(dst.remaining() < src.remaining())
+			throw new IndexOutOfBoundsException("Destination region is smaller than source region");
+		mulAddRegion(coefficient, src, src.position(), dst, dst.position(), src.remaining());
+	}
+	
+	/**
+	 * Multiplies a region of the source buffer by the given coefficient, and adds the products into a region of the
+	 * destination buffer, at absolute indices. Neither buffer's position is read or changed.
+	 * 
+	 * @param coefficient The value to multiply each source byte by.
+	 * @param src The bytes to multiply.
+	 * @param srcOffset The index of the first byte of the source region.
+	 * @param dst The bytes to add the products to.
+	 * @param dstOffset The index of the first byte of the destination region.
+	 * @param length The number of bytes in each region.
+	 * @throws IndexOutOfBoundsException if either region extends past its buffer's limit.
+	 * @see #mulAddRegion(byte, byte[], int, byte[], int, int)
+	 */
+	public static void mulAddRegion(byte coefficient, ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset,
+			int length)
+	{
+		if(coefficient == 0)
+			return;
+		if(coefficient == 1)
+		{
+			addRegion(src, srcOffset, dst, dstOffset, length);
+			return;
+		}
+		
+		byte[] products = mul[coefficient & 0xff];
+		for(int i = 0; i < length; i++)
+			dst.put(dstOffset + i, (byte) (dst.get(dstOffset + i) ^ products[src.get(srcOffset + i) & 0xff]));
+	}
+	
+	/**
+	 * Writes the sum of the remaining bytes of each source buffer, multiplied by its coefficient, into the destination
+	 * buffer, starting at each buffer's position. This is a whole row of a matrix product in one pass: each
+	 * destination byte is written once, rather than once per source as with repeated calls to
+	 * {@link #mulAddRegion(byte, ByteBuffer, ByteBuffer)}. Heap buffers are read through their arrays. No buffer's
+	 * position is changed.
+	 * 
+	 * @param coefficients The value to multiply each source by.
+	 * @param srcs The bytes to multiply, with as many buffers as there are coefficients, each with at least as many bytes
+	 * remaining as the destination.
+	 * @param dst The buffer to write the sums to.
+	 * @throws IllegalArgumentException if there are no sources, or a different number of sources and coefficients.
+	 * @throws IndexOutOfBoundsException if a source has fewer bytes remaining than the destination.
+	 */
+	public static void dotRegion(byte[] coefficients, ByteBuffer[] srcs, ByteBuffer dst)
+	{
+		if(srcs.length == 0 || srcs.length != coefficients.length)
+			throw new IllegalArgumentException("Must have one coefficient per source, and at least one source");
+		int length = dst.remaining();
+		for(ByteBuffer src : srcs)
+			if(src.remaining() < length)
+				throw new IndexOutOfBoundsException("Source region is smaller than destination region");
+		
+		byte[][] products = new byte[srcs.length][];
+		for(int src = 0; src < srcs.length; src++)
+			products[src] = mul[coefficients[src] & 0xff];
+		boolean arrays = dst.hasArray();
+		for(ByteBuffer src : srcs)
+			arrays &= src.hasArray();
+		if(arrays)
+		{
+			byte[][] arrayOf = new byte[srcs.length][];
+			int[] offsets = new int[srcs.length];
+			for(int src = 0; src < srcs.length; src++)
+			{
+				arrayOf[src] = srcs[src].array();
+				offsets[src] = srcs[src].arrayOffset() + srcs[src].position();
+			}
+			byte[] out = dst.array();
+			int dstOffset = dst.arrayOffset() + dst.position();
+			for(int i = 0; i < length; i++)
+			{
+				int sum = 0;
+				for(int src = 0; src < arrayOf.length; src++)
+					sum ^= products[src][arrayOf[src][offsets[src] + i] & 0xff];
+				out[dstOffset + i] = (byte) sum;
+			}
+			return;
+		}
+		
+		int dstOffset = dst.position();
+		for(int i = 0; i < length; i++)
+		{
+			int sum = 0;
+			for(int src = 0; src < srcs.length; src++)
+				sum ^= products[src][srcs[src].get(srcs[src].position() + i) & 0xff];
+			dst.put(dstOffset + i, (byte) sum);
+		}
+	}
+	
+	/**
+	 * Copies a region between buffers using absolute gets and puts, eight bytes at a time where the byte orders allow,
+	 * so that no views of the buffers need to be allocated. Heap buffers are copied with {@link System#arraycopy}.
+	 */
+	private static void copyRegion(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int length)
+	{
+		if(src.hasArray() && dst.hasArray())
+		{
+			System.arraycopy(src.array(), src.arrayOffset() + srcOffset, dst.array(), dst.arrayOffset() + dstOffset,
+					length);
+			return;
+		}
+		
+		int i = 0;
+		if(src.order() == dst.order())
+			for(; i + Long.BYTES <= length; i += Long.BYTES)
+				dst.putLong(dstOffset + i, src.getLong(srcOffset + i));
+		for(; i < length; i++)
+			dst.put(dstOffset + i, src.get(srcOffset + i));
+	}
+	
 	/**
 	 * This multiplies the two bytes, as if they were unsigned, using the Russian peasant technique (modified to work
 	 * with the Galois field)
@@ -4,6 +4,8 @@ import static com.nickww.finitefield.FiniteByteField.*;
 import java.util.Arrays;
 import java.util.Collection;
 
+import com.nickww.finitefield.instrumentation.Instrumentation;
+
 /**
  * This class represents a 2d matrix of bytes, which exist in the finite field GF(2<sup>8</sup>). Instances of this
  * class are immutable and thread-safe.
@@ -251,7 +253,8 @@ public final class FiniteByteFieldMatrix
 	
 	/**
 	 * Creates a new matrix which is the inverse of this matrix. A matrix is a true inverse if, when multiplied with the
-	 * original matrix, produces an identity matrix. Only a square matrix has a true inverse.
+	 * original matrix, produces an identity matrix. Only a square matrix has a true inverse. The first inversion of each
+	 * matrix is reported to any {@link com.nickww.finitefield.instrumentation.CodecListener}s.
 	 * 
 	 * @return The inverse of this matrix.
 	 * @throws IllegalStateException if this matrix is not a square matrix.
@@ -261,7 +264,11 @@ public final class FiniteByteFieldMatrix
 		if(!isSquare())
 			throw new IllegalStateException("Only a square matrix has an inverse");
 		if(inverse == null)
+		{
+			long start = Instrumentation.start();
 			inverse = transpose().cofactor().divideBy(determinant());
+			Instrumentation.matrixInverted(rows, start);
+		}
 		return inverse;
 	}
 	
@@ -0,0 +1,165 @@
+package com.nickww.finitefield;
+
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.util.Arrays;
+
+/**
+ * A system of linear equations over GF(2<sup>8</sup>) which is kept in reduced row echelon form as each equation is
+ * added, so the work of solving it is spread over the arrivals rather than done all at once at the end. Each equation
+ * is a row of coefficients, one per unknown, along with a right-hand side of any fixed length, so each unknown can be
+ * a whole packet of bytes rather than a single value.<br/>
+ * <br/>
+ * Unlike {@link FiniteByteFieldMatrix}, this class is mutable, and reduces its rows in place with region operations:
+ * adding an equation costs one multiply-add of each existing row into it, and one of it into each existing row which
+ * uses its pivot. An unknown is solved as soon as the only coefficient left in its row is its own, which can happen
+ * before the system is full rank. Instances of this class are not thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public final class FiniteByteFieldRowReducer
+{
+	private final int unknowns;
+	private final int width;
+	private final byte[][] rows; // the coefficients, then the right-hand side, of each independent equation
+	private final int[] pivotRow; // the row whose pivot is each unknown, or -1
+	private int rank;
+	
+	/**
+	 * Creates a system with no equations.
+	 * 
+	 * @param unknowns The number of unknowns, which is the number of coefficients in each equation.
+	 * @param length The number of bytes in each unknown, and each right-hand side.
+	 * @throws IllegalArgumentException if there are no unknowns, or the length is negative.
+	 */
+	public FiniteByteFieldRowReducer(int unknowns, int length)
+	{
+		if(unknowns < 1 || length < 0)
+			throw new IllegalArgumentException("Must have at least one unknown, and a length of at least 0");
+		this.unknowns = unknowns;
+		this.width = unknowns + length;
+		this.rows = new byte[unknowns][width];
+		this.pivotRow = new int[unknowns];
+		Arrays.fill(pivotRow, -1);
+	}
+	
+	/**
+	 * Adds an equation, and reduces the system with it. An equation which is a combination of those already added
+	 * tells nothing new, and is dropped.
+	 * 
+	 * @param coefficients The coefficient of each unknown, which are not changed.
+	 * @param value The right-hand side, which is not changed.
+	 * @return Whether the equation was independent of those already added, so the rank went up.
+	 * @throws IllegalArgumentException if there is the wrong number of coefficients, or the value is the wrong length.
+	 */
+	public boolean add(byte[] coefficients, byte[] value)
+	{
+		if(coefficients.length != unknowns || value.length != width - unknowns)
+			throw new IllegalArgumentException("Must have " + unknowns + " coefficients and " + (width - unknowns)
+					+ " bytes");
+		if(rank == unknowns)
+			return false;
+		
+		// the new row goes in the first unused row, and is reduced by every existing row whose pivot it uses
+		byte[] row = rows[rank];
+		System.arraycopy(coefficients, 0, row, 0, unknowns);
+		System.arraycopy(value, 0, row, unknowns, value.length);
+		int pivot = -1;
+		for(int col = 0; col < unknowns; col++)
+		{
+			if(row[col] == 0)
+				continue;
+			if(pivotRow[col] < 0)
+			{
+				if(pivot < 0)
+					pivot = col;
+				continue;
+			}
+			mulAddRegion(row[col], rows[pivotRow[col]], col, row, col, width - col);
+		}
+		if(pivot < 0)
+			return false;
+		
+		// scale the pivot to 1, then clear the pivot's column from every other row
+		mulRegion(div((byte) 1, row[pivot]), row, pivot, row, pivot, width - pivot);
+		for(int other = 0; other < rank; other++)
+			if(rows[other][pivot] != 0)
+				mulAddRegion(rows[other][pivot], row, pivot, rows[other], pivot, width - pivot);
+		pivotRow[pivot] = rank++;
+		return true;
+	}
+	
+	/**
+	 * @return The number of unknowns.
+	 */
+	public int unknowns()
+	{
+		return unknowns;
+	}
+	
+	/**
+	 * @return The number of independent equations added so far.
+	 */
+	public int rank()
+	{
+		return rank;
+	}
+	
+	/**
+	 * @return Whether there are as many independent equations as unknowns, so every unknown is solved.
+	 */
+	public boolean isFullRank()
+	{
+		return rank == unknowns;
+	}
+	
+	/**
+	 * Returns whether the given unknown is solved, which is when its row has no other unknowns left in it.
+	 * 
+	 * @param unknown The index of the unknown.
+	 * @return Whether {@link #solution(int)} can give its value.
+	 * @throws IndexOutOfBoundsException if there is no such unknown.
+	 */
+	public boolean isSolved(int unknown)
+	{
+		int row = pivotRow[unknown];
+		if(row < 0)
+			return false;
+		for(int col = unknown + 1; col < unknowns; col++)
+			if(rows[row][col] != 0)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Returns the value of a solved unknown.
+	 * 
+	 * @param unknown The index of the unknown.
+	 * @return A copy of its value.
+	 * @throws IllegalStateException if the unknown isn't solved yet.
+	 * @throws IndexOutOfBoundsException if there is no such unknown.
+	 */
+	public byte[] solution(int unknown)
+	{
+		if(!isSolved(unknown))
+			throw new IllegalStateException("Unknown " + unknown + " is not solved yet");
+		return Arrays.copyOfRange(rows[pivotRow[unknown]], unknowns, width);
+	}
+	
+	/**
+	 * Returns the coefficients of the independent equations, in reduced row echelon form, with the rows in the order
+	 * they were added.
+	 * 
+	 * @return The coefficients, with one row per independent equation.
+	 * @throws IllegalStateException if no independent equations have been added.
+	 */
+	public FiniteByteFieldMatrix coefficients()
+	{
+		if(rank == 0)
+			throw new IllegalStateException("No equations have been added");
+		byte[][] coefficients = new byte[rank][];
+		for(int row = 0; row < rank; row++)
+			coefficients[row] = Arrays.copyOf(rows[row], unknowns);
+		return new FiniteByteFieldMatrix(coefficients);
+	}
+}
@@ -0,0 +1,404 @@
+package com.nickww.finitefield;
+
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a polynomial whose coefficients exist in the finite field GF(2<sup>8</sup>), as used by
+ * Reed-Solomon decoding and secret sharing. Coefficients are kept lowest degree first, in a primitive array with no
+ * trailing zeros, and the arithmetic works on whole arrays at a time: multiplication and division are built from
+ * {@link FiniteByteField#mulAddRegion(byte, byte[], int, byte[], int, int)}, and evaluation at many points runs
+ * Horner's method for every point at once, with each point's row of the multiplication table. Instances of this class
+ * are immutable and thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public final class FiniteBytePolynomial
+{
+	/**
+	 * The polynomial with no terms, whose degree is -1.
+	 */
+	public static final FiniteBytePolynomial ZERO = new FiniteBytePolynomial(new byte[0], false);
+	
+	private final byte[] coefficients;
+	
+	/**
+	 * Creates the polynomial with the given coefficients.
+	 * 
+	 * @param coefficients The coefficient of each power of x, lowest first, so that <code>coefficients[i]</code> is
+	 * the coefficient of x<sup>i</sup>. Trailing zeros are ignored.
+	 */
+	public FiniteBytePolynomial(byte... coefficients)
+	{
+		this(coefficients, true);
+	}
+	
+	/**
+	 * Creates a polynomial from the given coefficients, copying them or taking them as they are, and dropping any
+	 * trailing zeros.
+	 */
+	private FiniteBytePolynomial(byte[] coefficients, boolean copy)
+	{
+		int length = coefficients.length;
+		while(length > 0 && coefficients[length - 1] == 0)
+			length--;
+		this.coefficients = copy || length != coefficients.length ? Arrays.copyOf(coefficients, length) : coefficients;
+	}
+	
+	/**
+	 * Creates the polynomial with a single term.
+	 * 
+	 * @param coefficient The coefficient of the term.
+	 * @param power The power of x in the term.
+	 * @return <code>coefficient * x<sup>power</sup></code>.
+	 * @throws IllegalArgumentException if the power is negative.
+	 */
+	public static FiniteBytePolynomial monomial(byte coefficient, int power)
+	{
+		if(power < 0)
+			throw new IllegalArgumentException("Power cannot be negative");
+		byte[] coefficients = new byte[power + 1];
+		coefficients[power] = coefficient;
+		return new FiniteBytePolynomial(coefficients, false);
+	}
+	
+	/**
+	 * Creates the monic polynomial with the given roots, <code>(x - r<sub>0</sub>)(x - r<sub>1</sub>)...</code>, such
+	 * as a Reed-Solomon generator or error locator polynomial.
+	 * 
+	 * @param roots The roots, which may repeat.
+	 * @return The product of <code>x - r</code> for each root <code>r</code>, or 1 if there are no roots.
+	 */
+	public static FiniteBytePolynomial fromRoots(byte... roots)
+	{
+		byte[] product = new byte[roots.length + 1];
+		product[0] = 1;
+		for(int degree = 0; degree < roots.length; degree++)
+		{
+			byte[] times = products(roots[degree]);
+			for(int i = degree + 1; i > 0; i--)
+				product[i] = (byte) (product[i - 1] ^ times[product[i] & 0xff]);
+			product[0] = times[product[0] & 0xff];
+		}
+		return new FiniteBytePolynomial(product, false);
+	}
+	
+	/**
+	 * Returns the polynomial of least degree which passes through the given points, by Lagrange interpolation. The
+	 * polynomial <code>M</code> with every x value as a root is built once, and each point contributes
+	 * <code>M / (x - x<sub>i</sub>)</code>, scaled so that it is <code>y<sub>i</sub></code> at its point.
+	 * 
+	 * @param xs The x value of each point, which must all be different.
+	 * @param ys The y value of each point.
+	 * @return The polynomial, of degree less than the number of points.
+	 * @throws IllegalArgumentException if there are different numbers of x and y values, or two x values are the same.
+	 */
+	public static FiniteBytePolynomial interpolate(byte[] xs, byte[] ys)
+	{
+		if(xs.length != ys.length)
+			throw new IllegalArgumentException("Must have one y value per x value");
+		checkDistinct(xs);
+		if(xs.length == 0)
+			return ZERO;
+		
+		byte[] master = fromRoots(xs).coefficients;
+		byte[] result = new byte[xs.length];
+		byte[] basis = new byte[xs.length];
+		for(int point = 0; point < xs.length; point++)
+		{
+			// synthetic division of the master polynomial by (x - x_i), which leaves no remainder
+			byte[] times = products(xs[point]);
+			basis[xs.length - 1] = master[xs.length];
+			for(int i = xs.length - 1; i > 0; i--)
+				basis[i - 1] = (byte) (master[i] ^ times[basis[i] & 0xff]);
+			byte scale = div(ys[point], evaluate(basis, xs[point]));
+			mulAddRegion(scale, basis, 0, result, 0, basis.length);
+		}
+		return new FiniteBytePolynomial(result, false);
+	}
+	
+	/**
+	 * Returns the weights which give the value at a point of any polynomial through the given x values, from its values
+	 * at them: <code>f(x) = w<sub>0</sub>f(x<sub>0</sub>) + w<sub>1</sub>f(x<sub>1</sub>) + ...</code> for every
+	 * polynomial <code>f</code> of degree less than the number of x values. These are the Lagrange basis polynomials
+	 * evaluated at the point, which is all that is needed to recover a single value, such as a shared secret at 0.
+	 * 
+	 * @param xs The x values, which must all be different.
+	 * @param x The point to find the value at.
+	 * @return One weight per x value.
+	 * @throws IllegalArgumentException if two x values are the same.
+	 */
+	public static byte[] interpolationWeights(byte[] xs, byte x)
+	{
+		checkDistinct(xs);
+		byte[] weights = new byte[xs.length];
+		for(int i = 0; i < xs.length; i++)
+		{
+			byte numerator = 1;
+			byte denominator = 1;
+			for(int j = 0; j < xs.length; j++)
+			{
+				if(i == j)
+					continue;
+				numerator = mul(numerator, (byte) (x ^ xs[j]));
+				denominator = mul(denominator, (byte) (xs[i] ^ xs[j]));
+			}
+			weights[i] = div(numerator, denominator);
+		}
+		return weights;
+	}
+	
+	/**
+	 * @return The highest power of x with a coefficient other than 0, or -1 for the zero polynomial.
+	 */
+	public int degree()
+	{
+		return coefficients.length - 1;
+	}
+	
+	/**
+	 * Returns the coefficient of the given power of x.
+	 * 
+	 * @param power The power of x.
+	 * @return The coefficient, which is 0 for any power above the degree.
+	 * @throws IllegalArgumentException if the power is negative.
+	 */
+	public byte coefficient(int power)
+	{
+		if(power < 0)
+			throw new IllegalArgumentException("Power cannot be negative");
+		return power < coefficients.length ? coefficients[power] : 0;
+	}
+	
+	/**
+	 * @return A copy of the coefficients, lowest degree first, with as many as one more than the degree.
+	 */
+	public byte[] coefficients()
+	{
+		return coefficients.clone();
+	}
+	
+	/**
+	 * Evaluates this polynomial at the given point with Horner's method.
+	 * 
+	 * @param x The point.
+	 * @return The value of this polynomial at the point.
+	 */
+	public byte evaluate(byte x)
+	{
+		return evaluate(coefficients, x);
+	}
+	
+	/**
+	 * Evaluates this polynomial at every given point, such as the syndromes of a received word or a Chien search over
+	 * every locator. Horner's method runs for all of the points together, one coefficient at a time.
+	 * 
+	 * @param points The points.
+	 * @return The value of this polynomial at each point, in the same order.
+	 */
+	public byte[] evaluate(byte... points)
+	{
+		byte[] values = new byte[points.length];
+		if(coefficients.length == 0)
+			return values;
+		
+		byte[][] times = new byte[points.length][];
+		for(int point = 0; point < points.length; point++)
+			times[point] = products(points[point]);
+		Arrays.fill(values, coefficients[coefficients.length - 1]);
+		for(int i = coefficients.length - 2; i >= 0; i--)
+		{
+			byte coefficient = coefficients[i];
+			for(int point = 0; point < points.length; point++)
+				values[point] = (byte) (times[point][values[point] & 0xff] ^ coefficient);
+		}
+		return values;
+	}
+	
+	/**
+	 * Adds the given polynomial to this one. In GF(2<sup>8</sup>) this is also subtraction.
+	 * 
+	 * @param polynomial The polynomial to add.
+	 * @return The sum.
+	 */
+	public FiniteBytePolynomial plus(FiniteBytePolynomial polynomial)
+	{
+		byte[] longer = coefficients.length >= polynomial.coefficients.length ? coefficients : polynomial.coefficients;
+		byte[] shorter = longer == coefficients ? polynomial.coefficients : coefficients;
+		byte[] sum = longer.clone();
+		addRegion(shorter, 0, sum, 0, shorter.length);
+		return new FiniteBytePolynomial(sum, false);
+	}
+	
+	/**
+	 * Multiplies this polynomial by a constant.
+	 * 
+	 * @param constant The constant.
+	 * @return The product.
+	 */
+	public FiniteBytePolynomial times(byte constant)
+	{
+		byte[] product = new byte[coefficients.length];
+		mulRegion(constant, coefficients, 0, product, 0, product.length);
+		return new FiniteBytePolynomial(product, false);
+	}
+	
+	/**
+	 * Multiplies this polynomial by the given one. Each term of this polynomial adds a shifted multiple of the other
+	 * polynomial into the product, as one region operation.
+	 * 
+	 * @param polynomial The polynomial to multiply by.
+	 * @return The product.
+	 */
+	public FiniteBytePolynomial times(FiniteBytePolynomial polynomial)
+	{
+		if(coefficients.length == 0 || polynomial.coefficients.length == 0)
+			return ZERO;
+		byte[] other = polynomial.coefficients;
+		byte[] product = new byte[coefficients.length + other.length - 1];
+		for(int i = 0; i < coefficients.length; i++)
+			mulAddRegion(coefficients[i], other, 0, product, i, other.length);
+		return new FiniteBytePolynomial(product, false);
+	}
+	
+	/**
+	 * Divides this polynomial by the given one, with long division: each term of the quotient subtracts a shifted
+	 * multiple of the divisor from the remainder, as one region operation.
+	 * 
+	 * @param divisor The polynomial to divide by.
+	 * @return The quotient, followed by the remainder, whose degree is less than the divisor's.
+	 * @throws ArithmeticException if the divisor is zero.
+	 */
+	public FiniteBytePolynomial[] divideAndRemainder(FiniteBytePolynomial divisor)
+	{
+		byte[] by = divisor.coefficients;
+		if(by.length == 0)
+			throw new ArithmeticException("Polynomial division by zero");
+		if(coefficients.length < by.length)
+			return new FiniteBytePolynomial[] { ZERO, this };
+		
+		byte[] remainder = coefficients.clone();
+		byte[] quotient = new byte[coefficients.length - by.length + 1];
+		byte inverse = div((byte) 1, by[by.length - 1]);
+		for(int shift = quotient.length - 1; shift >= 0; shift--)
+		{
+			byte term = mul(remainder[shift + by.length - 1], inverse);
+			quotient[shift] = term;
+			mulAddRegion(term, by, 0, remainder, shift, by.length);
+		}
+		return new FiniteBytePolynomial[] { new FiniteBytePolynomial(quotient, false),
+				new FiniteBytePolynomial(Arrays.copyOf(remainder, by.length - 1), false) };
+	}
+	
+	/**
+	 * Divides this polynomial by the given one, discarding the remainder.
+	 * 
+	 * @param divisor The polynomial to divide by.
+	 * @return The quotient.
+	 * @throws ArithmeticException if the divisor is zero.
+	 * @see #divideAndRemainder(FiniteBytePolynomial)
+	 */
+	public FiniteBytePolynomial divideBy(FiniteBytePolynomial divisor)
+	{
+		return divideAndRemainder(divisor)[0];
+	}
+	
+	/**
+	 * Returns the remainder of dividing this polynomial by the given one.
+	 * 
+	 * @param divisor The polynomial to divide by.
+	 * @return The remainder, whose degree is less than the divisor's.
+	 * @throws ArithmeticException if the divisor is zero.
+	 * @see #divideAndRemainder(FiniteBytePolynomial)
+	 */
+	public FiniteBytePolynomial remainder(FiniteBytePolynomial divisor)
+	{
+		return divideAndRemainder(divisor)[1];
+	}
+	
+	/**
+	 * Returns the formal derivative of this polynomial. The field has characteristic 2, so the term
+	 * <code>a x<sup>i</sup></code> becomes <code>a x<sup>i-1</sup></code> when <code>i</code> is odd, and vanishes when
+	 * it is even.
+	 * 
+	 * @return The derivative.
+	 */
+	public FiniteBytePolynomial derivative()
+	{
+		if(coefficients.length <= 1)
+			return ZERO;
+		byte[] derivative = new byte[coefficients.length - 1];
+		for(int i = 1; i < coefficients.length; i += 2)
+			derivative[i - 1] = coefficients[i];
+		return new FiniteBytePolynomial(derivative, false);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object o)
+	{
+		if(!(o instanceof FiniteBytePolynomial))
+			return false;
+		return Arrays.equals(coefficients, ((FiniteBytePolynomial) o).coefficients);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode()
+	{
+		return Arrays.hashCode(coefficients);
+	}
+	
+	/**
+	 * Returns the polynomial's terms, highest power first, with each coefficient as an unsigned byte, such as
+	 * <code>3x^2 + x + 255</code>.
+	 */
+	@Override
+	public String toString()
+	{
+		if(coefficients.length == 0)
+			return "0";
+		StringBuilder string = new StringBuilder();
+		for(int i = coefficients.length - 1; i >= 0; i--)
+		{
+			int coefficient = coefficients[i] & 0xff;
+			if(coefficient == 0)
+				continue;
+			if(string.length() > 0)
+				string.append(" + ");
+			if(coefficient != 1 || i == 0)
+				string.append(coefficient);
+			if(i > 0)
+				string.append(i == 1 ? "x" : "x^" + i);
+		}
+		return string.toString();
+	}
+	
+	/**
+	 * Evaluates the polynomial with the given coefficients, lowest degree first, at the given point.
+	 */
+	private static byte evaluate(byte[] coefficients, byte x)
+	{
+		byte[] times = products(x);
+		int value = 0;
+		for(int i = coefficients.length - 1; i >= 0; i--)
+			value = times[value & 0xff] ^ coefficients[i];
+		return (byte) value;
+	}
+	
+	private static void checkDistinct(byte[] xs)
+	{
+		boolean[] seen = new boolean[MAX_VALUE + 1];
+		for(byte x : xs)
+		{
+			if(seen[x & 0xff])
+				throw new IllegalArgumentException("Every x value must be different");
+			seen[x & 0xff] = true;
+		}
+	}
+}
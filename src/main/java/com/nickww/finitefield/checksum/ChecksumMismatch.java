@@ -0,0 +1,47 @@
+package com.nickww.finitefield.checksum;
+
+import java.util.Arrays;
+
+/**
+ * The first position in a region of shards whose stored checksums don't match its data, as found by
+ * {@link ChecksumVector#verify(byte[][], int, int)}. Instances of this class are immutable.
+ * 
+ * @author Nick Wuensch
+ */
+public final class ChecksumMismatch
+{
+	private final int offset;
+	private final int[] checksums;
+	
+	ChecksumMismatch(int offset, int[] checksums)
+	{
+		this.offset = offset;
+		this.checksums = checksums;
+	}
+	
+	/**
+	 * Returns the position which doesn't match, relative to the start of the verified region.
+	 * 
+	 * @return The offset of the mismatch.
+	 */
+	public int offset()
+	{
+		return offset;
+	}
+	
+	/**
+	 * Returns which checksums don't match at the mismatched position, where 0 is the first checksum shard.
+	 * 
+	 * @return The indices of the mismatched checksums, in ascending order.
+	 */
+	public int[] checksums()
+	{
+		return checksums.clone();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "checksums " + Arrays.toString(checksums) + " mismatched at offset " + offset;
+	}
+}
@@ -1,7 +1,12 @@
 package com.nickww.finitefield.checksum;
 
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.zip.Checksum;
 
 import com.nickww.finitefield.FiniteByteField;
 
@@ -10,6 +15,12 @@ public abstract class ChecksumVector
 	private static final XorChecksumVector xor = new XorChecksumVector();
 	private static final DoubleChecksumVector raid6 = new DoubleChecksumVector();
 	private static final MatrixChecksumVector[] general = new MatrixChecksumVector[FiniteByteField.MAX_VALUE];
+	private static final RowDiagonalChecksumVector rowDiagonal = new RowDiagonalChecksumVector();
+	private static final int BLOCK_SIZE = 1 << 16;
+	private static final int VERIFY_BLOCK_SIZE = 1 << 12;
+	
+	private final ThreadLocal<byte[][]> verifyScratch = ThreadLocal.withInitial(
+			() -> new byte[numChecksums()][VERIFY_BLOCK_SIZE]);
 	
 	public static ChecksumVector build(int numChecksums)
 	{
@@ -25,6 +36,35 @@ public abstract class ChecksumVector
 		return general[numChecksums];
 	}
 	
+	/**
+	 * Returns a vector for a locally repairable code, which splits the data shards into groups of consecutive shards
+	 * with an XOR checksum each, followed by checksums over all of the data. A single missing data shard can then be
+	 * rebuilt from its group alone.
+	 * 
+	 * @param localGroups The number of groups to split the data shards into, each with a local checksum.
+	 * @param globalChecksums The number of checksums calculated over all of the data.
+	 * @return A vector with <code>localGroups + globalChecksums</code> checksums.
+	 * @throws IllegalArgumentException if either count is less than one.
+	 */
+	public static ChecksumVector buildLocallyRepairable(int localGroups, int globalChecksums)
+	{
+		return new LocallyRepairableChecksumVector(localGroups, globalChecksums);
+	}
+	
+	/**
+	 * Returns a vector with two checksums, like <code>build(2)</code>, which are calculated with only XORs: a row
+	 * parity, and a parity of diagonals across the rows of every stripe (row-diagonal parity, or RDP). Encoding costs
+	 * about twice as much as a single XOR checksum, rather than needing a field multiplication per byte. Since the
+	 * diagonals span several positions, only the shard-mode methods are supported, and regions must be a multiple of
+	 * {@link #shardAlignment(int)} bytes long.
+	 * 
+	 * @return A vector with two XOR-only checksums.
+	 */
+	public static ChecksumVector buildRowDiagonal()
+	{
+		return rowDiagonal;
+	}
+	
 	/**
 	 * Calculates checksums for the given data, and returns a vector which is the given data bytes followed by the
 	 * checksum bytes.
@@ -46,6 +86,897 @@ public abstract class ChecksumVector
 	 */
 	public abstract byte[] solveMissingValues(Byte[] dataWithChecksums);
 	
+	/**
+	 * Calculates checksums for the given data, like {@link #withChecksums(byte[])}, but writes the data followed by
+	 * the checksums into the given array instead of allocating a new one. The vectors built by this class override
+	 * this to allocate nothing at all once they are warmed up, so it suits calling once per position in a hot loop.
+	 * 
+	 * @param data The data to checksum.
+	 * @param checksummed The array to write the data and checksums into, which may be longer than needed.
+	 * @throws IllegalArgumentException if the output array is too short.
+	 */
+	public void withChecksumsInto(byte[] data, byte[] checksummed)
+	{
+		if(checksummed.length < data.length + numChecksums())
+			throw new IllegalArgumentException("Output must have room for the data and " + numChecksums()
+					+ " checksums");
+		byte[] result = withChecksums(data);
+		System.arraycopy(result, 0, checksummed, 0, result.length);
+	}
+	
+	/**
+	 * Calculates the data bytes from the given array, like {@link #solveMissingValues(Byte[])}, but takes the missing
+	 * values as flags rather than nulls, and writes the data into the given array instead of allocating a new one. The
+	 * values of missing positions in the input are ignored. The vectors built by this class override this to allocate
+	 * nothing at all once they are warmed up.
+	 * 
+	 * @param dataWithChecksums The data, followed by the checksums.
+	 * @param present Whether each value of the input is present, with <code>false</code> for the unknown ones.
+	 * @param data The array to write the original data bytes into, which may be longer than needed.
+	 * @throws IllegalArgumentException if there are too many missing values, the arrays are too short to be valid, or
+	 * the flags don't match the input.
+	 */
+	public void solveMissingValuesInto(byte[] dataWithChecksums, boolean[] present, byte[] data)
+	{
+		checkInto(dataWithChecksums, present, data);
+		Byte[] boxed = new Byte[dataWithChecksums.length];
+		for(int i = 0; i < boxed.length; i++)
+			boxed[i] = present[i] ? dataWithChecksums[i] : null;
+		byte[] result = solveMissingValues(boxed);
+		System.arraycopy(result, 0, data, 0, result.length);
+	}
+	
+	/**
+	 * Returns the number of checksums this vector calculates, which is also the maximum number of missing values it
+	 * can solve for.
+	 * 
+	 * @return The number of checksums.
+	 */
+	public abstract int numChecksums();
+	
+	/**
+	 * Returns whether every missing shard can be recalculated from the shards which are present. Any set of up to
+	 * {@link #numChecksums()} missing shards can be for the RAID vectors, but not always for the others: the checksums
+	 * of a locally repairable vector only cover some of the data, and some sets of Vandermonde checksums can't solve
+	 * for some sets of missing data. Code which picks which shards to decode from, such as the first to arrive, should
+	 * keep adding shards until this is true.<br/>
+	 * <br/>
+	 * This default implementation only checks that no more shards are missing than there are checksums.
+	 * 
+	 * @param present Whether the shard at the same index is present.
+	 * @return Whether the shards can be reconstructed.
+	 * @throws IllegalArgumentException if there are too few or too many shards for this vector.
+	 */
+	public boolean canReconstruct(boolean[] present)
+	{
+		if(present.length <= numChecksums())
+			throw new IllegalArgumentException("Must have at least one data shard and " + numChecksums() + " checksums");
+		return countMissing(present) <= numChecksums();
+	}
+	
+	/**
+	 * Specializes the shard-mode encoding of byte arrays for the given number of data shards, for the few shapes which
+	 * are used heavily. Where the vector supports it, and the JVM allows classes to be defined at run time, a class is
+	 * generated whose loop has this vector's coefficients for that shape built in. Other shapes, and other JVMs, keep
+	 * using the general code, which gives the same results.<br/>
+	 * <br/>
+	 * This default implementation does nothing, which suits the vectors whose encoding is only additions.
+	 * 
+	 * @param dataShards The number of data shards to specialize for.
+	 * @return Whether encoding with that many data shards now uses generated code.
+	 */
+	public boolean specialize(int dataShards)
+	{
+		return false;
+	}
+	
+	/**
+	 * Returns the number of bytes which the length of every region passed to the shard-mode methods must be a multiple
+	 * of. This is 1 for vectors which treat each byte position on its own, and larger for codes which combine
+	 * positions across a stripe.
+	 * 
+	 * @param dataShards The number of data shards.
+	 * @return The required multiple of the region length.
+	 */
+	public int shardAlignment(int dataShards)
+	{
+		return 1;
+	}
+	
+	/**
+	 * Calculates checksums for whole regions of data at once ("shard mode"). The given array holds the data shards, in
+	 * order, followed by the checksum shards, in order. Every byte position in the region is treated as its own vector:
+	 * the bytes at position <code>i</code> of each data shard are checksummed, and the checksums are written to
+	 * position <code>i</code> of the checksum shards.<br/>
+	 * <br/>
+	 * This default implementation calls {@link #withChecksums(byte[])} for every position. Subclasses override it with
+	 * region arithmetic.
+	 * 
+	 * @param shards The data shards followed by the checksum shards. Only the checksum shards are written to.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @throws IllegalArgumentException if there are too few shards, or the region does not fit in every shard.
+	 */
+	public void encode(byte[][] shards, int offset, int length)
+	{
+		int dataCount = checkShards(shards, offset, length);
+		byte[] data = new byte[dataCount];
+		for(int i = offset; i < offset + length; i++)
+		{
+			for(int shard = 0; shard < dataCount; shard++)
+				data[shard] = shards[shard][i];
+			byte[] checksummed = withChecksums(data);
+			for(int shard = dataCount; shard < shards.length; shard++)
+				shards[shard][i] = checksummed[shard];
+		}
+	}
+	
+	/**
+	 * Recalculates missing data shards from the surviving data and checksum shards, the shard-mode equivalent of
+	 * {@link #solveMissingValues(Byte[])}. Missing shards must still be allocated, because the solved data is written
+	 * into them. Missing checksum shards are not recalculated.<br/>
+	 * <br/>
+	 * This default implementation calls {@link #solveMissingValues(Byte[])} for every position. Subclasses override it
+	 * with region arithmetic.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @throws IllegalArgumentException if too many shards are missing, there are too few shards, the presence array is
+	 * the wrong size, or the region does not fit in every shard.
+	 */
+	public void reconstruct(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		int dataCount = checkShards(shards, present, offset, length);
+		Byte[] dataWithChecksums = new Byte[shards.length];
+		for(int i = offset; i < offset + length; i++)
+		{
+			for(int shard = 0; shard < shards.length; shard++)
+				dataWithChecksums[shard] = present[shard] ? shards[shard][i] : null;
+			byte[] data = solveMissingValues(dataWithChecksums);
+			for(int shard = 0; shard < dataCount; shard++)
+				if(!present[shard])
+					shards[shard][i] = data[shard];
+		}
+	}
+	
+	/**
+	 * Recalculates only the wanted shards, which may be data or checksum shards, from the shards which are present. Only
+	 * the wanted shards which are missing are written to, so a degraded read of one data shard doesn't pay for
+	 * recovering any other.<br/>
+	 * <br/>
+	 * This default implementation reconstructs the missing data shards into scratch space, and then recalculates any
+	 * wanted checksums. Subclasses override it to calculate only what is wanted.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @param wanted The indices of the shards to recalculate.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @throws IllegalArgumentException if too many shards are missing, there are too few shards, the presence array is
+	 * the wrong size, a wanted index is not a shard, or the region does not fit in every shard.
+	 */
+	public void reconstruct(byte[][] shards, boolean[] present, int[] wanted, int offset, int length)
+	{
+		int dataCount = checkShards(shards, present, offset, length);
+		boolean[] isWanted = wantedShards(shards.length, present, wanted);
+		
+		ShardBufferPool pool = ShardBufferPool.heap();
+		ByteBuffer[] scratch = new ByteBuffer[shards.length];
+		byte[][] working = shards.clone();
+		try
+		{
+			for(int shard = 0; shard < dataCount; shard++)
+				if(!present[shard] && !isWanted[shard])
+					working[shard] = (scratch[shard] = pool.acquire(offset + length)).array();
+			reconstruct(working, present, offset, length);
+			
+			byte[][] checksums = null;
+			for(int shard = dataCount; shard < shards.length; shard++)
+			{
+				if(!isWanted[shard])
+					continue;
+				if(checksums == null)
+				{
+					checksums = new byte[numChecksums()][];
+					for(int checksum = 0; checksum < checksums.length; checksum++)
+						checksums[checksum] = (scratch[dataCount + checksum] = pool.acquire(length)).array();
+					calculateChecksums(working, offset, length, checksums);
+				}
+				System.arraycopy(checksums[shard - dataCount], 0, shards[shard], offset, length);
+			}
+		}
+		finally
+		{
+			release(pool, scratch);
+		}
+	}
+	
+	/**
+	 * Calculates checksums for the remaining bytes of the given buffers, the buffer equivalent of
+	 * {@link #encode(byte[][], int, int)}. This allows shards to be direct or memory-mapped buffers, so that checksums
+	 * can be calculated without copying data onto the heap. No buffer's position is changed.<br/>
+	 * <br/>
+	 * This default implementation copies blocks of each shard into heap arrays. Subclasses override it to work on the
+	 * buffers directly.
+	 * 
+	 * @param shards The data shards followed by the checksum shards, each with the same number of bytes remaining. Only
+	 * the checksum shards are written to.
+	 * @throws IllegalArgumentException if there are too few shards, or they have different numbers of bytes remaining.
+	 */
+	public void encode(ByteBuffer[] shards)
+	{
+		int length = checkShards(shards);
+		int dataCount = shards.length - numChecksums();
+		byte[][] block = new byte[shards.length][Math.min(length, BLOCK_SIZE)];
+		for(int offset = 0; offset < length; offset += BLOCK_SIZE)
+		{
+			int count = Math.min(BLOCK_SIZE, length - offset);
+			for(int shard = 0; shard < dataCount; shard++)
+				slice(shards[shard], offset, count).get(block[shard], 0, count);
+			encode(block, 0, count);
+			for(int shard = dataCount; shard < shards.length; shard++)
+				slice(shards[shard], offset, count).put(block[shard], 0, count);
+		}
+	}
+	
+	/**
+	 * Recalculates missing data shards from the remaining bytes of the given buffers, the buffer equivalent of
+	 * {@link #reconstruct(byte[][], boolean[], int, int)}. No buffer's position is changed.<br/>
+	 * <br/>
+	 * This default implementation copies blocks of each shard into heap arrays. Subclasses override it to work on the
+	 * buffers directly.
+	 * 
+	 * @param shards The data shards followed by the checksum shards, each with the same number of bytes remaining.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @throws IllegalArgumentException if too many shards are missing, there are too few shards, the presence array is
+	 * the wrong size, or the shards have different numbers of bytes remaining.
+	 */
+	public void reconstruct(ByteBuffer[] shards, boolean[] present)
+	{
+		int length = checkShards(shards, present);
+		int dataCount = shards.length - numChecksums();
+		byte[][] block = new byte[shards.length][Math.min(length, BLOCK_SIZE)];
+		for(int offset = 0; offset < length; offset += BLOCK_SIZE)
+		{
+			int count = Math.min(BLOCK_SIZE, length - offset);
+			for(int shard = 0; shard < shards.length; shard++)
+				if(present[shard])
+					slice(shards[shard], offset, count).get(block[shard], 0, count);
+			reconstruct(block, present, 0, count);
+			for(int shard = 0; shard < dataCount; shard++)
+				if(!present[shard])
+					slice(shards[shard], offset, count).put(block[shard], 0, count);
+		}
+	}
+	
+	/**
+	 * Recalculates only the wanted shards from the remaining bytes of the given buffers, the buffer equivalent of
+	 * {@link #reconstruct(byte[][], boolean[], int[], int, int)}. No buffer's position is changed.<br/>
+	 * <br/>
+	 * This default implementation reconstructs the missing data shards into scratch buffers, and then recalculates any
+	 * wanted checksums. Subclasses override it to calculate only what is wanted.
+	 * 
+	 * @param shards The data shards followed by the checksum shards, each with the same number of bytes remaining.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @param wanted The indices of the shards to recalculate.
+	 * @throws IllegalArgumentException if too many shards are missing, there are too few shards, the presence array is
+	 * the wrong size, a wanted index is not a shard, or the shards have different numbers of bytes remaining.
+	 */
+	public void reconstruct(ByteBuffer[] shards, boolean[] present, int[] wanted)
+	{
+		int length = checkShards(shards, present);
+		int dataCount = shards.length - numChecksums();
+		boolean[] isWanted = wantedShards(shards.length, present, wanted);
+		
+		ShardBufferPool pool = ShardBufferPool.matching(shards[0]);
+		ByteBuffer[] scratch = new ByteBuffer[shards.length];
+		ByteBuffer[] working = shards.clone();
+		try
+		{
+			for(int shard = 0; shard < dataCount; shard++)
+				if(!present[shard] && !isWanted[shard])
+					working[shard] = scratch[shard] = pool.acquire(length);
+			reconstruct(working, present);
+			
+			ByteBuffer[] checksummed = null;
+			for(int shard = dataCount; shard < shards.length; shard++)
+			{
+				if(!isWanted[shard])
+					continue;
+				if(checksummed == null)
+				{
+					checksummed = working.clone();
+					for(int checksum = dataCount; checksum < shards.length; checksum++)
+						checksummed[checksum] = scratch[checksum] = pool.acquire(length);
+					encode(checksummed);
+				}
+				shards[shard].duplicate().put(checksummed[shard].duplicate());
+			}
+		}
+		finally
+		{
+			release(pool, scratch);
+		}
+	}
+	
+	/**
+	 * Recalculates every missing shard, data and checksum alike, so that the whole stripe is restored, as when a
+	 * replacement disk is resilvered. This saves reconstructing the data and then encoding it again.<br/>
+	 * <br/>
+	 * This default implementation wants every missing shard from
+	 * {@link #reconstruct(byte[][], boolean[], int[], int, int)}, which subclasses implement in a single pass.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @throws IllegalArgumentException if too many shards are missing, there are too few shards, the presence array is
+	 * the wrong size, or the region does not fit in every shard.
+	 */
+	public void rebuild(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		checkShards(shards, present, offset, length);
+		reconstruct(shards, present, missingShards(present).stream().mapToInt(Integer::intValue).toArray(),
+				offset, length);
+	}
+	
+	/**
+	 * Recalculates every missing shard from the remaining bytes of the given buffers, the buffer equivalent of
+	 * {@link #rebuild(byte[][], boolean[], int, int)}. No buffer's position is changed.
+	 * 
+	 * @param shards The data shards followed by the checksum shards, each with the same number of bytes remaining.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @throws IllegalArgumentException if too many shards are missing, there are too few shards, the presence array is
+	 * the wrong size, or the shards have different numbers of bytes remaining.
+	 */
+	public void rebuild(ByteBuffer[] shards, boolean[] present)
+	{
+		checkShards(shards, present);
+		reconstruct(shards, present, missingShards(present).stream().mapToInt(Integer::intValue).toArray());
+	}
+	
+	/**
+	 * Recalculates one lost shard across many stripes which have all lost the same shards, such as every stripe which
+	 * had a shard on a failed disk. Since the same shards are missing throughout, how to reconstruct the lost one is
+	 * only worked out once, rather than for every stripe, and each stripe's survivors are read from the source and the
+	 * lost shard written to the sink in turn, so the stripes never need to be in memory together.<br/>
+	 * <br/>
+	 * This default implementation calls {@link #reconstruct(ByteBuffer[], boolean[], int[])} for each stripe, with
+	 * scratch buffers for the missing shards. Subclasses override it to work out the reconstruction once.
+	 * 
+	 * @param missingIndex The index of the shard to reconstruct, which must not be present.
+	 * @param survivors The shards which are present, stripe by stripe.
+	 * @param out The sink to write the reconstructed shard to, stripe by stripe.
+	 * @throws IOException if the source or the sink fails, in which case the stripes before the failing one have been
+	 * written.
+	 * @throws IllegalArgumentException if the source has too few shards or too many missing, the shard to reconstruct
+	 * is present or not a shard, or the shards of a stripe have different numbers of bytes remaining.
+	 */
+	public void reconstructShard(int missingIndex, ShardSource survivors, ShardSink out) throws IOException
+	{
+		boolean[] present = checkSource(missingIndex, survivors);
+		int[] wanted = { missingIndex };
+		ByteBuffer[] shards = new ByteBuffer[present.length];
+		ShardBufferPool pool = ShardBufferPool.heap();
+		for(long stripe = 0; stripe < survivors.stripeCount(); stripe++)
+		{
+			int length = -1;
+			for(int shard = 0; shard < shards.length; shard++)
+				if(present[shard])
+					length = checkStripe(shards[shard] = survivors.read(stripe, shard), length);
+			for(int shard = 0; shard < shards.length; shard++)
+				if(!present[shard])
+					shards[shard] = pool.acquire(length);
+			try
+			{
+				reconstruct(shards, present, wanted);
+				out.write(stripe, shards[missingIndex]);
+			}
+			finally
+			{
+				for(int shard = 0; shard < shards.length; shard++)
+					if(!present[shard])
+						pool.release(shards[shard]);
+			}
+		}
+	}
+	
+	/**
+	 * Checks every byte position in a region of the given shards against its checksums ("scrubbing"), and reports
+	 * whether any of them are corrupt. Nothing is written unless the corruption can be located and repair is
+	 * requested.<br/>
+	 * <br/>
+	 * This default implementation wraps the region of each array and calls {@link #scrub(ByteBuffer[], boolean)}.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @param repair Whether to repair a located corrupt shard in place.
+	 * @return The result of the scrub, with offsets relative to the start of the region.
+	 * @throws IllegalArgumentException if there are too few shards, or the region does not fit in every shard.
+	 */
+	public ScrubResult scrub(byte[][] shards, int offset, int length, boolean repair)
+	{
+		checkShards(shards, offset, length);
+		return scrub(wrap(shards, offset, length), repair);
+	}
+	
+	/**
+	 * Checks every byte position in the remaining bytes of the given buffers against its checksums, the buffer
+	 * equivalent of {@link #scrub(byte[][], int, int, boolean)}. No buffer's position is changed.<br/>
+	 * <br/>
+	 * This default implementation recalculates the checksums into scratch buffers and compares them, so it can detect
+	 * corruption but not locate it, and never repairs anything. Subclasses which can locate a corrupt shard override
+	 * it.
+	 * 
+	 * @param shards The data shards followed by the checksum shards, each with the same number of bytes remaining.
+	 * @param repair Whether to repair a located corrupt shard in place.
+	 * @return The result of the scrub, with offsets relative to the buffers' positions.
+	 * @throws IllegalArgumentException if there are too few shards, or they have different numbers of bytes remaining.
+	 */
+	public ScrubResult scrub(ByteBuffer[] shards, boolean repair)
+	{
+		int length = checkShards(shards);
+		int dataCount = shards.length - numChecksums();
+		ShardBufferPool pool = ShardBufferPool.matching(shards[0]);
+		ByteBuffer[] expected = shards.clone();
+		for(int shard = dataCount; shard < shards.length; shard++)
+			expected[shard] = pool.acquire(length);
+		try
+		{
+			encode(expected);
+			return compare(shards, expected, dataCount, length);
+		}
+		finally
+		{
+			for(int shard = dataCount; shard < shards.length; shard++)
+				pool.release(expected[shard]);
+		}
+	}
+	
+	/**
+	 * Compares the stored checksums against the recalculated ones, position by position, for the default scrub.
+	 */
+	private static ScrubResult compare(ByteBuffer[] shards, ByteBuffer[] expected, int dataCount, int length)
+	{
+		int corrupt = 0;
+		int first = -1;
+		for(int i = 0; i < length; i++)
+		{
+			for(int shard = dataCount; shard < shards.length; shard++)
+			{
+				if(expected[shard].get(i) != shards[shard].get(shards[shard].position() + i))
+				{
+					if(corrupt++ == 0)
+						first = i;
+					break;
+				}
+			}
+		}
+		return corrupt == 0 ? ScrubResult.clean() : new ScrubResult(-1, corrupt, first, false);
+	}
+	
+	/**
+	 * Checks that the checksum shards match the data shards over a region, without allocating anything unless they
+	 * don't. The checksums are recalculated a few kilobytes at a time into scratch space which each thread reuses, and
+	 * checking stops at the first position which doesn't match. Unlike {@link #scrub(byte[][], int, int, boolean)},
+	 * this never tries to find out which shard is wrong.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @return The first position which doesn't match, or null if every position matches.
+	 * @throws IllegalArgumentException if there are too few shards, or the region does not fit in every shard.
+	 */
+	public ChecksumMismatch verify(byte[][] shards, int offset, int length)
+	{
+		int dataCount = checkShards(shards, offset, length);
+		int blockSize = blockSize(dataCount, VERIFY_BLOCK_SIZE);
+		byte[][] expected = verifyScratch.get();
+		if(expected[0].length < blockSize)
+			verifyScratch.set(expected = new byte[numChecksums()][blockSize]);
+		for(int start = 0; start < length; start += blockSize)
+		{
+			int count = Math.min(blockSize, length - start);
+			calculateChecksums(shards, offset + start, count, expected);
+			
+			// each checksum only needs checking up to the earliest mismatch found in the ones before it
+			int first = count;
+			for(int checksum = 0; checksum < expected.length; checksum++)
+			{
+				byte[] stored = shards[dataCount + checksum];
+				for(int i = 0; i < first; i++)
+				{
+					if(expected[checksum][i] != stored[offset + start + i])
+					{
+						first = i;
+						break;
+					}
+				}
+			}
+			if(first < count)
+				return mismatch(shards, expected, offset + start, first, start + first);
+		}
+		return null;
+	}
+	
+	/**
+	 * Calculates checksums for a region of the given data shards, like {@link #encode(byte[][], int, int)}, and also
+	 * returns a CRC-32C digest of every shard's region. The region is worked through a block at a time, and each block
+	 * of every shard is digested while it is still in cache from being encoded, so the shards are only read once.
+	 * 
+	 * @param shards The data shards followed by the checksum shards. Only the checksum shards are written to.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @return The CRC-32C of each shard's region, data shards and then checksum shards.
+	 * @throws IllegalArgumentException if there are too few shards, or the region does not fit in every shard.
+	 */
+	public long[] encodeWithDigests(byte[][] shards, int offset, int length)
+	{
+		int dataCount = checkShards(shards, offset, length);
+		Checksum[] digests = new Checksum[shards.length];
+		for(int shard = 0; shard < shards.length; shard++)
+			digests[shard] = Crc32c.create();
+		
+		int blockSize = blockSize(dataCount, BLOCK_SIZE);
+		for(int start = offset; start < offset + length; start += blockSize)
+		{
+			int count = Math.min(blockSize, offset + length - start);
+			for(int shard = 0; shard < dataCount; shard++)
+				digests[shard].update(shards[shard], start, count);
+			encode(shards, start, count);
+			for(int shard = dataCount; shard < shards.length; shard++)
+				digests[shard].update(shards[shard], start, count);
+		}
+		
+		long[] values = new long[shards.length];
+		for(int shard = 0; shard < shards.length; shard++)
+			values[shard] = digests[shard].getValue();
+		return values;
+	}
+	
+	/**
+	 * Recalculates missing data shards, like {@link #reconstruct(byte[][], boolean[], int, int)}, after checking the
+	 * present shards against the digests returned by {@link #encodeWithDigests(byte[][], int, int)}. Any present shard
+	 * whose digest doesn't match is treated as missing, so bit rot is repaired rather than spread into the solved data.
+	 * <br/>
+	 * <br/>
+	 * The digests are calculated a block at a time while reconstructing, on the assumption that the shards are intact.
+	 * Only if one turns out not to be is the region reconstructed again without it.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @param digests The CRC-32C of each shard's region, as returned when it was encoded.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @return The indices of the present shards which were found to be corrupt, in ascending order.
+	 * @throws IllegalArgumentException if too many shards are missing or corrupt, there are too few shards, the presence
+	 * or digest array is the wrong size, or the region does not fit in every shard.
+	 */
+	public int[] reconstructVerified(byte[][] shards, boolean[] present, long[] digests, int offset, int length)
+	{
+		int dataCount = checkShards(shards, present, offset, length);
+		if(digests.length != shards.length)
+			throw new IllegalArgumentException("Must have one digest per shard");
+		Checksum[] actual = new Checksum[shards.length];
+		for(int shard = 0; shard < shards.length; shard++)
+			actual[shard] = Crc32c.create();
+		
+		int blockSize = blockSize(dataCount, BLOCK_SIZE);
+		for(int start = offset; start < offset + length; start += blockSize)
+		{
+			int count = Math.min(blockSize, offset + length - start);
+			for(int shard = 0; shard < shards.length; shard++)
+				if(present[shard])
+					actual[shard].update(shards[shard], start, count);
+			reconstruct(shards, present, start, count);
+		}
+		
+		boolean[] intact = present.clone();
+		List<Integer> corrupt = new ArrayList<>();
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			if(present[shard] && actual[shard].getValue() != digests[shard])
+			{
+				intact[shard] = false;
+				corrupt.add(shard);
+			}
+		}
+		if(!corrupt.isEmpty())
+			reconstruct(shards, intact, offset, length);
+		return corrupt.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/**
+	 * Calculates the checksums of a region of the given data shards into separate arrays, starting at index 0 of each.
+	 * This is how {@link #verify(byte[][], int, int)} recalculates checksums without touching the stored ones.<br/>
+	 * <br/>
+	 * This default implementation calls {@link #withChecksums(byte[])} for every position. Subclasses override it with
+	 * region arithmetic which doesn't allocate.
+	 * 
+	 * @param shards The data shards followed by the checksum shards. Only the data shards are read.
+	 * @param offset The first index of the region within each data shard.
+	 * @param length The number of bytes in the region.
+	 * @param checksums One array per checksum, each holding at least 'length' bytes, to write the checksums to.
+	 */
+	protected void calculateChecksums(byte[][] shards, int offset, int length, byte[][] checksums)
+	{
+		int dataCount = shards.length - numChecksums();
+		byte[] data = new byte[dataCount];
+		for(int i = 0; i < length; i++)
+		{
+			for(int shard = 0; shard < dataCount; shard++)
+				data[shard] = shards[shard][offset + i];
+			byte[] checksummed = withChecksums(data);
+			for(int checksum = 0; checksum < checksums.length; checksum++)
+				checksums[checksum][i] = checksummed[dataCount + checksum];
+		}
+	}
+	
+	/**
+	 * Returns the size of the blocks a region is worked through in, which is about the given size, rounded down to a
+	 * multiple of the shard alignment (but never below it).
+	 */
+	private int blockSize(int dataCount, int size)
+	{
+		int alignment = shardAlignment(dataCount);
+		return Math.max(alignment, size / alignment * alignment);
+	}
+	
+	/**
+	 * Returns each of the given scratch buffers, skipping nulls, to the given pool.
+	 */
+	private static void release(ShardBufferPool pool, ByteBuffer[] scratch)
+	{
+		for(ByteBuffer buffer : scratch)
+			if(buffer != null)
+				pool.release(buffer);
+	}
+	
+	/**
+	 * Returns the number of shards which are not present.
+	 * 
+	 * @param present Whether each shard is present.
+	 * @return The number of false values.
+	 */
+	protected static int countMissing(boolean[] present)
+	{
+		int missing = 0;
+		for(boolean isPresent : present)
+			if(!isPresent)
+				missing++;
+		return missing;
+	}
+	
+	/**
+	 * Builds the mismatch at the given index of a block of recalculated checksums.<br/>
+	 * <br/>
+	 * Precondition: at least one checksum doesn't match at the given index.
+	 */
+	private ChecksumMismatch mismatch(byte[][] shards, byte[][] expected, int blockOffset, int index, int offset)
+	{
+		int dataCount = shards.length - expected.length;
+		int[] checksums = new int[expected.length];
+		int count = 0;
+		for(int checksum = 0; checksum < expected.length; checksum++)
+			if(expected[checksum][index] != shards[dataCount + checksum][blockOffset + index])
+				checksums[count++] = checksum;
+		return new ChecksumMismatch(offset, Arrays.copyOf(checksums, count));
+	}
+	
+	/**
+	 * Validates the arguments to a shard-mode operation, and returns the number of data shards.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @return The number of data shards.
+	 * @throws IllegalArgumentException if there are no data shards, or the region does not fit in every shard.
+	 */
+	protected int checkShards(byte[][] shards, int offset, int length)
+	{
+		if(shards.length <= numChecksums())
+			throw new IllegalArgumentException("Must have at least one data shard and " + numChecksums() + " checksums");
+		if(offset < 0 || length < 0)
+			throw new IllegalArgumentException("Offset and length cannot be negative");
+		for(byte[] shard : shards)
+			if(shard.length < offset + length)
+				throw new IllegalArgumentException("Every shard must hold at least " + (offset + length) + " bytes");
+		return shards.length - numChecksums();
+	}
+	
+	/**
+	 * Validates the arguments to a shard-mode operation with missing shards, and returns the number of data shards.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @param offset The first index of the region within each shard.
+	 * @param length The number of bytes in the region.
+	 * @return The number of data shards.
+	 * @throws IllegalArgumentException if the presence array is the wrong size, too many shards are missing, or the
+	 * region does not fit in every shard.
+	 */
+	protected int checkShards(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		if(present.length != shards.length)
+			throw new IllegalArgumentException("Must have one presence flag per shard");
+		if(countMissing(present) > numChecksums())
+			throw new IllegalArgumentException("Too many missing values - can only handle " + numChecksums());
+		return checkShards(shards, offset, length);
+	}
+	
+	/**
+	 * Validates the arguments to {@link #solveMissingValuesInto(byte[], boolean[], byte[])}.
+	 * 
+	 * @param dataWithChecksums The data followed by the checksums.
+	 * @param present Whether each value is present.
+	 * @param data The array the data is to be written into.
+	 * @throws IllegalArgumentException if any of the arguments are invalid.
+	 */
+	protected void checkInto(byte[] dataWithChecksums, boolean[] present, byte[] data)
+	{
+		if(dataWithChecksums.length <= numChecksums())
+			throw new IllegalArgumentException("Must have at least one data value and " + numChecksums()
+					+ " checksums");
+		if(present.length != dataWithChecksums.length)
+			throw new IllegalArgumentException("Must have one presence flag per value");
+		if(data.length < dataWithChecksums.length - numChecksums())
+			throw new IllegalArgumentException("Output must have room for the data");
+		if(countMissing(present) > numChecksums())
+			throw new IllegalArgumentException("Too many missing values - can only handle " + numChecksums());
+	}
+	
+	/**
+	 * Validates the arguments to a buffer shard-mode operation, and returns the number of bytes remaining in each shard.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @return The number of bytes remaining in every shard.
+	 * @throws IllegalArgumentException if there are no data shards, or the shards have different numbers of bytes
+	 * remaining.
+	 */
+	protected int checkShards(ByteBuffer[] shards)
+	{
+		if(shards.length <= numChecksums())
+			throw new IllegalArgumentException("Must have at least one data shard and " + numChecksums() + " checksums");
+		int length = shards[0].remaining();
+		for(ByteBuffer shard : shards)
+			if(shard.remaining() != length)
+				throw new IllegalArgumentException("Every shard must have the same number of bytes remaining");
+		return length;
+	}
+	
+	/**
+	 * Validates the arguments to a buffer shard-mode operation with missing shards, and returns the number of bytes
+	 * remaining in each shard.
+	 * 
+	 * @param shards The data shards followed by the checksum shards.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @return The number of bytes remaining in every shard.
+	 * @throws IllegalArgumentException if the presence array is the wrong size, too many shards are missing, or the
+	 * shards have different numbers of bytes remaining.
+	 */
+	protected int checkShards(ByteBuffer[] shards, boolean[] present)
+	{
+		if(present.length != shards.length)
+			throw new IllegalArgumentException("Must have one presence flag per shard");
+		if(countMissing(present) > numChecksums())
+			throw new IllegalArgumentException("Too many missing values - can only handle " + numChecksums());
+		return checkShards(shards);
+	}
+	
+	/**
+	 * Validates the arguments to {@link #reconstructShard(int, ShardSource, ShardSink)}, and returns which shards are
+	 * present.
+	 * 
+	 * @param missingIndex The index of the shard to reconstruct.
+	 * @param survivors The source of the present shards.
+	 * @return Whether the shard at each index is present.
+	 * @throws IllegalArgumentException if the source has too few shards or too many missing, or the shard to
+	 * reconstruct is present or not a shard.
+	 */
+	protected boolean[] checkSource(int missingIndex, ShardSource survivors)
+	{
+		int shardCount = survivors.shardCount();
+		if(shardCount <= numChecksums())
+			throw new IllegalArgumentException("Must have at least one data shard and " + numChecksums() + " checksums");
+		if(missingIndex < 0 || missingIndex >= shardCount)
+			throw new IllegalArgumentException("No shard at index " + missingIndex);
+		
+		boolean[] present = new boolean[shardCount];
+		for(int shard = 0; shard < shardCount; shard++)
+			present[shard] = survivors.isPresent(shard);
+		if(present[missingIndex])
+			throw new IllegalArgumentException("Shard " + missingIndex + " is present");
+		if(countMissing(present) > numChecksums())
+			throw new IllegalArgumentException("Too many missing values - can only handle " + numChecksums());
+		return present;
+	}
+	
+	/**
+	 * Validates one shard read from a {@link ShardSource}, and returns the number of bytes remaining in it.
+	 * 
+	 * @param shard The shard read for a stripe.
+	 * @param length The number of bytes remaining in the other shards read for the stripe, or -1 if this is the first.
+	 * @return The number of bytes remaining in the shard.
+	 * @throws IllegalArgumentException if the shard has a different number of bytes remaining to the others.
+	 */
+	protected static int checkStripe(ByteBuffer shard, int length)
+	{
+		if(length >= 0 && shard.remaining() != length)
+			throw new IllegalArgumentException("Every shard must have the same number of bytes remaining");
+		return shard.remaining();
+	}
+	
+	/**
+	 * Validates the indices of the shards wanted from a reconstruction, and returns which of the shards are both
+	 * wanted and missing.
+	 * 
+	 * @param shardCount The number of data and checksum shards.
+	 * @param present Whether the shard at the same index holds valid data.
+	 * @param wanted The indices of the wanted shards.
+	 * @return For each shard, whether it is wanted and not present.
+	 * @throws IllegalArgumentException if a wanted index is not a shard.
+	 */
+	protected boolean[] wantedShards(int shardCount, boolean[] present, int[] wanted)
+	{
+		boolean[] isWanted = new boolean[shardCount];
+		for(int shard : wanted)
+		{
+			if(shard < 0 || shard >= shardCount)
+				throw new IllegalArgumentException("No shard at index " + shard);
+			isWanted[shard] = !present[shard];
+		}
+		return isWanted;
+	}
+	
+	/**
+	 * Returns a view of part of the remaining bytes of the given buffer, without changing the buffer's position.
+	 * 
+	 * @param buffer The buffer to view.
+	 * @param offset The index of the first byte of the view, relative to the buffer's position.
+	 * @param length The number of bytes in the view.
+	 * @return A buffer whose remaining bytes are the requested region, in the same byte order as the given buffer.
+	 */
+	protected static ByteBuffer slice(ByteBuffer buffer, int offset, int length)
+	{
+		ByteBuffer slice = buffer.duplicate().order(buffer.order());
+		((Buffer) slice).limit(buffer.position() + offset + length).position(buffer.position() + offset);
+		return slice;
+	}
+	
+	/**
+	 * Wraps the same region of each of the given arrays in a buffer, whose remaining bytes are that region.
+	 * 
+	 * @param shards The arrays to wrap.
+	 * @param offset The first index of the region within each array.
+	 * @param length The number of bytes in the region.
+	 * @return One buffer per array.
+	 */
+	protected static ByteBuffer[] wrap(byte[][] shards, int offset, int length)
+	{
+		ByteBuffer[] buffers = new ByteBuffer[shards.length];
+		for(int shard = 0; shard < shards.length; shard++)
+			buffers[shard] = ByteBuffer.wrap(shards[shard], offset, length);
+		return buffers;
+	}
+	
+	/**
+	 * Returns a list of the indices of the given array which are not flagged as present.
+	 * 
+	 * @param present The presence flags to check.
+	 * @return The indices of the given array which are false, sorted in ascending order.
+	 */
+	protected List<Integer> missingShards(boolean[] present)
+	{
+		List<Integer> missing = new ArrayList<>();
+		for(int index = 0; index < present.length; index++)
+			if(!present[index])
+				missing.add(index);
+		return missing;
+	}
+	
 	/**
 	 * Returns a list of the indices of the given array whose values are null. If the given array is null, null is
 	 * returned.
@@ -0,0 +1,101 @@
+package com.nickww.finitefield.checksum;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.Checksum;
+
+/**
+ * Calculates CRC-32C (Castagnoli) digests, as used to detect corrupt shards. On Java 9 and later this is
+ * <code>java.util.zip.CRC32C</code>, which uses the CPU's CRC instructions; on Java 8 it falls back to this
+ * table-driven implementation, which gives the same digests.
+ * 
+ * @author Nick Wuensch
+ */
+public final class Crc32c implements Checksum
+{
+	private static final int POLYNOMIAL = 0x82f63b78; // reflected 0x1edc6f41
+	private static final int[][] TABLES = new int[4][256];
+	private static final Constructor<? extends Checksum> intrinsic;
+	
+	static
+	{
+		for(int i = 0; i < 256; i++)
+		{
+			int crc = i;
+			for(int bit = 0; bit < 8; bit++)
+				crc = (crc >>> 1) ^ ((crc & 1) == 0 ? 0 : POLYNOMIAL);
+			TABLES[0][i] = crc;
+		}
+		for(int i = 0; i < 256; i++)
+			for(int table = 1; table < TABLES.length; table++)
+				TABLES[table][i] = (TABLES[table - 1][i] >>> 8) ^ TABLES[0][TABLES[table - 1][i] & 0xff];
+		
+		Constructor<? extends Checksum> constructor;
+		try
+		{
+			constructor = Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+		}
+		catch(ReflectiveOperationException e)
+		{
+			constructor = null;
+		}
+		intrinsic = constructor;
+	}
+	
+	private int crc = 0xffffffff;
+	
+	/**
+	 * Returns a new CRC-32C digest, using the JDK's implementation when there is one.
+	 * 
+	 * @return A digest of no bytes.
+	 */
+	public static Checksum create()
+	{
+		if(intrinsic != null)
+		{
+			try
+			{
+				return intrinsic.newInstance();
+			}
+			catch(ReflectiveOperationException e)
+			{
+				// fall through to the table-driven implementation
+			}
+		}
+		return new Crc32c();
+	}
+	
+	@Override
+	public void update(int b)
+	{
+		crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+	}
+	
+	@Override
+	public void update(byte[] b, int off, int len)
+	{
+		int value = crc;
+		int end = off + len;
+		// four bytes at a time, with a table per byte
+		for(; off + 4 <= end; off += 4)
+		{
+			value ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+			value = TABLES[3][value & 0xff] ^ TABLES[2][(value >>> 8) & 0xff] ^ TABLES[1][(value >>> 16) & 0xff]
+					^ TABLES[0][value >>> 24];
+		}
+		for(; off < end; off++)
+			value = (value >>> 8) ^ TABLES[0][(value ^ b[off]) & 0xff];
+		crc = value;
+	}
+	
+	@Override
+	public long getValue()
+	{
+		return ~crc & 0xffffffffL;
+	}
+	
+	@Override
+	public void reset()
+	{
+		crc = 0xffffffff;
+	}
+}
@@ -2,13 +2,21 @@ package com.nickww.finitefield.checksum;
 
 import static com.nickww.finitefield.FiniteByteField.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.List;
 
+import com.nickww.finitefield.instrumentation.Instrumentation;
+
 class DoubleChecksumVector extends ChecksumVector
 {
 	private static final byte[] powerOfTwo = new byte[MAX_VALUE + 1];
 	private static final byte[][] A = new byte[MAX_VALUE + 1][MAX_VALUE + 1];
 	private static final byte[][] B = new byte[MAX_VALUE + 1][MAX_VALUE + 1];
+	private static final int[] logOfTwo = new int[MAX_VALUE + 1];
+	private static final int orderOfTwo;
+	private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
 	
 	static
 	{
@@ -22,7 +30,20 @@ class DoubleChecksumVector extends ChecksumVector
 			
 		for(int x = 0; x <= MAX_VALUE; x++)
 			for(int y = 0; y <= MAX_VALUE; y++)
-				B[x][y] = div(powerOfTwo[Math.min(x, y)], add(powerOfTwo[Math.abs(y - x)], (byte) 1));
+				B[x][y] = div(div((byte) 1, powerOfTwo[Math.min(x, y)]), add(powerOfTwo[Math.abs(y - x)], (byte) 1));
+		
+		// 2 doesn't generate the whole field, so its powers repeat, and only the first of each is its logarithm
+		Arrays.fill(logOfTwo, -1);
+		int order = 0;
+		while(logOfTwo[powerOfTwo[order] & 0xff] < 0)
+			logOfTwo[powerOfTwo[order] & 0xff] = order++;
+		orderOfTwo = order;
+	}
+	
+	@Override
+	public int numChecksums()
+	{
+		return 2;
 	}
 	
 	@Override
@@ -69,6 +90,463 @@ class DoubleChecksumVector extends ChecksumVector
 		return data;
 	}
 	
+	@Override
+	public void withChecksumsInto(byte[] data, byte[] checksummed)
+	{
+		if(data.length < 2)
+			throw new IllegalArgumentException("Data array must have at least two elements");
+		if(checksummed.length < data.length + 2)
+			throw new IllegalArgumentException("Output must have room for the data and 2 checksums");
+		
+		System.arraycopy(data, 0, checksummed, 0, data.length);
+		checksummed[data.length] = add(data);
+		checksummed[data.length + 1] = getQ(data);
+	}
+	
+	/**
+	 * Solves for the missing values with the same formulas as {@link #solveMissingValues(Byte[])}, with the missing
+	 * data treated as zeros in the sums, so nothing needs to be allocated.
+	 */
+	@Override
+	public void solveMissingValuesInto(byte[] dataWithChecksums, boolean[] present, byte[] data)
+	{
+		checkInto(dataWithChecksums, present, data);
+		int dataCount = dataWithChecksums.length - 2;
+		if(dataCount < 2)
+			throw new IllegalArgumentException("Array too small to include both data and checksums.");
+		
+		int x = -1;
+		int y = -1;
+		byte sum = 0;
+		byte q = 0;
+		for(int i = dataCount - 1; i >= 0; i--)
+		{
+			data[i] = present[i] ? dataWithChecksums[i] : 0;
+			sum ^= data[i];
+			q = (byte) (dbl(q) ^ data[i]);
+			if(!present[i])
+			{
+				y = x;
+				x = i;
+			}
+		}
+		if(x < 0)
+			return;
+		
+		// the sums are written out with ^, since add takes varargs, which would allocate
+		byte pxy = (byte) (dataWithChecksums[dataCount] ^ sum);
+		byte qxy = (byte) (dataWithChecksums[dataCount + 1] ^ q);
+		if(y < 0 && !present[dataCount])
+			data[x] = div(qxy, powerOfTwo[x]);
+		else if(y < 0)
+			data[x] = pxy;
+		else
+		{
+			data[x] = (byte) (mul(A[x][y], pxy) ^ mul(B[x][y], qxy));
+			data[y] = (byte) (pxy ^ data[x]);
+		}
+	}
+	
+	@Override
+	public void encode(byte[][] shards, int offset, int length)
+	{
+		checkShards(shards, offset, length);
+		encode(wrap(shards, offset, length));
+	}
+	
+	@Override
+	public void reconstruct(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		checkShards(shards, present, offset, length);
+		reconstruct(wrap(shards, offset, length), present);
+	}
+	
+	@Override
+	public void encode(ByteBuffer[] shards)
+	{
+		long start = Instrumentation.start();
+		int length = checkShards(shards);
+		int dataCount = shards.length - 2;
+		if(dataCount < 2)
+			throw new IllegalArgumentException("Must have at least two data shards");
+		
+		syndromes(shards, null, dataCount, shards[dataCount], shards[dataCount + 1]);
+		Instrumentation.encoded(this, dataCount, length, start);
+	}
+	
+	@Override
+	public void reconstruct(ByteBuffer[] shards, boolean[] present)
+	{
+		long start = Instrumentation.start();
+		int length = checkShards(shards, present);
+		int dataCount = shards.length - 2;
+		if(dataCount < 2)
+			throw new IllegalArgumentException("Must have at least two data shards");
+		
+		int x = nextMissing(present, 0);
+		if(x < 0 || x >= dataCount)
+			return;
+		
+		int y = nextMissing(present, x + 1);
+		ByteBuffer p = shards[dataCount];
+		ByteBuffer q = shards[dataCount + 1];
+		
+		// the syndromes of the surviving data, added to the stored checksums, leave only the missing shards' terms
+		ShardBufferPool pool = ShardBufferPool.matching(shards[0]);
+		ByteBuffer pxy = pool.acquire(length).order(shards[0].order());
+		ByteBuffer qxy = pool.acquire(length).order(shards[0].order());
+		try
+		{
+			syndromes(shards, present, dataCount, pxy, qxy);
+			if(y < 0 || !present[dataCount + 1])
+			{
+				addRegion(p, pxy);
+				mulRegion((byte) 1, pxy, shards[x]);
+			}
+			else if(!present[dataCount])
+			{
+				addRegion(q, qxy);
+				mulRegion(div((byte) 1, powerOfTwo[x]), qxy, shards[x]);
+			}
+			else
+			{
+				addRegion(p, pxy);
+				addRegion(q, qxy);
+				mulRegion(A[x][y], pxy, shards[x]);
+				mulAddRegion(B[x][y], qxy, shards[x]);
+				mulRegion((byte) 1, pxy, shards[y]);
+				addRegion(shards[x], shards[y]);
+			}
+		}
+		finally
+		{
+			pool.release(pxy);
+			pool.release(qxy);
+		}
+		Instrumentation.decoded(this, countMissing(present), y < 0 || y >= dataCount ? 1 : 2, length, start);
+	}
+	
+	@Override
+	public void rebuild(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		checkShards(shards, present, offset, length);
+		rebuild(wrap(shards, offset, length), present);
+	}
+	
+	/**
+	 * Rebuilds the stripe with one pass of the syndrome kernel over the present data. When a checksum is missing, at
+	 * most one data shard is, and it follows from the syndromes and the other checksum; the missing checksum is then
+	 * its syndrome plus that shard's term, so the data is never read a second time.
+	 */
+	@Override
+	public void rebuild(ByteBuffer[] shards, boolean[] present)
+	{
+		int length = checkShards(shards, present);
+		int dataCount = shards.length - 2;
+		if(dataCount < 2)
+			throw new IllegalArgumentException("Must have at least two data shards");
+		
+		boolean pMissing = !present[dataCount];
+		boolean qMissing = !present[dataCount + 1];
+		if(!pMissing && !qMissing)
+		{
+			reconstruct(shards, present);
+			return;
+		}
+		
+		long start = Instrumentation.start();
+		ShardBufferPool pool = ShardBufferPool.matching(shards[0]);
+		ByteBuffer p = pMissing ? shards[dataCount] : pool.acquire(length).order(shards[0].order());
+		ByteBuffer q = qMissing ? shards[dataCount + 1] : pool.acquire(length).order(shards[0].order());
+		try
+		{
+			syndromes(shards, present, dataCount, p, q);
+			int x = nextMissing(present, 0);
+			if(x < dataCount && pMissing)
+			{
+				addRegion(shards[dataCount + 1], q);
+				mulRegion(div((byte) 1, powerOfTwo[x]), q, shards[x]);
+				addRegion(shards[x], p);
+			}
+			else if(x < dataCount)
+			{
+				addRegion(shards[dataCount], p);
+				mulRegion((byte) 1, p, shards[x]);
+				mulAddRegion(powerOfTwo[x], shards[x], q);
+			}
+		}
+		finally
+		{
+			if(!pMissing)
+				pool.release(p);
+			if(!qMissing)
+				pool.release(q);
+		}
+		int erasures = countMissing(present);
+		Instrumentation.decoded(this, erasures, erasures, length, start);
+	}
+	
+	/**
+	 * Calculates P and Q with a byte-at-a-time Horner loop, since the long-lane kernel needs the arrays wrapped in
+	 * buffers, which would allocate.
+	 */
+	@Override
+	protected void calculateChecksums(byte[][] shards, int offset, int length, byte[][] checksums)
+	{
+		int last = shards.length - 3;
+		byte[] p = checksums[0];
+		byte[] q = checksums[1];
+		System.arraycopy(shards[last], offset, p, 0, length);
+		System.arraycopy(shards[last], offset, q, 0, length);
+		for(int shard = last - 1; shard >= 0; shard--)
+		{
+			byte[] data = shards[shard];
+			for(int i = 0; i < length; i++)
+			{
+				p[i] ^= data[offset + i];
+				q[i] = add(dbl(q[i]), data[offset + i]);
+			}
+		}
+	}
+	
+	/**
+	 * Scrubs the shards using both checksums. The P and Q syndromes (the stored checksums plus the recalculated ones)
+	 * are calculated in a single pass over the shards. At each corrupt position, a syndrome of P alone or Q alone means
+	 * that checksum is corrupt, and otherwise the error in data shard <code>z</code> makes the Q syndrome
+	 * 2<sup>z</sup> times the P syndrome. If every corrupt position points to the same shard, the corruption is located,
+	 * and repairing it is a matter of adding the P (or, for Q, the Q) syndrome to that shard.<br/>
+	 * <br/>
+	 * Since 2<sup>51</sup> is 1 in this field, data shards whose indices are 51 apart explain the same syndromes, so with
+	 * more than 51 data shards some corruption cannot be located.
+	 * 
+	 * @throws IllegalArgumentException if there are fewer than two data shards, or the shards have different numbers of
+	 * bytes remaining.
+	 */
+	@Override
+	public ScrubResult scrub(ByteBuffer[] shards, boolean repair)
+	{
+		int length = checkShards(shards);
+		int dataCount = shards.length - 2;
+		if(dataCount < 2)
+			throw new IllegalArgumentException("Must have at least two data shards");
+		
+		ShardBufferPool pool = ShardBufferPool.matching(shards[0]);
+		ByteBuffer pSyndrome = pool.acquire(length);
+		ByteBuffer qSyndrome = pool.acquire(length);
+		try
+		{
+			syndromes(shards, null, dataCount, pSyndrome, qSyndrome);
+			addRegion(shards[dataCount], pSyndrome);
+			addRegion(shards[dataCount + 1], qSyndrome);
+			return scrub(shards, pSyndrome, qSyndrome, length, repair);
+		}
+		finally
+		{
+			pool.release(pSyndrome);
+			pool.release(qSyndrome);
+		}
+	}
+	
+	/**
+	 * Finds and, if asked, repairs the corruption which the given syndromes show.
+	 */
+	private static ScrubResult scrub(ByteBuffer[] shards, ByteBuffer pSyndrome, ByteBuffer qSyndrome, int length,
+			boolean repair)
+	{
+		int dataCount = shards.length - 2;
+		int corrupt = 0;
+		int first = -1;
+		int located = -1;
+		for(int i = 0; i < length; i++)
+		{
+			// whole clean words are skipped without looking at their bytes
+			if((i & 7) == 0 && i + 8 <= length && pSyndrome.getLong(i) == 0 && qSyndrome.getLong(i) == 0)
+			{
+				i += 7;
+				continue;
+			}
+			
+			byte p = pSyndrome.get(i);
+			byte q = qSyndrome.get(i);
+			if(p == 0 && q == 0)
+				continue;
+			
+			int shard = q == 0 ? dataCount : p == 0 ? dataCount + 1 : locate(div(q, p), dataCount);
+			if(corrupt++ == 0)
+			{
+				first = i;
+				located = shard;
+			}
+			else if(located != shard)
+				located = -1;
+		}
+		
+		if(corrupt == 0)
+			return ScrubResult.clean();
+		if(located < 0 || !repair)
+			return new ScrubResult(located, corrupt, first, false);
+		
+		addRegion(located == dataCount + 1 ? qSyndrome : pSyndrome, shards[located]);
+		return new ScrubResult(located, corrupt, first, true);
+	}
+	
+	/**
+	 * Returns the index of the data shard whose coefficient in Q is the given ratio, or -1 if there is no such shard, or
+	 * more than one.
+	 */
+	private static int locate(byte ratio, int dataCount)
+	{
+		int z = logOfTwo[ratio & 0xff];
+		if(z < 0 || z >= dataCount || z + orderOfTwo < dataCount)
+			return -1;
+		return z;
+	}
+	
+	/**
+	 * Calculates P, the sum of the data shards, and Q, the sum of each data shard multiplied by 2<sup>index</sup>, into
+	 * the given buffers. Shards which are not present are treated as zeros. This works on 8 bytes at a time: each byte
+	 * of a long is an independent lane, so XOR is addition and {@link #dblLanes(long)} doubles all eight lanes at once,
+	 * as in the Linux RAID-6 implementation. The main loop handles two longs per shard per step, which keeps two
+	 * independent dependency chains going; the tail which doesn't fill a long is done a byte at a time. The arrays it
+	 * works from are kept per thread, and the buffers are read as they are when they share a byte order, so nothing is
+	 * allocated once a thread has seen its widest stripe. Wider lanes, like the SSE and AVX versions of the Linux code,
+	 * would need the Vector API, which is an incubator module of Java 16 and later; this library targets Java 8, so a
+	 * vectorized kernel waits until it can rely on a JDK with the API.<br/>
+	 * <br/>
+	 * Precondition: every buffer has the same number of bytes remaining, present is null (all present) or has an entry
+	 * for each data shard.
+	 */
+	private static void syndromes(ByteBuffer[] shards, boolean[] present, int dataCount, ByteBuffer p, ByteBuffer q)
+	{
+		// the lanes of a long must line up across every buffer, so every buffer is read in the same byte order
+		boolean sameOrder = p.order() == q.order();
+		for(int shard = 0; shard < dataCount && sameOrder; shard++)
+			sameOrder = shards[shard].order() == p.order();
+		
+		Scratch scratch = DoubleChecksumVector.scratch.get().ensure(dataCount);
+		ByteBuffer[] data = scratch.data;
+		int[] positions = scratch.positions;
+		int count = 0;
+		for(int shard = dataCount - 1; shard >= 0; shard--)
+		{
+			if(present != null && !present[shard])
+				continue;
+			data[count] = sameOrder ? shards[shard] : shards[shard].duplicate().order(ByteOrder.nativeOrder());
+			positions[count++] = shards[shard].position();
+		}
+		int[] shifts = shifts(present, dataCount, scratch.shifts);
+		ByteBuffer pOut = sameOrder ? p : p.duplicate().order(ByteOrder.nativeOrder());
+		ByteBuffer qOut = sameOrder ? q : q.duplicate().order(ByteOrder.nativeOrder());
+		int pPosition = p.position();
+		int qPosition = q.position();
+		int length = p.remaining();
+		
+		int i = 0;
+		for(; i + 16 <= length; i += 16)
+		{
+			long p0 = 0, p1 = 0, q0 = 0, q1 = 0;
+			for(int shard = 0; shard < count; shard++)
+			{
+				long d0 = data[shard].getLong(positions[shard] + i);
+				long d1 = data[shard].getLong(positions[shard] + i + 8);
+				p0 ^= d0;
+				p1 ^= d1;
+				q0 = dblLanes(q0, shifts[shard]) ^ d0;
+				q1 = dblLanes(q1, shifts[shard]) ^ d1;
+			}
+			q0 = dblLanes(q0, shifts[count]);
+			q1 = dblLanes(q1, shifts[count]);
+			pOut.putLong(pPosition + i, p0);
+			pOut.putLong(pPosition + i + 8, p1);
+			qOut.putLong(qPosition + i, q0);
+			qOut.putLong(qPosition + i + 8, q1);
+		}
+		for(; i + 8 <= length; i += 8)
+		{
+			long p0 = 0, q0 = 0;
+			for(int shard = 0; shard < count; shard++)
+			{
+				long d0 = data[shard].getLong(positions[shard] + i);
+				p0 ^= d0;
+				q0 = dblLanes(q0, shifts[shard]) ^ d0;
+			}
+			pOut.putLong(pPosition + i, p0);
+			qOut.putLong(qPosition + i, dblLanes(q0, shifts[count]));
+		}
+		for(; i < length; i++)
+		{
+			byte p0 = 0, q0 = 0;
+			for(int shard = 0; shard < count; shard++)
+			{
+				byte d0 = data[shard].get(positions[shard] + i);
+				p0 ^= d0;
+				for(int shift = shifts[shard]; shift > 0; shift--)
+					q0 = dbl(q0);
+				q0 ^= d0;
+			}
+			for(int shift = shifts[count]; shift > 0; shift--)
+				q0 = dbl(q0);
+			pOut.put(pPosition + i, p0);
+			qOut.put(qPosition + i, q0);
+		}
+		Arrays.fill(data, 0, count, null);
+	}
+	
+	/**
+	 * Returns, for each present data shard from last to first, how many times Q must be doubled before that shard is
+	 * added, which is the distance from the previous present shard. The final entry is how many times Q must be doubled
+	 * after the first shard is added, which is that shard's index.<br/>
+	 * <br/>
+	 * Precondition: present is null (all present) or has an entry for each data shard, shifts has room for an entry
+	 * per data shard and one more.
+	 */
+	private static int[] shifts(boolean[] present, int dataCount, int[] shifts)
+	{
+		int count = 0;
+		int previous = dataCount;
+		for(int shard = dataCount - 1; shard >= 0; shard--)
+		{
+			if(present == null || present[shard])
+			{
+				shifts[count++] = previous - shard;
+				previous = shard;
+			}
+		}
+		shifts[count] = previous;
+		return shifts;
+	}
+	
+	/**
+	 * Returns the index of the first value at or after the given one which isn't present, or -1 if they all are.
+	 */
+	private static int nextMissing(boolean[] present, int from)
+	{
+		for(int index = from; index < present.length; index++)
+			if(!present[index])
+				return index;
+		return -1;
+	}
+	
+	/**
+	 * Multiplies each of the eight bytes of the given long by 2. The high bit of each byte is shifted out of its lane and
+	 * replaced by a reduction of 0x1b, which is selected without branching by turning the high bits into a mask.
+	 */
+	private static long dblLanes(long lanes)
+	{
+		long high = lanes & 0x8080808080808080L;
+		return ((lanes << 1) & 0xfefefefefefefefeL) ^ ((high >>> 7) * 0x1b);
+	}
+	
+	/**
+	 * Multiplies each of the eight bytes of the given long by 2<sup>times</sup>.
+	 */
+	private static long dblLanes(long lanes, int times)
+	{
+		for(; times > 0; times--)
+			lanes = dblLanes(lanes);
+		return lanes;
+	}
+	
 	/**
 	 * Calculates the value of the Reed-Solomon double parity byte from the given data. This is the sum of each byte
 	 * multiplied by 2<sup>index</sup>. For example, the bytes (1, 24, 54) would produce the parity
@@ -80,7 +558,7 @@ class DoubleChecksumVector extends ChecksumVector
 	{
 		byte q = 0;
 		for(int i = data.length - 1; i >= 0; i--)
-			q = add(dbl(q), data[i]);
+			q = (byte) (dbl(q) ^ data[i]);
 		return q;
 	}
 	
@@ -95,4 +573,25 @@ class DoubleChecksumVector extends ChecksumVector
 		array[index] = value;
 		return array;
 	}
+	
+	/**
+	 * One thread's working arrays for {@link DoubleChecksumVector#syndromes}, grown to the widest stripe seen.
+	 */
+	private static final class Scratch
+	{
+		private ByteBuffer[] data = new ByteBuffer[0];
+		private int[] positions = new int[0];
+		private int[] shifts = new int[1];
+		
+		private Scratch ensure(int dataCount)
+		{
+			if(data.length < dataCount)
+			{
+				data = new ByteBuffer[dataCount];
+				positions = new int[dataCount];
+				shifts = new int[dataCount + 1];
+			}
+			return this;
+		}
+	}
 }
@@ -0,0 +1,237 @@
+package com.nickww.finitefield.checksum;
+
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A matrix of coefficients compiled into the steps which multiply it by regions of bytes, so that the work of looking
+ * at each coefficient is done once rather than on every call. Terms with a coefficient of 0 are dropped, terms with a
+ * coefficient of 1 become plain copies or additions, and every other coefficient gets a table of its products. The
+ * first term of each output writes to it rather than adding, so outputs don't need to be cleared first.<br/>
+ * <br/>
+ * The regions are worked through in blocks small enough that one input block and every output block fit in the L1
+ * cache together. Within a block, each input is read once and added into every output which uses it, so each input
+ * is only read from memory once however many outputs there are.<br/>
+ * <br/>
+ * A plan can also be compiled with a kernel generated by {@link EncoderGenerator} for its matrix, which the array
+ * method then uses instead. Instances of this class are immutable.
+ * 
+ * @author Nick Wuensch
+ */
+final class EncodePlan
+{
+	private static final int L1_BUDGET = 1 << 14; // half a typical L1 data cache, leaving room for the tables
+	private static final int MIN_BLOCK_SIZE = 1 << 10;
+	private static final int MAX_BLOCK_SIZE = 1 << 13;
+	
+	private final int inputCount;
+	private final int[] termStart; // the terms of input i are from termStart[i] until termStart[i + 1]
+	private final int[] termOutput;
+	private final byte[][] termTable; // null for a coefficient of 1
+	private final boolean[] termFirst; // whether the term is the first into its output, so overwrites it
+	private final int[] unused; // outputs with no terms, which are always zero
+	private final int blockSize;
+	private final Kernel kernel; // null if not generated
+	
+	/**
+	 * Compiles a matrix with one row per output and one column per input.
+	 * 
+	 * @param matrix The coefficients, which are copied.
+	 */
+	EncodePlan(byte[][] matrix)
+	{
+		this(matrix, false);
+	}
+	
+	/**
+	 * Compiles a matrix with one row per output and one column per input, optionally generating a kernel for it.
+	 * 
+	 * @param matrix The coefficients, which are copied.
+	 * @param generate Whether to try to generate a kernel, which is left out if it can't be.
+	 */
+	EncodePlan(byte[][] matrix, boolean generate)
+	{
+		int outputCount = matrix.length;
+		this.inputCount = outputCount == 0 ? 0 : matrix[0].length;
+		this.termStart = new int[inputCount + 1];
+		
+		int terms = 0;
+		for(byte[] row : matrix)
+			for(byte coefficient : row)
+				if(coefficient != 0)
+					terms++;
+		this.termOutput = new int[terms];
+		this.termTable = new byte[terms][];
+		this.termFirst = new boolean[terms];
+		
+		byte[][] tables = new byte[MAX_VALUE + 1][]; // shared by every term with the same coefficient
+		boolean[] started = new boolean[outputCount];
+		int term = 0;
+		for(int input = 0; input < inputCount; input++)
+		{
+			termStart[input] = term;
+			for(int output = 0; output < outputCount; output++)
+			{
+				byte coefficient = matrix[output][input];
+				if(coefficient == 0)
+					continue;
+				if(coefficient != 1 && tables[coefficient & 0xff] == null)
+					tables[coefficient & 0xff] = table(coefficient);
+				termOutput[term] = output;
+				termTable[term] = tables[coefficient & 0xff];
+				termFirst[term] = !started[output];
+				started[output] = true;
+				term++;
+			}
+		}
+		termStart[inputCount] = term;
+		
+		int unusedCount = 0;
+		int[] unused = new int[outputCount];
+		for(int output = 0; output < outputCount; output++)
+			if(!started[output])
+				unused[unusedCount++] = output;
+		this.unused = Arrays.copyOf(unused, unusedCount);
+		this.blockSize = Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, L1_BUDGET / (outputCount + 1)));
+		this.kernel = generate ? EncoderGenerator.generate(matrix) : null;
+	}
+	
+	/**
+	 * @return Whether the array method uses a generated kernel.
+	 */
+	boolean isGenerated()
+	{
+		return kernel != null;
+	}
+	
+	/**
+	 * Writes each output region as the sum of the input regions, multiplied by the output's row of coefficients.
+	 * 
+	 * @param srcs The arrays holding the inputs, in column order from the first.
+	 * @param srcOffset The first index of every input region.
+	 * @param dsts The arrays holding the outputs, which may be the same as the inputs' as long as no region is both.
+	 * @param firstDst The index of the array holding the first output, with the rest following in row order.
+	 * @param dstOffset The first index of every output region.
+	 * @param length The number of bytes in each region.
+	 */
+	void apply(byte[][] srcs, int srcOffset, byte[][] dsts, int firstDst, int dstOffset, int length)
+	{
+		if(kernel != null)
+		{
+			kernel.apply(srcs, srcOffset, dsts, firstDst, dstOffset, length);
+			return;
+		}
+		for(int output : unused)
+			Arrays.fill(dsts[firstDst + output], dstOffset, dstOffset + length, (byte) 0);
+		for(int done = 0; done < length; done += blockSize)
+		{
+			int count = Math.min(blockSize, length - done);
+			for(int input = 0; input < inputCount; input++)
+				for(int term = termStart[input]; term < termStart[input + 1]; term++)
+					term(srcs[input], srcOffset + done, dsts[firstDst + termOutput[term]], dstOffset + done, count,
+							termTable[term], termFirst[term]);
+		}
+	}
+	
+	/**
+	 * Writes each output region as the sum of the input regions, multiplied by the output's row of coefficients. Each
+	 * region starts at its buffer's position, and no buffer's position is changed. Pairs of heap buffers are read
+	 * through their arrays.
+	 * 
+	 * @param srcs The inputs, in column order from the first.
+	 * @param dsts The buffers holding the outputs, which may be the same as the inputs' as long as no buffer is both.
+	 * @param firstDst The index of the first output, with the rest following in row order.
+	 * @param length The number of bytes in each region.
+	 */
+	void apply(ByteBuffer[] srcs, ByteBuffer[] dsts, int firstDst, int length)
+	{
+		for(int output : unused)
+		{
+			ByteBuffer dst = dsts[firstDst + output];
+			for(int i = 0; i < length; i++)
+				dst.put(dst.position() + i, (byte) 0);
+		}
+		for(int done = 0; done < length; done += blockSize)
+		{
+			int count = Math.min(blockSize, length - done);
+			for(int input = 0; input < inputCount; input++)
+			{
+				ByteBuffer src = srcs[input];
+				for(int term = termStart[input]; term < termStart[input + 1]; term++)
+				{
+					ByteBuffer dst = dsts[firstDst + termOutput[term]];
+					term(src, src.position() + done, dst, dst.position() + done, count, termTable[term],
+							termFirst[term]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the products of the given coefficient and each unsigned byte value, indexed by that value.
+	 */
+	private static byte[] table(byte coefficient)
+	{
+		byte[] table = new byte[MAX_VALUE + 1];
+		for(int value = 0; value <= MAX_VALUE; value++)
+			table[value] = mul(coefficient, (byte) value);
+		return table;
+	}
+	
+	/**
+	 * Applies one term to one block: copies or adds the source if there is no table, and otherwise writes or adds its
+	 * products.
+	 */
+	private static void term(byte[] src, int from, byte[] dst, int to, int count, byte[] table, boolean first)
+	{
+		if(table == null)
+		{
+			if(first)
+				System.arraycopy(src, from, dst, to, count);
+			else
+				addRegion(src, from, dst, to, count);
+		}
+		else if(first)
+			for(int i = 0; i < count; i++)
+				dst[to + i] = table[src[from + i] & 0xff];
+		else
+			for(int i = 0; i < count; i++)
+				dst[to + i] ^= table[src[from + i] & 0xff];
+	}
+	
+	/**
+	 * Applies one term to one block of buffers with absolute gets and puts, eight bytes at a time for a coefficient of 1
+	 * where the byte orders allow.
+	 */
+	private static void term(ByteBuffer src, int from, ByteBuffer dst, int to, int count, byte[] table, boolean first)
+	{
+		if(src.hasArray() && dst.hasArray())
+		{
+			term(src.array(), src.arrayOffset() + from, dst.array(), dst.arrayOffset() + to, count, table, first);
+			return;
+		}
+		
+		int i = 0;
+		if(table == null && src.order() == dst.order())
+			for(; i + Long.BYTES <= count; i += Long.BYTES)
+				dst.putLong(to + i, first ? src.getLong(from + i) : dst.getLong(to + i) ^ src.getLong(from + i));
+		for(; i < count; i++)
+		{
+			int value = table == null ? src.get(from + i) : table[src.get(from + i) & 0xff];
+			dst.put(to + i, (byte) (first ? value : dst.get(to + i) ^ value));
+		}
+	}
+	
+	/**
+	 * The array method of a plan, for one matrix, as generated code.
+	 */
+	interface Kernel
+	{
+		/**
+		 * @see EncodePlan#apply(byte[][], int, byte[][], int, int, int)
+		 */
+		void apply(byte[][] srcs, int srcOffset, byte[][] dsts, int firstDst, int dstOffset, int length);
+	}
+}
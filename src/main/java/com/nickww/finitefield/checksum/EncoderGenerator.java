@@ -0,0 +1,414 @@
+package com.nickww.finitefield.checksum;
+
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates classes which multiply one fixed matrix of coefficients by regions of bytes, as an
+ * {@link EncodePlan.Kernel}. The generated loop handles one position per iteration: it reads each input byte once,
+ * then writes each output as a straight line of table lookups and XORs, with the coefficients folded in as the choice
+ * of table and the terms with a coefficient of 0 or 1 left out or reduced to a plain XOR. Nothing is looked up from
+ * the matrix at run time, so the JIT compiler sees only array accesses.<br/>
+ * <br/>
+ * Classes are defined with <code>MethodHandles.Lookup.defineHiddenClass</code> on Java 15 and later, so they can be
+ * unloaded, and with <code>MethodHandles.Lookup.defineClass</code> on Java 9 to 14. Both are looked up reflectively,
+ * so on Java 8 no classes are generated. The class files are version 49, which needs no stack map frames. HotSpot
+ * won't compile a method with more than 8000 bytes of bytecode, so matrices whose loop would be longer than that
+ * aren't generated either.
+ * 
+ * @author Nick Wuensch
+ */
+final class EncoderGenerator
+{
+	private static final int MAX_CODE_LENGTH = 7999;
+	private static final String KERNEL = "com/nickww/finitefield/checksum/EncodePlan$Kernel";
+	private static final String NAME = "com/nickww/finitefield/checksum/GeneratedEncoder";
+	private static final String APPLY = "([[BI[[BIII)V";
+	private static final AtomicInteger classes = new AtomicInteger();
+	private static final Method defineHiddenClass;
+	private static final Object noOptions;
+	private static final Method defineClass;
+	
+	static
+	{
+		Method hidden;
+		Object options;
+		try
+		{
+			Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			options = Array.newInstance(option, 0);
+			hidden = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+					options.getClass());
+		}
+		catch(ReflectiveOperationException e)
+		{
+			hidden = null;
+			options = null;
+		}
+		defineHiddenClass = hidden;
+		noOptions = options;
+		
+		Method define;
+		try
+		{
+			define = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			define = null;
+		}
+		defineClass = define;
+	}
+	
+	private EncoderGenerator()
+	{
+	}
+	
+	/**
+	 * Generates a kernel for the given matrix, with one row per output and one column per input.
+	 * 
+	 * @return The kernel, or null if classes can't be defined on this JVM, or the matrix is too big to generate.
+	 */
+	static EncodePlan.Kernel generate(byte[][] matrix)
+	{
+		if(defineHiddenClass == null && defineClass == null)
+			return null;
+		
+		String name = NAME + classes.incrementAndGet();
+		byte[][] tables = new byte[MAX_VALUE + 1][];
+		byte[] classFile = classFile(name, matrix, tables);
+		if(classFile == null)
+			return null;
+		try
+		{
+			Class<?> generated;
+			if(defineHiddenClass != null)
+				generated = ((MethodHandles.Lookup) defineHiddenClass.invoke(MethodHandles.lookup(), classFile, true,
+						noOptions)).lookupClass();
+			else
+				generated = (Class<?>) defineClass.invoke(MethodHandles.lookup(), (Object) classFile);
+			return (EncodePlan.Kernel) generated.getDeclaredConstructor(byte[][].class).newInstance((Object) tables);
+		}
+		catch(ReflectiveOperationException | LinkageError | SecurityException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes the class file for the given matrix, filling in the table for every coefficient the generated code uses.
+	 * Returns null if the loop would be too long to compile.
+	 */
+	private static byte[] classFile(String name, byte[][] matrix, byte[][] tables)
+	{
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.classRef(name);
+		int object = pool.classRef("java/lang/Object");
+		int kernel = pool.classRef(KERNEL);
+		int tablesField = pool.memberRef(9, thisClass, "tables", "[[B");
+		int objectInit = pool.memberRef(10, object, "<init>", "()V");
+		int init = pool.utf8("<init>");
+		int initType = pool.utf8("([[B)V");
+		int apply = pool.utf8("apply");
+		int applyType = pool.utf8(APPLY);
+		int tablesName = pool.utf8("tables");
+		int tablesType = pool.utf8("[[B");
+		int code = pool.utf8("Code");
+		
+		Bytecode constructor = new Bytecode();
+		constructor.load(0);
+		constructor.u1(0xb7).u2(objectInit); // invokespecial
+		constructor.load(0);
+		constructor.load(1);
+		constructor.u1(0xb5).u2(tablesField); // putfield
+		constructor.u1(0xb1); // return
+		
+		Bytecode loop = applyCode(matrix, tables, tablesField);
+		if(loop.size() > MAX_CODE_LENGTH)
+			return null;
+		
+		Bytecode file = new Bytecode();
+		file.u4(0xcafebabe).u2(0).u2(49);
+		file.u2(pool.count());
+		pool.writeTo(file);
+		file.u2(0x0030).u2(thisClass).u2(object); // final, super
+		file.u2(1).u2(kernel);
+		file.u2(1).u2(0x0012).u2(tablesName).u2(tablesType).u2(0); // private final byte[][] tables
+		file.u2(2);
+		method(file, 0x0001, init, initType, code, 2, 2, constructor);
+		method(file, 0x0001, apply, applyType, code, 8, loop.locals, loop);
+		file.u2(0);
+		return file.toByteArray();
+	}
+	
+	/**
+	 * Writes the body of <code>apply(byte[][] srcs, int srcOffset, byte[][] dsts, int firstDst, int dstOffset, int
+	 * length)</code>.
+	 */
+	private static Bytecode applyCode(byte[][] matrix, byte[][] tables, int tablesField)
+	{
+		int outputs = matrix.length;
+		int inputs = outputs == 0 ? 0 : matrix[0].length;
+		Bytecode code = new Bytecode();
+		
+		// locals 0 to 6 are this and the arguments, then the arrays, the tables, the position, and the input bytes
+		int next = 7;
+		int[] src = new int[inputs];
+		boolean[] used = new boolean[inputs];
+		for(int input = 0; input < inputs; input++)
+		{
+			for(byte[] row : matrix)
+				used[input] |= row[input] != 0;
+			if(!used[input])
+				continue;
+			src[input] = next++;
+			code.load(1);
+			code.push(input);
+			code.u1(0x32); // aaload
+			code.store(src[input]);
+		}
+		int[] dst = new int[outputs];
+		for(int output = 0; output < outputs; output++)
+		{
+			dst[output] = next++;
+			code.load(3);
+			code.iload(4);
+			code.push(output);
+			code.u1(0x60); // iadd
+			code.u1(0x32); // aaload
+			code.store(dst[output]);
+		}
+		Map<Byte, Integer> table = new HashMap<>();
+		for(byte[] row : matrix)
+		{
+			for(byte coefficient : row)
+			{
+				if(coefficient == 0 || coefficient == 1 || table.containsKey(coefficient))
+					continue;
+				tables[coefficient & 0xff] = new byte[MAX_VALUE + 1];
+				for(int value = 0; value <= MAX_VALUE; value++)
+					tables[coefficient & 0xff][value] = mul(coefficient, (byte) value);
+				table.put(coefficient, next);
+				code.load(0);
+				code.u1(0xb4).u2(tablesField); // getfield
+				code.push(coefficient & 0xff);
+				code.u1(0x32); // aaload
+				code.store(next++);
+			}
+		}
+		int position = next++;
+		int[] value = new int[inputs];
+		for(int input = 0; input < inputs; input++)
+			if(used[input])
+				value[input] = next++;
+		code.locals = next;
+		
+		// for(position = 0; position < length; position++)
+		code.push(0);
+		code.istore(position);
+		int top = code.size();
+		code.iload(position);
+		code.iload(6);
+		int exit = code.size();
+		code.u1(0xa2).u2(0); // if_icmpge, patched below
+		for(int input = 0; input < inputs; input++)
+		{
+			if(!used[input])
+				continue;
+			code.load(src[input]);
+			code.iload(2);
+			code.iload(position);
+			code.u1(0x60); // iadd
+			code.u1(0x33); // baload
+			code.push(0xff);
+			code.u1(0x7e); // iand
+			code.istore(value[input]);
+		}
+		for(int output = 0; output < outputs; output++)
+		{
+			code.load(dst[output]);
+			code.iload(5);
+			code.iload(position);
+			code.u1(0x60); // iadd
+			boolean first = true;
+			for(int input = 0; input < inputs; input++)
+			{
+				byte coefficient = matrix[output][input];
+				if(coefficient == 0)
+					continue;
+				if(coefficient == 1)
+					code.iload(value[input]);
+				else
+				{
+					code.load(table.get(coefficient));
+					code.iload(value[input]);
+					code.u1(0x33); // baload
+				}
+				if(!first)
+					code.u1(0x82); // ixor
+				first = false;
+			}
+			if(first)
+				code.push(0);
+			code.u1(0x54); // bastore, which keeps the low byte
+		}
+		code.iinc(position, 1);
+		code.u1(0xa7).u2(top - code.size() + 1); // goto top, relative to the goto itself
+		code.patch(exit + 1, code.size() - exit);
+		code.u1(0xb1); // return
+		return code;
+	}
+	
+	private static void method(Bytecode file, int access, int name, int type, int codeName, int maxStack,
+			int maxLocals, Bytecode code)
+	{
+		file.u2(access).u2(name).u2(type);
+		file.u2(1).u2(codeName).u4(12 + code.size());
+		file.u2(maxStack).u2(maxLocals).u4(code.size());
+		code.writeTo(file);
+		file.u2(0).u2(0); // no exception handlers or attributes
+	}
+	
+	/**
+	 * A class file's constant pool, which adds each constant once.
+	 */
+	private static final class ConstantPool
+	{
+		private final Map<String, Integer> indices = new HashMap<>();
+		private final Bytecode entries = new Bytecode();
+		private int count = 1;
+		
+		int utf8(String value)
+		{
+			Integer index = indices.get("utf8 " + value);
+			if(index != null)
+				return index;
+			entries.u1(1).u2(value.length());
+			for(char c : value.toCharArray())
+				entries.u1(c); // every name here is ASCII
+			indices.put("utf8 " + value, count);
+			return count++;
+		}
+		
+		int classRef(String name)
+		{
+			int utf8 = utf8(name);
+			entries.u1(7).u2(utf8);
+			return count++;
+		}
+		
+		int memberRef(int tag, int owner, String name, String type)
+		{
+			int nameIndex = utf8(name);
+			int typeIndex = utf8(type);
+			entries.u1(12).u2(nameIndex).u2(typeIndex);
+			int nameAndType = count++;
+			entries.u1(tag).u2(owner).u2(nameAndType);
+			return count++;
+		}
+		
+		int count()
+		{
+			return count;
+		}
+		
+		void writeTo(Bytecode file)
+		{
+			entries.writeTo(file);
+		}
+	}
+	
+	/**
+	 * Big-endian bytes of a class file or method body, with helpers for the instructions which have short forms.
+	 */
+	private static final class Bytecode extends ByteArrayOutputStream
+	{
+		private int locals;
+		
+		Bytecode u1(int value)
+		{
+			write(value);
+			return this;
+		}
+		
+		Bytecode u2(int value)
+		{
+			return u1(value >>> 8).u1(value);
+		}
+		
+		Bytecode u4(int value)
+		{
+			return u2(value >>> 16).u2(value);
+		}
+		
+		void patch(int index, int value)
+		{
+			buf[index] = (byte) (value >>> 8);
+			buf[index + 1] = (byte) value;
+		}
+		
+		void writeTo(Bytecode other)
+		{
+			other.write(buf, 0, count);
+		}
+		
+		void push(int value)
+		{
+			if(value <= 5)
+				u1(0x03 + value); // iconst
+			else if(value <= Byte.MAX_VALUE)
+				u1(0x10).u1(value); // bipush
+			else
+				u1(0x11).u2(value); // sipush
+		}
+		
+		void load(int local)
+		{
+			local(0x2a, 0x19, local); // aload
+		}
+		
+		void store(int local)
+		{
+			local(0x4b, 0x3a, local); // astore
+		}
+		
+		void iload(int local)
+		{
+			local(0x1a, 0x15, local);
+		}
+		
+		void istore(int local)
+		{
+			local(0x3b, 0x36, local);
+		}
+		
+		void iinc(int local, int increment)
+		{
+			if(local <= 0xff)
+				u1(0x84).u1(local).u1(increment);
+			else
+				u1(0xc4).u1(0x84).u2(local).u2(increment);
+		}
+		
+		/**
+		 * Writes an instruction on a local variable, using the one-byte form for locals 0 to 3, and the wide form for
+		 * locals past 255.
+		 */
+		private void local(int shortForm, int opcode, int local)
+		{
+			if(local <= 3)
+				u1(shortForm + local);
+			else if(local <= 0xff)
+				u1(opcode).u1(local);
+			else
+				u1(0xc4).u1(opcode).u2(local);
+		}
+	}
+}
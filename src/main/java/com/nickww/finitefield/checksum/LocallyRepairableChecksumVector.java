@@ -0,0 +1,410 @@
+package com.nickww.finitefield.checksum;
+
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.nickww.finitefield.instrumentation.Instrumentation;
+
+/**
+ * Creates checksums for a locally repairable code, as used by Azure storage:
+ * {@link https://www.usenix.org/system/files/conference/atc12/atc12-final181_0.pdf}. The data is split into local
+ * groups of consecutive shards, each with an XOR checksum of its own, and then global checksums are calculated over
+ * all of the data. A single missing data shard is rebuilt from the rest of its group alone, which reads far fewer
+ * shards than a Reed-Solomon decode; anything else is solved using the global checksums as well.<br/>
+ * <br/>
+ * The checksums are the local checksums, in group order, followed by the global checksums. Global checksum
+ * <code>j</code> weights data shard <code>i</code> by <code>(i + 1)<sup>j + 1</sup></code>; the power 0 is skipped,
+ * since that row is already the sum of the local checksums. Unlike the other vectors, which erasures can be solved
+ * depends on where they are, so more shards than there are global checksums can be missing as long as they are spread
+ * across groups.
+ * 
+ * @author Nick Wuensch
+ */
+class LocallyRepairableChecksumVector extends ChecksumVector
+{
+	private static final XorChecksumVector xor = new XorChecksumVector(false);
+	
+	private final int localGroups;
+	private final int globalChecksums;
+	
+	public LocallyRepairableChecksumVector(int localGroups, int globalChecksums)
+	{
+		if(localGroups < 1 || globalChecksums < 1)
+			throw new IllegalArgumentException("Must have at least one local group and one global checksum");
+		this.localGroups = localGroups;
+		this.globalChecksums = globalChecksums;
+	}
+	
+	@Override
+	public int numChecksums()
+	{
+		return localGroups + globalChecksums;
+	}
+	
+	@Override
+	public byte[] withChecksums(byte[] data)
+	{
+		checkDataShards(data.length);
+		byte[][] coefficients = coefficients(data.length);
+		byte[] checksummed = Arrays.copyOf(data, data.length + numChecksums());
+		for(int checksum = 0; checksum < coefficients.length; checksum++)
+			checksummed[data.length + checksum] = dot(coefficients[checksum], data);
+		return checksummed;
+	}
+	
+	@Override
+	public byte[] solveMissingValues(Byte[] dataWithChecksums)
+	{
+		int dataCount = checkDataShards(dataWithChecksums.length - numChecksums());
+		byte[][] shards = new byte[dataWithChecksums.length][1];
+		boolean[] present = new boolean[dataWithChecksums.length];
+		for(int shard = 0; shard < shards.length; shard++)
+			if(present[shard] = dataWithChecksums[shard] != null)
+				shards[shard][0] = dataWithChecksums[shard];
+		
+		reconstruct(shards, present, 0, 1);
+		byte[] data = new byte[dataCount];
+		for(int shard = 0; shard < dataCount; shard++)
+			data[shard] = shards[shard][0];
+		return data;
+	}
+	
+	/**
+	 * Checks that the present checksums, local and global, have coefficients of full rank over the missing data.
+	 */
+	@Override
+	public boolean canReconstruct(boolean[] present)
+	{
+		int dataCount = checkDataShards(present.length - numChecksums());
+		return MatrixChecksumVector.canSolve(coefficients(dataCount), present, dataCount);
+	}
+	
+	@Override
+	public void encode(byte[][] shards, int offset, int length)
+	{
+		checkShards(shards, offset, length);
+		encode(wrap(shards, offset, length));
+	}
+	
+	@Override
+	public void reconstruct(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		checkShards(shards, present, offset, length);
+		reconstruct(wrap(shards, offset, length), present);
+	}
+	
+	/**
+	 * Rebuilds wanted data shards from their groups alone when every one of them can be, and otherwise falls back to
+	 * solving for all of the missing data.
+	 */
+	@Override
+	public void reconstruct(byte[][] shards, boolean[] present, int[] wanted, int offset, int length)
+	{
+		long start = Instrumentation.start();
+		checkShards(shards, present, offset, length);
+		if(!repairLocally(wrap(shards, offset, length), present, wantedShards(shards.length, present, wanted)))
+			super.reconstruct(shards, present, wanted, offset, length);
+		else
+			Instrumentation.decoded(this, countMissing(present), wanted.length, length, start);
+	}
+	
+	@Override
+	public void encode(ByteBuffer[] shards)
+	{
+		long start = Instrumentation.start();
+		int length = checkShards(shards);
+		int dataCount = checkDataShards(shards.length - numChecksums());
+		for(int group = 0; group < localGroups; group++)
+			xor.encode(group(shards, group, dataCount));
+		
+		byte[][] coefficients = coefficients(dataCount);
+		for(int checksum = localGroups; checksum < coefficients.length; checksum++)
+		{
+			ByteBuffer output = shards[dataCount + checksum];
+			mulRegion(coefficients[checksum][0], shards[0], output);
+			for(int shard = 1; shard < dataCount; shard++)
+				mulAddRegion(coefficients[checksum][shard], shards[shard], output);
+		}
+		Instrumentation.encoded(this, dataCount, length, start);
+	}
+	
+	/**
+	 * Rebuilds every data shard which is the only one missing from its group (counting its local checksum) from the
+	 * rest of the group, and then solves for any data still missing with the global checksums, along with the local
+	 * checksums of groups which are missing more than one shard.
+	 * 
+	 * @throws IllegalArgumentException if the missing data cannot be solved for from the shards which are present, as
+	 * well as for the usual reasons.
+	 */
+	@Override
+	public void reconstruct(ByteBuffer[] shards, boolean[] present)
+	{
+		long start = Instrumentation.start();
+		int length = checkShards(shards, present);
+		int dataCount = checkDataShards(shards.length - numChecksums());
+		boolean[] known = present.clone();
+		int recovered = 0;
+		for(int group = 0; group < localGroups; group++)
+		{
+			int missing = missingInGroup(known, group, dataCount);
+			if(missing >= 0 && missing < dataCount)
+			{
+				xor.reconstruct(group(shards, group, dataCount), group(known, group, dataCount));
+				known[missing] = true;
+				recovered++;
+			}
+		}
+		
+		int[] missing = missingData(known, dataCount);
+		if(missing.length > 0)
+		{
+			byte[][] decoding = decoding(dataCount, known, missing);
+			for(int row = 0; row < missing.length; row++)
+			{
+				ByteBuffer output = shards[missing[row]];
+				mulRegion((byte) 0, output, output);
+				for(int shard = 0; shard < shards.length; shard++)
+					mulAddRegion(decoding[row][shard], shards[shard], output);
+			}
+		}
+		Instrumentation.decoded(this, countMissing(present), recovered + missing.length, length, start);
+	}
+	
+	/**
+	 * Rebuilds wanted data shards from their groups alone when every one of them can be, and otherwise falls back to
+	 * solving for all of the missing data.
+	 */
+	@Override
+	public void reconstruct(ByteBuffer[] shards, boolean[] present, int[] wanted)
+	{
+		long start = Instrumentation.start();
+		int length = checkShards(shards, present);
+		if(!repairLocally(shards, present, wantedShards(shards.length, present, wanted)))
+			super.reconstruct(shards, present, wanted);
+		else
+			Instrumentation.decoded(this, countMissing(present), wanted.length, length, start);
+	}
+	
+	@Override
+	protected void calculateChecksums(byte[][] shards, int offset, int length, byte[][] checksums)
+	{
+		int dataCount = checkDataShards(shards.length - numChecksums());
+		byte[][] coefficients = coefficients(dataCount);
+		for(int checksum = 0; checksum < coefficients.length; checksum++)
+		{
+			Arrays.fill(checksums[checksum], 0, length, (byte) 0);
+			for(int shard = 0; shard < dataCount; shard++)
+				mulAddRegion(coefficients[checksum][shard], shards[shard], offset, checksums[checksum], 0, length);
+		}
+	}
+	
+	/**
+	 * Allows any number of missing shards, since whether they can be solved for depends on which groups they are in.
+	 * That is checked when decoding.
+	 */
+	@Override
+	protected int checkShards(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		if(present.length != shards.length)
+			throw new IllegalArgumentException("Must have one presence flag per shard");
+		return checkShards(shards, offset, length);
+	}
+	
+	/**
+	 * Allows any number of missing shards, since whether they can be solved for depends on which groups they are in.
+	 * That is checked when decoding.
+	 */
+	@Override
+	protected int checkShards(ByteBuffer[] shards, boolean[] present)
+	{
+		if(present.length != shards.length)
+			throw new IllegalArgumentException("Must have one presence flag per shard");
+		return checkShards(shards);
+	}
+	
+	/**
+	 * Rebuilds the wanted shards from their groups, if they are all data shards which can be, and returns whether it
+	 * did.<br/>
+	 * <br/>
+	 * Precondition: the shards have been validated.
+	 */
+	private boolean repairLocally(ByteBuffer[] shards, boolean[] present, boolean[] wanted)
+	{
+		int dataCount = checkDataShards(shards.length - numChecksums());
+		for(int shard = 0; shard < shards.length; shard++)
+			if(wanted[shard] && (shard >= dataCount || missingInGroup(present, group(shard, dataCount), dataCount) != shard))
+				return false;
+		
+		for(int shard = 0; shard < dataCount; shard++)
+		{
+			int group = group(shard, dataCount);
+			if(wanted[shard])
+				xor.reconstruct(group(shards, group, dataCount), group(present, group, dataCount));
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns, for each missing data shard, its coefficients over every shard. The equations used are picked from the
+	 * present checksums, local ones first, keeping each one which isn't a combination of those already picked (over
+	 * the missing data) until there are as many as there are missing shards. The missing data is then
+	 * <code>W * (checksums + C * knownData)</code>, where <code>C</code> are the picked checksums' coefficients and
+	 * <code>W</code> is the inverse of their coefficients for the missing data.<br/>
+	 * <br/>
+	 * Precondition: at least one data shard is missing.
+	 */
+	private byte[][] decoding(int dataCount, boolean[] known, int[] missing)
+	{
+		long start = Instrumentation.start();
+		byte[][] coefficients = coefficients(dataCount);
+		int[] rows = new int[missing.length];
+		byte[][] reduced = new byte[missing.length][];
+		int[] pivots = new int[missing.length];
+		int picked = 0;
+		for(int checksum = 0; checksum < coefficients.length && picked < missing.length; checksum++)
+		{
+			if(!known[dataCount + checksum])
+				continue;
+			
+			// reduce this checksum's coefficients for the missing data against the checksums already picked
+			byte[] row = new byte[missing.length];
+			for(int m = 0; m < missing.length; m++)
+				row[m] = coefficients[checksum][missing[m]];
+			for(int i = 0; i < picked; i++)
+				mulAddRegion(div(row[pivots[i]], reduced[i][pivots[i]]), reduced[i], 0, row, 0, row.length);
+			int pivot = 0;
+			while(pivot < row.length && row[pivot] == 0)
+				pivot++;
+			if(pivot == row.length)
+				continue;
+			
+			rows[picked] = checksum;
+			reduced[picked] = row;
+			pivots[picked++] = pivot;
+		}
+		if(picked < missing.length)
+			throw new IllegalArgumentException("The shards present cannot solve for the missing data");
+		
+		byte[][] square = new byte[missing.length][missing.length];
+		for(int row = 0; row < missing.length; row++)
+			for(int m = 0; m < missing.length; m++)
+				square[row][m] = coefficients[rows[row]][missing[m]];
+		byte[][] inverse = MatrixChecksumVector.invert(square);
+		
+		byte[][] decoding = new byte[missing.length][dataCount + coefficients.length];
+		for(int m = 0; m < missing.length; m++)
+		{
+			for(int row = 0; row < rows.length; row++)
+			{
+				byte weight = inverse[m][row];
+				decoding[m][dataCount + rows[row]] = weight;
+				for(int shard = 0; shard < dataCount; shard++)
+					if(known[shard])
+						decoding[m][shard] ^= mul(weight, coefficients[rows[row]][shard]);
+			}
+		}
+		Instrumentation.decodingPlanned(this, missing.length, false, start);
+		return decoding;
+	}
+	
+	/**
+	 * Returns the coefficients of every checksum: a row per checksum, with a column per data shard.
+	 */
+	private byte[][] coefficients(int dataCount)
+	{
+		byte[][] coefficients = new byte[numChecksums()][dataCount];
+		for(int shard = 0; shard < dataCount; shard++)
+		{
+			coefficients[group(shard, dataCount)][shard] = 1;
+			for(int global = 0; global < globalChecksums; global++)
+				coefficients[localGroups + global][shard] = pow((byte) (shard + 1), (byte) (global + 1));
+		}
+		return coefficients;
+	}
+	
+	/**
+	 * Returns the index of the only shard missing from the given group, counting its local checksum, or -1 if none or
+	 * more than one is missing.
+	 */
+	private int missingInGroup(boolean[] present, int group, int dataCount)
+	{
+		int missing = present[dataCount + group] ? -1 : dataCount + group;
+		for(int shard = groupStart(group, dataCount); shard < groupStart(group + 1, dataCount); shard++)
+		{
+			if(present[shard])
+				continue;
+			if(missing >= 0)
+				return -1;
+			missing = shard;
+		}
+		return missing;
+	}
+	
+	/**
+	 * Returns the data shards of the given group, followed by its local checksum.
+	 */
+	private ByteBuffer[] group(ByteBuffer[] shards, int group, int dataCount)
+	{
+		int start = groupStart(group, dataCount);
+		int end = groupStart(group + 1, dataCount);
+		ByteBuffer[] members = Arrays.copyOfRange(shards, start, end + 1);
+		members[end - start] = shards[dataCount + group];
+		return members;
+	}
+	
+	/**
+	 * Returns the presence of the data shards of the given group, followed by that of its local checksum.
+	 */
+	private boolean[] group(boolean[] present, int group, int dataCount)
+	{
+		int start = groupStart(group, dataCount);
+		int end = groupStart(group + 1, dataCount);
+		boolean[] members = Arrays.copyOfRange(present, start, end + 1);
+		members[end - start] = present[dataCount + group];
+		return members;
+	}
+	
+	/**
+	 * Returns the local group the given data shard belongs to. The data shards are split into groups of consecutive
+	 * shards, as evenly as possible.
+	 */
+	private int group(int shard, int dataCount)
+	{
+		return (int) ((long) shard * localGroups / dataCount);
+	}
+	
+	/**
+	 * Returns the first data shard of the given group, or the number of data shards for the group after the last.
+	 */
+	private int groupStart(int group, int dataCount)
+	{
+		return (int) (((long) group * dataCount + localGroups - 1) / localGroups);
+	}
+	
+	/**
+	 * Returns the indices of the data shards which are not known, in order.
+	 */
+	private static int[] missingData(boolean[] known, int dataCount)
+	{
+		int[] missing = new int[dataCount];
+		int count = 0;
+		for(int shard = 0; shard < dataCount; shard++)
+			if(!known[shard])
+				missing[count++] = shard;
+		return Arrays.copyOf(missing, count);
+	}
+	
+	/**
+	 * Validates the number of data shards for this vector, and returns it.
+	 */
+	private int checkDataShards(int dataCount)
+	{
+		if(dataCount >= MAX_VALUE)
+			throw new IllegalArgumentException("Cannot checksum more than " + MAX_VALUE + " shards");
+		if(dataCount < localGroups)
+			throw new IllegalArgumentException("Must have at least one data shard per local group");
+		return dataCount;
+	}
+}
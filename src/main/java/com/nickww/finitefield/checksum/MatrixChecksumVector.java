@@ -2,9 +2,15 @@ package com.nickww.finitefield.checksum;
 
 import static com.nickww.finitefield.FiniteByteField.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 import com.nickww.finitefield.FiniteByteFieldMatrix;
+import com.nickww.finitefield.FiniteByteFieldRowReducer;
+import com.nickww.finitefield.FiniteBytePolynomial;
+import com.nickww.finitefield.instrumentation.Instrumentation;
 
 /**
  * Creates 3+ checksums for data, using the general principles outlined in
@@ -14,6 +20,15 @@ import com.nickww.finitefield.FiniteByteFieldMatrix;
  */
 class MatrixChecksumVector extends ChecksumVector
 {
+	private static final int FUSED_BLOCK_SIZE = 1 << 13;
+	private static final byte[] INVERSE_LOCATORS = new byte[MAX_VALUE - 1]; // 1 / (i + 1), the root for data shard i
+	
+	static
+	{
+		for(int shard = 0; shard < INVERSE_LOCATORS.length; shard++)
+			INVERSE_LOCATORS[shard] = div((byte) 1, (byte) (shard + 1));
+	}
+	
 	/**
 	 * Generates the elements of a vandermonde matrix.<br />
 	 * <br />
@@ -28,13 +43,29 @@ class MatrixChecksumVector extends ChecksumVector
 	
 	private final int size;
 	private final FiniteByteFieldMatrix[] vandermonde;
+	private final byte[][][] coefficients; // the elements of each matrix, since getData() copies them
+	private final EncodePlan[] plans; // compiled from the coefficients on first use
+	private final ThreadLocal<SolveCache> solveCache = ThreadLocal.withInitial(SolveCache::new);
+	private final ThreadLocal<SolveCache> shardCache = ThreadLocal.withInitial(SolveCache::new);
+	private final ThreadLocal<SolveCache> regionCache = ThreadLocal.withInitial(SolveCache::new);
 	
 	public MatrixChecksumVector(int size)
 	{
 		this.size = size;
 		this.vandermonde = new FiniteByteFieldMatrix[MAX_VALUE];
+		this.coefficients = new byte[MAX_VALUE][][];
+		this.plans = new EncodePlan[MAX_VALUE];
 		for(int i = 3; i < MAX_VALUE; i++)
+		{
 			this.vandermonde[i] = FiniteByteFieldMatrix.build(size, i, MatrixChecksumVector::vandermondeElements);
+			this.coefficients[i] = this.vandermonde[i].getData();
+		}
+	}
+	
+	@Override
+	public int numChecksums()
+	{
+		return size;
 	}
 	
 	@Override
@@ -76,4 +107,807 @@ class MatrixChecksumVector extends ChecksumVector
 		
 		return knownRows.solve(FiniteByteFieldMatrix.columnVector(knownData)).getCol(0);
 	}
+	
+	@Override
+	public void withChecksumsInto(byte[] data, byte[] checksummed)
+	{
+		int dataCount = data.length;
+		if(dataCount >= MAX_VALUE)
+			throw new IllegalArgumentException("Cannot checksum more than " + MAX_VALUE + " bytes");
+		if(dataCount < 3)
+			throw new IllegalArgumentException("Data array must have at least three elements");
+		if(checksummed.length < dataCount + size)
+			throw new IllegalArgumentException("Output must have room for the data and " + size + " checksums");
+		
+		System.arraycopy(data, 0, checksummed, 0, dataCount);
+		byte[][] coefficients = this.coefficients[dataCount];
+		for(int checksum = 0; checksum < size; checksum++)
+		{
+			byte sum = 0;
+			for(int i = 0; i < dataCount; i++)
+				sum ^= mul(coefficients[checksum][i], data[i]);
+			checksummed[dataCount + checksum] = sum;
+		}
+	}
+	
+	/**
+	 * Solves for each missing data value as a single combination of the surviving values, like the targeted
+	 * reconstruct. Working out those combinations means inverting a matrix, so the last ones worked out are kept per
+	 * thread, and solving many positions with the same values missing allocates nothing after the first.
+	 */
+	@Override
+	public void solveMissingValuesInto(byte[] dataWithChecksums, boolean[] present, byte[] data)
+	{
+		checkInto(dataWithChecksums, present, data);
+		int dataCount = checkDataShards(dataWithChecksums.length - size);
+		SolveCache cache = solveCache.get();
+		if(cache.decoding != null && Arrays.equals(cache.present, present))
+			Instrumentation.decodingPlanned(this, countMissing(present), true, Instrumentation.start());
+		else
+		{
+			boolean[] wanted = new boolean[present.length];
+			for(int shard = 0; shard < dataCount; shard++)
+				wanted[shard] = !present[shard];
+			cache.decoding = decoding(dataCount, present, wanted);
+			cache.present = present.clone();
+		}
+		
+		for(int shard = 0; shard < dataCount; shard++)
+			if(present[shard])
+				data[shard] = dataWithChecksums[shard];
+		Decoding decoding = cache.decoding;
+		for(int row = 0; row < decoding.outputs.length; row++)
+		{
+			byte sum = 0;
+			for(int col = 0; col < decoding.inputs.length; col++)
+				sum ^= mul(decoding.coefficients[row][col], dataWithChecksums[decoding.inputs[col]]);
+			data[decoding.outputs[row]] = sum;
+		}
+	}
+	
+	/**
+	 * Replaces the encode plan for the given number of data shards with one which uses a kernel generated from its
+	 * Vandermonde matrix, which is only possible on Java 9 and later, and for matrices small enough for the JIT
+	 * compiler to compile the generated loop.
+	 * 
+	 * @throws IllegalArgumentException if there are fewer than three data shards, or too many.
+	 */
+	@Override
+	public boolean specialize(int dataShards)
+	{
+		EncodePlan plan = new EncodePlan(coefficients[checkDataShards(dataShards)], true);
+		if(plan.isGenerated())
+			plans[dataShards] = plan;
+		return plan(dataShards).isGenerated();
+	}
+	
+	/**
+	 * Checks that the present checksums' rows of the Vandermonde matrix, over the missing data, are of full rank.
+	 */
+	@Override
+	public boolean canReconstruct(boolean[] present)
+	{
+		return canSolve(coefficients[checkDataShards(present.length - size)], present, present.length - size);
+	}
+	
+	@Override
+	public void encode(byte[][] shards, int offset, int length)
+	{
+		long start = Instrumentation.start();
+		int dataCount = checkDataShards(checkShards(shards, offset, length));
+		plan(dataCount).apply(shards, offset, shards, dataCount, offset, length);
+		Instrumentation.encoded(this, dataCount, length, start);
+	}
+	
+	@Override
+	public void reconstruct(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		checkDataShards(checkShards(shards, present, offset, length));
+		reconstruct(shards, present, null, offset, length);
+	}
+	
+	/**
+	 * Calculates each wanted shard as a single combination of the surviving shards, so a degraded read of one shard
+	 * costs one dot product per byte. Every present data shard is used, along with the first checksum shards which make
+	 * the missing data solvable; checksum 0 is plain addition, so it is the cheapest. The region is worked through in
+	 * small blocks, calculating every wanted shard from each block of the survivors while it is still in cache, so
+	 * the survivors are only read from memory once however many shards are wanted. The last rows worked out are kept
+	 * per thread, so reconstructing region after region with the same shards missing only inverts a matrix once.
+	 */
+	@Override
+	public void reconstruct(byte[][] shards, boolean[] present, int[] wanted, int offset, int length)
+	{
+		long started = Instrumentation.start();
+		int dataCount = checkDataShards(checkShards(shards, present, offset, length));
+		Decoding decoding = cachedDecoding(dataCount, present, wanted);
+		for(int start = offset; start < offset + length; start += FUSED_BLOCK_SIZE)
+		{
+			int count = Math.min(FUSED_BLOCK_SIZE, offset + length - start);
+			for(int row = 0; row < decoding.outputs.length; row++)
+			{
+				byte[] output = shards[decoding.outputs[row]];
+				Arrays.fill(output, start, start + count, (byte) 0);
+				for(int col = 0; col < decoding.inputs.length; col++)
+					mulAddRegion(decoding.coefficients[row][col], shards[decoding.inputs[col]], start, output, start,
+							count);
+			}
+		}
+		Instrumentation.decoded(this, countMissing(present), decoding.outputs.length, length, started);
+	}
+	
+	@Override
+	public void encode(ByteBuffer[] shards)
+	{
+		long start = Instrumentation.start();
+		int dataCount = checkDataShards(shards.length - size);
+		int length = checkShards(shards);
+		plan(dataCount).apply(shards, shards, dataCount, length);
+		Instrumentation.encoded(this, dataCount, length, start);
+	}
+	
+	@Override
+	public void reconstruct(ByteBuffer[] shards, boolean[] present)
+	{
+		checkDataShards(shards.length - size);
+		checkShards(shards, present);
+		reconstruct(shards, present, null);
+	}
+	
+	@Override
+	public void reconstruct(ByteBuffer[] shards, boolean[] present, int[] wanted)
+	{
+		long started = Instrumentation.start();
+		int dataCount = checkDataShards(shards.length - size);
+		int length = checkShards(shards, present);
+		Decoding decoding = cachedDecoding(dataCount, present, wanted);
+		for(int start = 0; start < length; start += FUSED_BLOCK_SIZE)
+		{
+			int count = Math.min(FUSED_BLOCK_SIZE, length - start);
+			for(int row = 0; row < decoding.outputs.length; row++)
+			{
+				ByteBuffer output = shards[decoding.outputs[row]];
+				ByteBuffer input = shards[decoding.inputs[0]];
+				mulRegion(decoding.coefficients[row][0], input, input.position() + start, output, output.position()
+						+ start, count);
+				for(int col = 1; col < decoding.inputs.length; col++)
+				{
+					input = shards[decoding.inputs[col]];
+					mulAddRegion(decoding.coefficients[row][col], input, input.position() + start, output, output
+							.position() + start, count);
+				}
+			}
+		}
+		Instrumentation.decoded(this, countMissing(present), decoding.outputs.length, length, started);
+	}
+	
+	/**
+	 * Works out the lost shard's row of coefficients over the survivors once, then reads only the survivors with a
+	 * coefficient other than zero from each stripe, and combines them with
+	 * {@link com.nickww.finitefield.FiniteByteField#dotRegion}, so each byte of the lost shard is written once. The rows
+	 * of every missing shard are kept per thread, so rebuilding a few stripes at a time, or each of several lost shards
+	 * in turn, only inverts a matrix the first time.
+	 */
+	@Override
+	public void reconstructShard(int missingIndex, ShardSource survivors, ShardSink out) throws IOException
+	{
+		boolean[] present = checkSource(missingIndex, survivors);
+		int dataCount = checkDataShards(present.length - size);
+		SolveCache cache = shardCache.get();
+		if(cache.decoding != null && Arrays.equals(cache.present, present))
+			Instrumentation.decodingPlanned(this, countMissing(present), true, Instrumentation.start());
+		else
+		{
+			boolean[] wanted = new boolean[present.length];
+			for(int shard = 0; shard < present.length; shard++)
+				wanted[shard] = !present[shard];
+			cache.decoding = decoding(dataCount, present, wanted);
+			cache.present = present.clone();
+		}
+		Decoding decoding = cache.decoding;
+		int row = 0;
+		while(decoding.outputs[row] != missingIndex)
+			row++;
+		
+		int[] inputs = new int[decoding.inputs.length];
+		byte[] coefficients = new byte[inputs.length];
+		int inputCount = 0;
+		for(int col = 0; col < inputs.length; col++)
+		{
+			if(decoding.coefficients[row][col] == 0)
+				continue;
+			inputs[inputCount] = decoding.inputs[col];
+			coefficients[inputCount++] = decoding.coefficients[row][col];
+		}
+		inputs = Arrays.copyOf(inputs, inputCount);
+		coefficients = Arrays.copyOf(coefficients, inputCount);
+		
+		int erasures = countMissing(present);
+		ByteBuffer[] shards = new ByteBuffer[inputCount];
+		ShardBufferPool pool = ShardBufferPool.heap();
+		for(long stripe = 0; stripe < survivors.stripeCount(); stripe++)
+		{
+			long start = Instrumentation.start();
+			int length = -1;
+			for(int input = 0; input < inputCount; input++)
+				length = checkStripe(shards[input] = survivors.read(stripe, inputs[input]), length);
+			ByteBuffer output = pool.acquire(length);
+			try
+			{
+				dotRegion(coefficients, shards, output);
+				Instrumentation.decoded(this, erasures, 1, length, start);
+				out.write(stripe, output);
+			}
+			finally
+			{
+				pool.release(output);
+			}
+		}
+	}
+	
+	@Override
+	protected void calculateChecksums(byte[][] shards, int offset, int length, byte[][] checksums)
+	{
+		int dataCount = checkDataShards(shards.length - size);
+		plan(dataCount).apply(shards, offset, checksums, 0, 0, length);
+	}
+	
+	/**
+	 * Scrubs the shards by correcting errors at unknown positions, as a Reed-Solomon decoder does. The syndromes (the
+	 * stored checksums plus the recalculated ones) are calculated for the whole region with region operations, and
+	 * each position whose syndromes aren't zero is decoded on its own, so up to <code>numChecksums() / 2</code> shards
+	 * can be corrupt at each position.<br/>
+	 * <br/>
+	 * Checksum <code>j</code> weights data shard <code>i</code> by <code>(i + 1)<sup>j</sup></code>, so when only
+	 * data shards are corrupt the syndromes are those of a Reed-Solomon code with locators <code>i + 1</code>. That
+	 * case is decoded with Berlekamp-Massey, a Chien search over the data locators, and Forney's formula. A corrupt
+	 * checksum shard only adds to its own syndrome, which breaks that structure, so positions the Reed-Solomon decoder
+	 * can't explain are decoded by searching the sets of shards which include a checksum shard, starting with the set
+	 * found at the previous corrupt position. That search grows quickly with the number of checksums, so it is meant
+	 * for the few checksums storage codes use.<br/>
+	 * <br/>
+	 * Corruption is only located if every corrupt position can be decoded, and only repaired if it is located.
+	 * 
+	 * @throws IllegalArgumentException if there are fewer than three or too many data shards, or the shards have
+	 * different numbers of bytes remaining.
+	 */
+	@Override
+	public ScrubResult scrub(ByteBuffer[] shards, boolean repair)
+	{
+		int dataCount = checkDataShards(shards.length - size);
+		int length = checkShards(shards);
+		
+		ByteBuffer[] syndromes = new ByteBuffer[size];
+		ByteBuffer[] recalculated = shards.clone();
+		for(int checksum = 0; checksum < size; checksum++)
+			recalculated[dataCount + checksum] = syndromes[checksum] = ByteBuffer.allocate(length);
+		encode(recalculated);
+		for(int checksum = 0; checksum < size; checksum++)
+			addRegion(shards[dataCount + checksum], syndromes[checksum]);
+		
+		byte[][] coefficients = this.coefficients[dataCount];
+		ByteBuffer[] errors = new ByteBuffer[shards.length];
+		byte[] syndrome = new byte[size];
+		int[] positions = new int[size / 2];
+		byte[] values = new byte[size / 2];
+		int[] previous = new int[0];
+		int corrupt = 0;
+		int first = -1;
+		boolean located = true;
+		for(int i = 0; i < length; i++)
+		{
+			// whole clean words are skipped without looking at their bytes
+			if((i & 7) == 0 && i + 8 <= length && isZero(syndromes, i))
+			{
+				i += 7;
+				continue;
+			}
+			
+			boolean clean = true;
+			for(int checksum = 0; checksum < size; checksum++)
+				clean &= (syndrome[checksum] = syndromes[checksum].get(i)) == 0;
+			if(clean)
+				continue;
+			if(corrupt++ == 0)
+				first = i;
+			if(!located)
+				continue;
+			
+			int count = decodeDataErrors(coefficients, syndrome, positions, values);
+			if(count < 0)
+				count = decodeAnyErrors(coefficients, syndrome, previous, positions, values);
+			if(count < 0)
+			{
+				located = false;
+				continue;
+			}
+			
+			previous = Arrays.copyOf(positions, count);
+			for(int error = 0; error < count; error++)
+			{
+				if(errors[positions[error]] == null)
+					errors[positions[error]] = ByteBuffer.allocate(length);
+				errors[positions[error]].put(i, values[error]);
+			}
+		}
+		
+		if(corrupt == 0)
+			return ScrubResult.clean();
+		if(!located)
+			return new ScrubResult(null, corrupt, first, false);
+		
+		int[] corruptShards = new int[shards.length];
+		int count = 0;
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			if(errors[shard] == null)
+				continue;
+			corruptShards[count++] = shard;
+			if(repair)
+				addRegion(errors[shard], shards[shard]);
+		}
+		return new ScrubResult(Arrays.copyOf(corruptShards, count), corrupt, first, repair);
+	}
+	
+	/**
+	 * Decodes errors in data shards only, from the syndromes at one position. The error locator polynomial is found
+	 * with Berlekamp-Massey, its roots among the data locators with a Chien search, and the error values with Forney's
+	 * formula. Returns the number of errors, with their shards and values in the given arrays, or -1 if the syndromes
+	 * aren't explained by few enough corrupt data shards.<br/>
+	 * <br/>
+	 * Precondition: the syndromes aren't all zero, and the output arrays hold half as many values as there are
+	 * syndromes.
+	 */
+	private int decodeDataErrors(byte[][] coefficients, byte[] syndrome, int[] positions, byte[] values)
+	{
+		// Berlekamp-Massey: find the shortest recurrence ("lambda") generating the syndromes
+		byte[] lambda = new byte[size + 1];
+		byte[] previous = new byte[size + 1];
+		lambda[0] = previous[0] = 1;
+		int degree = 0;
+		int shift = 1;
+		byte previousDiscrepancy = 1;
+		for(int n = 0; n < size; n++)
+		{
+			byte discrepancy = syndrome[n];
+			for(int i = 1; i <= degree; i++)
+				discrepancy ^= mul(lambda[i], syndrome[n - i]);
+			if(discrepancy == 0)
+			{
+				shift++;
+				continue;
+			}
+			
+			byte scale = div(discrepancy, previousDiscrepancy);
+			byte[] old = 2 * degree <= n ? lambda.clone() : null;
+			for(int i = shift; i <= size; i++)
+				lambda[i] ^= mul(scale, previous[i - shift]);
+			if(old == null)
+				shift++;
+			else
+			{
+				degree = n + 1 - degree;
+				previous = old;
+				previousDiscrepancy = discrepancy;
+				shift = 1;
+			}
+		}
+		if(degree > positions.length)
+			return -1;
+		
+		// Chien search: the roots of lambda are the inverses of the locators of the corrupt shards
+		FiniteBytePolynomial locatorPolynomial = new FiniteBytePolynomial(Arrays.copyOf(lambda, degree + 1));
+		int dataCount = coefficients[0].length;
+		byte[] roots = locatorPolynomial.evaluate(Arrays.copyOf(INVERSE_LOCATORS, dataCount));
+		int count = 0;
+		for(int shard = 0; shard < dataCount && count < degree; shard++)
+			if(roots[shard] == 0)
+				positions[count++] = shard;
+		if(count != degree)
+			return -1;
+		
+		// Forney: each error value is X * omega(1/X) / lambda'(1/X), where omega is the syndrome polynomial times lambda
+		FiniteBytePolynomial omega = new FiniteBytePolynomial(Arrays.copyOf(syndrome, degree)).times(locatorPolynomial)
+				.remainder(FiniteBytePolynomial.monomial((byte) 1, degree));
+		FiniteBytePolynomial derivative = locatorPolynomial.derivative();
+		for(int error = 0; error < count; error++)
+		{
+			byte inverse = INVERSE_LOCATORS[positions[error]];
+			byte denominator = derivative.evaluate(inverse);
+			if(denominator == 0)
+				return -1;
+			values[error] = mul(coefficients[1][positions[error]], div(omega.evaluate(inverse), denominator));
+		}
+		
+		// lambda only accounts for the syndromes, not for how many of its roots are data locators, so check the
+		// errors found really produce every syndrome
+		for(int checksum = 0; checksum < size; checksum++)
+		{
+			byte sum = 0;
+			for(int error = 0; error < count; error++)
+				sum ^= mul(coefficients[checksum][positions[error]], values[error]);
+			if(sum != syndrome[checksum])
+				return -1;
+		}
+		return count;
+	}
+	
+	/**
+	 * Decodes errors in any shards, including checksum shards, from the syndromes at one position, by trying the given
+	 * set of shards first, and then every set with a checksum shard in it, smallest first. Returns the number of
+	 * errors, with their shards and values in the given arrays, or -1 if the syndromes aren't explained by few enough
+	 * corrupt shards.<br/>
+	 * <br/>
+	 * Precondition: the syndromes aren't all zero, and the output arrays hold half as many values as there are
+	 * syndromes.
+	 */
+	private int decodeAnyErrors(byte[][] coefficients, byte[] syndrome, int[] hint, int[] positions, byte[] values)
+	{
+		if(hint.length > 0 && solveErrors(coefficients, syndrome, hint, values))
+		{
+			System.arraycopy(hint, 0, positions, 0, hint.length);
+			return hint.length;
+		}
+		
+		int dataCount = coefficients[0].length;
+		for(int count = 1; count <= positions.length; count++)
+		{
+			int[] set = new int[count];
+			for(int i = 0; i < count; i++)
+				set[i] = i;
+			do
+			{
+				// the set is in ascending order, so it has a checksum shard if its last shard is one
+				if(set[count - 1] >= dataCount && solveErrors(coefficients, syndrome, set, values))
+				{
+					System.arraycopy(set, 0, positions, 0, count);
+					return count;
+				}
+			}
+			while(nextSet(set, dataCount + size));
+		}
+		return -1;
+	}
+	
+	/**
+	 * Solves for the error values which, in the given shards, would produce the given syndromes, using Gaussian
+	 * elimination. Returns whether there is exactly one solution, with every value non-zero.<br/>
+	 * <br/>
+	 * Precondition: the shards are valid and distinct, and there are no more of them than syndromes.
+	 */
+	private boolean solveErrors(byte[][] coefficients, byte[] syndrome, int[] shards, byte[] values)
+	{
+		int dataCount = coefficients[0].length;
+		int unknowns = shards.length;
+		byte[][] system = new byte[size][unknowns + 1];
+		for(int row = 0; row < size; row++)
+		{
+			// a checksum shard's error only shows up in its own syndrome
+			for(int col = 0; col < unknowns; col++)
+				if(shards[col] < dataCount)
+					system[row][col] = coefficients[row][shards[col]];
+				else if(shards[col] - dataCount == row)
+					system[row][col] = 1;
+			system[row][unknowns] = syndrome[row];
+		}
+		
+		for(int col = 0; col < unknowns; col++)
+		{
+			int pivot = col;
+			while(pivot < size && system[pivot][col] == 0)
+				pivot++;
+			if(pivot == size)
+				return false;
+			byte[] swap = system[pivot];
+			system[pivot] = system[col];
+			system[col] = swap;
+			
+			byte inverse = div((byte) 1, system[col][col]);
+			for(int i = col; i <= unknowns; i++)
+				system[col][i] = mul(system[col][i], inverse);
+			for(int row = 0; row < size; row++)
+			{
+				byte factor = system[row][col];
+				if(row != col && factor != 0)
+					for(int i = col; i <= unknowns; i++)
+						system[row][i] ^= mul(factor, system[col][i]);
+			}
+		}
+		
+		// rows beyond the unknowns must have been eliminated completely, or the syndromes have no solution
+		for(int row = unknowns; row < size; row++)
+			if(system[row][unknowns] != 0)
+				return false;
+		for(int col = 0; col < unknowns; col++)
+			if((values[col] = system[col][unknowns]) == 0)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Advances the given ascending set of indices below the given limit to the next one in lexicographic order, and
+	 * returns whether there was one.
+	 */
+	private static boolean nextSet(int[] set, int limit)
+	{
+		int i = set.length - 1;
+		while(i >= 0 && set[i] == limit - set.length + i)
+			i--;
+		if(i < 0)
+			return false;
+		set[i]++;
+		for(int j = i + 1; j < set.length; j++)
+			set[j] = set[j - 1] + 1;
+		return true;
+	}
+	
+	/**
+	 * Returns whether the 8 bytes at the given index of every buffer are all zero.
+	 */
+	private static boolean isZero(ByteBuffer[] buffers, int index)
+	{
+		for(ByteBuffer buffer : buffers)
+			if(buffer.getLong(index) != 0)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Returns the compiled Vandermonde matrix for the given number of data shards, compiling it the first time. Plans
+	 * are immutable, so two threads racing to compile one only waste the work.
+	 */
+	private EncodePlan plan(int dataCount)
+	{
+		EncodePlan plan = plans[dataCount];
+		if(plan == null)
+			plans[dataCount] = plan = new EncodePlan(coefficients[dataCount]);
+		return plan;
+	}
+	
+	/**
+	 * Returns this thread's last decoding for the region reconstructs if it was for the same shards, and works out a
+	 * new one otherwise.
+	 * 
+	 * @param wanted The shards to calculate, or <code>null</code> for every missing data shard.
+	 */
+	private Decoding cachedDecoding(int dataCount, boolean[] present, int[] wanted)
+	{
+		SolveCache cache = regionCache.get();
+		if(cache.decoding != null && Arrays.equals(cache.present, present) && Arrays.equals(cache.wanted, wanted))
+		{
+			Instrumentation.decodingPlanned(this, countMissing(present), true, Instrumentation.start());
+			return cache.decoding;
+		}
+		
+		boolean[] isWanted;
+		if(wanted != null)
+			isWanted = wantedShards(present.length, present, wanted);
+		else
+		{
+			isWanted = new boolean[present.length];
+			for(int shard = 0; shard < dataCount; shard++)
+				isWanted[shard] = !present[shard];
+		}
+		cache.decoding = decoding(dataCount, present, isWanted);
+		cache.present = present.clone();
+		cache.wanted = wanted == null ? null : wanted.clone();
+		return cache.decoding;
+	}
+	
+	/**
+	 * Works out how to calculate each wanted shard from the surviving shards. The survivors are every present data
+	 * shard, followed by as many present checksum shards as there are missing data shards: the first set of them, in
+	 * order, whose coefficients for the missing data can be inverted. The missing data is then
+	 * <code>W * (checksums - V * presentData)</code>, where <code>W</code> is that inverse, which folds into one row of
+	 * coefficients over the survivors per missing data shard. A missing checksum is its own row of the Vandermonde
+	 * matrix, with the missing data substituted by those rows.<br/>
+	 * <br/>
+	 * Precondition: no more shards are missing than this vector has checksums.
+	 */
+	private Decoding decoding(int dataCount, boolean[] present, boolean[] wanted)
+	{
+		long start = Instrumentation.start();
+		byte[][] vandermonde = coefficients[dataCount];
+		int[] missing = missingData(present, dataCount);
+		int[] checksums = new int[missing.length];
+		byte[][] inverse = missing.length == 0 ? new byte[0][0] : null;
+		
+		int[] presentChecksums = new int[size];
+		int presentCount = 0;
+		for(int checksum = 0; checksum < size; checksum++)
+			if(present[dataCount + checksum])
+				presentChecksums[presentCount++] = checksum;
+		int[] set = new int[missing.length];
+		for(int i = 0; i < set.length; i++)
+			set[i] = i;
+		while(inverse == null)
+		{
+			byte[][] square = new byte[missing.length][missing.length];
+			for(int row = 0; row < missing.length; row++)
+				for(int col = 0; col < missing.length; col++)
+					square[row][col] = vandermonde[presentChecksums[set[row]]][missing[col]];
+			inverse = invert(square);
+			if(inverse == null && !nextSet(set, presentCount))
+				throw new IllegalArgumentException("The surviving checksums cannot solve for the missing data");
+		}
+		for(int i = 0; i < set.length; i++)
+			checksums[i] = presentChecksums[set[i]];
+		
+		// the inputs are the present data shards, then the chosen checksum shards
+		int[] inputs = new int[dataCount];
+		int inputCount = 0;
+		for(int shard = 0; shard < dataCount; shard++)
+			if(present[shard])
+				inputs[inputCount++] = shard;
+		for(int checksum : checksums)
+			inputs[inputCount++] = dataCount + checksum;
+		
+		// row 'm' of 'data' is how missing data shard missing[m] is made from the inputs
+		byte[][] data = new byte[missing.length][dataCount];
+		for(int m = 0; m < missing.length; m++)
+		{
+			for(int c = 0; c < checksums.length; c++)
+			{
+				byte weight = inverse[m][c];
+				data[m][dataCount - missing.length + c] = weight;
+				for(int input = 0; input < dataCount - missing.length; input++)
+					data[m][input] ^= mul(weight, vandermonde[checksums[c]][inputs[input]]);
+			}
+		}
+		
+		int outputCount = 0;
+		for(boolean isWanted : wanted)
+			if(isWanted)
+				outputCount++;
+		int[] outputs = new int[outputCount];
+		byte[][] coefficients = new byte[outputCount][];
+		int output = 0;
+		for(int m = 0; m < missing.length; m++)
+		{
+			if(!wanted[missing[m]])
+				continue;
+			outputs[output] = missing[m];
+			coefficients[output++] = data[m];
+		}
+		for(int checksum = 0; checksum < size; checksum++)
+		{
+			if(!wanted[dataCount + checksum])
+				continue;
+			byte[] row = new byte[dataCount];
+			for(int input = 0; input < dataCount - missing.length; input++)
+				row[input] = vandermonde[checksum][inputs[input]];
+			for(int m = 0; m < missing.length; m++)
+				mulAddRegion(vandermonde[checksum][missing[m]], data[m], 0, row, 0, dataCount);
+			outputs[output] = dataCount + checksum;
+			coefficients[output++] = row;
+		}
+		Instrumentation.decodingPlanned(this, countMissing(present), false, start);
+		return new Decoding(inputs, outputs, coefficients);
+	}
+	
+	/**
+	 * Returns whether the missing data can be solved for from the present shards, which is when the present checksums'
+	 * coefficients for the missing data are of full rank.
+	 * 
+	 * @param coefficients The coefficients of every checksum: a row per checksum, with a column per data shard.
+	 * @param present Whether each data shard, and then each checksum shard, is present.
+	 * @param dataCount The number of data shards.
+	 */
+	static boolean canSolve(byte[][] coefficients, boolean[] present, int dataCount)
+	{
+		int[] missing = missingData(present, dataCount);
+		if(missing.length == 0)
+			return true;
+		FiniteByteFieldRowReducer rows = new FiniteByteFieldRowReducer(missing.length, 0);
+		byte[] row = new byte[missing.length];
+		for(int checksum = 0; checksum < coefficients.length && !rows.isFullRank(); checksum++)
+		{
+			if(!present[dataCount + checksum])
+				continue;
+			for(int m = 0; m < missing.length; m++)
+				row[m] = coefficients[checksum][missing[m]];
+			rows.add(row, new byte[0]);
+		}
+		return rows.isFullRank();
+	}
+	
+	/**
+	 * Returns the indices of the data shards which are not present, in order.
+	 */
+	private static int[] missingData(boolean[] present, int dataCount)
+	{
+		int count = 0;
+		for(int shard = 0; shard < dataCount; shard++)
+			if(!present[shard])
+				count++;
+		int[] missing = new int[count];
+		for(int shard = 0, found = 0; found < count; shard++)
+			if(!present[shard])
+				missing[found++] = shard;
+		return missing;
+	}
+	
+	/**
+	 * Inverts the given square matrix with Gauss-Jordan elimination, and returns the inverse, or null if the matrix is
+	 * singular. The given matrix is overwritten.
+	 */
+	static byte[][] invert(byte[][] matrix)
+	{
+		long start = Instrumentation.start();
+		int n = matrix.length;
+		byte[][] inverse = new byte[n][n];
+		for(int i = 0; i < n; i++)
+			inverse[i][i] = 1;
+		
+		for(int col = 0; col < n; col++)
+		{
+			int pivot = col;
+			while(pivot < n && matrix[pivot][col] == 0)
+				pivot++;
+			if(pivot == n)
+				return null;
+			byte[] swap = matrix[pivot];
+			matrix[pivot] = matrix[col];
+			matrix[col] = swap;
+			swap = inverse[pivot];
+			inverse[pivot] = inverse[col];
+			inverse[col] = swap;
+			
+			byte scale = div((byte) 1, matrix[col][col]);
+			mulRegion(scale, matrix[col], 0, matrix[col], 0, n);
+			mulRegion(scale, inverse[col], 0, inverse[col], 0, n);
+			for(int row = 0; row < n; row++)
+			{
+				byte factor = matrix[row][col];
+				if(row == col || factor == 0)
+					continue;
+				mulAddRegion(factor, matrix[col], 0, matrix[row], 0, n);
+				mulAddRegion(factor, inverse[col], 0, inverse[row], 0, n);
+			}
+		}
+		Instrumentation.matrixInverted(n, start);
+		return inverse;
+	}
+	
+	/**
+	 * Validates the number of data shards for this vector, and returns it.
+	 */
+	private int checkDataShards(int dataCount)
+	{
+		if(dataCount >= MAX_VALUE)
+			throw new IllegalArgumentException("Cannot checksum more than " + MAX_VALUE + " shards");
+		if(dataCount < 3)
+			throw new IllegalArgumentException("Must have at least three data shards");
+		return dataCount;
+	}
+	
+	
+	/**
+	 * How to calculate some shards from others: each output shard is the sum of the input shards, multiplied by its row
+	 * of coefficients.
+	 */
+	private static final class Decoding
+	{
+		private final int[] inputs;
+		private final int[] outputs;
+		private final byte[][] coefficients;
+		
+		private Decoding(int[] inputs, int[] outputs, byte[][] coefficients)
+		{
+			this.inputs = inputs;
+			this.outputs = outputs;
+			this.coefficients = coefficients;
+		}
+	}
+	
+	/**
+	 * One thread's last decoding for {@link MatrixChecksumVector#solveMissingValuesInto},
+	 * {@link MatrixChecksumVector#reconstructShard} or the region reconstructs, with the presence flags and wanted
+	 * shards it was worked out for.
+	 */
+	private static final class SolveCache
+	{
+		private boolean[] present;
+		private int[] wanted;
+		private Decoding decoding;
+	}
 }
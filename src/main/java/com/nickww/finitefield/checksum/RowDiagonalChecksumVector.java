@@ -0,0 +1,520 @@
+package com.nickww.finitefield.checksum;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.nickww.finitefield.instrumentation.Instrumentation;
+
+/**
+ * Creates two checksums using only XORs, with row-diagonal parity (RDP):
+ * {@link https://www.usenix.org/legacy/event/fast04/tech/corbett/corbett.pdf}. Given the smallest prime
+ * <code>p</code> greater than the number of data shards, every shard is split into units of <code>p - 1</code> longs,
+ * which are the rows of an array whose columns are the data shards (padded with zero shards to <code>p - 1</code>
+ * columns) and then the row parity. The first checksum is the row parity, and the second holds the parity of each
+ * diagonal <code>d</code>, made of the elements whose row and column add up to <code>d</code> modulo <code>p</code>,
+ * for every diagonal but the last. Any two missing shards can then be solved for by alternating between rows and
+ * diagonals which are missing only one element.<br/>
+ * <br/>
+ * Since a diagonal spans several positions of a shard, there's no per-position checksum, so
+ * {@link #withChecksums(byte[])} and {@link #solveMissingValues(Byte[])} are unsupported, along with their
+ * <code>Into</code> variants. Every region must be a multiple of {@link #shardAlignment(int)} bytes long. When a data
+ * shard and the row parity are both missing, the row parity's shard is written to while solving for the data.
+ * 
+ * @author Nick Wuensch
+ */
+class RowDiagonalChecksumVector extends ChecksumVector
+{
+	private static final int BLOCK_SIZE = 1 << 14;
+	
+	private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+	
+	private final Map<Integer, Schedule> encodings = new ConcurrentHashMap<>();
+	
+	@Override
+	public int numChecksums()
+	{
+		return 2;
+	}
+	
+	@Override
+	public int shardAlignment(int dataShards)
+	{
+		return (prime(dataShards) - 1) * Long.BYTES;
+	}
+	
+	/**
+	 * @throws UnsupportedOperationException always, as the diagonal parity isn't calculated per position.
+	 */
+	@Override
+	public byte[] withChecksums(byte[] data)
+	{
+		throw new UnsupportedOperationException("Row-diagonal parity can only be calculated over whole shards");
+	}
+	
+	/**
+	 * @throws UnsupportedOperationException always, as the diagonal parity isn't calculated per position.
+	 */
+	@Override
+	public byte[] solveMissingValues(Byte[] dataWithChecksums)
+	{
+		throw new UnsupportedOperationException("Row-diagonal parity can only be solved over whole shards");
+	}
+	
+	/**
+	 * @throws UnsupportedOperationException always, as the diagonal parity isn't calculated per position.
+	 */
+	@Override
+	public void withChecksumsInto(byte[] data, byte[] checksummed)
+	{
+		withChecksums(data);
+	}
+	
+	/**
+	 * @throws UnsupportedOperationException always, as the diagonal parity isn't calculated per position.
+	 */
+	@Override
+	public void solveMissingValuesInto(byte[] dataWithChecksums, boolean[] present, byte[] data)
+	{
+		solveMissingValues(null);
+	}
+	
+	@Override
+	public void encode(byte[][] shards, int offset, int length)
+	{
+		checkShards(shards, offset, length);
+		encode(wrap(shards, offset, length));
+	}
+	
+	@Override
+	public void reconstruct(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		checkShards(shards, present, offset, length);
+		reconstruct(wrap(shards, offset, length), present);
+	}
+	
+	@Override
+	public void rebuild(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		checkShards(shards, present, offset, length);
+		rebuild(wrap(shards, offset, length), present);
+	}
+	
+	@Override
+	public void encode(ByteBuffer[] shards)
+	{
+		long start = Instrumentation.start();
+		int length = checkAlignment(shards.length - 2, checkShards(shards));
+		apply(encoding(shards.length - 2), shards, length);
+		Instrumentation.encoded(this, shards.length - 2, length, start);
+	}
+	
+	@Override
+	public void reconstruct(ByteBuffer[] shards, boolean[] present)
+	{
+		long start = Instrumentation.start();
+		int length = checkAlignment(shards.length - 2, checkShards(shards, present));
+		boolean[] targets = new boolean[shards.length];
+		int recovered = 0;
+		for(int shard = 0; shard < shards.length - 2; shard++)
+			if(targets[shard] = !present[shard])
+				recovered++;
+		apply(plan(present, targets), shards, length);
+		Instrumentation.decoded(this, countMissing(present), recovered, length, start);
+	}
+	
+	@Override
+	public void rebuild(ByteBuffer[] shards, boolean[] present)
+	{
+		long start = Instrumentation.start();
+		int length = checkAlignment(shards.length - 2, checkShards(shards, present));
+		boolean[] targets = new boolean[shards.length];
+		for(int shard = 0; shard < shards.length; shard++)
+			targets[shard] = !present[shard];
+		apply(plan(present, targets), shards, length);
+		Instrumentation.decoded(this, countMissing(present), countMissing(present), length, start);
+	}
+	
+	@Override
+	protected void calculateChecksums(byte[][] shards, int offset, int length, byte[][] checksums)
+	{
+		int dataCount = shards.length - 2;
+		checkAlignment(dataCount, length);
+		ByteBuffer[] buffers = new ByteBuffer[shards.length];
+		for(int shard = 0; shard < dataCount; shard++)
+			buffers[shard] = ByteBuffer.wrap(shards[shard], offset, length);
+		for(int checksum = 0; checksum < 2; checksum++)
+			buffers[dataCount + checksum] = ByteBuffer.wrap(checksums[checksum], 0, length);
+		apply(encoding(dataCount), buffers, length);
+	}
+	
+	/**
+	 * Runs the given schedule over every unit of the remaining bytes of the given shards. The shards are worked through
+	 * a block of units at a time: the block of each shard the schedule reads is copied into an array of longs, the steps
+	 * run over the arrays, and the blocks of the shards it writes are copied back. The arrays are kept per thread, so
+	 * once a thread has seen its widest stripe, only the long views of the buffers are allocated.<br/>
+	 * <br/>
+	 * Precondition: every shard has 'length' bytes remaining, which is a multiple of the unit size.
+	 */
+	private static void apply(Schedule schedule, ByteBuffer[] shards, int length)
+	{
+		int rows = schedule.rows;
+		int blockLongs = Math.max(rows, BLOCK_SIZE / Long.BYTES / rows * rows);
+		Scratch scratch = RowDiagonalChecksumVector.scratch.get().ensure(shards.length, blockLongs);
+		LongBuffer[] views = scratch.views;
+		long[][] blocks = scratch.blocks;
+		for(int shard : schedule.reads)
+			views[shard] = longs(shards[shard]);
+		for(int shard : schedule.writes)
+			views[shard] = longs(shards[shard]);
+		
+		int[] targetShards = schedule.targetShards;
+		int[] targetRows = schedule.targetRows;
+		int[] firstSources = schedule.firstSources;
+		int[] sourceShards = schedule.sourceShards;
+		int[] sourceRows = schedule.sourceRows;
+		int longs = length / Long.BYTES;
+		for(int block = 0; block < longs; block += blockLongs)
+		{
+			int count = Math.min(blockLongs, longs - block);
+			for(int shard : schedule.reads)
+				((LongBuffer) ((Buffer) views[shard]).position(block)).get(blocks[shard], 0, count);
+			for(int run = 0; run < schedule.runTargets.length; run++)
+			{
+				long[] target = blocks[schedule.runTargets[run]];
+				int[] sources = schedule.runSources[run];
+				System.arraycopy(blocks[sources[0]], 0, target, 0, count);
+				for(int source = 1; source < sources.length; source++)
+				{
+					long[] values = blocks[sources[source]];
+					for(int i = 0; i < count; i++)
+						target[i] ^= values[i];
+				}
+			}
+			for(int unit = 0; unit < count; unit += rows)
+			{
+				for(int step = 0; step < targetShards.length; step++)
+				{
+					long sum = 0;
+					for(int source = firstSources[step]; source < firstSources[step + 1]; source++)
+						sum ^= blocks[sourceShards[source]][unit + sourceRows[source]];
+					blocks[targetShards[step]][unit + targetRows[step]] = sum;
+				}
+			}
+			for(int shard : schedule.writes)
+				((LongBuffer) ((Buffer) views[shard]).position(block)).put(blocks[shard], 0, count);
+		}
+		Arrays.fill(views, null);
+	}
+	
+	/**
+	 * Returns a view of the remaining bytes of the given buffer as longs, in the native byte order. Any order works as
+	 * long as every shard is viewed in the same one, and the native order is the cheapest to copy.
+	 */
+	private static LongBuffer longs(ByteBuffer buffer)
+	{
+		if(buffer.order() != ByteOrder.nativeOrder())
+			buffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+		return buffer.asLongBuffer();
+	}
+	
+	/**
+	 * Works out the schedule for a decode, and reports it.
+	 */
+	private Schedule plan(boolean[] present, boolean[] targets)
+	{
+		long start = Instrumentation.start();
+		Schedule schedule = schedule(present.length - 2, present, targets);
+		Instrumentation.decodingPlanned(this, countMissing(present), false, start);
+		return schedule;
+	}
+	
+	/**
+	 * Returns the schedule which calculates both checksums from the data, which is the same for every encode with the
+	 * same number of data shards.
+	 */
+	private Schedule encoding(int dataCount)
+	{
+		return encodings.computeIfAbsent(dataCount, count ->
+		{
+			boolean[] present = new boolean[count + 2];
+			Arrays.fill(present, 0, count, true);
+			boolean[] targets = new boolean[count + 2];
+			targets[count] = targets[count + 1] = true;
+			return schedule(count, present, targets);
+		});
+	}
+	
+	/**
+	 * Works out the order in which the missing elements of a unit can be solved for, and returns the steps needed to
+	 * solve for the elements of the target shards. Each element is identified by <code>shard * rows + row</code>.
+	 * Every row and every stored diagonal is an equation whose elements XOR to zero; whenever one has a single
+	 * unknown element, that element is the XOR of the rest, which may leave another equation with a single unknown.
+	 * This is the same chain of rows and diagonals which RDP's reconstruction follows, and is only worked out once per
+	 * call, rather than once per unit.
+	 * 
+	 * @throws IllegalArgumentException if the missing elements cannot all be solved for.
+	 */
+	private static Schedule schedule(int dataCount, boolean[] present, boolean[] targets)
+	{
+		int p = prime(dataCount);
+		int rows = p - 1;
+		int rowParity = dataCount;
+		int diagonalParity = dataCount + 1;
+		
+		List<int[]> equations = new ArrayList<>(2 * rows);
+		for(int row = 0; row < rows; row++)
+		{
+			int[] equation = new int[dataCount + 1];
+			for(int shard = 0; shard <= dataCount; shard++)
+				equation[shard] = shard * rows + row;
+			equations.add(equation);
+		}
+		for(int diagonal = 0; diagonal < rows; diagonal++)
+		{
+			// the zero shards padding the data to p - 1 columns add nothing, and the row parity is column p - 1
+			int[] equation = new int[dataCount + 2];
+			int size = 0;
+			for(int shard = 0; shard <= dataCount; shard++)
+			{
+				int column = shard == rowParity ? p - 1 : shard;
+				int row = (diagonal - column + p) % p;
+				if(row < rows)
+					equation[size++] = shard * rows + row;
+			}
+			equation[size++] = diagonalParity * rows + diagonal;
+			equations.add(Arrays.copyOf(equation, size));
+		}
+		
+		int elements = (dataCount + 2) * rows;
+		boolean[] known = new boolean[elements];
+		List<List<Integer>> containing = new ArrayList<>(elements);
+		for(int element = 0; element < elements; element++)
+		{
+			known[element] = present[element / rows];
+			containing.add(new ArrayList<>(2));
+		}
+		int[] unknowns = new int[equations.size()];
+		Deque<Integer> solvable = new ArrayDeque<>();
+		for(int equation = 0; equation < equations.size(); equation++)
+		{
+			for(int element : equations.get(equation))
+			{
+				if(!known[element])
+				{
+					unknowns[equation]++;
+					containing.get(element).add(equation);
+				}
+			}
+			if(unknowns[equation] == 1)
+				solvable.add(equation);
+		}
+		
+		List<int[]> steps = new ArrayList<>();
+		while(!solvable.isEmpty())
+		{
+			int[] equation = equations.get(solvable.poll());
+			int target = -1;
+			for(int element : equation)
+				if(!known[element])
+					target = element;
+			if(target < 0)
+				continue;
+			
+			int[] step = new int[equation.length];
+			step[0] = target;
+			for(int element = 0, source = 1; element < equation.length; element++)
+				if(equation[element] != target)
+					step[source++] = equation[element];
+			steps.add(step);
+			known[target] = true;
+			for(int other : containing.get(target))
+				if(--unknowns[other] == 1)
+					solvable.add(other);
+		}
+		for(int element = 0; element < elements; element++)
+			if(!known[element])
+				throw new IllegalArgumentException("Too many missing values - can only handle 2");
+		
+		// keep only the steps which lead to a target, working backwards from the last
+		boolean[] needed = new boolean[elements];
+		for(int element = 0; element < elements; element++)
+			needed[element] = targets[element / rows];
+		List<int[]> kept = new ArrayList<>(steps.size());
+		for(int step = steps.size() - 1; step >= 0; step--)
+		{
+			int[] solved = steps.get(step);
+			if(!needed[solved[0]])
+				continue;
+			kept.add(0, solved);
+			for(int source = 1; source < solved.length; source++)
+				needed[solved[source]] = true;
+		}
+		return new Schedule(rows, present.length, kept);
+	}
+	
+	/**
+	 * Validates that the given region length is a whole number of units, and returns it.
+	 */
+	private int checkAlignment(int dataCount, int length)
+	{
+		if(length % shardAlignment(dataCount) != 0)
+			throw new IllegalArgumentException("Region length must be a multiple of " + shardAlignment(dataCount));
+		return length;
+	}
+	
+	/**
+	 * Returns the smallest prime greater than the given number of data shards.
+	 */
+	private static int prime(int dataCount)
+	{
+		int p = dataCount + 1;
+		while(!isPrime(p))
+			p++;
+		return p;
+	}
+	
+	private static boolean isPrime(int n)
+	{
+		if(n < 2)
+			return false;
+		for(int factor = 2; factor * factor <= n; factor++)
+			if(n % factor == 0)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * The steps which solve for elements of a unit, in order. Each step sets its target element to the XOR of its source
+	 * elements. The shard and row of every element are worked out once, when the schedule is built, along with which
+	 * shards the steps read from the buffers and which they write to. Leading steps which set every row of a shard to
+	 * the XOR of the same rows of the same present shards, like the row parity when encoding, are turned into a run,
+	 * which is done over a whole block of longs at a time rather than a unit at a time.
+	 */
+	private static final class Schedule
+	{
+		private final int rows;
+		private final int[] targetShards;
+		private final int[] targetRows;
+		private final int[] firstSources; // the index of each step's first source, and then the number of sources
+		private final int[] sourceShards;
+		private final int[] sourceRows;
+		private final int[] reads;
+		private final int[] writes;
+		private final int[] runTargets;
+		private final int[][] runSources;
+		
+		private Schedule(int rows, int shardCount, List<int[]> steps)
+		{
+			this.rows = rows;
+			boolean[] written = new boolean[shardCount];
+			for(int[] step : steps)
+				written[step[0] / rows] = true;
+			int runs = 0;
+			while((runs + 1) * rows <= steps.size() && isRun(steps.subList(runs * rows, (runs + 1) * rows), written))
+				runs++;
+			this.runTargets = new int[runs];
+			this.runSources = new int[runs][];
+			for(int run = 0; run < runs; run++)
+			{
+				int[] first = steps.get(run * rows);
+				runTargets[run] = first[0] / rows;
+				runSources[run] = new int[first.length - 1];
+				for(int source = 0; source < runSources[run].length; source++)
+					runSources[run][source] = first[source + 1] / rows;
+			}
+			steps = steps.subList(runs * rows, steps.size());
+			
+			this.targetShards = new int[steps.size()];
+			this.targetRows = new int[steps.size()];
+			this.firstSources = new int[steps.size() + 1];
+			for(int step = 0; step < steps.size(); step++)
+				firstSources[step + 1] = firstSources[step] + steps.get(step).length - 1;
+			this.sourceShards = new int[firstSources[steps.size()]];
+			this.sourceRows = new int[sourceShards.length];
+			
+			boolean[] read = new boolean[shardCount];
+			for(int[] sources : runSources)
+				for(int source : sources)
+					read[source] = true;
+			for(int step = 0; step < steps.size(); step++)
+			{
+				int[] elements = steps.get(step);
+				targetShards[step] = elements[0] / rows;
+				targetRows[step] = elements[0] % rows;
+				for(int element = 1; element < elements.length; element++)
+				{
+					int source = firstSources[step] + element - 1;
+					sourceShards[source] = elements[element] / rows;
+					sourceRows[source] = elements[element] % rows;
+					read[sourceShards[source]] = true;
+				}
+			}
+			
+			// a shard which is written is missing, so it is only read where it has been solved for
+			int[] reads = new int[shardCount];
+			int[] writes = new int[shardCount];
+			int readCount = 0;
+			int writeCount = 0;
+			for(int shard = 0; shard < shardCount; shard++)
+			{
+				if(written[shard])
+					writes[writeCount++] = shard;
+				else if(read[shard])
+					reads[readCount++] = shard;
+			}
+			this.reads = Arrays.copyOf(reads, readCount);
+			this.writes = Arrays.copyOf(writes, writeCount);
+		}
+		
+		/**
+		 * Returns whether the given steps, one per row, set each row of one shard to the XOR of the same rows of the
+		 * same shards, none of which is written.
+		 */
+		private boolean isRun(List<int[]> steps, boolean[] written)
+		{
+			int[] first = steps.get(0);
+			for(int row = 0; row < rows; row++)
+			{
+				int[] step = steps.get(row);
+				if(step.length != first.length || step[0] != first[0] + row)
+					return false;
+				for(int element = 1; element < step.length; element++)
+					if(step[element] != first[element] + row || written[step[element] / rows])
+						return false;
+			}
+			// every element of the first step must be in row 0, so that the steps cover each shard's rows in order
+			for(int element : first)
+				if(element % rows != 0)
+					return false;
+			return true;
+		}
+	}
+	
+	/**
+	 * One thread's long views of the shards and arrays for a block of each, reused by every call on the thread.
+	 */
+	private static final class Scratch
+	{
+		private LongBuffer[] views = new LongBuffer[0];
+		private long[][] blocks = new long[0][];
+		
+		private Scratch ensure(int shardCount, int blockLongs)
+		{
+			if(views.length < shardCount)
+				views = new LongBuffer[shardCount];
+			if(blocks.length < shardCount || blocks[0].length < blockLongs)
+				blocks = new long[Math.max(shardCount, blocks.length)][Math.max(blockLongs, blocks.length == 0 ? 0
+						: blocks[0].length)];
+			return this;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.nickww.finitefield.checksum;
+
+import java.util.Arrays;
+
+/**
+ * The outcome of checking a region of shards against its checksums (see
+ * {@link ChecksumVector#scrub(java.nio.ByteBuffer[], boolean)}). A region is either clean, corrupt in shards which
+ * could be located (and possibly repaired), or corrupt in a way which could not be pinned to particular shards.
+ * Instances of this class are immutable.
+ * 
+ * @author Nick Wuensch
+ */
+public final class ScrubResult
+{
+	private static final ScrubResult CLEAN = new ScrubResult(new int[0], 0, -1, false);
+	
+	private final int[] corruptShards;
+	private final int corruptBytes;
+	private final int firstCorruptOffset;
+	private final boolean repaired;
+	
+	/**
+	 * Creates a result with at most one corrupt shard, which is -1 if it could not be located.
+	 */
+	ScrubResult(int corruptShard, int corruptBytes, int firstCorruptOffset, boolean repaired)
+	{
+		this(corruptShard < 0 ? null : new int[] { corruptShard }, corruptBytes, firstCorruptOffset, repaired);
+	}
+	
+	/**
+	 * Creates a result with the given corrupt shards, in ascending order, which is null if they could not be located.
+	 */
+	ScrubResult(int[] corruptShards, int corruptBytes, int firstCorruptOffset, boolean repaired)
+	{
+		this.corruptShards = corruptShards;
+		this.corruptBytes = corruptBytes;
+		this.firstCorruptOffset = firstCorruptOffset;
+		this.repaired = repaired;
+	}
+	
+	/**
+	 * Returns the result of a region with no corruption.
+	 */
+	static ScrubResult clean()
+	{
+		return CLEAN;
+	}
+	
+	/**
+	 * Returns whether every byte position in the region matched its checksums.
+	 * 
+	 * @return True if no corruption was found.
+	 */
+	public boolean isClean()
+	{
+		return corruptBytes == 0;
+	}
+	
+	/**
+	 * Returns whether the corruption was pinned to particular shards. This is false for a clean region.
+	 * 
+	 * @return True if {@link #corruptShards()} are the corrupt shards.
+	 */
+	public boolean isLocated()
+	{
+		return !isClean() && corruptShards != null;
+	}
+	
+	/**
+	 * Returns the index of the corrupt shard, counting data shards and then checksum shards, or -1 if the region is
+	 * clean, the corruption could not be located, or more than one shard is corrupt.
+	 * 
+	 * @return The index of the corrupt shard, or -1.
+	 */
+	public int corruptShard()
+	{
+		return isLocated() && corruptShards.length == 1 ? corruptShards[0] : -1;
+	}
+	
+	/**
+	 * Returns the indices of every shard which was found to be corrupt, counting data shards and then checksum shards.
+	 * This is empty if the region is clean or the corruption could not be located.
+	 * 
+	 * @return The indices of the corrupt shards, in ascending order.
+	 */
+	public int[] corruptShards()
+	{
+		return isLocated() ? corruptShards.clone() : new int[0];
+	}
+	
+	/**
+	 * Returns the number of byte positions in the region which did not match their checksums.
+	 * 
+	 * @return The number of corrupt positions.
+	 */
+	public int corruptBytes()
+	{
+		return corruptBytes;
+	}
+	
+	/**
+	 * Returns the first byte position which did not match its checksums, relative to the start of the region, or -1 if
+	 * the region is clean.
+	 * 
+	 * @return The first corrupt position, or -1.
+	 */
+	public int firstCorruptOffset()
+	{
+		return firstCorruptOffset;
+	}
+	
+	/**
+	 * Returns whether the corrupt shard was repaired in place, so that the region now matches its checksums.
+	 * 
+	 * @return True if the corruption was repaired.
+	 */
+	public boolean isRepaired()
+	{
+		return repaired;
+	}
+	
+	@Override
+	public String toString()
+	{
+		if(isClean())
+			return "clean";
+		return corruptBytes + " corrupt bytes from offset " + firstCorruptOffset + " in "
+				+ (isLocated() ? "shards " + Arrays.toString(corruptShards) : "unknown shards")
+				+ (repaired ? " (repaired)" : "");
+	}
+}
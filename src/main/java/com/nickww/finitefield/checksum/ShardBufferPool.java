@@ -0,0 +1,130 @@
+package com.nickww.finitefield.checksum;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A pool of shard-sized buffers, so that scratch space for encoding and decoding is reused rather than allocated on
+ * every call. Buffers are handed out in power-of-two capacities, with the limit set to the size asked for, and each
+ * thread caches a few released buffers of each capacity, so a thread which keeps working on shards of the same size
+ * stops allocating after its first call. There is one heap pool and one direct pool, and the checksum vectors take
+ * their scratch space from whichever matches the shards they are given.<br/>
+ * <br/>
+ * Only buffers acquired from a pool should be released to it, and only once; a released buffer must not be used
+ * again. Instances of this class are thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public final class ShardBufferPool
+{
+	private static final int SIZE_CLASSES = 31;
+	private static final int CACHED_PER_CLASS = 8;
+	private static final ShardBufferPool heap = new ShardBufferPool(false);
+	private static final ShardBufferPool direct = new ShardBufferPool(true);
+	
+	private final boolean isDirect;
+	private final ThreadLocal<Cache> cache = ThreadLocal.withInitial(Cache::new);
+	
+	private ShardBufferPool(boolean isDirect)
+	{
+		this.isDirect = isDirect;
+	}
+	
+	/**
+	 * @return The pool of heap buffers, whose backing arrays are accessible.
+	 */
+	public static ShardBufferPool heap()
+	{
+		return heap;
+	}
+	
+	/**
+	 * @return The pool of direct buffers.
+	 */
+	public static ShardBufferPool direct()
+	{
+		return direct;
+	}
+	
+	/**
+	 * Returns the pool whose buffers are the same kind as the given one, heap or direct.
+	 * 
+	 * @param buffer The buffer to match.
+	 * @return The direct pool if the buffer is direct, and the heap pool otherwise.
+	 */
+	public static ShardBufferPool matching(ByteBuffer buffer)
+	{
+		return buffer.isDirect() ? direct : heap;
+	}
+	
+	/**
+	 * Returns a big-endian buffer with at least the given capacity, positioned at 0 with its limit at the given size.
+	 * Its contents are undefined.
+	 * 
+	 * @param size The number of bytes needed.
+	 * @return A buffer from this thread's cache, or a new one if the cache has none of the right capacity.
+	 * @throws IllegalArgumentException if the size is negative.
+	 */
+	public ByteBuffer acquire(int size)
+	{
+		if(size < 0)
+			throw new IllegalArgumentException("Size cannot be negative");
+		
+		int sizeClass = sizeClass(size);
+		ByteBuffer buffer = null;
+		if(sizeClass < SIZE_CLASSES)
+		{
+			Cache cache = this.cache.get();
+			if(cache.counts[sizeClass] > 0)
+			{
+				buffer = cache.buffers[sizeClass][--cache.counts[sizeClass]];
+				cache.buffers[sizeClass][cache.counts[sizeClass]] = null;
+			}
+		}
+		if(buffer == null)
+		{
+			int capacity = sizeClass < SIZE_CLASSES ? 1 << sizeClass : size;
+			buffer = isDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+		((Buffer) buffer).clear().limit(size);
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer to this thread's cache, unless the cache is full or the buffer could not have come from this
+	 * pool, in which case it is left to be garbage collected.
+	 * 
+	 * @param buffer A buffer acquired from this pool, which is not used again.
+	 */
+	public void release(ByteBuffer buffer)
+	{
+		int capacity = buffer.capacity();
+		if(buffer.isDirect() != isDirect || buffer.isReadOnly() || Integer.bitCount(capacity) != 1)
+			return;
+		
+		int sizeClass = sizeClass(capacity);
+		Cache cache = this.cache.get();
+		if(sizeClass >= SIZE_CLASSES || cache.counts[sizeClass] == CACHED_PER_CLASS)
+			return;
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		cache.buffers[sizeClass][cache.counts[sizeClass]++] = buffer;
+	}
+	
+	/**
+	 * Returns the base 2 logarithm of the smallest power of two which is at least the given size.
+	 */
+	private static int sizeClass(int size)
+	{
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+	
+	/**
+	 * One thread's released buffers, as a stack per size class.
+	 */
+	private static final class Cache
+	{
+		private final ByteBuffer[][] buffers = new ByteBuffer[SIZE_CLASSES][CACHED_PER_CLASS];
+		private final int[] counts = new int[SIZE_CLASSES];
+	}
+}
@@ -0,0 +1,24 @@
+package com.nickww.finitefield.checksum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives a reconstructed shard, one stripe at a time, from
+ * {@link ChecksumVector#reconstructShard(int, ShardSource, ShardSink)}.
+ * 
+ * @author Nick Wuensch
+ */
+@FunctionalInterface
+public interface ShardSink
+{
+	/**
+	 * Accepts the reconstructed shard's bytes in one stripe. The buffer is reused once this method returns, so its
+	 * bytes must be written or copied before then.
+	 * 
+	 * @param stripe The index of the stripe.
+	 * @param shard A buffer whose remaining bytes are the reconstructed shard's bytes in the stripe.
+	 * @throws IOException if the bytes cannot be written.
+	 */
+	void write(long stripe, ByteBuffer shard) throws IOException;
+}
@@ -0,0 +1,44 @@
+package com.nickww.finitefield.checksum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The surviving shards of a set of stripes which have all lost the same shards, as when a disk fails, for
+ * {@link ChecksumVector#reconstructShard(int, ShardSource, ShardSink)}. Which shards are present is the same in every
+ * stripe, so the reconstruction is worked out once, and only the shards it needs are read.
+ * 
+ * @author Nick Wuensch
+ */
+public interface ShardSource
+{
+	/**
+	 * @return The number of data shards plus the number of checksum shards in each stripe.
+	 */
+	int shardCount();
+	
+	/**
+	 * @return The number of stripes, which are reconstructed in order starting from 0.
+	 */
+	long stripeCount();
+	
+	/**
+	 * Returns whether the given shard survives, and so can be read, in every stripe.
+	 * 
+	 * @param shard The index of the shard.
+	 * @return Whether the shard is present.
+	 */
+	boolean isPresent(int shard);
+	
+	/**
+	 * Reads one shard of one stripe. Every shard read for a stripe must have the same number of bytes remaining,
+	 * though stripes may differ, such as a shorter final stripe. The buffer is only read from, and only until the next
+	 * stripe is read, so a source may reuse its buffers from stripe to stripe.
+	 * 
+	 * @param stripe The index of the stripe.
+	 * @param shard The index of a present shard.
+	 * @return A buffer whose remaining bytes are the shard's bytes in the stripe.
+	 * @throws IOException if the shard cannot be read.
+	 */
+	ByteBuffer read(long stripe, int shard) throws IOException;
+}
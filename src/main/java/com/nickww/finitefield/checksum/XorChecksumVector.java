@@ -2,10 +2,35 @@ package com.nickww.finitefield.checksum;
 
 import static com.nickww.finitefield.FiniteByteField.*;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
+import com.nickww.finitefield.instrumentation.Instrumentation;
+
 final class XorChecksumVector extends ChecksumVector
 {
+	private final boolean instrumented;
+	
+	XorChecksumVector()
+	{
+		this(true);
+	}
+	
+	/**
+	 * @param instrumented Whether to report to {@link Instrumentation}. Vectors which use this one for part of their
+	 * work turn it off, so that the work isn't reported twice.
+	 */
+	XorChecksumVector(boolean instrumented)
+	{
+		this.instrumented = instrumented;
+	}
+	
+	@Override
+	public int numChecksums()
+	{
+		return 1;
+	}
+	
 	@Override
 	public byte[] withChecksums(byte[] data)
 	{
@@ -34,4 +59,139 @@ final class XorChecksumVector extends ChecksumVector
 			data[nullIndices.get(0)] = add(dataWithChecksums[dataWithChecksums.length - 1], add(data));
 		return data;
 	}
+	
+	@Override
+	public void withChecksumsInto(byte[] data, byte[] checksummed)
+	{
+		if(data.length < 1)
+			throw new IllegalArgumentException("Data array must have at least one element");
+		if(checksummed.length < data.length + 1)
+			throw new IllegalArgumentException("Output must have room for the data and the checksum");
+		
+		System.arraycopy(data, 0, checksummed, 0, data.length);
+		checksummed[data.length] = add(data);
+	}
+	
+	@Override
+	public void solveMissingValuesInto(byte[] dataWithChecksums, boolean[] present, byte[] data)
+	{
+		checkInto(dataWithChecksums, present, data);
+		int dataCount = dataWithChecksums.length - 1;
+		int missing = firstMissing(present);
+		byte sum = 0;
+		for(int i = 0; i < dataCount; i++)
+		{
+			if(i != missing)
+			{
+				data[i] = dataWithChecksums[i];
+				sum ^= data[i];
+			}
+		}
+		if(missing >= 0 && missing < dataCount)
+			data[missing] = (byte) (sum ^ dataWithChecksums[dataCount]);
+	}
+	
+	@Override
+	public void encode(byte[][] shards, int offset, int length)
+	{
+		long start = start();
+		int dataCount = checkShards(shards, offset, length);
+		byte[] parity = shards[dataCount];
+		System.arraycopy(shards[0], offset, parity, offset, length);
+		for(int shard = 1; shard < dataCount; shard++)
+			addRegion(shards[shard], offset, parity, offset, length);
+		Instrumentation.encoded(this, dataCount, length, start);
+	}
+	
+	@Override
+	public void reconstruct(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		long start = start();
+		int dataCount = checkShards(shards, present, offset, length);
+		int missing = firstMissing(present);
+		if(missing < 0 || missing == dataCount)
+			return;
+		
+		byte[] solved = shards[missing];
+		System.arraycopy(shards[dataCount], offset, solved, offset, length);
+		for(int shard = 0; shard < dataCount; shard++)
+			if(present[shard])
+				addRegion(shards[shard], offset, solved, offset, length);
+		Instrumentation.decoded(this, 1, 1, length, start);
+	}
+	
+	@Override
+	public void encode(ByteBuffer[] shards)
+	{
+		long start = start();
+		int length = checkShards(shards);
+		ByteBuffer parity = shards[shards.length - 1];
+		mulRegion((byte) 1, shards[0], parity);
+		for(int shard = 1; shard < shards.length - 1; shard++)
+			addRegion(shards[shard], parity);
+		Instrumentation.encoded(this, shards.length - 1, length, start);
+	}
+	
+	@Override
+	public void reconstruct(ByteBuffer[] shards, boolean[] present)
+	{
+		long start = start();
+		int length = checkShards(shards, present);
+		int dataCount = shards.length - 1;
+		int missing = firstMissing(present);
+		if(missing < 0 || missing == dataCount)
+			return;
+		
+		ByteBuffer solved = shards[missing];
+		mulRegion((byte) 1, shards[dataCount], solved);
+		for(int shard = 0; shard < dataCount; shard++)
+			if(present[shard])
+				addRegion(shards[shard], solved);
+		Instrumentation.decoded(this, 1, 1, length, start);
+	}
+	
+	@Override
+	public void rebuild(byte[][] shards, boolean[] present, int offset, int length)
+	{
+		int dataCount = checkShards(shards, present, offset, length);
+		if(present[dataCount])
+			reconstruct(shards, present, offset, length);
+		else
+			encode(shards, offset, length);
+	}
+	
+	@Override
+	public void rebuild(ByteBuffer[] shards, boolean[] present)
+	{
+		checkShards(shards, present);
+		if(present[shards.length - 1])
+			reconstruct(shards, present);
+		else
+			encode(shards);
+	}
+	
+	@Override
+	protected void calculateChecksums(byte[][] shards, int offset, int length, byte[][] checksums)
+	{
+		byte[] parity = checksums[0];
+		System.arraycopy(shards[0], offset, parity, 0, length);
+		for(int shard = 1; shard < shards.length - 1; shard++)
+			addRegion(shards[shard], offset, parity, 0, length);
+	}
+	
+	private long start()
+	{
+		return instrumented ? Instrumentation.start() : Instrumentation.DISABLED;
+	}
+	
+	/**
+	 * Returns the index of the first value which isn't present, or -1 if they all are.
+	 */
+	private static int firstMissing(boolean[] present)
+	{
+		for(int index = 0; index < present.length; index++)
+			if(!present[index])
+				return index;
+		return -1;
+	}
 }
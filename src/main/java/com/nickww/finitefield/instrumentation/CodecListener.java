@@ -0,0 +1,66 @@
+package com.nickww.finitefield.instrumentation;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * Receives reports of the work done by the checksum vectors and matrices, once it is registered with
+ * {@link Instrumentation}, or listed as a service in
+ * <code>META-INF/services/com.nickww.finitefield.instrumentation.CodecListener</code>. Every method does nothing by
+ * default, so implementations only override what they are interested in.<br/>
+ * <br/>
+ * The methods are called on the thread which did the work, straight after it, so they should be quick and must be
+ * thread-safe. Exceptions thrown by a listener are thrown from the operation it was told about.
+ * 
+ * @author Nick Wuensch
+ */
+public interface CodecListener
+{
+	/**
+	 * Called when checksums have been calculated for a stripe.
+	 * 
+	 * @param vector The vector which calculated the checksums.
+	 * @param dataShards The number of data shards in the stripe.
+	 * @param length The number of bytes of each shard which were encoded.
+	 * @param nanos How long the encode took.
+	 */
+	default void encoded(ChecksumVector vector, int dataShards, int length, long nanos)
+	{
+	}
+	
+	/**
+	 * Called when missing shards of a stripe have been reconstructed.
+	 * 
+	 * @param vector The vector which reconstructed them.
+	 * @param erasures The number of shards of the stripe which were missing.
+	 * @param recovered The number of shards which were written, which can be fewer than the erasures when only some
+	 * were wanted.
+	 * @param length The number of bytes of each shard which were reconstructed.
+	 * @param nanos How long the reconstruction took, including any planning.
+	 */
+	default void decoded(ChecksumVector vector, int erasures, int recovered, int length, long nanos)
+	{
+	}
+	
+	/**
+	 * Called when a vector has worked out how to decode a pattern of missing shards, or found how in a cache.
+	 * 
+	 * @param vector The vector decoding.
+	 * @param erasures The number of shards which are missing.
+	 * @param cached Whether the plan came from a cache, rather than being worked out.
+	 * @param nanos How long it took to work out or look up the plan, including any matrix inversions.
+	 */
+	default void decodingPlanned(ChecksumVector vector, int erasures, boolean cached, long nanos)
+	{
+	}
+	
+	/**
+	 * Called when a square matrix has been inverted, either by a {@link com.nickww.finitefield.FiniteByteFieldMatrix}
+	 * or while planning a decode.
+	 * 
+	 * @param size The number of rows (and columns) of the matrix.
+	 * @param nanos How long the inversion took.
+	 */
+	default void matrixInverted(int size, long nanos)
+	{
+	}
+}
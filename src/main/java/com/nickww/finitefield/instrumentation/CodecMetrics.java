@@ -0,0 +1,180 @@
+package com.nickww.finitefield.instrumentation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * A listener which keeps running totals of everything reported to it, for exporting to a metrics system. Register it
+ * with {@link Instrumentation#register(CodecListener)}. Decode latencies are kept as a histogram per number of
+ * erasures, with power-of-two buckets: bucket <code>i</code> counts the decodes which took from 2<sup>i</sup> up to
+ * 2<sup>i+1</sup> nanoseconds (bucket 0 also counts those which took 0). Instances of this class are thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class CodecMetrics implements CodecListener
+{
+	/**
+	 * The number of buckets in each latency histogram, which covers every possible latency.
+	 */
+	public static final int BUCKETS = 63;
+	
+	private final LongAdder encodes = new LongAdder();
+	private final LongAdder bytesEncoded = new LongAdder();
+	private final LongAdder decodes = new LongAdder();
+	private final LongAdder bytesDecoded = new LongAdder();
+	private final LongAdder plansComputed = new LongAdder();
+	private final LongAdder planCacheHits = new LongAdder();
+	private final LongAdder inversions = new LongAdder();
+	private final LongAdder inversionNanos = new LongAdder();
+	private final ConcurrentMap<Integer, AtomicLongArray> decodeLatencies = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Integer, LongAdder> inversionsBySize = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Integer, LongAdder> inversionNanosBySize = new ConcurrentHashMap<>();
+	
+	@Override
+	public void encoded(ChecksumVector vector, int dataShards, int length, long nanos)
+	{
+		encodes.increment();
+		bytesEncoded.add((long) dataShards * length);
+	}
+	
+	@Override
+	public void decoded(ChecksumVector vector, int erasures, int recovered, int length, long nanos)
+	{
+		decodes.increment();
+		bytesDecoded.add((long) recovered * length);
+		decodeLatencies.computeIfAbsent(erasures, e -> new AtomicLongArray(BUCKETS)).incrementAndGet(bucket(nanos));
+	}
+	
+	@Override
+	public void decodingPlanned(ChecksumVector vector, int erasures, boolean cached, long nanos)
+	{
+		(cached ? planCacheHits : plansComputed).increment();
+	}
+	
+	@Override
+	public void matrixInverted(int size, long nanos)
+	{
+		inversions.increment();
+		inversionNanos.add(nanos);
+		inversionsBySize.computeIfAbsent(size, s -> new LongAdder()).increment();
+		inversionNanosBySize.computeIfAbsent(size, s -> new LongAdder()).add(nanos);
+	}
+	
+	/**
+	 * @return The number of encodes reported.
+	 */
+	public long encodes()
+	{
+		return encodes.sum();
+	}
+	
+	/**
+	 * @return The number of data bytes checksums have been calculated for.
+	 */
+	public long bytesEncoded()
+	{
+		return bytesEncoded.sum();
+	}
+	
+	/**
+	 * @return The number of reconstructions reported.
+	 */
+	public long decodes()
+	{
+		return decodes.sum();
+	}
+	
+	/**
+	 * @return The number of bytes written to reconstructed shards.
+	 */
+	public long bytesDecoded()
+	{
+		return bytesDecoded.sum();
+	}
+	
+	/**
+	 * @return The number of decoding plans which had to be worked out.
+	 */
+	public long plansComputed()
+	{
+		return plansComputed.sum();
+	}
+	
+	/**
+	 * @return The number of decoding plans which were found in a cache.
+	 */
+	public long planCacheHits()
+	{
+		return planCacheHits.sum();
+	}
+	
+	/**
+	 * @return The number of matrices inverted.
+	 */
+	public long inversions()
+	{
+		return inversions.sum();
+	}
+	
+	/**
+	 * @return The total time spent inverting matrices, in nanoseconds.
+	 */
+	public long inversionNanos()
+	{
+		return inversionNanos.sum();
+	}
+	
+	/**
+	 * Returns the number of matrices of the given size which have been inverted.
+	 * 
+	 * @param size The number of rows of the matrices.
+	 * @return The number of them inverted.
+	 */
+	public long inversions(int size)
+	{
+		LongAdder count = inversionsBySize.get(size);
+		return count == null ? 0 : count.sum();
+	}
+	
+	/**
+	 * Returns the total time spent inverting matrices of the given size.
+	 * 
+	 * @param size The number of rows of the matrices.
+	 * @return The time spent, in nanoseconds.
+	 */
+	public long inversionNanos(int size)
+	{
+		LongAdder nanos = inversionNanosBySize.get(size);
+		return nanos == null ? 0 : nanos.sum();
+	}
+	
+	/**
+	 * Returns the histogram of the latencies of decodes with the given number of erasures.
+	 * 
+	 * @param erasures The number of missing shards.
+	 * @return A copy of the counts in each of the {@link #BUCKETS} buckets.
+	 */
+	public long[] decodeLatencies(int erasures)
+	{
+		long[] counts = new long[BUCKETS];
+		AtomicLongArray histogram = decodeLatencies.get(erasures);
+		for(int i = 0; histogram != null && i < BUCKETS; i++)
+			counts[i] = histogram.get(i);
+		return counts;
+	}
+	
+	/**
+	 * Returns the bucket of a latency histogram which the given latency falls in.
+	 * 
+	 * @param nanos A latency in nanoseconds.
+	 * @return The base 2 logarithm of the latency, rounded down, or 0 for latencies under 1.
+	 */
+	public static int bucket(long nanos)
+	{
+		return nanos < 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+}
@@ -0,0 +1,156 @@
+package com.nickww.finitefield.instrumentation;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Turns reports into JDK Flight Recorder events. This is the only class which refers to <code>jdk.jfr</code>, and
+ * {@link Instrumentation} only loads it once it has found that package, so the library still runs on JVMs without it.
+ * The events record how long the operation took as a field, since they are created after it.
+ * 
+ * @author Nick Wuensch
+ */
+final class FlightRecorderListener implements CodecListener
+{
+	@Override
+	public void encoded(ChecksumVector vector, int dataShards, int length, long nanos)
+	{
+		EncodeEvent event = new EncodeEvent();
+		if(!event.shouldCommit())
+			return;
+		event.codec = vector.getClass().getSimpleName();
+		event.dataShards = dataShards;
+		event.bytes = (long) dataShards * length;
+		event.time = nanos;
+		event.commit();
+	}
+	
+	@Override
+	public void decoded(ChecksumVector vector, int erasures, int recovered, int length, long nanos)
+	{
+		DecodeEvent event = new DecodeEvent();
+		if(!event.shouldCommit())
+			return;
+		event.codec = vector.getClass().getSimpleName();
+		event.erasures = erasures;
+		event.recovered = recovered;
+		event.bytes = (long) recovered * length;
+		event.time = nanos;
+		event.commit();
+	}
+	
+	@Override
+	public void decodingPlanned(ChecksumVector vector, int erasures, boolean cached, long nanos)
+	{
+		DecodingPlanEvent event = new DecodingPlanEvent();
+		if(!event.shouldCommit())
+			return;
+		event.codec = vector.getClass().getSimpleName();
+		event.erasures = erasures;
+		event.cached = cached;
+		event.time = nanos;
+		event.commit();
+	}
+	
+	@Override
+	public void matrixInverted(int size, long nanos)
+	{
+		MatrixInversionEvent event = new MatrixInversionEvent();
+		if(!event.shouldCommit())
+			return;
+		event.size = size;
+		event.time = nanos;
+		event.commit();
+	}
+	
+	@Name("com.nickww.finitefield.Encode")
+	@Label("Erasure Encode")
+	@Description("Checksums calculated for a stripe")
+	@Category("Finite Byte Field")
+	@StackTrace(false)
+	static final class EncodeEvent extends Event
+	{
+		@Label("Codec")
+		String codec;
+		
+		@Label("Data Shards")
+		int dataShards;
+		
+		@Label("Data Encoded")
+		@DataAmount
+		long bytes;
+		
+		@Label("Time")
+		@Timespan
+		long time;
+	}
+	
+	@Name("com.nickww.finitefield.Decode")
+	@Label("Erasure Decode")
+	@Description("Missing shards of a stripe reconstructed")
+	@Category("Finite Byte Field")
+	@StackTrace(false)
+	static final class DecodeEvent extends Event
+	{
+		@Label("Codec")
+		String codec;
+		
+		@Label("Erasures")
+		int erasures;
+		
+		@Label("Shards Recovered")
+		int recovered;
+		
+		@Label("Data Recovered")
+		@DataAmount
+		long bytes;
+		
+		@Label("Time")
+		@Timespan
+		long time;
+	}
+	
+	@Name("com.nickww.finitefield.DecodingPlan")
+	@Label("Decoding Plan")
+	@Description("How to decode a pattern of missing shards, worked out or found in a cache")
+	@Category("Finite Byte Field")
+	@StackTrace(false)
+	static final class DecodingPlanEvent extends Event
+	{
+		@Label("Codec")
+		String codec;
+		
+		@Label("Erasures")
+		int erasures;
+		
+		@Label("Cached")
+		boolean cached;
+		
+		@Label("Time")
+		@Timespan
+		long time;
+	}
+	
+	@Name("com.nickww.finitefield.MatrixInversion")
+	@Label("Matrix Inversion")
+	@Description("A square matrix inverted over GF(256)")
+	@Category("Finite Byte Field")
+	@StackTrace(false)
+	static final class MatrixInversionEvent extends Event
+	{
+		@Label("Size")
+		int size;
+		
+		@Label("Time")
+		@Timespan
+		long time;
+	}
+}
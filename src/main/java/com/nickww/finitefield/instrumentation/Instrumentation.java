@@ -0,0 +1,218 @@
+package com.nickww.finitefield.instrumentation;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * The registry of {@link CodecListener}s, and the hooks the library reports its work through. Listeners listed as
+ * services are registered when this class is loaded, and the Flight Recorder events are enabled then if the system
+ * property <code>com.nickww.finitefield.jfr</code> is <code>true</code>.<br/>
+ * <br/>
+ * When no listener is registered, which is the default, an instrumented operation only reads one volatile field to
+ * find that out: it doesn't read the clock or allocate. Once any listener is registered, every operation is timed.
+ * <br/>
+ * The reporting methods are for the library's own classes, and for checksum vectors outside it which want to report
+ * the same way: call {@link #start()} before the work, and pass what it returns to the report afterwards.
+ * 
+ * @author Nick Wuensch
+ */
+public final class Instrumentation
+{
+	/**
+	 * The start time {@link #start()} returns when nothing is listening, which makes the reports do nothing.
+	 */
+	public static final long DISABLED = Long.MIN_VALUE;
+	
+	private static final String FLIGHT_RECORDER_LISTENER = "com.nickww.finitefield.instrumentation.FlightRecorderListener";
+	private static final int MAX_PROVIDER_FAILURES = 16;
+	private static volatile CodecListener[] listeners = new CodecListener[0];
+	private static CodecListener flightRecorder;
+	
+	static
+	{
+		registerServices();
+		if(Boolean.getBoolean("com.nickww.finitefield.jfr"))
+			enableFlightRecorder();
+	}
+	
+	private Instrumentation()
+	{
+	}
+	
+	/**
+	 * Registers every listener listed as a service. A provider which can't be loaded or created is skipped, rather
+	 * than failing this class's initialization and with it every instrumented operation. The service loader moves past
+	 * a provider it fails on, but in case it doesn't, the search gives up after a number of failures in a row.
+	 */
+	private static void registerServices()
+	{
+		Iterator<CodecListener> providers = ServiceLoader.load(CodecListener.class,
+				Instrumentation.class.getClassLoader()).iterator();
+		for(int failures = 0; failures < MAX_PROVIDER_FAILURES;)
+		{
+			try
+			{
+				if(!providers.hasNext())
+					return;
+				register(providers.next());
+				failures = 0;
+			}
+			catch(ServiceConfigurationError e)
+			{
+				failures++;
+			}
+		}
+	}
+	
+	/**
+	 * Starts sending reports to the given listener, as well as any already registered.
+	 * 
+	 * @param listener The listener to add.
+	 * @throws NullPointerException if the listener is null.
+	 */
+	public static synchronized void register(CodecListener listener)
+	{
+		if(listener == null)
+			throw new NullPointerException("Listener cannot be null");
+		CodecListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+		added[listeners.length] = listener;
+		listeners = added;
+	}
+	
+	/**
+	 * Stops sending reports to the given listener.
+	 * 
+	 * @param listener The listener to remove.
+	 * @return Whether the listener was registered.
+	 */
+	public static synchronized boolean unregister(CodecListener listener)
+	{
+		for(int i = 0; i < listeners.length; i++)
+		{
+			if(listeners[i] == listener)
+			{
+				CodecListener[] removed = new CodecListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, removed, 0, i);
+				System.arraycopy(listeners, i + 1, removed, i, removed.length - i);
+				listeners = removed;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Registers a listener which turns every report into a JDK Flight Recorder event (in the "Finite Byte Field"
+	 * category), if this JVM has Flight Recorder. The events are only recorded while a recording with them enabled is
+	 * running, but while this listener is registered every operation is timed. Enabling it twice has no effect.
+	 * 
+	 * @return Whether Flight Recorder events are enabled, which is false if this JVM doesn't support them.
+	 */
+	public static synchronized boolean enableFlightRecorder()
+	{
+		if(flightRecorder != null)
+			return true;
+		try
+		{
+			Class.forName("jdk.jfr.Event");
+			flightRecorder = Class.forName(FLIGHT_RECORDER_LISTENER).asSubclass(CodecListener.class)
+					.getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException | LinkageError e)
+		{
+			return false;
+		}
+		register(flightRecorder);
+		return true;
+	}
+	
+	/**
+	 * Unregisters the Flight Recorder listener, if it was enabled.
+	 */
+	public static synchronized void disableFlightRecorder()
+	{
+		if(flightRecorder != null)
+			unregister(flightRecorder);
+		flightRecorder = null;
+	}
+	
+	/**
+	 * Returns whether any listener is registered.
+	 * 
+	 * @return Whether operations are being reported.
+	 */
+	public static boolean isEnabled()
+	{
+		return listeners.length != 0;
+	}
+	
+	/**
+	 * Returns the time to pass to a report once an operation is done.
+	 * 
+	 * @return The current {@link System#nanoTime()}, or {@link #DISABLED} if nothing is listening.
+	 */
+	public static long start()
+	{
+		return listeners.length == 0 ? DISABLED : System.nanoTime();
+	}
+	
+	/**
+	 * Reports an encode which started at the given time.
+	 * 
+	 * @see CodecListener#encoded(ChecksumVector, int, int, long)
+	 */
+	public static void encoded(ChecksumVector vector, int dataShards, int length, long start)
+	{
+		if(start == DISABLED)
+			return;
+		long nanos = System.nanoTime() - start;
+		for(CodecListener listener : listeners)
+			listener.encoded(vector, dataShards, length, nanos);
+	}
+	
+	/**
+	 * Reports a reconstruction which started at the given time.
+	 * 
+	 * @see CodecListener#decoded(ChecksumVector, int, int, int, long)
+	 */
+	public static void decoded(ChecksumVector vector, int erasures, int recovered, int length, long start)
+	{
+		if(start == DISABLED)
+			return;
+		long nanos = System.nanoTime() - start;
+		for(CodecListener listener : listeners)
+			listener.decoded(vector, erasures, recovered, length, nanos);
+	}
+	
+	/**
+	 * Reports a decoding plan which was worked out, or looked up, starting at the given time.
+	 * 
+	 * @see CodecListener#decodingPlanned(ChecksumVector, int, boolean, long)
+	 */
+	public static void decodingPlanned(ChecksumVector vector, int erasures, boolean cached, long start)
+	{
+		if(start == DISABLED)
+			return;
+		long nanos = System.nanoTime() - start;
+		for(CodecListener listener : listeners)
+			listener.decodingPlanned(vector, erasures, cached, nanos);
+	}
+	
+	/**
+	 * Reports a matrix inversion which started at the given time.
+	 * 
+	 * @see CodecListener#matrixInverted(int, long)
+	 */
+	public static void matrixInverted(int size, long start)
+	{
+		if(start == DISABLED)
+			return;
+		long nanos = System.nanoTime() - start;
+		for(CodecListener listener : listeners)
+			listener.matrixInverted(size, nanos);
+	}
+}
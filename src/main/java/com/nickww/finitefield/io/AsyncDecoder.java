@@ -0,0 +1,234 @@
+package com.nickww.finitefield.io;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * Reconstructs data from shards which are still being fetched. Each shard is given as a future, or as a list of futures
+ * for consecutive segments of the shard. A segment is reconstructed on the executor as soon as the shards of it which
+ * have arrived can reconstruct it (see {@link ChecksumVector#canReconstruct(boolean[])}), which for most vectors is
+ * as soon as any <code>dataShards</code> of them have, without waiting for slower shards or for later segments. The
+ * shard layout is the same as {@link ErasureEncodingOutputStream}'s. Instances of this class are immutable and
+ * thread-safe, as long as the executor is.
+ * 
+ * @author Nick Wuensch
+ */
+public class AsyncDecoder
+{
+	private final ChecksumVector checksums;
+	private final int dataShards;
+	private final int chunkSize;
+	private final Executor executor;
+	
+	/**
+	 * Creates a decoder which reconstructs on the common fork-join pool.
+	 * 
+	 * @param checksums The checksums the shards were written with.
+	 * @param dataShards The number of data shards each stripe is split into.
+	 * @param chunkSize The number of bytes each shard received per stripe.
+	 * @throws IllegalArgumentException if the number of data shards or the chunk size is not positive.
+	 */
+	public AsyncDecoder(ChecksumVector checksums, int dataShards, int chunkSize)
+	{
+		this(checksums, dataShards, chunkSize, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Creates a decoder which reconstructs on the given executor.
+	 * 
+	 * @param checksums The checksums the shards were written with.
+	 * @param dataShards The number of data shards each stripe is split into.
+	 * @param chunkSize The number of bytes each shard received per stripe.
+	 * @param executor The executor to reconstruct on.
+	 * @throws IllegalArgumentException if the number of data shards or the chunk size is not positive.
+	 */
+	public AsyncDecoder(ChecksumVector checksums, int dataShards, int chunkSize, Executor executor)
+	{
+		if(dataShards < 1 || chunkSize < 1)
+			throw new IllegalArgumentException("Shard count and chunk size must be positive");
+		
+		this.checksums = checksums;
+		this.dataShards = dataShards;
+		this.chunkSize = chunkSize;
+		this.executor = executor;
+	}
+	
+	/**
+	 * Reconstructs the original data from whole shards. A shard which is <code>null</code>, or whose future completes
+	 * exceptionally, is treated as missing.
+	 * 
+	 * @param size The number of bytes originally encoded.
+	 * @param shards Futures of the data shards, in order, followed by futures of the checksum shards.
+	 * @return A future of a buffer holding the original data, which fails if too many shards are missing or any shard
+	 * has the wrong size.
+	 * @throws IllegalArgumentException if the number of shards is wrong, or the data is too large for a buffer.
+	 */
+	public CompletableFuture<ByteBuffer> decode(long size, List<CompletableFuture<ByteBuffer>> shards)
+	{
+		if(size == 0)
+			return CompletableFuture.completedFuture(ByteBuffer.allocate(0));
+		
+		List<List<CompletableFuture<ByteBuffer>>> segments = new ArrayList<>(shards.size());
+		for(CompletableFuture<ByteBuffer> shard : shards)
+			segments.add(Collections.singletonList(shard));
+		return decodeSegments(size, (int) stripes(size), segments);
+	}
+	
+	/**
+	 * Reconstructs the original data from shards which arrive in segments. Segment <code>i</code> of every shard covers
+	 * the same <code>stripesPerSegment</code> stripes (the final segment may cover fewer), and each segment is
+	 * reconstructed independently, as soon as enough of its shards arrive. A segment which is <code>null</code>, or
+	 * whose future completes exceptionally, is treated as missing.
+	 * 
+	 * @param size The number of bytes originally encoded.
+	 * @param stripesPerSegment The number of stripes in each segment.
+	 * @param shards For each data shard, in order, followed by each checksum shard, futures of its segments, in order.
+	 * @return A future of a buffer holding the original data, which fails if too many shards are missing from any
+	 * segment or any segment has the wrong size.
+	 * @throws IllegalArgumentException if the number of shards or segments is wrong, or the data is too large for a
+	 * buffer.
+	 */
+	public CompletableFuture<ByteBuffer> decodeSegments(long size, int stripesPerSegment,
+			List<List<CompletableFuture<ByteBuffer>>> shards)
+	{
+		if(shards.size() != dataShards + checksums.numChecksums())
+			throw new IllegalArgumentException("Expected " + (dataShards + checksums.numChecksums()) + " shards");
+		if(size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Data too large to decode into a buffer");
+		if(stripesPerSegment < 1)
+			throw new IllegalArgumentException("Segments must have at least one stripe");
+		
+		long stripes = stripes(size);
+		int segments = (int) ((stripes + stripesPerSegment - 1) / stripesPerSegment);
+		for(List<CompletableFuture<ByteBuffer>> shard : shards)
+			if(shard.size() != segments)
+				throw new IllegalArgumentException("Every shard must have " + segments + " segments");
+		
+		ByteBuffer output = ByteBuffer.allocate((int) size);
+		CompletableFuture<?>[] decoded = new CompletableFuture<?>[segments];
+		for(int segment = 0; segment < segments; segment++)
+		{
+			List<CompletableFuture<ByteBuffer>> pieces = new ArrayList<>(shards.size());
+			for(List<CompletableFuture<ByteBuffer>> shard : shards)
+				pieces.add(shard.get(segment));
+			
+			final int firstStripe = segment * stripesPerSegment;
+			final int count = (int) Math.min(stripesPerSegment, stripes - firstStripe);
+			decoded[segment] = firstArrivals(pieces).thenAcceptAsync(
+					arrived -> reconstruct(arrived, firstStripe, count, output), executor);
+		}
+		return CompletableFuture.allOf(decoded).thenApply(ignored -> output);
+	}
+	
+	/**
+	 * Returns a future which completes with the first shards to arrive which the checksums can reconstruct from, with
+	 * <code>null</code> in place of every other shard. It fails as soon as too many shards are missing for that to
+	 * happen, or once every shard has arrived or failed without it happening.
+	 */
+	private CompletableFuture<ByteBuffer[]> firstArrivals(List<CompletableFuture<ByteBuffer>> shards)
+	{
+		CompletableFuture<ByteBuffer[]> result = new CompletableFuture<>();
+		ByteBuffer[] arrived = new ByteBuffer[shards.size()];
+		boolean[] present = new boolean[shards.size()];
+		int[] counts = new int[3]; // arrived, failed, and 1 once the result is decided
+		int tolerated = shards.size() - dataShards;
+		
+		for(int shard = 0; shard < shards.size(); shard++)
+		{
+			final int index = shard;
+			CompletableFuture<ByteBuffer> future = shards.get(shard);
+			if(future == null)
+				future = failed();
+			future.whenComplete((buffer, failure) ->
+			{
+				// the result is completed outside the lock, since that runs the reconstruction on executors which run
+				// tasks on the calling thread
+				ByteBuffer[] complete = null;
+				String failed = null;
+				synchronized(arrived)
+				{
+					if(counts[2] != 0)
+						return;
+					if(failure != null || buffer == null)
+						counts[1]++;
+					else
+					{
+						arrived[index] = buffer;
+						present[index] = true;
+						if(++counts[0] >= dataShards && checksums.canReconstruct(present))
+							complete = arrived.clone();
+					}
+					if(complete == null && counts[1] > tolerated)
+						failed = "Too many missing shards - can only handle " + tolerated;
+					else if(complete == null && counts[0] + counts[1] == arrived.length)
+						failed = "The shards present cannot solve for the missing data";
+					if(complete != null || failed != null)
+						counts[2] = 1;
+				}
+				
+				if(complete != null)
+					result.complete(complete);
+				else if(failed != null)
+					result.completeExceptionally(new IllegalStateException(failed));
+			});
+		}
+		return result;
+	}
+	
+	/**
+	 * Reconstructs one segment from the shards which arrived, and copies its data into the output.
+	 */
+	private void reconstruct(ByteBuffer[] arrived, int firstStripe, int count, ByteBuffer output)
+	{
+		int length = count * chunkSize;
+		boolean[] present = new boolean[arrived.length];
+		ByteBuffer[] shards = new ByteBuffer[arrived.length];
+		for(int shard = 0; shard < arrived.length; shard++)
+		{
+			present[shard] = arrived[shard] != null;
+			if(present[shard] && arrived[shard].remaining() != length)
+				throw new IllegalArgumentException("Shard " + shard + " should have " + length + " bytes in segment");
+			shards[shard] = present[shard] ? arrived[shard] : ByteBuffer.allocate(length);
+		}
+		checksums.reconstruct(shards, present);
+		
+		int stripeSize = dataShards * chunkSize;
+		for(int stripe = 0; stripe < count; stripe++)
+		{
+			for(int shard = 0; shard < dataShards; shard++)
+			{
+				int offset = (firstStripe + stripe) * stripeSize + shard * chunkSize;
+				int copied = Math.min(chunkSize, output.capacity() - offset);
+				if(copied <= 0)
+					break;
+				ByteBuffer chunk = shards[shard].duplicate();
+				int start = chunk.position() + stripe * chunkSize;
+				((Buffer) chunk).limit(start + copied).position(start);
+				ByteBuffer target = output.duplicate();
+				((Buffer) target).position(offset);
+				target.put(chunk);
+			}
+		}
+	}
+	
+	private long stripes(long size)
+	{
+		long stripeSize = (long) dataShards * chunkSize;
+		return (size + stripeSize - 1) / stripeSize;
+	}
+	
+	private static CompletableFuture<ByteBuffer> failed()
+	{
+		CompletableFuture<ByteBuffer> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IllegalStateException("Shard is missing"));
+		return failed;
+	}
+}
@@ -0,0 +1,173 @@
+package com.nickww.finitefield.io;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+import com.nickww.finitefield.checksum.Crc32c;
+
+/**
+ * The header at the start of every shard file of an erasure-coded container. Every shard file has the same header,
+ * apart from its own index, so any one surviving shard describes the whole container. All values are big-endian:
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "FBFC"
+ *      4     2  format version (1)
+ *      6     1  codec (0 = ChecksumVector.build, 1 = ChecksumVector.buildRowDiagonal)
+ *      7     1  reserved (0)
+ *      8     2  field polynomial (0x11b)
+ *     10     4  data shards (k)
+ *     14     4  checksum shards (m)
+ *     18     4  chunk size, the bytes each shard holds per stripe
+ *     22     4  index of this shard
+ *     26     8  size of the original data
+ *     34  8(k+m) CRC-32C of each shard's stripes, in shard order
+ *  34+8(k+m)  4  CRC-32C of all of the above
+ * </pre>
+ * The stripes follow the header, laid out as in {@link ErasureEncodingOutputStream}, so stripe <code>s</code> of a
+ * shard starts <code>s * chunkSize</code> bytes after it.
+ * 
+ * @author Nick Wuensch
+ */
+final class ContainerHeader
+{
+	static final int MAGIC = 0x46424643;
+	static final short VERSION = 1;
+	static final byte REED_SOLOMON = 0;
+	static final byte ROW_DIAGONAL = 1;
+	static final short POLYNOMIAL = 0x11b; // the AES polynomial, which FiniteByteField's tables are built from
+	
+	final byte codec;
+	final int dataShards;
+	final int checksumShards;
+	final int chunkSize;
+	final int shardIndex;
+	final long size;
+	final long[] digests;
+	
+	ContainerHeader(byte codec, int dataShards, int checksumShards, int chunkSize, int shardIndex, long size,
+			long[] digests)
+	{
+		this.codec = codec;
+		this.dataShards = dataShards;
+		this.checksumShards = checksumShards;
+		this.chunkSize = chunkSize;
+		this.shardIndex = shardIndex;
+		this.size = size;
+		this.digests = digests;
+	}
+	
+	/**
+	 * Returns the number of bytes in the header of a container with the given number of shards.
+	 */
+	static int length(int shards)
+	{
+		return 38 + 8 * shards;
+	}
+	
+	/**
+	 * Returns the codec which describes the given checksums in a header.
+	 * 
+	 * @throws IllegalArgumentException if the checksums don't come from a factory the header can describe.
+	 */
+	static byte codec(ChecksumVector checksums)
+	{
+		if(checksums == ChecksumVector.buildRowDiagonal())
+			return ROW_DIAGONAL;
+		if(checksums == ChecksumVector.build(checksums.numChecksums()))
+			return REED_SOLOMON;
+		throw new IllegalArgumentException("Only checksums from ChecksumVector.build or buildRowDiagonal can be stored");
+	}
+	
+	/**
+	 * Returns the checksums this header's codec describes.
+	 */
+	ChecksumVector checksums()
+	{
+		return codec == ROW_DIAGONAL ? ChecksumVector.buildRowDiagonal() : ChecksumVector.build(checksumShards);
+	}
+	
+	/**
+	 * Writes this header at the start of the given file.
+	 */
+	void write(FileChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(length(digests.length));
+		header.putInt(MAGIC).putShort(VERSION).put(codec).put((byte) 0).putShort(POLYNOMIAL);
+		header.putInt(dataShards).putInt(checksumShards).putInt(chunkSize).putInt(shardIndex).putLong(size);
+		for(long digest : digests)
+			header.putLong(digest);
+		header.putInt((int) crc(header.array(), header.position()));
+		((Buffer) header).flip();
+		while(header.hasRemaining())
+			channel.write(header, header.position());
+	}
+	
+	/**
+	 * Reads and validates the header at the start of the given file.
+	 * 
+	 * @throws IOException if the file cannot be read, or doesn't start with a valid header.
+	 */
+	static ContainerHeader read(FileChannel channel) throws IOException
+	{
+		ByteBuffer fixed = readFully(channel, 0, length(0) - 4);
+		if(fixed.getInt() != MAGIC)
+			throw new IOException("Not an erasure-coded container");
+		if(fixed.getShort() != VERSION)
+			throw new IOException("Unsupported container version");
+		byte codec = fixed.get();
+		fixed.get();
+		if(fixed.getShort() != POLYNOMIAL)
+			throw new IOException("Container uses a different field polynomial");
+		int dataShards = fixed.getInt();
+		int checksumShards = fixed.getInt();
+		int chunkSize = fixed.getInt();
+		int shardIndex = fixed.getInt();
+		long size = fixed.getLong();
+		if((codec != REED_SOLOMON && codec != ROW_DIAGONAL) || (codec == ROW_DIAGONAL && checksumShards != 2))
+			throw new IOException("Unknown container codec");
+		if(dataShards < 1 || checksumShards < 1 || dataShards + checksumShards > 1 << 16 || chunkSize < 1
+				|| shardIndex < 0 || shardIndex >= dataShards + checksumShards || size < 0)
+			throw new IOException("Corrupt container header");
+		
+		ByteBuffer header = readFully(channel, 0, length(dataShards + checksumShards));
+		long[] digests = new long[dataShards + checksumShards];
+		((Buffer) header).position(length(0) - 4);
+		for(int shard = 0; shard < digests.length; shard++)
+			digests[shard] = header.getLong();
+		if(header.getInt() != (int) crc(header.array(), header.position() - 4))
+			throw new IOException("Corrupt container header");
+		return new ContainerHeader(codec, dataShards, checksumShards, chunkSize, shardIndex, size, digests);
+	}
+	
+	/**
+	 * Returns whether the given header describes the same container as this one.
+	 */
+	boolean matches(ContainerHeader other)
+	{
+		return codec == other.codec && dataShards == other.dataShards && checksumShards == other.checksumShards
+				&& chunkSize == other.chunkSize && size == other.size
+				&& Arrays.equals(digests, other.digests);
+	}
+	
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining())
+			if(channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Container header is truncated");
+		((Buffer) buffer).flip();
+		return buffer;
+	}
+	
+	private static long crc(byte[] bytes, int length)
+	{
+		Checksum crc = Crc32c.create();
+		crc.update(bytes, 0, length);
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,339 @@
+package com.nickww.finitefield.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Checksum;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+import com.nickww.finitefield.checksum.Crc32c;
+
+/**
+ * Reads arbitrary byte ranges of an erasure-coded container written by {@link ErasureContainerWriter}. Everything
+ * needed to decode the container is in the header of each shard file, so a reader only needs the files. A read touches
+ * only the stripes which hold the requested range, and of those, only the bytes of the data shards it needs.<br/>
+ * <br/>
+ * A shard is missing if its file cannot be opened, doesn't have a valid header for this container, is too short, or
+ * fails to be read. Reads which need a missing data shard read whole chunks of any <code>dataShards</code> other shards
+ * for the stripes involved, and reconstruct the missing chunks, so reads keep working until more shards are missing
+ * than there are checksums. Instances of this class are thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class ErasureContainerReader implements Closeable
+{
+	private static final int VERIFY_BLOCK_SIZE = 1 << 16;
+	
+	private final ContainerHeader header;
+	private final ChecksumVector checksums;
+	private final FileChannel[] channels;
+	private final boolean[] missing;
+	private final long stripes;
+	
+	/**
+	 * Opens a container from its shard files. Files which are missing or invalid are treated as missing shards.
+	 * 
+	 * @param shards The files of the data shards, in order, followed by the files of the checksum shards, with
+	 * <code>null</code> for any which are known to be lost.
+	 * @throws IOException if no file has a valid header, or too many shards are missing to read the data.
+	 * @throws IllegalArgumentException if the number of files doesn't match the container's headers.
+	 */
+	public ErasureContainerReader(Path... shards) throws IOException
+	{
+		channels = new FileChannel[shards.length];
+		missing = new boolean[shards.length];
+		ContainerHeader found = null;
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			try
+			{
+				if(shards[shard] == null)
+					throw new IOException("Shard " + shard + " is lost");
+				channels[shard] = FileChannel.open(shards[shard], StandardOpenOption.READ);
+				ContainerHeader read = ContainerHeader.read(channels[shard]);
+				if(found == null)
+					found = read;
+				if(read.shardIndex != shard || !read.matches(found))
+					throw new IOException("Shard " + shard + " belongs to a different container");
+			}
+			catch(IOException e)
+			{
+				missing[shard] = true;
+			}
+		}
+		if(found == null)
+		{
+			close();
+			throw new IOException("No shard has a valid container header");
+		}
+		
+		header = found;
+		checksums = header.checksums();
+		long stripeSize = (long) header.dataShards * header.chunkSize;
+		stripes = (header.size + stripeSize - 1) / stripeSize;
+		if(shards.length != header.dataShards + header.checksumShards)
+		{
+			close();
+			throw new IllegalArgumentException("Container has " + (header.dataShards + header.checksumShards)
+					+ " shards");
+		}
+		long length = ContainerHeader.length(shards.length) + stripes * header.chunkSize;
+		for(int shard = 0; shard < shards.length; shard++)
+			if(!missing[shard] && channels[shard].size() < length)
+				missing[shard] = true;
+		if(missingShards().length > header.checksumShards)
+		{
+			close();
+			throw tooManyMissing();
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes of data in the container.
+	 * 
+	 * @return The size of the original data.
+	 */
+	public long size()
+	{
+		return header.size;
+	}
+	
+	/**
+	 * @return The number of data shards each stripe is split into.
+	 */
+	public int dataShards()
+	{
+		return header.dataShards;
+	}
+	
+	/**
+	 * @return The number of checksum shards.
+	 */
+	public int checksumShards()
+	{
+		return header.checksumShards;
+	}
+	
+	/**
+	 * @return The number of bytes each shard holds per stripe.
+	 */
+	public int chunkSize()
+	{
+		return header.chunkSize;
+	}
+	
+	/**
+	 * Returns the shards which are currently treated as missing.
+	 * 
+	 * @return The indices of the missing shards, in ascending order.
+	 */
+	public synchronized int[] missingShards()
+	{
+		List<Integer> indices = new ArrayList<>();
+		for(int shard = 0; shard < missing.length; shard++)
+			if(missing[shard])
+				indices.add(shard);
+		return indices.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/**
+	 * Reads bytes of the data starting at the given position, reconstructing any which are on missing shards.
+	 * 
+	 * @param position The position within the data to start reading at.
+	 * @param bytes The array to read into.
+	 * @param offset The index in the array to read into.
+	 * @param length The maximum number of bytes to read.
+	 * @return The number of bytes read, which is only less than the length at the end of the data, or -1 if the
+	 * position is at or after the end.
+	 * @throws IOException if too many shards are missing to read the range.
+	 * @throws IndexOutOfBoundsException if the position is negative or the range doesn't fit in the array.
+	 */
+	public int read(long position, byte[] bytes, int offset, int length) throws IOException
+	{
+		if(position < 0 || offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IndexOutOfBoundsException();
+		if(position >= header.size)
+			return length == 0 ? 0 : -1;
+		
+		int total = (int) Math.min(length, header.size - position);
+		long stripeSize = (long) header.dataShards * header.chunkSize;
+		for(int done = 0; done < total;)
+		{
+			long stripe = (position + done) / stripeSize;
+			int start = (int) ((position + done) % stripeSize);
+			int count = (int) Math.min(total - done, stripeSize - start);
+			readStripe(stripe, start, bytes, offset + done, count);
+			done += count;
+		}
+		return total;
+	}
+	
+	/**
+	 * Checks every shard which isn't missing against the digest in the headers, reading the whole container, and
+	 * treats any which don't match as missing from then on.
+	 * 
+	 * @return The indices of the shards found to be corrupt, in ascending order.
+	 * @throws IOException if too many shards are now missing to read the data.
+	 */
+	public int[] verify() throws IOException
+	{
+		List<Integer> corrupt = new ArrayList<>();
+		ByteBuffer block = ByteBuffer.allocate(VERIFY_BLOCK_SIZE);
+		long end = chunkPosition(stripes);
+		for(int shard = 0; shard < channels.length; shard++)
+		{
+			if(isMissing(shard))
+				continue;
+			Checksum digest = Crc32c.create();
+			try
+			{
+				for(long position = chunkPosition(0); position < end; position += block.limit())
+				{
+					((Buffer) block).clear().limit((int) Math.min(VERIFY_BLOCK_SIZE, end - position));
+					readFully(shard, position, block);
+					digest.update(block.array(), 0, block.limit());
+				}
+			}
+			catch(IOException e)
+			{
+				markMissing(shard);
+				continue;
+			}
+			if(digest.getValue() != header.digests[shard])
+			{
+				markMissing(shard);
+				corrupt.add(shard);
+			}
+		}
+		if(missingShards().length > header.checksumShards)
+			throw tooManyMissing();
+		return corrupt.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		IOException failure = null;
+		for(FileChannel channel : channels)
+		{
+			try
+			{
+				if(channel != null)
+					channel.close();
+			}
+			catch(IOException e)
+			{
+				failure = e;
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+	
+	/**
+	 * Reads a range of one stripe's data, reading straight from the data shards which are present, and reconstructing
+	 * the chunks of any which are missing.
+	 */
+	private void readStripe(long stripe, int start, byte[] bytes, int offset, int count) throws IOException
+	{
+		int chunkSize = header.chunkSize;
+		int first = start / chunkSize;
+		int last = (start + count - 1) / chunkSize;
+		List<Integer> wanted = new ArrayList<>();
+		for(int shard = first; shard <= last; shard++)
+		{
+			int from = Math.max(start, shard * chunkSize);
+			int to = Math.min(start + count, (shard + 1) * chunkSize);
+			if(!isMissing(shard))
+			{
+				try
+				{
+					readFully(shard, chunkPosition(stripe) + from - shard * chunkSize,
+							ByteBuffer.wrap(bytes, offset + from - start, to - from));
+					continue;
+				}
+				catch(IOException e)
+				{
+					markMissing(shard);
+				}
+			}
+			wanted.add(shard);
+		}
+		if(wanted.isEmpty())
+			return;
+		
+		byte[][] chunks = reconstruct(stripe, wanted.stream().mapToInt(Integer::intValue).toArray());
+		for(int shard : wanted)
+		{
+			int from = Math.max(start, shard * chunkSize);
+			int to = Math.min(start + count, (shard + 1) * chunkSize);
+			System.arraycopy(chunks[shard], from - shard * chunkSize, bytes, offset + from - start, to - from);
+		}
+	}
+	
+	/**
+	 * Reads the chunks of the given stripe from every shard which can be read, and reconstructs the wanted data chunks
+	 * from them. The checksums choose which of the survivors to use, since the first <code>dataShards</code> of them
+	 * might not be able to solve for the missing chunks.
+	 */
+	private byte[][] reconstruct(long stripe, int[] wanted) throws IOException
+	{
+		byte[][] chunks = new byte[channels.length][header.chunkSize];
+		boolean[] present = new boolean[channels.length];
+		for(int shard = 0; shard < channels.length; shard++)
+		{
+			if(isMissing(shard))
+				continue;
+			try
+			{
+				readFully(shard, chunkPosition(stripe), ByteBuffer.wrap(chunks[shard]));
+				present[shard] = true;
+			}
+			catch(IOException e)
+			{
+				markMissing(shard);
+			}
+		}
+		if(!checksums.canReconstruct(present))
+			throw new IOException("The shards which can be read cannot solve for the missing data");
+		checksums.reconstruct(chunks, present, wanted, 0, header.chunkSize);
+		return chunks;
+	}
+	
+	private long chunkPosition(long stripe)
+	{
+		return ContainerHeader.length(channels.length) + stripe * header.chunkSize;
+	}
+	
+	/**
+	 * Reads until the buffer is full, failing if the shard's file ends first.
+	 */
+	private void readFully(int shard, long position, ByteBuffer buffer) throws IOException
+	{
+		int start = buffer.position();
+		while(buffer.hasRemaining())
+			if(channels[shard].read(buffer, position + buffer.position() - start) < 0)
+				throw new IOException("Shard " + shard + " is truncated");
+	}
+	
+	private synchronized boolean isMissing(int shard)
+	{
+		return missing[shard];
+	}
+	
+	private synchronized void markMissing(int shard)
+	{
+		missing[shard] = true;
+	}
+	
+	private IOException tooManyMissing()
+	{
+		return new IOException("Too many missing shards - can only handle " + header.checksumShards);
+	}
+}
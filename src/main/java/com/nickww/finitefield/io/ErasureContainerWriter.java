@@ -0,0 +1,194 @@
+package com.nickww.finitefield.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+import com.nickww.finitefield.checksum.Crc32c;
+
+/**
+ * An output stream which writes an erasure-coded container: one file per shard, each starting with a header which
+ * records the codec, the number of data and checksum shards, the chunk size, the field polynomial, the size of the
+ * data and a CRC-32C of every shard (see {@link ErasureContainerReader}). The data is split into stripes as by
+ * {@link ErasureEncodingOutputStream}, and each shard's chunks follow its header in stripe order, so a reader can find
+ * any byte of the data without reading anything else. The headers are written when the stream is closed, once the size
+ * and digests are known; until then the files are not valid containers. Instances of this class are not thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class ErasureContainerWriter extends OutputStream
+{
+	private final ChecksumVector checksums;
+	private final byte codec;
+	private final int chunkSize;
+	private final FileChannel[] channels;
+	private final byte[][] stripe;
+	private final Checksum[] digests;
+	private final int headerLength;
+	
+	private int filled;
+	private long stripes;
+	private long size;
+	private boolean closed;
+	
+	/**
+	 * Creates a container, creating or truncating one file per shard.
+	 * 
+	 * @param checksums The checksums to calculate for each stripe, which must come from
+	 * {@link ChecksumVector#build(int)} or {@link ChecksumVector#buildRowDiagonal()}, so that readers can tell which
+	 * they were.
+	 * @param chunkSize The number of bytes each shard receives per stripe, which must be a multiple of the checksums'
+	 * {@link ChecksumVector#shardAlignment(int) alignment}.
+	 * @param shards The files for the data shards, in order, followed by the files for the checksum shards.
+	 * @throws IOException if any file cannot be created.
+	 * @throws IllegalArgumentException if the checksums cannot be described in a header, the chunk size is not
+	 * positive or not aligned, or there are too few files.
+	 */
+	public ErasureContainerWriter(ChecksumVector checksums, int chunkSize, Path... shards) throws IOException
+	{
+		if(chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		if(shards.length <= checksums.numChecksums())
+			throw new IllegalArgumentException("Must have at least one data shard and " + checksums.numChecksums()
+					+ " checksums");
+		if(chunkSize % checksums.shardAlignment(shards.length - checksums.numChecksums()) != 0)
+			throw new IllegalArgumentException("Chunk size must be a multiple of "
+					+ checksums.shardAlignment(shards.length - checksums.numChecksums()));
+		
+		this.checksums = checksums;
+		this.codec = ContainerHeader.codec(checksums);
+		this.chunkSize = chunkSize;
+		this.stripe = new byte[shards.length][chunkSize];
+		this.digests = new Checksum[shards.length];
+		this.headerLength = ContainerHeader.length(shards.length);
+		this.channels = new FileChannel[shards.length];
+		try
+		{
+			for(int shard = 0; shard < shards.length; shard++)
+			{
+				channels[shard] = FileChannel.open(shards[shard], StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING);
+				digests[shard] = Crc32c.create();
+			}
+		}
+		catch(IOException | RuntimeException e)
+		{
+			close(channels);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes written to this stream, not counting padding or checksums.
+	 * 
+	 * @return The number of bytes written.
+	 */
+	public long size()
+	{
+		return size;
+	}
+	
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		if(closed)
+			throw new IOException("Stream closed");
+		if(offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IndexOutOfBoundsException();
+		
+		int dataShards = stripe.length - checksums.numChecksums();
+		while(length > 0)
+		{
+			int copied = Math.min(length, chunkSize - filled % chunkSize);
+			System.arraycopy(bytes, offset, stripe[filled / chunkSize], filled % chunkSize, copied);
+			filled += copied;
+			offset += copied;
+			length -= copied;
+			size += copied;
+			if(filled == dataShards * chunkSize)
+				writeStripe();
+		}
+	}
+	
+	/**
+	 * Pads and writes the final stripe, if any bytes are in it, then writes every shard's header and closes the files.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		try
+		{
+			if(filled > 0)
+			{
+				int dataShards = stripe.length - checksums.numChecksums();
+				Arrays.fill(stripe[filled / chunkSize], filled % chunkSize, chunkSize, (byte) 0);
+				for(int shard = filled / chunkSize + 1; shard < dataShards; shard++)
+					Arrays.fill(stripe[shard], (byte) 0);
+				writeStripe();
+			}
+			
+			long[] values = new long[digests.length];
+			for(int shard = 0; shard < digests.length; shard++)
+				values[shard] = digests[shard].getValue();
+			for(int shard = 0; shard < channels.length; shard++)
+				new ContainerHeader(codec, stripe.length - checksums.numChecksums(), checksums.numChecksums(),
+						chunkSize, shard, size, values).write(channels[shard]);
+		}
+		finally
+		{
+			close(channels);
+		}
+	}
+	
+	/**
+	 * Checksums the current stripe, digests every chunk, and writes each one after its shard's header.
+	 */
+	private void writeStripe() throws IOException
+	{
+		checksums.encode(stripe, 0, chunkSize);
+		long position = headerLength + stripes * chunkSize;
+		for(int shard = 0; shard < stripe.length; shard++)
+		{
+			digests[shard].update(stripe[shard], 0, chunkSize);
+			ByteBuffer chunk = ByteBuffer.wrap(stripe[shard]);
+			while(chunk.hasRemaining())
+				channels[shard].write(chunk, position + chunk.position());
+		}
+		stripes++;
+		filled = 0;
+	}
+	
+	private static void close(FileChannel[] channels) throws IOException
+	{
+		IOException failure = null;
+		for(FileChannel channel : channels)
+		{
+			try
+			{
+				if(channel != null)
+					channel.close();
+			}
+			catch(IOException e)
+			{
+				failure = e;
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,269 @@
+package com.nickww.finitefield.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * An input stream which reads the shards written by an {@link ErasureEncodingOutputStream}, and reconstructs the
+ * original bytes from them. Any shard channel may be missing (given as <code>null</code>), as long as no more shards
+ * are missing than the number of checksums. Only as many checksum shards are read as are needed to replace the missing
+ * data shards.<br/>
+ * <br/>
+ * At most two stripes are held in memory. When an executor is given, the next stripe is read and reconstructed on that
+ * executor while the current stripe is being consumed. Instances of this class are not thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class ErasureDecodingInputStream extends InputStream
+{
+	private final ChecksumVector checksums;
+	private final ReadableByteChannel[] channels;
+	private final Executor executor;
+	private final boolean[] present;
+	private final int dataShards;
+	private final int chunkSize;
+	private final long size;
+	
+	private final byte[][][] stripes = new byte[2][][];
+	private CompletableFuture<byte[][]> next;
+	private byte[][] stripe;
+	private int current;
+	private int position;
+	private int limit;
+	private long unfetched;
+	private long unread;
+	private boolean closed;
+	
+	/**
+	 * Creates a stream which reads and reconstructs each stripe on the calling thread.
+	 * 
+	 * @param checksums The checksums the shards were written with.
+	 * @param chunkSize The number of bytes each shard received per stripe.
+	 * @param size The number of bytes originally written, as reported by {@link ErasureEncodingOutputStream#size()}.
+	 * @param channels The channels for the data shards, in order, followed by the channels for the checksum shards, with
+	 * <code>null</code> in place of missing shards.
+	 * @throws IllegalArgumentException if the chunk size is not positive, the size is negative, there are too few
+	 * channels, or too many channels are missing (or the checksums cannot solve for them from those present).
+	 */
+	public ErasureDecodingInputStream(ChecksumVector checksums, int chunkSize, long size, ReadableByteChannel... channels)
+	{
+		this(checksums, chunkSize, size, Runnable::run, channels);
+	}
+	
+	/**
+	 * Creates a stream which reads and reconstructs the next stripe on the given executor, while the current stripe is
+	 * being consumed.
+	 * 
+	 * @param checksums The checksums the shards were written with.
+	 * @param chunkSize The number of bytes each shard received per stripe.
+	 * @param size The number of bytes originally written, as reported by {@link ErasureEncodingOutputStream#size()}.
+	 * @param executor The executor on which stripes are read and reconstructed.
+	 * @param channels The channels for the data shards, in order, followed by the channels for the checksum shards, with
+	 * <code>null</code> in place of missing shards.
+	 * @throws IllegalArgumentException if the chunk size is not positive, the size is negative, there are too few
+	 * channels, or too many channels are missing (or the checksums cannot solve for them from those present).
+	 */
+	public ErasureDecodingInputStream(ChecksumVector checksums, int chunkSize, long size, Executor executor,
+			ReadableByteChannel... channels)
+	{
+		if(chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		if(size < 0)
+			throw new IllegalArgumentException("Size cannot be negative");
+		if(channels.length <= checksums.numChecksums())
+			throw new IllegalArgumentException("Must have at least one data channel and " + checksums.numChecksums()
+					+ " checksum channels");
+		
+		this.checksums = checksums;
+		this.channels = channels.clone();
+		this.executor = executor;
+		this.dataShards = channels.length - checksums.numChecksums();
+		this.chunkSize = chunkSize;
+		this.size = size;
+		this.unfetched = size;
+		this.unread = size;
+		
+		// read every shard that exists, and leave it to the checksums to choose which of them to reconstruct from, since
+		// not every set of as many checksums as there are missing data shards can solve for them
+		this.present = new boolean[channels.length];
+		int missing = 0;
+		for(int shard = 0; shard < channels.length; shard++)
+			if(!(present[shard] = channels[shard] != null))
+				missing++;
+		if(missing > checksums.numChecksums())
+			throw new IllegalArgumentException("Too many missing shards - can only handle " + checksums.numChecksums());
+		if(!checksums.canReconstruct(present))
+			throw new IllegalArgumentException("The shards present cannot solve for the missing data");
+	}
+	
+	/**
+	 * Returns the number of bytes this stream reconstructs in total.
+	 * 
+	 * @return The original number of bytes written.
+	 */
+	public long size()
+	{
+		return size;
+	}
+	
+	@Override
+	public int read() throws IOException
+	{
+		if(!fill())
+			return -1;
+		return stripe[position / chunkSize][position++ % chunkSize] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException
+	{
+		if(offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IndexOutOfBoundsException();
+		if(length == 0)
+			return 0;
+		if(!fill())
+			return -1;
+		
+		int total = 0;
+		while(length > 0 && fill())
+		{
+			int chunkOffset = position % chunkSize;
+			int count = Math.min(length, Math.min(chunkSize - chunkOffset, limit - position));
+			System.arraycopy(stripe[position / chunkSize], chunkOffset, bytes, offset, count);
+			position += count;
+			offset += count;
+			length -= count;
+			total += count;
+		}
+		return total;
+	}
+	
+	@Override
+	public int available() throws IOException
+	{
+		ensureOpen();
+		return stripe == null ? 0 : limit - position;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		
+		closed = true;
+		IOException failure = null;
+		for(ReadableByteChannel channel : channels)
+		{
+			if(channel == null)
+				continue;
+			try
+			{
+				channel.close();
+			}
+			catch(IOException e)
+			{
+				if(failure == null)
+					failure = e;
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+	
+	/**
+	 * Makes sure the current stripe has unconsumed bytes, moving on to the next stripe if needed, and returns whether
+	 * any bytes remain.
+	 */
+	private boolean fill() throws IOException
+	{
+		ensureOpen();
+		if(stripe != null && position < limit)
+			return true;
+		if(unread == 0)
+			return false;
+		
+		if(next == null)
+			next = readAhead(current);
+		stripe = await(next);
+		limit = (int) Math.min(unread, (long) dataShards * chunkSize);
+		unread -= limit;
+		position = 0;
+		
+		current = 1 - current;
+		next = unfetched > 0 ? readAhead(current) : null;
+		return true;
+	}
+	
+	/**
+	 * Starts reading and reconstructing the next stripe into the given buffer, which must not be the one currently
+	 * being consumed.
+	 */
+	private CompletableFuture<byte[][]> readAhead(int buffer)
+	{
+		if(stripes[buffer] == null)
+			stripes[buffer] = new byte[channels.length][chunkSize];
+		final byte[][] target = stripes[buffer];
+		unfetched -= Math.min(unfetched, (long) dataShards * chunkSize);
+		return CompletableFuture.supplyAsync(() -> readStripe(target), executor);
+	}
+	
+	private byte[][] readStripe(byte[][] target)
+	{
+		try
+		{
+			for(int shard = 0; shard < channels.length; shard++)
+			{
+				if(!present[shard])
+					continue;
+				ByteBuffer buffer = ByteBuffer.wrap(target[shard]);
+				while(buffer.hasRemaining())
+					if(channels[shard].read(buffer) < 0)
+						throw new EOFException("Shard " + shard + " ended before the final stripe");
+			}
+			checksums.reconstruct(target, present, 0, chunkSize);
+			return target;
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private byte[][] await(CompletableFuture<byte[][]> pending) throws IOException
+	{
+		try
+		{
+			return pending.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading shards");
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	private void ensureOpen() throws IOException
+	{
+		if(closed)
+			throw new IOException("Stream closed");
+	}
+}
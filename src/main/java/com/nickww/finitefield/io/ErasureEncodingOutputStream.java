@@ -0,0 +1,246 @@
+package com.nickww.finitefield.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * An output stream which splits the bytes written to it into fixed-size stripes, and writes each stripe as one chunk
+ * per data shard plus one chunk per checksum shard. The bytes of a stripe are laid out in order across the data
+ * shards: the first <code>chunkSize</code> bytes go to the first data shard, the next <code>chunkSize</code> to the
+ * second, and so on. The final stripe is padded with zeros, so the number of bytes written (see {@link #size()}) must
+ * be kept in order to decode the shards with {@link ErasureDecodingInputStream}.<br/>
+ * <br/>
+ * At most two stripes are held in memory. When an executor is given, the shard chunks of a finished stripe are written
+ * on that executor while the next stripe is filled and checksummed. Instances of this class are not thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class ErasureEncodingOutputStream extends OutputStream
+{
+	private final ChecksumVector checksums;
+	private final WritableByteChannel[] channels;
+	private final Executor executor;
+	private final int dataShards;
+	private final int chunkSize;
+	
+	private final byte[][][] stripes = new byte[2][][];
+	private final CompletableFuture<?>[] pendingWrites = new CompletableFuture<?>[2];
+	private int current;
+	private int position;
+	private long size;
+	private boolean closed;
+	
+	/**
+	 * Creates a stream which writes each stripe's shard chunks on the calling thread.
+	 * 
+	 * @param checksums The checksums to calculate for each stripe.
+	 * @param chunkSize The number of bytes each shard receives per stripe.
+	 * @param channels The channels for the data shards, in order, followed by the channels for the checksum shards.
+	 * @throws IllegalArgumentException if the chunk size is not positive, or there are too few channels.
+	 */
+	public ErasureEncodingOutputStream(ChecksumVector checksums, int chunkSize, WritableByteChannel... channels)
+	{
+		this(checksums, chunkSize, Runnable::run, channels);
+	}
+	
+	/**
+	 * Creates a stream which writes each stripe's shard chunks on the given executor, while the next stripe is being
+	 * filled.
+	 * 
+	 * @param checksums The checksums to calculate for each stripe.
+	 * @param chunkSize The number of bytes each shard receives per stripe.
+	 * @param executor The executor on which shard chunks are written.
+	 * @param channels The channels for the data shards, in order, followed by the channels for the checksum shards.
+	 * @throws IllegalArgumentException if the chunk size is not positive, or there are too few channels.
+	 */
+	public ErasureEncodingOutputStream(ChecksumVector checksums, int chunkSize, Executor executor,
+			WritableByteChannel... channels)
+	{
+		if(chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		if(channels.length <= checksums.numChecksums())
+			throw new IllegalArgumentException("Must have at least one data channel and " + checksums.numChecksums()
+					+ " checksum channels");
+		
+		this.checksums = checksums;
+		this.channels = channels.clone();
+		this.executor = executor;
+		this.dataShards = channels.length - checksums.numChecksums();
+		this.chunkSize = chunkSize;
+		this.stripes[0] = new byte[channels.length][chunkSize];
+	}
+	
+	/**
+	 * Returns the number of bytes written to this stream, not counting padding or checksums.
+	 * 
+	 * @return The number of bytes written.
+	 */
+	public long size()
+	{
+		return size;
+	}
+	
+	@Override
+	public void write(int b) throws IOException
+	{
+		ensureOpen();
+		stripes[current][position / chunkSize][position % chunkSize] = (byte) b;
+		size++;
+		if(++position == dataShards * chunkSize)
+			flushStripe();
+	}
+	
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		ensureOpen();
+		if(offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IndexOutOfBoundsException();
+		
+		while(length > 0)
+		{
+			int chunkOffset = position % chunkSize;
+			int count = Math.min(length, chunkSize - chunkOffset);
+			System.arraycopy(bytes, offset, stripes[current][position / chunkSize], chunkOffset, count);
+			offset += count;
+			length -= count;
+			position += count;
+			size += count;
+			if(position == dataShards * chunkSize)
+				flushStripe();
+		}
+	}
+	
+	/**
+	 * Waits for every stripe already completed to be written. A partially-filled stripe is not written until the stream
+	 * is closed.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		ensureOpen();
+		await(0);
+		await(1);
+	}
+	
+	/**
+	 * Pads and writes the final stripe, if any bytes are in it, waits for all writes to complete, and then closes every
+	 * shard channel.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		
+		try
+		{
+			if(position > 0)
+			{
+				byte[][] stripe = stripes[current];
+				for(int shard = position / chunkSize; shard < dataShards; shard++)
+					Arrays.fill(stripe[shard], shard == position / chunkSize ? position % chunkSize : 0, chunkSize,
+							(byte) 0);
+				flushStripe();
+			}
+			await(0);
+			await(1);
+		}
+		finally
+		{
+			closed = true;
+			IOException failure = null;
+			for(WritableByteChannel channel : channels)
+			{
+				try
+				{
+					channel.close();
+				}
+				catch(IOException e)
+				{
+					if(failure == null)
+						failure = e;
+				}
+			}
+			if(failure != null)
+				throw failure;
+		}
+	}
+	
+	/**
+	 * Checksums the current stripe, hands it off to be written, and switches to the other stripe buffer, waiting for
+	 * its previous write to finish first.
+	 */
+	private void flushStripe() throws IOException
+	{
+		final byte[][] stripe = stripes[current];
+		checksums.encode(stripe, 0, chunkSize);
+		pendingWrites[current] = CompletableFuture.runAsync(() -> writeStripe(stripe), executor);
+		
+		current = 1 - current;
+		position = 0;
+		await(current);
+		if(stripes[current] == null)
+			stripes[current] = new byte[channels.length][chunkSize];
+	}
+	
+	private void writeStripe(byte[][] stripe)
+	{
+		try
+		{
+			for(int shard = 0; shard < channels.length; shard++)
+			{
+				ByteBuffer buffer = ByteBuffer.wrap(stripe[shard]);
+				while(buffer.hasRemaining())
+					channels[shard].write(buffer);
+			}
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Waits for the pending write of the given stripe buffer, if there is one, rethrowing its failure.
+	 */
+	private void await(int stripe) throws IOException
+	{
+		CompletableFuture<?> pending = pendingWrites[stripe];
+		if(pending == null)
+			return;
+		
+		pendingWrites[stripe] = null;
+		try
+		{
+			pending.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing shards");
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	private void ensureOpen() throws IOException
+	{
+		if(closed)
+			throw new IOException("Stream closed");
+	}
+}
@@ -0,0 +1,88 @@
+package com.nickww.finitefield.io;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+import com.nickww.finitefield.checksum.Crc32c;
+
+/**
+ * A {@link RebuildCheckpoint} kept in a file, as the stripe followed by a CRC-32C of it. A save writes and syncs a
+ * temporary file next to the checkpoint, then moves it over the checkpoint, so a crash during a save leaves either the
+ * old checkpoint or the new one.
+ * 
+ * @author Nick Wuensch
+ */
+final class FileRebuildCheckpoint implements RebuildCheckpoint
+{
+	private static final int LENGTH = Long.BYTES + Integer.BYTES;
+	
+	private final Path file;
+	private final Path temporary;
+	
+	FileRebuildCheckpoint(Path file)
+	{
+		this.file = file;
+		this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+	}
+	
+	@Override
+	public long load() throws IOException
+	{
+		byte[] bytes;
+		try
+		{
+			bytes = Files.readAllBytes(file);
+		}
+		catch(NoSuchFileException e)
+		{
+			return 0;
+		}
+		if(bytes.length != LENGTH)
+			return 0;
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long stripe = buffer.getLong();
+		return buffer.getInt() == crc(bytes) && stripe >= 0 ? stripe : 0;
+	}
+	
+	@Override
+	public void save(long stripe) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+		buffer.putLong(stripe).putInt(crc(buffer.array()));
+		((Buffer) buffer).flip();
+		try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(true);
+		}
+		try
+		{
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Returns the CRC-32C of the stripe at the start of the given bytes.
+	 */
+	private static int crc(byte[] bytes)
+	{
+		Checksum crc = Crc32c.create();
+		crc.update(bytes, 0, Long.BYTES);
+		return (int) crc.getValue();
+	}
+}
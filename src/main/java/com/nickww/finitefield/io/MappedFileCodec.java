@@ -0,0 +1,377 @@
+package com.nickww.finitefield.io;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * Encodes files into shard files, and decodes shard files back into the original file, using memory-mapped regions so
+ * that data is never copied onto the heap. The shard layout is the same as {@link ErasureEncodingOutputStream}'s: the
+ * file is split into stripes of <code>chunkSize</code> bytes per data shard, with the final stripe padded with zeros.
+ * <br/>
+ * <br/>
+ * Files are mapped a window of stripes at a time, since a single mapping cannot exceed 2GB. Data shards are written
+ * with gathering writes straight from the mapped input. Checksum shards are calculated directly into mapped regions
+ * of the shard files, or, when writing to channels which cannot be mapped, into one window of direct memory which is
+ * then written out. Instances of this class are immutable and thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class MappedFileCodec
+{
+	private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+	
+	private final ChecksumVector checksums;
+	private final int dataShards;
+	private final int chunkSize;
+	private final int stripesPerWindow;
+	
+	/**
+	 * Creates a codec which maps up to 1GB of each file at a time.
+	 * 
+	 * @param checksums The checksums to calculate for each stripe.
+	 * @param dataShards The number of data shards each stripe is split into.
+	 * @param chunkSize The number of bytes each shard receives per stripe.
+	 * @throws IllegalArgumentException if the number of data shards or the chunk size is not positive.
+	 */
+	public MappedFileCodec(ChecksumVector checksums, int dataShards, int chunkSize)
+	{
+		this(checksums, dataShards, chunkSize, Math.max(1, DEFAULT_WINDOW_SIZE / Math.max(1, dataShards * chunkSize)));
+	}
+	
+	/**
+	 * Creates a codec which maps the given number of stripes of each file at a time.
+	 * 
+	 * @param checksums The checksums to calculate for each stripe.
+	 * @param dataShards The number of data shards each stripe is split into.
+	 * @param chunkSize The number of bytes each shard receives per stripe.
+	 * @param stripesPerWindow The number of stripes to map at a time.
+	 * @throws IllegalArgumentException if any of the numeric arguments is not positive, or a window would not fit in a
+	 * single mapping.
+	 */
+	public MappedFileCodec(ChecksumVector checksums, int dataShards, int chunkSize, int stripesPerWindow)
+	{
+		if(dataShards < 1 || chunkSize < 1 || stripesPerWindow < 1)
+			throw new IllegalArgumentException("Shard count, chunk size and window size must be positive");
+		if((long) dataShards * chunkSize * stripesPerWindow > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("A window of stripes must fit in a single mapping");
+		
+		this.checksums = checksums;
+		this.dataShards = dataShards;
+		this.chunkSize = chunkSize;
+		this.stripesPerWindow = stripesPerWindow;
+	}
+	
+	/**
+	 * Returns the number of bytes each shard of a file of the given size holds.
+	 * 
+	 * @param size The size of the original file.
+	 * @return The size of each shard file.
+	 */
+	public long shardSize(long size)
+	{
+		return stripes(size) * chunkSize;
+	}
+	
+	/**
+	 * Encodes the given file into the given shard files, which are created or truncated. Every shard file is forced to
+	 * storage before this returns, as the output of {@link #decode(Path, long, Path...)} is.
+	 * 
+	 * @param input The file to encode.
+	 * @param shards The files for the data shards, in order, followed by the files for the checksum shards.
+	 * @return The size of the input file, which is needed to decode the shards.
+	 * @throws IOException if any file cannot be read or written.
+	 * @throws IllegalArgumentException if the number of shard files is wrong.
+	 */
+	public long encode(Path input, Path... shards) throws IOException
+	{
+		checkShardCount(shards.length);
+		FileChannel[] channels = new FileChannel[shards.length];
+		try
+		{
+			for(int shard = 0; shard < shards.length; shard++)
+				channels[shard] = FileChannel.open(shards[shard], StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			long size = encode(input, channels, true);
+			for(FileChannel channel : channels)
+				channel.force(false);
+			return size;
+		}
+		finally
+		{
+			close(channels);
+		}
+	}
+	
+	/**
+	 * Encodes the given file into the given shard channels, for outputs which cannot be mapped, such as sockets. The
+	 * channels are written sequentially, and are not closed. Checksums are calculated into one window of direct memory
+	 * at a time, and then written.
+	 * 
+	 * @param input The file to encode.
+	 * @param shards The channels for the data shards, in order, followed by the channels for the checksum shards.
+	 * @return The size of the input file, which is needed to decode the shards.
+	 * @throws IOException if the file cannot be read or any channel cannot be written.
+	 * @throws IllegalArgumentException if the number of shard channels is wrong.
+	 */
+	public long encode(Path input, WritableByteChannel... shards) throws IOException
+	{
+		checkShardCount(shards.length);
+		return encode(input, shards, false);
+	}
+	
+	/**
+	 * Decodes the given shard files into the given output file, which is created or truncated. Any shard file may be
+	 * missing (given as <code>null</code>), as long as no more shards are missing than the number of checksums.
+	 * 
+	 * @param output The file to write the original data to.
+	 * @param size The size of the original file, as returned when encoding.
+	 * @param shards The files for the data shards, in order, followed by the files for the checksum shards, with
+	 * <code>null</code> in place of missing shards.
+	 * @throws IOException if any file cannot be read or written, or a shard file is too short.
+	 * @throws IllegalArgumentException if the number of shard files is wrong, or too many are missing (or the checksums
+	 * cannot solve for them from those present).
+	 */
+	public void decode(Path output, long size, Path... shards) throws IOException
+	{
+		checkShardCount(shards.length);
+		boolean[] present = new boolean[shards.length];
+		int missing = 0;
+		for(int shard = 0; shard < shards.length; shard++)
+			if(!(present[shard] = shards[shard] != null))
+				missing++;
+		if(missing > checksums.numChecksums())
+			throw new IllegalArgumentException("Too many missing shards - can only handle " + checksums.numChecksums());
+		if(!checksums.canReconstruct(present))
+			throw new IllegalArgumentException("The shards present cannot solve for the missing data");
+		
+		FileChannel[] channels = new FileChannel[shards.length];
+		try(FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			for(int shard = 0; shard < shards.length; shard++)
+			{
+				if(!present[shard])
+					continue;
+				channels[shard] = FileChannel.open(shards[shard], StandardOpenOption.READ);
+				if(channels[shard].size() < shardSize(size))
+					throw new IOException("Shard " + shard + " is shorter than " + shardSize(size) + " bytes");
+			}
+			decode(out, size, channels, present);
+		}
+		finally
+		{
+			close(channels);
+		}
+	}
+	
+	private long encode(Path input, WritableByteChannel[] shards, boolean mapChecksums) throws IOException
+	{
+		try(FileChannel in = FileChannel.open(input, StandardOpenOption.READ))
+		{
+			long size = in.size();
+			long stripes = stripes(size);
+			int stripeSize = dataShards * chunkSize;
+			ByteBuffer[] scratch = new ByteBuffer[shards.length - dataShards];
+			
+			for(long first = 0; first < stripes; first += stripesPerWindow)
+			{
+				int count = (int) Math.min(stripesPerWindow, stripes - first);
+				long start = first * stripeSize;
+				Window window = new Window(in.map(MapMode.READ_ONLY, start, Math.min(size - start, (long) count
+						* stripeSize)));
+				
+				// data shards go straight from the mapped input to their channels
+				for(int shard = 0; shard < dataShards; shard++)
+				{
+					ByteBuffer[] chunks = new ByteBuffer[count];
+					for(int stripe = 0; stripe < count; stripe++)
+						chunks[stripe] = window.chunk(stripe * stripeSize + shard * chunkSize);
+					writeFully(shards[shard], chunks);
+				}
+				
+				ByteBuffer[] outputs = new ByteBuffer[scratch.length];
+				for(int checksum = 0; checksum < outputs.length; checksum++)
+				{
+					if(mapChecksums)
+						outputs[checksum] = ((FileChannel) shards[dataShards + checksum]).map(MapMode.READ_WRITE, first
+								* chunkSize, (long) count * chunkSize);
+					else
+					{
+						if(scratch[checksum] == null)
+							scratch[checksum] = ByteBuffer.allocateDirect(stripesPerWindow * chunkSize);
+						outputs[checksum] = region(scratch[checksum], 0, count * chunkSize);
+					}
+				}
+				
+				ByteBuffer[] stripeShards = new ByteBuffer[shards.length];
+				for(int stripe = 0; stripe < count; stripe++)
+				{
+					for(int shard = 0; shard < dataShards; shard++)
+						stripeShards[shard] = window.chunk(stripe * stripeSize + shard * chunkSize);
+					for(int checksum = 0; checksum < outputs.length; checksum++)
+						stripeShards[dataShards + checksum] = region(outputs[checksum], stripe * chunkSize, chunkSize);
+					checksums.encode(stripeShards);
+				}
+				
+				for(int checksum = 0; checksum < outputs.length; checksum++)
+				{
+					if(mapChecksums)
+						((MappedByteBuffer) outputs[checksum]).force();
+					else
+						writeFully(shards[dataShards + checksum], new ByteBuffer[] { outputs[checksum] });
+				}
+			}
+			return size;
+		}
+	}
+	
+	private void decode(FileChannel out, long size, FileChannel[] shards, boolean[] present) throws IOException
+	{
+		long stripes = stripes(size);
+		int stripeSize = dataShards * chunkSize;
+		ByteBuffer unused = ByteBuffer.allocateDirect(chunkSize);
+		
+		for(long first = 0; first < stripes; first += stripesPerWindow)
+		{
+			int count = (int) Math.min(stripesPerWindow, stripes - first);
+			long start = first * stripeSize;
+			int length = (int) Math.min(size - start, (long) count * stripeSize);
+			MappedByteBuffer mapped = out.map(MapMode.READ_WRITE, start, length);
+			Window window = new Window(mapped);
+			
+			ByteBuffer[] inputs = new ByteBuffer[shards.length];
+			for(int shard = 0; shard < shards.length; shard++)
+				if(present[shard])
+					inputs[shard] = shards[shard].map(MapMode.READ_ONLY, first * chunkSize, (long) count * chunkSize);
+			
+			ByteBuffer[] stripeShards = new ByteBuffer[shards.length];
+			for(int stripe = 0; stripe < count; stripe++)
+			{
+				for(int shard = 0; shard < shards.length; shard++)
+				{
+					ByteBuffer input = present[shard] ? region(inputs[shard], stripe * chunkSize, chunkSize) : null;
+					if(shard < dataShards)
+					{
+						stripeShards[shard] = window.chunk(stripe * stripeSize + shard * chunkSize);
+						if(input != null)
+							stripeShards[shard].duplicate().put(input);
+					}
+					else
+						stripeShards[shard] = input != null ? input : region(unused, 0, chunkSize);
+				}
+				checksums.reconstruct(stripeShards, present);
+			}
+			
+			window.flushTail();
+			mapped.force();
+		}
+	}
+	
+	private long stripes(long size)
+	{
+		long stripeSize = (long) dataShards * chunkSize;
+		return (size + stripeSize - 1) / stripeSize;
+	}
+	
+	private void checkShardCount(int shards)
+	{
+		if(shards != dataShards + checksums.numChecksums())
+			throw new IllegalArgumentException("Expected " + (dataShards + checksums.numChecksums()) + " shards");
+	}
+	
+	private static ByteBuffer region(ByteBuffer buffer, int offset, int length)
+	{
+		ByteBuffer region = buffer.duplicate();
+		((Buffer) region).limit(offset + length).position(offset);
+		return region;
+	}
+	
+	private static void writeFully(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException
+	{
+		if(channel instanceof GatheringByteChannel)
+		{
+			GatheringByteChannel gathering = (GatheringByteChannel) channel;
+			for(int first = 0; first < buffers.length; first++)
+				while(buffers[first].hasRemaining())
+					gathering.write(buffers, first, buffers.length - first);
+			return;
+		}
+		
+		for(ByteBuffer buffer : buffers)
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+	}
+	
+	private static void close(FileChannel[] channels) throws IOException
+	{
+		IOException failure = null;
+		for(FileChannel channel : channels)
+		{
+			if(channel == null)
+				continue;
+			try
+			{
+				channel.close();
+			}
+			catch(IOException e)
+			{
+				if(failure == null)
+					failure = e;
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+	
+	/**
+	 * A mapped window of a file, viewed as whole stripes. Only the final window of a file can end partway through a
+	 * stripe; that stripe is kept in a zero-padded direct buffer instead, so that at most one stripe is ever copied.
+	 */
+	private class Window
+	{
+		private final ByteBuffer mapped;
+		private final int whole;
+		private final ByteBuffer tail;
+		
+		Window(ByteBuffer mapped)
+		{
+			int stripeSize = dataShards * chunkSize;
+			this.mapped = mapped;
+			this.whole = mapped.remaining() / stripeSize * stripeSize;
+			if(whole == mapped.remaining())
+				this.tail = null;
+			else
+			{
+				this.tail = ByteBuffer.allocateDirect(stripeSize);
+				tail.duplicate().put(region(mapped, whole, mapped.remaining() - whole));
+			}
+		}
+		
+		/**
+		 * Returns a view of the chunk which starts at the given offset of this window.
+		 */
+		ByteBuffer chunk(int offset)
+		{
+			return offset < whole ? region(mapped, offset, chunkSize) : region(tail, offset - whole, chunkSize);
+		}
+		
+		/**
+		 * Copies the real bytes of the padded final stripe back into the mapped file.
+		 */
+		void flushTail()
+		{
+			if(tail != null)
+				region(mapped, whole, mapped.remaining() - whole).put(region(tail, 0, mapped.remaining() - whole));
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package com.nickww.finitefield.io;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+/**
+ * Encodes large buffers and files by splitting them into ranges of stripes, and encoding each range on an executor.
+ * The shard layout is the same as {@link ErasureEncodingOutputStream}'s. Every range writes to its own region of each
+ * shard, so the output is the same no matter how the ranges are scheduled. Instances of this class are immutable and
+ * thread-safe, as long as the executor is.
+ * 
+ * @author Nick Wuensch
+ */
+public class ParallelEncoder
+{
+	private static final int DEFAULT_TASK_SIZE = 1 << 20;
+	private static final int WINDOW_SIZE = 1 << 30;
+	
+	private final ChecksumVector checksums;
+	private final int dataShards;
+	private final int chunkSize;
+	private final Executor executor;
+	private final int stripesPerTask;
+	private final int tasksPerWindow;
+	
+	/**
+	 * Creates an encoder which runs on the common fork-join pool, with each task encoding about 1MB of data.
+	 * 
+	 * @param checksums The checksums to calculate for each stripe.
+	 * @param dataShards The number of data shards each stripe is split into.
+	 * @param chunkSize The number of bytes each shard receives per stripe.
+	 * @throws IllegalArgumentException if the number of data shards or the chunk size is not positive.
+	 */
+	public ParallelEncoder(ChecksumVector checksums, int dataShards, int chunkSize)
+	{
+		this(checksums, dataShards, chunkSize, ForkJoinPool.commonPool(),
+				Math.max(1, DEFAULT_TASK_SIZE / Math.max(1, dataShards * chunkSize)));
+	}
+	
+	/**
+	 * Creates an encoder which runs on the given executor, with each task encoding the given number of stripes.
+	 * 
+	 * @param checksums The checksums to calculate for each stripe.
+	 * @param dataShards The number of data shards each stripe is split into.
+	 * @param chunkSize The number of bytes each shard receives per stripe.
+	 * @param executor The executor to encode on.
+	 * @param stripesPerTask The number of stripes each task encodes, which is the unit of parallelism.
+	 * @throws IllegalArgumentException if any of the numeric arguments is not positive, or a task's range of stripes
+	 * would not fit in a single buffer.
+	 */
+	public ParallelEncoder(ChecksumVector checksums, int dataShards, int chunkSize, Executor executor,
+			int stripesPerTask)
+	{
+		this(checksums, dataShards, chunkSize, executor, stripesPerTask, Math.max(1, (int) (WINDOW_SIZE
+				/ Math.max(1, (long) dataShards * chunkSize * stripesPerTask))));
+	}
+	
+	/**
+	 * Creates an encoder which maps files the given number of tasks' stripes at a time.
+	 */
+	ParallelEncoder(ChecksumVector checksums, int dataShards, int chunkSize, Executor executor, int stripesPerTask,
+			int tasksPerWindow)
+	{
+		if(dataShards < 1 || chunkSize < 1 || stripesPerTask < 1)
+			throw new IllegalArgumentException("Shard count, chunk size and task size must be positive");
+		if((long) dataShards * chunkSize * stripesPerTask > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("A task's stripes must fit in a single buffer");
+		
+		this.checksums = checksums;
+		this.dataShards = dataShards;
+		this.chunkSize = chunkSize;
+		this.executor = executor;
+		this.stripesPerTask = stripesPerTask;
+		this.tasksPerWindow = tasksPerWindow;
+	}
+	
+	/**
+	 * Returns the number of bytes each shard of data of the given size holds.
+	 * 
+	 * @param size The number of bytes of data.
+	 * @return The size of each shard.
+	 */
+	public long shardSize(long size)
+	{
+		long stripeSize = (long) dataShards * chunkSize;
+		return (size + stripeSize - 1) / stripeSize * chunkSize;
+	}
+	
+	/**
+	 * Encodes the remaining bytes of the given buffer into new heap buffers, one per shard. The buffer's position is
+	 * not changed.
+	 * 
+	 * @param data The data to encode.
+	 * @return The data shards, in order, followed by the checksum shards.
+	 * @throws IllegalArgumentException if the shards would be too large for a buffer.
+	 */
+	public ByteBuffer[] encode(ByteBuffer data)
+	{
+		long shardSize = shardSize(data.remaining());
+		if(shardSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Data too large to encode into buffers");
+		
+		ByteBuffer[] shards = new ByteBuffer[dataShards + checksums.numChecksums()];
+		for(int shard = 0; shard < shards.length; shard++)
+			shards[shard] = ByteBuffer.allocate((int) shardSize);
+		encode(data, shards);
+		return shards;
+	}
+	
+	/**
+	 * Encodes the remaining bytes of the given buffer into the given shards, starting at each shard's position. No
+	 * buffer's position is changed.
+	 * 
+	 * @param data The data to encode.
+	 * @param shards The data shards, in order, followed by the checksum shards, each with at least
+	 * {@link #shardSize(long)} bytes remaining.
+	 * @throws IllegalArgumentException if the number of shards is wrong, or any shard is too small.
+	 */
+	public void encode(ByteBuffer data, ByteBuffer[] shards)
+	{
+		checkShardCount(shards.length);
+		final int size = data.remaining();
+		for(ByteBuffer shard : shards)
+			if(shard.remaining() < shardSize(size))
+				throw new IllegalArgumentException("Every shard must have " + shardSize(size) + " bytes remaining");
+		
+		run(size, (first, count) ->
+		{
+			int stripeSize = dataShards * chunkSize;
+			int start = (int) first * stripeSize;
+			ByteBuffer input = region(data, start, Math.min(size - start, count * stripeSize));
+			ByteBuffer[] outputs = new ByteBuffer[shards.length];
+			for(int shard = 0; shard < shards.length; shard++)
+				outputs[shard] = region(shards[shard], (int) first * chunkSize, count * chunkSize);
+			encodeRange(input, outputs, count);
+		});
+	}
+	
+	/**
+	 * Encodes the given file into the given shard files, which are created or truncated. The files are mapped a window
+	 * of about 1GB of input at a time, so files larger than a single mapping can be encoded, and each window is encoded
+	 * like a buffer, with its tasks working on regions of the same mappings. Each window of the shard files is forced
+	 * to storage before the next is mapped, so the shards are durable once this returns.
+	 * 
+	 * @param input The file to encode.
+	 * @param shards The files for the data shards, in order, followed by the files for the checksum shards.
+	 * @return The size of the input file, which is needed to decode the shards.
+	 * @throws IOException if any file cannot be read or written.
+	 * @throws IllegalArgumentException if the number of shard files is wrong.
+	 */
+	public long encode(Path input, Path... shards) throws IOException
+	{
+		checkShardCount(shards.length);
+		FileChannel[] channels = new FileChannel[shards.length];
+		try(FileChannel in = FileChannel.open(input, StandardOpenOption.READ))
+		{
+			for(int shard = 0; shard < shards.length; shard++)
+				channels[shard] = FileChannel.open(shards[shard], StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			
+			long size = in.size();
+			long windowStripes = (long) stripesPerTask * tasksPerWindow;
+			long stripeSize = (long) dataShards * chunkSize;
+			MappedByteBuffer[] outputs = new MappedByteBuffer[shards.length];
+			for(long first = 0; first * stripeSize < size; first += windowStripes)
+			{
+				long start = first * stripeSize;
+				ByteBuffer data = in.map(MapMode.READ_ONLY, start, Math.min(size - start, windowStripes * stripeSize));
+				long shardSize = shardSize(data.remaining());
+				for(int shard = 0; shard < shards.length; shard++)
+					outputs[shard] = channels[shard].map(MapMode.READ_WRITE, first * chunkSize, shardSize);
+				encode(data, outputs);
+				for(MappedByteBuffer output : outputs)
+					output.force();
+			}
+			return size;
+		}
+		finally
+		{
+			for(FileChannel channel : channels)
+				if(channel != null)
+					channel.close();
+		}
+	}
+	
+	/**
+	 * Splits the stripes of data of the given size into tasks, runs them on the executor, and waits for all of them to
+	 * finish, rethrowing the first failure.
+	 */
+	private void run(long size, StripeRange range)
+	{
+		long stripes = shardSize(size) / chunkSize;
+		CompletableFuture<?>[] tasks = new CompletableFuture<?>[(int) ((stripes + stripesPerTask - 1) / stripesPerTask)];
+		for(int task = 0; task < tasks.length; task++)
+		{
+			final long first = (long) task * stripesPerTask;
+			final int count = (int) Math.min(stripesPerTask, stripes - first);
+			tasks[task] = CompletableFuture.runAsync(() -> range.encode(first, count), executor);
+		}
+		
+		try
+		{
+			CompletableFuture.allOf(tasks).join();
+		}
+		catch(CompletionException e)
+		{
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Copies the given stripes of data into the data shards, padding the final stripe with zeros, and then calculates
+	 * the checksums of the whole range at once.<br/>
+	 * <br/>
+	 * Precondition: each shard has exactly 'count' chunks remaining, and the data has no more than 'count' stripes.
+	 */
+	private void encodeRange(ByteBuffer data, ByteBuffer[] shards, int count)
+	{
+		int length = data.remaining();
+		for(int stripe = 0; stripe < count; stripe++)
+		{
+			for(int shard = 0; shard < dataShards; shard++)
+			{
+				int offset = (stripe * dataShards + shard) * chunkSize;
+				int copied = Math.max(0, Math.min(chunkSize, length - offset));
+				ByteBuffer chunk = region(shards[shard], stripe * chunkSize, chunkSize);
+				if(copied > 0)
+					chunk.duplicate().put(region(data, offset, copied));
+				for(int i = copied; i < chunkSize; i++)
+					chunk.put(chunk.position() + i, (byte) 0);
+			}
+		}
+		checksums.encode(shards);
+	}
+	
+	private void checkShardCount(int shards)
+	{
+		if(shards != dataShards + checksums.numChecksums())
+			throw new IllegalArgumentException("Expected " + (dataShards + checksums.numChecksums()) + " shards");
+	}
+	
+	private static ByteBuffer region(ByteBuffer buffer, int offset, int length)
+	{
+		ByteBuffer region = buffer.duplicate();
+		((Buffer) region).limit(buffer.position() + offset + length).position(buffer.position() + offset);
+		return region;
+	}
+	
+	/**
+	 * Encodes one task's range of stripes.
+	 */
+	@FunctionalInterface
+	private interface StripeRange
+	{
+		void encode(long first, int count);
+	}
+}
@@ -0,0 +1,65 @@
+package com.nickww.finitefield.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where a {@link RebuildScheduler} records how far a rebuild has got, so that a rebuild which is stopped, or whose
+ * process dies, resumes from the last checkpoint rather than the first stripe. A checkpoint can lag behind the
+ * rebuild, since rebuilding a stripe twice writes the same bytes, but must never get ahead of what the targets have
+ * stored.
+ * 
+ * @author Nick Wuensch
+ */
+public interface RebuildCheckpoint
+{
+	/**
+	 * Returns the stripe to resume from.
+	 * 
+	 * @return The first stripe which has not been rebuilt, or 0 if nothing has been recorded.
+	 * @throws IOException if the checkpoint cannot be read.
+	 */
+	long load() throws IOException;
+	
+	/**
+	 * Records that every stripe before the given one has been rebuilt.
+	 * 
+	 * @param stripe The first stripe which has not been rebuilt.
+	 * @throws IOException if the checkpoint cannot be written.
+	 */
+	void save(long stripe) throws IOException;
+	
+	/**
+	 * Returns a checkpoint which records nothing, so every rebuild starts from the first stripe.
+	 * 
+	 * @return A checkpoint which always loads 0.
+	 */
+	static RebuildCheckpoint none()
+	{
+		return new RebuildCheckpoint()
+		{
+			@Override
+			public long load()
+			{
+				return 0;
+			}
+			
+			@Override
+			public void save(long stripe)
+			{
+			}
+		};
+	}
+	
+	/**
+	 * Returns a checkpoint kept in the given file. Each save replaces the file atomically where the file system allows
+	 * it, and a file which is missing or doesn't hold a valid checkpoint loads as 0.
+	 * 
+	 * @param file The file to keep the checkpoint in.
+	 * @return A checkpoint kept in the file.
+	 */
+	static RebuildCheckpoint file(Path file)
+	{
+		return new FileRebuildCheckpoint(file);
+	}
+}
@@ -0,0 +1,552 @@
+package com.nickww.finitefield.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+import com.nickww.finitefield.checksum.ShardSink;
+import com.nickww.finitefield.checksum.ShardSource;
+
+/**
+ * Rebuilds lost shards in the background, such as onto the replacement for a failed disk, without starving the
+ * foreground reads which need the same disks and processors. A rebuild walks its stripes in order, reads the surviving
+ * shards each one's reconstruction needs, and writes the reconstructed shards to their targets, recording its
+ * progress in a {@link RebuildCheckpoint} so that it can be resumed.<br/>
+ * <br/>
+ * All work runs on the scheduler's own threads, taken from a priority queue: foreground tasks given to
+ * {@link #submit(Callable)} always run before the next stripe of any rebuild, so a degraded read waits for at most one
+ * stripe per thread. Rebuilds take turns stripe by stripe. After each stripe, a rebuild waits long enough to keep all
+ * rebuilds within the bandwidth limit, counting the bytes read and written, and to keep the processor time they use
+ * within the CPU limit, as a fraction of one processor. Instances of this class are thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class RebuildScheduler implements Closeable
+{
+	private static final int STOP = -1;
+	private static final int FOREGROUND = 0;
+	private static final int BACKGROUND = 1;
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 64;
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private static final boolean measuresCpu = threadBean.isCurrentThreadCpuTimeSupported()
+			&& threadBean.isThreadCpuTimeEnabled();
+	
+	private final ChecksumVector checksums;
+	private final long bytesPerSecond;
+	private final double cpuLimit;
+	private final int checkpointInterval;
+	private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final Set<Rebuild> rebuilds = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService timer;
+	private final Thread[] workers;
+	private final Task stop = new Task(STOP)
+	{
+		@Override
+		public void run()
+		{
+		}
+		
+		@Override
+		void cancel()
+		{
+		}
+	};
+	
+	private long bandwidthReady;
+	private long cpuReady;
+	private volatile boolean closed;
+	
+	/**
+	 * Creates a scheduler with one thread, which checkpoints each rebuild every 64 stripes.
+	 * 
+	 * @param checksums The checksums the stripes were encoded with.
+	 * @param bytesPerSecond The most bytes all rebuilds together may read and write per second, or
+	 * {@link Long#MAX_VALUE} for no limit.
+	 * @param cpuLimit The largest fraction of one processor's time all rebuilds together may use, up to 1 for no limit.
+	 * @throws IllegalArgumentException if the bandwidth or CPU limit is not positive, or the CPU limit is more than 1.
+	 */
+	public RebuildScheduler(ChecksumVector checksums, long bytesPerSecond, double cpuLimit)
+	{
+		this(checksums, bytesPerSecond, cpuLimit, 1, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+	
+	/**
+	 * Creates a scheduler.
+	 * 
+	 * @param checksums The checksums the stripes were encoded with.
+	 * @param bytesPerSecond The most bytes all rebuilds together may read and write per second, or
+	 * {@link Long#MAX_VALUE} for no limit.
+	 * @param cpuLimit The largest fraction of one processor's time all rebuilds together may use, up to 1 for no limit.
+	 * @param threads The number of threads to run foreground tasks and rebuilds on.
+	 * @param checkpointInterval The number of stripes each rebuild rebuilds between saving its checkpoint.
+	 * @throws IllegalArgumentException if any of the numeric arguments is not positive, or the CPU limit is more than 1.
+	 */
+	public RebuildScheduler(ChecksumVector checksums, long bytesPerSecond, double cpuLimit, int threads,
+			int checkpointInterval)
+	{
+		if(bytesPerSecond < 1 || !(cpuLimit > 0 && cpuLimit <= 1))
+			throw new IllegalArgumentException("Bandwidth limit must be positive, and CPU limit between 0 and 1");
+		if(threads < 1 || checkpointInterval < 1)
+			throw new IllegalArgumentException("Thread count and checkpoint interval must be positive");
+		
+		this.checksums = checksums;
+		this.bytesPerSecond = bytesPerSecond;
+		this.cpuLimit = cpuLimit;
+		this.checkpointInterval = checkpointInterval;
+		this.bandwidthReady = this.cpuReady = System.nanoTime();
+		this.timer = Executors.newSingleThreadScheduledExecutor(task -> daemon(task, "rebuild-scheduler-timer"));
+		this.workers = new Thread[threads];
+		for(int worker = 0; worker < threads; worker++)
+			(workers[worker] = daemon(this::work, "rebuild-scheduler-" + worker)).start();
+	}
+	
+	/**
+	 * Starts rebuilding the given shards of every stripe, from the stripe the checkpoint records. Each shard with a
+	 * target is rebuilt with {@link ChecksumVector#reconstructShard(int, ShardSource, ShardSink)}, so only the surviving
+	 * shards its reconstruction needs are read, and each of those is read once per stripe however many are rebuilt.
+	 * 
+	 * @param survivors The surviving shards of each stripe.
+	 * @param targets For each shard, where to write it once rebuilt, or <code>null</code> if it is not to be rebuilt.
+	 * Each target receives its shard's stripes in order, and should have stored them before the next checkpoint is
+	 * saved.
+	 * @param checkpoint Where to record progress, which is saved every few stripes, when the rebuild finishes, and when
+	 * this scheduler is closed.
+	 * @return A future of the number of stripes rebuilt, which fails if a shard cannot be read or written, or is
+	 * cancelled if this scheduler is closed first. Cancelling it stops the rebuild after its current stripe.
+	 * @throws IOException if the checkpoint cannot be loaded.
+	 * @throws IllegalArgumentException if there isn't one target per shard, a target is for a present shard, no shard
+	 * has a target, or too many shards are missing (or the checksums cannot solve for them from those present).
+	 * @throws RejectedExecutionException if this scheduler is closed.
+	 */
+	public CompletableFuture<Long> rebuild(ShardSource survivors, ShardSink[] targets, RebuildCheckpoint checkpoint)
+			throws IOException
+	{
+		if(targets.length != survivors.shardCount())
+			throw new IllegalArgumentException("Must have one target per shard");
+		boolean[] present = new boolean[targets.length];
+		int[] wanted = new int[targets.length];
+		int wantedCount = 0;
+		int missing = 0;
+		for(int shard = 0; shard < targets.length; shard++)
+		{
+			present[shard] = survivors.isPresent(shard);
+			if(!present[shard])
+				missing++;
+			if(targets[shard] == null)
+				continue;
+			if(present[shard])
+				throw new IllegalArgumentException("Shard " + shard + " is present");
+			wanted[wantedCount++] = shard;
+		}
+		if(wantedCount == 0)
+			throw new IllegalArgumentException("Must have a target for at least one missing shard");
+		if(missing > checksums.numChecksums() || targets.length <= checksums.numChecksums())
+			throw new IllegalArgumentException("Too many missing shards - can only handle " + checksums.numChecksums());
+		if(!checksums.canReconstruct(present))
+			throw new IllegalArgumentException("The shards present cannot solve for the missing data");
+		
+		Rebuild rebuild = new Rebuild(survivors, targets, checkpoint, present, Arrays.copyOf(wanted, wantedCount),
+				Math.max(0, checkpoint.load()));
+		if(closed)
+			throw new RejectedExecutionException("Scheduler is closed");
+		rebuilds.add(rebuild);
+		if(rebuild.next >= survivors.stripeCount())
+			rebuild.finish();
+		else
+			enqueue(rebuild);
+		return rebuild.result;
+	}
+	
+	/**
+	 * Runs a foreground task, such as a degraded read, ahead of any rebuild. Foreground tasks run in the order they are
+	 * submitted, and are not throttled.
+	 * 
+	 * @param task The task to run.
+	 * @return A future of the task's result, which is cancelled if this scheduler is closed before the task starts.
+	 * @throws RejectedExecutionException if this scheduler is closed.
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> task)
+	{
+		if(closed)
+			throw new RejectedExecutionException("Scheduler is closed");
+		Foreground<T> foreground = new Foreground<>(task);
+		enqueue(foreground);
+		return foreground.result;
+	}
+	
+	/**
+	 * Stops the scheduler's threads once they finish their current tasks, cancels the foreground tasks which haven't
+	 * started, and saves the checkpoint of every unfinished rebuild before cancelling it.
+	 * 
+	 * @throws IOException if a checkpoint cannot be saved.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed = true;
+		timer.shutdownNow();
+		for(int worker = 0; worker < workers.length; worker++)
+			queue.add(stop);
+		boolean interrupted = false;
+		for(Thread worker : workers)
+		{
+			while(worker != Thread.currentThread() && worker.isAlive())
+			{
+				try
+				{
+					worker.join();
+				}
+				catch(InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		
+		for(Task task = queue.poll(); task != null; task = queue.poll())
+			if(task instanceof Foreground)
+				task.cancel();
+		IOException failure = null;
+		for(Rebuild rebuild : rebuilds)
+		{
+			try
+			{
+				rebuild.cancel();
+			}
+			catch(IOException e)
+			{
+				failure = e;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		if(failure != null)
+			throw failure;
+	}
+	
+	/**
+	 * Takes tasks from the queue and runs them, until told to stop.
+	 */
+	private void work()
+	{
+		for(;;)
+		{
+			Task task;
+			try
+			{
+				task = queue.take();
+			}
+			catch(InterruptedException e)
+			{
+				if(closed)
+					return;
+				continue;
+			}
+			if(task == stop)
+				return;
+			task.run();
+		}
+	}
+	
+	/**
+	 * Adds a task to the queue behind every task of the same priority, or cancels it if this scheduler has closed.
+	 */
+	private void enqueue(Task task)
+	{
+		task.sequence = sequence.getAndIncrement();
+		queue.add(task);
+		if(closed && queue.remove(task))
+		{
+			try
+			{
+				task.cancel();
+			}
+			catch(IOException e)
+			{
+				// a checkpoint which lags behind only means rebuilding some stripes again
+			}
+		}
+	}
+	
+	/**
+	 * Works out how long to wait before the next stripe of any rebuild, after one which read and wrote the given number
+	 * of bytes and used the given processor time. Each limit keeps the time at which it next allows work, which is
+	 * pushed back by the time the work just done was worth at the limit's rate.
+	 */
+	private synchronized long delay(long bytes, long cpuNanos)
+	{
+		long now = System.nanoTime();
+		if(bytesPerSecond != Long.MAX_VALUE)
+			bandwidthReady = Math.max(bandwidthReady, now) + (long) (bytes * 1e9 / bytesPerSecond);
+		if(cpuLimit < 1)
+			cpuReady = Math.max(cpuReady, now) + (long) (cpuNanos * (1 / cpuLimit - 1));
+		return Math.max(bandwidthReady, cpuReady) - now;
+	}
+	
+	/**
+	 * Returns the processor time the current thread has used, or the time if that can't be measured.
+	 */
+	private static long cpuTime()
+	{
+		return measuresCpu ? threadBean.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+	
+	private static Thread daemon(Runnable task, String name)
+	{
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	/**
+	 * Work for the queue, ordered by priority, and then by when it was queued.
+	 */
+	private abstract static class Task implements Runnable, Comparable<Task>
+	{
+		private final int priority;
+		private long sequence;
+		
+		private Task(int priority)
+		{
+			this.priority = priority;
+		}
+		
+		@Override
+		public int compareTo(Task other)
+		{
+			if(priority != other.priority)
+				return Integer.compare(priority, other.priority);
+			return Long.compare(sequence, other.sequence);
+		}
+		
+		/**
+		 * Gives up the task, which will not be run.
+		 */
+		abstract void cancel() throws IOException;
+	}
+	
+	private static final class Foreground<T> extends Task
+	{
+		private final Callable<T> task;
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+		
+		private Foreground(Callable<T> task)
+		{
+			super(FOREGROUND);
+			this.task = task;
+		}
+		
+		@Override
+		public void run()
+		{
+			if(result.isDone())
+				return;
+			try
+			{
+				result.complete(task.call());
+			}
+			catch(Throwable e)
+			{
+				result.completeExceptionally(e);
+			}
+		}
+		
+		@Override
+		void cancel()
+		{
+			result.cancel(false);
+		}
+	}
+	
+	/**
+	 * One rebuild, which is queued again after each stripe until every stripe is rebuilt.
+	 */
+	private final class Rebuild extends Task
+	{
+		private final ShardSource survivors;
+		private final ShardSink[] targets;
+		private final RebuildCheckpoint checkpoint;
+		private final boolean[] present;
+		private final int[] wanted;
+		private final StripeSource stripe;
+		private final CompletableFuture<Long> result = new CompletableFuture<>();
+		private long next;
+		private long saved;
+		private long rebuilt;
+		
+		private Rebuild(ShardSource survivors, ShardSink[] targets, RebuildCheckpoint checkpoint, boolean[] present,
+				int[] wanted, long next)
+		{
+			super(BACKGROUND);
+			this.survivors = survivors;
+			this.targets = targets;
+			this.checkpoint = checkpoint;
+			this.present = present;
+			this.wanted = wanted;
+			this.stripe = new StripeSource(survivors, present);
+			this.next = this.saved = next;
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				if(result.isDone())
+				{
+					rebuilds.remove(this);
+					save();
+					return;
+				}
+				
+				long cpu = cpuTime();
+				long bytes = rebuildStripe(next);
+				next++;
+				rebuilt++;
+				if(next >= survivors.stripeCount())
+				{
+					finish();
+					return;
+				}
+				if(next - saved >= checkpointInterval)
+					save();
+				
+				long delay = delay(bytes, cpuTime() - cpu);
+				if(delay <= 0)
+					enqueue(this);
+				else
+					timer.schedule(() -> enqueue(this), delay, TimeUnit.NANOSECONDS);
+			}
+			catch(RejectedExecutionException e)
+			{
+				// the timer has shut down, and close() cancels this rebuild
+			}
+			catch(IOException | RuntimeException e)
+			{
+				rebuilds.remove(this);
+				result.completeExceptionally(e);
+			}
+		}
+		
+		/**
+		 * Reconstructs each wanted shard of one stripe from the survivors it needs, and writes it to its target.
+		 * Returns the number of bytes read and written.
+		 */
+		private long rebuildStripe(long index) throws IOException
+		{
+			stripe.moveTo(index);
+			for(int shard : wanted)
+			{
+				ShardSink target = targets[shard];
+				checksums.reconstructShard(shard, stripe, (ignored, buffer) -> target.write(index, buffer));
+			}
+			return stripe.bytesRead + (long) stripe.length * wanted.length;
+		}
+		
+		/**
+		 * Saves the checkpoint, if the rebuild has got further since it was last saved.
+		 */
+		private synchronized void save() throws IOException
+		{
+			if(next == saved)
+				return;
+			checkpoint.save(next);
+			saved = next;
+		}
+		
+		private void finish() throws IOException
+		{
+			rebuilds.remove(this);
+			save();
+			result.complete(rebuilt);
+		}
+		
+		@Override
+		void cancel() throws IOException
+		{
+			rebuilds.remove(this);
+			result.cancel(false);
+			save();
+		}
+	}
+	
+	/**
+	 * One stripe of a rebuild's survivors, as a source with a single stripe. Each shard is read from the survivors at
+	 * most once, however many shards are reconstructed from it, and the bytes read are counted. The buffers are handed
+	 * out as they were read, since reconstruction doesn't change their positions.
+	 */
+	private static final class StripeSource implements ShardSource
+	{
+		private final ShardSource survivors;
+		private final boolean[] present;
+		private final ByteBuffer[] shards;
+		private long stripe;
+		private long bytesRead;
+		private int length;
+		
+		private StripeSource(ShardSource survivors, boolean[] present)
+		{
+			this.survivors = survivors;
+			this.present = present;
+			this.shards = new ByteBuffer[present.length];
+		}
+		
+		/**
+		 * Moves to the given stripe of the survivors, forgetting the shards read from the last one.
+		 */
+		private void moveTo(long stripe)
+		{
+			this.stripe = stripe;
+			Arrays.fill(shards, null);
+			bytesRead = 0;
+			length = 0;
+		}
+		
+		@Override
+		public int shardCount()
+		{
+			return present.length;
+		}
+		
+		@Override
+		public long stripeCount()
+		{
+			return 1;
+		}
+		
+		@Override
+		public boolean isPresent(int shard)
+		{
+			return present[shard];
+		}
+		
+		@Override
+		public ByteBuffer read(long ignored, int shard) throws IOException
+		{
+			if(shards[shard] == null)
+			{
+				shards[shard] = survivors.read(stripe, shard);
+				length = shards[shard].remaining();
+				bytesRead += length;
+			}
+			return shards[shard];
+		}
+	}
+}
@@ -0,0 +1,459 @@
+package com.nickww.finitefield.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Checksum;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+import com.nickww.finitefield.checksum.Crc32c;
+
+/**
+ * Stores values under string keys as erasure-coded shards, with each shard on its own directory, so that each value
+ * survives the loss of as many directories (one per disk) as there are checksums. A value is a single stripe: it is
+ * split into <code>dataShards</code> equal shards, padded with zeros, and shard <code>i</code> is stored in directory
+ * <code>i</code> under the key, after its header:
+ * <pre>
+ * offset  size  field
+ *      0     8  size of the value
+ *      8     8  id of the write
+ *     16     4  CRC-32C of the size, the id and the shard
+ *     20        the shard
+ * </pre>
+ * Shards are written and read in parallel, on virtual threads where the JVM has them, and on a cached thread pool
+ * otherwise. Reads are hedged: each read asks for more shards than it needs, the data shards first, and decodes from
+ * whichever <code>dataShards</code> of the same write arrive first, so a slow disk doesn't slow reads down. For vectors
+ * which can't reconstruct from every such set, shards are asked for until the ones which have arrived
+ * {@link ChecksumVector#canReconstruct(boolean[]) can}. A shard which is missing, truncated or fails its CRC is treated
+ * as lost, and another shard is asked for instead.<br/>
+ * <br/>
+ * Each write has a random id, and a read never combines shards with different ids, so the shards left behind by a
+ * failed write, or by two writes of the same key at once, are treated as lost rather than mixed into a value which was
+ * never written. Instances of this class are thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class ShardStore implements Closeable
+{
+	private static final int ID_OFFSET = Long.BYTES;
+	private static final int CRC_OFFSET = ID_OFFSET + Long.BYTES;
+	private static final int HEADER_LENGTH = CRC_OFFSET + Integer.BYTES;
+	
+	private final ChecksumVector checksums;
+	private final int dataShards;
+	private final int hedge;
+	private final Path[] directories;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	
+	/**
+	 * Creates a store which reads one more shard than it needs, on its own threads.
+	 * 
+	 * @param checksums The checksums to calculate for each value.
+	 * @param directories One directory per shard: those of the data shards, in order, followed by those of the
+	 * checksum shards.
+	 * @throws IllegalArgumentException if there are too few directories.
+	 */
+	public ShardStore(ChecksumVector checksums, Path... directories)
+	{
+		this(checksums, 1, defaultExecutor(), true, directories);
+	}
+	
+	/**
+	 * Creates a store which reads the given number of extra shards, on the given executor, which it doesn't shut down.
+	 * 
+	 * @param checksums The checksums to calculate for each value.
+	 * @param hedge The number of shards each read asks for beyond the number it needs, which is capped at the number
+	 * of checksums. 0 only asks for more shards when one is lost.
+	 * @param executor The executor to read and write shards on, which needs to run tasks concurrently for reads to be
+	 * hedged.
+	 * @param directories One directory per shard: those of the data shards, in order, followed by those of the
+	 * checksum shards.
+	 * @throws IllegalArgumentException if the hedge is negative, or there are too few directories.
+	 */
+	public ShardStore(ChecksumVector checksums, int hedge, ExecutorService executor, Path... directories)
+	{
+		this(checksums, hedge, executor, false, directories);
+	}
+	
+	private ShardStore(ChecksumVector checksums, int hedge, ExecutorService executor, boolean ownsExecutor,
+			Path... directories)
+	{
+		if(hedge < 0)
+			throw new IllegalArgumentException("Hedge cannot be negative");
+		if(directories.length <= checksums.numChecksums())
+			throw new IllegalArgumentException("Must have at least one data shard and " + checksums.numChecksums()
+					+ " checksums");
+		
+		this.checksums = checksums;
+		this.dataShards = directories.length - checksums.numChecksums();
+		this.hedge = Math.min(hedge, checksums.numChecksums());
+		this.directories = directories.clone();
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+	
+	/**
+	 * Stores a value under the given key, replacing any value already stored under it. Each shard is written to a
+	 * temporary file of its own, which is then moved over the key's file, so concurrent writes of the same key never
+	 * write to the same file.
+	 * 
+	 * @param key The key, which must be a valid file name, and not start with a dot.
+	 * @param value The value to store.
+	 * @throws IOException if any shard cannot be written, in which case some shards may have been replaced.
+	 * @throws IllegalArgumentException if the key is not valid.
+	 */
+	public void write(String key, byte[] value) throws IOException
+	{
+		checkKey(key);
+		int alignment = checksums.shardAlignment(dataShards);
+		int length = (value.length + dataShards - 1) / dataShards;
+		length = Math.max(1, (length + alignment - 1) / alignment) * alignment;
+		
+		byte[][] shards = new byte[directories.length][length];
+		for(int shard = 0; shard < dataShards; shard++)
+			if(shard * length < value.length)
+				System.arraycopy(value, shard * length, shards[shard], 0,
+						Math.min(length, value.length - shard * length));
+		checksums.encode(shards, 0, length);
+		
+		long id = ThreadLocalRandom.current().nextLong();
+		CompletableFuture<?>[] writes = new CompletableFuture<?>[shards.length];
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			final int index = shard;
+			writes[shard] = CompletableFuture.runAsync(() -> writeShard(index, key, value.length, id, shards[index]),
+					executor);
+		}
+		try
+		{
+			CompletableFuture.allOf(writes).join();
+		}
+		catch(CompletionException e)
+		{
+			if(e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Reads the value stored under the given key, from the first <code>dataShards</code> shards of the same write to
+	 * arrive.
+	 * 
+	 * @param key The key the value is stored under.
+	 * @return The value.
+	 * @throws IOException if too many shards are lost, or left by other writes, to read the value.
+	 * @throws IllegalArgumentException if the key is not valid.
+	 */
+	public byte[] read(String key) throws IOException
+	{
+		checkKey(key);
+		BlockingQueue<Arrival> arrivals = new LinkedBlockingQueue<>();
+		int requested = 0;
+		for(; requested < dataShards + hedge; requested++)
+			request(requested, key, arrivals);
+		
+		// each write's shards are kept apart, and the first write whose shards can be decoded is; more shards are asked
+		// for whenever the write with the most so far couldn't have enough, plus the hedge, from those outstanding. A
+		// write with enough shards which the checksums can't solve from counts as one short, so another is asked for
+		Map<Long, Version> versions = new HashMap<>();
+		int received = 0;
+		int most = 0;
+		for(;;)
+		{
+			Arrival arrival = take(arrivals);
+			received++;
+			if(arrival.header != null)
+			{
+				Version version = versions.computeIfAbsent(arrival.header.getLong(ID_OFFSET),
+						id -> new Version(arrival.header.getLong(0), arrival.shard.remaining(), directories.length));
+				if(version.add(arrival) && version.count >= dataShards && checksums.canReconstruct(version.present))
+					return decode(version.shards, version.size);
+				most = Math.max(most, Math.min(version.count, dataShards - 1));
+			}
+			
+			int outstanding = requested - received;
+			if(most + outstanding + directories.length - requested < dataShards)
+				throw new IOException("Too many lost shards - can only handle " + checksums.numChecksums());
+			for(; most + outstanding < dataShards + hedge && requested < directories.length; outstanding++)
+				request(requested++, key, arrivals);
+		}
+	}
+	
+	/**
+	 * Deletes every shard of the value stored under the given key.
+	 * 
+	 * @param key The key the value is stored under.
+	 * @return Whether any shard was deleted.
+	 * @throws IOException if a shard cannot be deleted.
+	 * @throws IllegalArgumentException if the key is not valid.
+	 */
+	public boolean delete(String key) throws IOException
+	{
+		checkKey(key);
+		boolean deleted = false;
+		for(Path directory : directories)
+			deleted |= Files.deleteIfExists(directory.resolve(key));
+		return deleted;
+	}
+	
+	/**
+	 * Shuts down the threads this store created for itself, if it wasn't given an executor.
+	 */
+	@Override
+	public void close()
+	{
+		if(ownsExecutor)
+			executor.shutdown();
+	}
+	
+	/**
+	 * Reads one shard of the value stored under the given key, and returns the whole file, with the header followed by
+	 * the shard.
+	 * 
+	 * @throws IOException if the shard cannot be read.
+	 */
+	ByteBuffer readShard(int shard, String key) throws IOException
+	{
+		return ByteBuffer.wrap(Files.readAllBytes(directories[shard].resolve(key)));
+	}
+	
+	/**
+	 * Reads the given shard on the executor, and adds it to the arrivals when it has been read and checked, or as lost
+	 * if it couldn't be.
+	 */
+	private void request(int index, String key, BlockingQueue<Arrival> arrivals)
+	{
+		executor.execute(() ->
+		{
+			Arrival arrival = new Arrival(index);
+			try
+			{
+				ByteBuffer file = readShard(index, key);
+				if(file.remaining() >= HEADER_LENGTH)
+				{
+					ByteBuffer header = (ByteBuffer) ((Buffer) file.duplicate()).limit(file.position() + HEADER_LENGTH);
+					ByteBuffer shard = (ByteBuffer) ((Buffer) file.duplicate()).position(file.position() + HEADER_LENGTH);
+					if(header.getInt(header.position() + CRC_OFFSET) == crc(header, shard))
+					{
+						arrival.header = header.slice();
+						arrival.shard = shard;
+					}
+				}
+			}
+			catch(IOException | RuntimeException e)
+			{
+				// the shard is lost
+			}
+			arrivals.add(arrival);
+		});
+	}
+	
+	/**
+	 * Copies the data shards into the value, reconstructing any which didn't arrive from the checksums which did.
+	 */
+	private byte[] decode(ByteBuffer[] shards, long size) throws IOException
+	{
+		int length = firstLength(shards);
+		if(size > (long) length * dataShards)
+			throw new IOException("Shards are too short for a value of " + size + " bytes");
+		
+		boolean[] present = new boolean[shards.length];
+		int[] wanted = new int[dataShards];
+		int missing = 0;
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			present[shard] = shards[shard] != null;
+			if(!present[shard])
+				shards[shard] = ByteBuffer.allocate(length);
+			if(!present[shard] && shard < dataShards)
+				wanted[missing++] = shard;
+		}
+		if(missing > 0)
+			checksums.reconstruct(shards, present, Arrays.copyOf(wanted, missing));
+		
+		byte[] value = new byte[(int) size];
+		for(int shard = 0; shard < dataShards && shard * length < size; shard++)
+			shards[shard].duplicate().get(value, shard * length, (int) Math.min(length, size - (long) shard * length));
+		return value;
+	}
+	
+	private void writeShard(int shard, String key, long size, long id, byte[] bytes)
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putLong(size).putLong(id);
+		header.putInt(crc((ByteBuffer) ((Buffer) header.duplicate()).flip(), ByteBuffer.wrap(bytes)));
+		((Buffer) header).flip();
+		ByteBuffer[] buffers = { header, ByteBuffer.wrap(bytes) };
+		Path file = directories[shard].resolve(key);
+		Path temporary = null;
+		try
+		{
+			temporary = Files.createTempFile(directories[shard], "." + key, ".tmp");
+			try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE))
+			{
+				while(buffers[1].hasRemaining())
+					channel.write(buffers);
+			}
+			try
+			{
+				Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(AtomicMoveNotSupportedException e)
+			{
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch(IOException e)
+		{
+			deleteQuietly(temporary, e);
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Deletes a temporary file left by a failed write, if there is one, adding any failure to the write's.
+	 */
+	private static void deleteQuietly(Path temporary, IOException failure)
+	{
+		if(temporary == null)
+			return;
+		try
+		{
+			Files.deleteIfExists(temporary);
+		}
+		catch(IOException e)
+		{
+			failure.addSuppressed(e);
+		}
+	}
+	
+	private static int firstLength(ByteBuffer[] shards)
+	{
+		for(ByteBuffer shard : shards)
+			if(shard != null)
+				return shard.remaining();
+		return -1;
+	}
+	
+	/**
+	 * Returns the CRC of the size and id at the start of the header, followed by the shard's remaining bytes.
+	 */
+	private static int crc(ByteBuffer header, ByteBuffer shard)
+	{
+		Checksum crc = Crc32c.create();
+		crc.update(header.array(), header.arrayOffset() + header.position(), CRC_OFFSET);
+		crc.update(shard.array(), shard.arrayOffset() + shard.position(), shard.remaining());
+		return (int) crc.getValue();
+	}
+	
+	private static Arrival take(BlockingQueue<Arrival> arrivals) throws IOException
+	{
+		try
+		{
+			return arrivals.take();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading shards");
+		}
+	}
+	
+	private static void checkKey(String key)
+	{
+		if(key.isEmpty() || key.startsWith(".") || key.indexOf('/') >= 0 || key.indexOf('\\') >= 0
+				|| key.indexOf('\0') >= 0)
+			throw new IllegalArgumentException("Key must be a file name which doesn't start with a dot");
+	}
+	
+	/**
+	 * Returns an executor which starts a virtual thread per task on Java 21 and later, and a cached pool of daemon
+	 * threads before that.
+	 */
+	private static ExecutorService defaultExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool(task ->
+			{
+				Thread thread = new Thread(task, "shard-store");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
+	/**
+	 * The shards of one write which have arrived for a read, all of which have the same size and length.
+	 */
+	private static final class Version
+	{
+		private final long size;
+		private final int length;
+		private final ByteBuffer[] shards;
+		private final boolean[] present;
+		private int count;
+		
+		private Version(long size, int length, int shardCount)
+		{
+			this.size = size;
+			this.length = length;
+			this.shards = new ByteBuffer[shardCount];
+			this.present = new boolean[shardCount];
+		}
+		
+		/**
+		 * Adds a shard of this write, unless its size or length doesn't match the others', and returns whether it was
+		 * added.
+		 */
+		private boolean add(Arrival arrival)
+		{
+			if(arrival.header.getLong(0) != size || arrival.shard.remaining() != length)
+				return false;
+			shards[arrival.index] = arrival.shard;
+			present[arrival.index] = true;
+			count++;
+			return true;
+		}
+	}
+	
+	/**
+	 * One shard of a read, with its header and bytes if it was read and its CRC matched, or neither if it was lost.
+	 */
+	private static final class Arrival
+	{
+		private final int index;
+		private ByteBuffer header;
+		private ByteBuffer shard;
+		
+		private Arrival(int index)
+		{
+			this.index = index;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.nickww.finitefield.network;
+
+import java.util.Arrays;
+
+/**
+ * One packet of random linear network coding: a combination of the source packets of a generation, along with the
+ * coefficient each source packet was multiplied by. A {@link NetworkDecoder} which has received as many independent
+ * packets as there are source packets can solve for all of them, whichever packets those were. Instances of this class
+ * are immutable.
+ * 
+ * @author Nick Wuensch
+ */
+public final class CodedPacket
+{
+	private final byte[] coefficients;
+	private final byte[] payload;
+	
+	/**
+	 * Creates a packet, such as one received from the network.
+	 * 
+	 * @param coefficients The coefficient of each source packet, which are copied.
+	 * @param payload The combination of the source packets, which is copied.
+	 * @throws IllegalArgumentException if there are no coefficients, or more than 65535.
+	 */
+	public CodedPacket(byte[] coefficients, byte[] payload)
+	{
+		this(coefficients, payload, false);
+	}
+	
+	/**
+	 * Creates a packet, which keeps the given arrays if they are owned by the caller, rather than copies of them.
+	 * 
+	 * @param owned Whether nothing else holds the arrays, so the packet can keep them without copying.
+	 */
+	CodedPacket(byte[] coefficients, byte[] payload, boolean owned)
+	{
+		if(coefficients.length < 1 || coefficients.length > 0xffff)
+			throw new IllegalArgumentException("Must have from 1 to 65535 coefficients");
+		this.coefficients = owned ? coefficients : coefficients.clone();
+		this.payload = owned ? payload : payload.clone();
+	}
+	
+	/**
+	 * Reads a packet written by {@link #toByteArray()}.
+	 * 
+	 * @param bytes The number of coefficients as two big-endian bytes, then the coefficients, then the payload.
+	 * @return The packet.
+	 * @throws IllegalArgumentException if the bytes are too short, or say there are no coefficients.
+	 */
+	public static CodedPacket fromByteArray(byte[] bytes)
+	{
+		if(bytes.length < 2)
+			throw new IllegalArgumentException("Packet must have a number of coefficients");
+		int count = (bytes[0] & 0xff) << 8 | bytes[1] & 0xff;
+		if(bytes.length < 2 + count)
+			throw new IllegalArgumentException("Packet is shorter than its coefficients");
+		return new CodedPacket(Arrays.copyOfRange(bytes, 2, 2 + count), Arrays.copyOfRange(bytes, 2 + count,
+				bytes.length), true);
+	}
+	
+	/**
+	 * @return The number of source packets in the generation this packet combines.
+	 */
+	public int generationSize()
+	{
+		return coefficients.length;
+	}
+	
+	/**
+	 * @return The number of bytes in the payload, which is also the number in each source packet.
+	 */
+	public int length()
+	{
+		return payload.length;
+	}
+	
+	/**
+	 * @return A copy of the coefficient of each source packet.
+	 */
+	public byte[] coefficients()
+	{
+		return coefficients.clone();
+	}
+	
+	/**
+	 * @return A copy of the combination of the source packets.
+	 */
+	public byte[] payload()
+	{
+		return payload.clone();
+	}
+	
+	/**
+	 * Returns this packet as bytes, which {@link #fromByteArray(byte[])} reads back.
+	 * 
+	 * @return The number of coefficients as two big-endian bytes, then the coefficients, then the payload.
+	 */
+	public byte[] toByteArray()
+	{
+		byte[] bytes = new byte[2 + coefficients.length + payload.length];
+		bytes[0] = (byte) (coefficients.length >>> 8);
+		bytes[1] = (byte) coefficients.length;
+		System.arraycopy(coefficients, 0, bytes, 2, coefficients.length);
+		System.arraycopy(payload, 0, bytes, 2 + coefficients.length, payload.length);
+		return bytes;
+	}
+	
+	/**
+	 * Returns the coefficients themselves, for {@link NetworkDecoder} to read without copying.
+	 */
+	byte[] coefficientsArray()
+	{
+		return coefficients;
+	}
+	
+	/**
+	 * Returns the payload itself, for {@link NetworkDecoder} to read without copying.
+	 */
+	byte[] payloadArray()
+	{
+		return payload;
+	}
+	
+	@Override
+	public boolean equals(Object other)
+	{
+		if(!(other instanceof CodedPacket))
+			return false;
+		CodedPacket packet = (CodedPacket) other;
+		return Arrays.equals(coefficients, packet.coefficients) && Arrays.equals(payload, packet.payload);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Arrays.hashCode(coefficients) * 31 + Arrays.hashCode(payload);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "coded packet of " + payload.length + " bytes, generation of " + coefficients.length;
+	}
+}
@@ -0,0 +1,113 @@
+package com.nickww.finitefield.network;
+
+import com.nickww.finitefield.FiniteByteFieldRowReducer;
+
+/**
+ * Decodes one generation of packets from a {@link NetworkEncoder} as they arrive. Each packet is eliminated against
+ * the ones before it straight away, with a {@link FiniteByteFieldRowReducer}, so the rank is always known, and the
+ * source packets are ready as soon as the last independent packet arrives, rather than after a batch is decoded.
+ * Some source packets can often be read before then, such as those sent on their own with
+ * {@link NetworkEncoder#source(int)}. Instances of this class are not thread-safe.
+ * 
+ * @author Nick Wuensch
+ */
+public class NetworkDecoder
+{
+	private final FiniteByteFieldRowReducer reducer;
+	private final int length;
+	
+	/**
+	 * Creates a decoder which hasn't received any packets.
+	 * 
+	 * @param generationSize The number of source packets in the generation.
+	 * @param length The number of bytes in each packet.
+	 * @throws IllegalArgumentException if the generation size is not from 1 to 65535, or the length is negative.
+	 */
+	public NetworkDecoder(int generationSize, int length)
+	{
+		if(generationSize > 0xffff)
+			throw new IllegalArgumentException("Cannot decode more than 65535 source packets");
+		this.reducer = new FiniteByteFieldRowReducer(generationSize, length);
+		this.length = length;
+	}
+	
+	/**
+	 * Adds a packet to the ones received.
+	 * 
+	 * @param packet A packet from this decoder's generation.
+	 * @return Whether the packet was innovative: independent of the packets before it, so the rank went up.
+	 * @throws IllegalArgumentException if the packet has the wrong generation size or length.
+	 */
+	public boolean receive(CodedPacket packet)
+	{
+		if(packet.generationSize() != reducer.unknowns() || packet.length() != length)
+			throw new IllegalArgumentException("Packet must have " + reducer.unknowns() + " coefficients and "
+					+ length + " bytes");
+		return reducer.add(packet.coefficientsArray(), packet.payloadArray());
+	}
+	
+	/**
+	 * @return The number of source packets in the generation.
+	 */
+	public int generationSize()
+	{
+		return reducer.unknowns();
+	}
+	
+	/**
+	 * @return The number of independent packets received. The generation size minus this is how many more are needed.
+	 */
+	public int rank()
+	{
+		return reducer.rank();
+	}
+	
+	/**
+	 * @return Whether every source packet is decoded.
+	 */
+	public boolean isComplete()
+	{
+		return reducer.isFullRank();
+	}
+	
+	/**
+	 * Returns whether the given source packet is decoded, which may be before the whole generation is.
+	 * 
+	 * @param index The index of the source packet.
+	 * @return Whether {@link #source(int)} can give it.
+	 * @throws IndexOutOfBoundsException if there is no such source packet.
+	 */
+	public boolean isDecoded(int index)
+	{
+		return reducer.isSolved(index);
+	}
+	
+	/**
+	 * Returns a decoded source packet.
+	 * 
+	 * @param index The index of the source packet.
+	 * @return A copy of the source packet.
+	 * @throws IllegalStateException if the source packet isn't decoded yet.
+	 * @throws IndexOutOfBoundsException if there is no such source packet.
+	 */
+	public byte[] source(int index)
+	{
+		return reducer.solution(index);
+	}
+	
+	/**
+	 * Returns every source packet, once the generation is complete.
+	 * 
+	 * @return Copies of the source packets, in order.
+	 * @throws IllegalStateException if too few independent packets have been received.
+	 */
+	public byte[][] sources()
+	{
+		if(!isComplete())
+			throw new IllegalStateException("Need " + (generationSize() - rank()) + " more independent packets");
+		byte[][] sources = new byte[generationSize()][];
+		for(int index = 0; index < sources.length; index++)
+			sources[index] = source(index);
+		return sources;
+	}
+}
@@ -0,0 +1,111 @@
+package com.nickww.finitefield.network;
+
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Encodes one generation of source packets with random linear network coding
+ * {@link https://en.wikipedia.org/wiki/Linear_network_coding}: each coded packet is the sum of every source packet
+ * multiplied by a random coefficient, sent along with the coefficients. Any packets a receiver gets are as good as any
+ * others, so a lossy link only needs to keep sending until the receiver has enough, without saying which were lost.
+ * With random coefficients from all 256 values, each packet a receiver gets is independent of the ones before with
+ * probability at least <code>255/256</code> until it has the whole generation.<br/>
+ * <br/>
+ * Each coded payload is made in one pass over the sources with
+ * {@link com.nickww.finitefield.FiniteByteField#dotRegion}. Instances of this class are thread-safe if their random
+ * number generator is.
+ * 
+ * @author Nick Wuensch
+ */
+public class NetworkEncoder
+{
+	private final byte[][] sources;
+	private final ByteBuffer[] buffers;
+	private final Random random;
+	
+	/**
+	 * Creates an encoder whose coefficients come from a new {@link Random}.
+	 * 
+	 * @param sources The source packets of the generation, which must all be the same length, and are not copied.
+	 * @throws IllegalArgumentException if there are no sources, more than 65535, or they are different lengths.
+	 */
+	public NetworkEncoder(byte[]... sources)
+	{
+		this(new Random(), sources);
+	}
+	
+	/**
+	 * Creates an encoder whose coefficients come from the given generator.
+	 * 
+	 * @param random The generator of the coefficients.
+	 * @param sources The source packets of the generation, which must all be the same length, and are not copied.
+	 * @throws IllegalArgumentException if there are no sources, more than 65535, or they are different lengths.
+	 */
+	public NetworkEncoder(Random random, byte[]... sources)
+	{
+		if(sources.length < 1 || sources.length > 0xffff)
+			throw new IllegalArgumentException("Must have from 1 to 65535 source packets");
+		this.sources = sources;
+		this.buffers = new ByteBuffer[sources.length];
+		for(int source = 0; source < sources.length; source++)
+		{
+			if(sources[source].length != sources[0].length)
+				throw new IllegalArgumentException("Every source packet must be the same length");
+			buffers[source] = ByteBuffer.wrap(sources[source]);
+		}
+		this.random = random;
+	}
+	
+	/**
+	 * @return The number of source packets in the generation.
+	 */
+	public int generationSize()
+	{
+		return sources.length;
+	}
+	
+	/**
+	 * @return The number of bytes in each packet.
+	 */
+	public int length()
+	{
+		return sources[0].length;
+	}
+	
+	/**
+	 * Returns a new random combination of the source packets. The coefficients are never all zero.
+	 * 
+	 * @return The coded packet.
+	 */
+	public CodedPacket next()
+	{
+		byte[] coefficients = new byte[sources.length];
+		boolean zero = true;
+		while(zero)
+		{
+			random.nextBytes(coefficients);
+			for(byte coefficient : coefficients)
+				zero &= coefficient == 0;
+		}
+		byte[] payload = new byte[length()];
+		dotRegion(coefficients, buffers, ByteBuffer.wrap(payload));
+		return new CodedPacket(coefficients, payload, true);
+	}
+	
+	/**
+	 * Returns one source packet as a coded packet, whose only coefficient is 1. Sending every source packet this way
+	 * before any random combinations (a systematic code) costs a receiver on a clean link no decoding at all.
+	 * 
+	 * @param index The index of the source packet.
+	 * @return The source packet, with its coefficients.
+	 * @throws IndexOutOfBoundsException if there is no such source packet.
+	 */
+	public CodedPacket source(int index)
+	{
+		byte[] coefficients = new byte[sources.length];
+		coefficients[index] = 1;
+		return new CodedPacket(coefficients, sources[index].clone(), true);
+	}
+}
@@ -0,0 +1,133 @@
+package com.nickww.finitefield.sharing;
+
+import java.util.Arrays;
+
+/**
+ * One share of a secret split by {@link SecretSharing}: the value at one point of each of the secret's random
+ * polynomials, one polynomial per byte of the secret. Any <code>threshold</code> shares with different indices combine
+ * to give the secret, and fewer give no information about it. Instances of this class are immutable.
+ * 
+ * @author Nick Wuensch
+ */
+public final class SecretShare
+{
+	private final int index;
+	private final int threshold;
+	private final byte[] value;
+	
+	/**
+	 * Creates a share, such as one read back from storage.
+	 * 
+	 * @param index The point the polynomials were evaluated at, from 1 to 255.
+	 * @param threshold The number of shares needed to combine the secret, from 1 to 255.
+	 * @param value The polynomials' values at the point, which is copied.
+	 * @throws IllegalArgumentException if the index or threshold is out of range.
+	 */
+	public SecretShare(int index, int threshold, byte[] value)
+	{
+		this(index, threshold, value, false);
+	}
+	
+	/**
+	 * Creates a share, which keeps the given array if it is owned by the caller, rather than a copy of it.
+	 * 
+	 * @param owned Whether nothing else holds the array, so the share can keep it without copying.
+	 */
+	SecretShare(int index, int threshold, byte[] value, boolean owned)
+	{
+		if(index < 1 || index > 255 || threshold < 1 || threshold > 255)
+			throw new IllegalArgumentException("Index and threshold must be from 1 to 255");
+		this.index = index;
+		this.threshold = threshold;
+		this.value = owned ? value : value.clone();
+	}
+	
+	/**
+	 * Reads a share written by {@link #toByteArray()}.
+	 * 
+	 * @param bytes The threshold, then the index, then the value.
+	 * @return The share.
+	 * @throws IllegalArgumentException if the bytes are too short, or the index or threshold is out of range.
+	 */
+	public static SecretShare fromByteArray(byte[] bytes)
+	{
+		if(bytes.length < 2)
+			throw new IllegalArgumentException("Share must have a threshold and an index");
+		return new SecretShare(bytes[1] & 0xff, bytes[0] & 0xff, Arrays.copyOfRange(bytes, 2, bytes.length), true);
+	}
+	
+	/**
+	 * @return The point this share's polynomials were evaluated at, from 1 to 255.
+	 */
+	public int index()
+	{
+		return index;
+	}
+	
+	/**
+	 * @return The number of shares needed to combine the secret.
+	 */
+	public int threshold()
+	{
+		return threshold;
+	}
+	
+	/**
+	 * @return The number of bytes in the secret, which is also the number in this share's value.
+	 */
+	public int length()
+	{
+		return value.length;
+	}
+	
+	/**
+	 * @return A copy of this share's value.
+	 */
+	public byte[] value()
+	{
+		return value.clone();
+	}
+	
+	/**
+	 * Returns this share as bytes, which {@link #fromByteArray(byte[])} reads back.
+	 * 
+	 * @return The threshold, then the index, then the value.
+	 */
+	public byte[] toByteArray()
+	{
+		byte[] bytes = new byte[value.length + 2];
+		bytes[0] = (byte) threshold;
+		bytes[1] = (byte) index;
+		System.arraycopy(value, 0, bytes, 2, value.length);
+		return bytes;
+	}
+	
+	/**
+	 * Returns the value itself, for {@link SecretSharing} to read without copying.
+	 */
+	byte[] values()
+	{
+		return value;
+	}
+	
+	@Override
+	public boolean equals(Object other)
+	{
+		if(!(other instanceof SecretShare))
+			return false;
+		SecretShare share = (SecretShare) other;
+		return index == share.index && threshold == share.threshold && Arrays.equals(value, share.value);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return (index * 31 + threshold) * 31 + Arrays.hashCode(value);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "share " + index + " of a " + value.length + " byte secret, threshold " + threshold;
+	}
+}
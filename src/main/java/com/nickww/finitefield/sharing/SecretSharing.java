@@ -0,0 +1,177 @@
+package com.nickww.finitefield.sharing;
+
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import com.nickww.finitefield.FiniteBytePolynomial;
+
+/**
+ * Splits secrets into shares with Shamir's scheme {@link https://en.wikipedia.org/wiki/Shamir%27s_secret_sharing},
+ * so that any <code>threshold</code> of the shares give back the secret, and fewer give no information about it. Each
+ * byte of the secret is the constant term of its own polynomial of degree <code>threshold - 1</code>, whose other
+ * coefficients are random, and share <code>x</code> holds every polynomial's value at <code>x</code>.<br/>
+ * <br/>
+ * The polynomials are evaluated a block of bytes at a time with region operations: each share is the secret plus each
+ * block of random coefficients multiplied by a power of the share's index. Combining is Lagrange interpolation at 0,
+ * which is one weight per share from {@link FiniteBytePolynomial#interpolationWeights(byte[], byte)}, so the secret is
+ * a single {@link com.nickww.finitefield.FiniteByteField#dotRegion} over the shares. Instances of this class are
+ * thread-safe if their random number generator is.
+ * 
+ * @author Nick Wuensch
+ */
+public class SecretSharing
+{
+	private static final int BLOCK_SIZE = 1 << 13;
+	
+	private final int threshold;
+	private final int shares;
+	private final Random random;
+	private final byte[][] powers;
+	
+	/**
+	 * Creates a scheme whose random coefficients come from a {@link SecureRandom}.
+	 * 
+	 * @param threshold The number of shares needed to combine a secret.
+	 * @param shares The number of shares to split each secret into.
+	 * @throws IllegalArgumentException if the threshold is less than 1 or more than the number of shares, or there are
+	 * more than 255 shares.
+	 */
+	public SecretSharing(int threshold, int shares)
+	{
+		this(threshold, shares, new SecureRandom());
+	}
+	
+	/**
+	 * Creates a scheme whose random coefficients come from the given generator, which should be cryptographically
+	 * strong for the shares to keep the secret.
+	 * 
+	 * @param threshold The number of shares needed to combine a secret.
+	 * @param shares The number of shares to split each secret into.
+	 * @param random The generator of the polynomials' coefficients.
+	 * @throws IllegalArgumentException if the threshold is less than 1 or more than the number of shares, or there are
+	 * more than 255 shares.
+	 */
+	public SecretSharing(int threshold, int shares, Random random)
+	{
+		if(threshold < 1 || threshold > shares)
+			throw new IllegalArgumentException("Threshold must be from 1 to the number of shares");
+		if(shares > MAX_VALUE)
+			throw new IllegalArgumentException("Cannot split a secret into more than " + MAX_VALUE + " shares");
+		
+		this.threshold = threshold;
+		this.shares = shares;
+		this.random = random;
+		this.powers = new byte[shares][threshold];
+		for(int share = 0; share < shares; share++)
+		{
+			powers[share][0] = 1;
+			for(int power = 1; power < threshold; power++)
+				powers[share][power] = mul(powers[share][power - 1], (byte) (share + 1));
+		}
+	}
+	
+	/**
+	 * @return The number of shares needed to combine a secret.
+	 */
+	public int threshold()
+	{
+		return threshold;
+	}
+	
+	/**
+	 * @return The number of shares each secret is split into.
+	 */
+	public int shares()
+	{
+		return shares;
+	}
+	
+	/**
+	 * Splits a secret into shares, with indices from 1 to the number of shares.
+	 * 
+	 * @param secret The secret, which may be any length.
+	 * @return The shares, in order of index.
+	 */
+	public SecretShare[] split(byte[] secret)
+	{
+		byte[][] values = new byte[shares][secret.length];
+		byte[][] coefficients = new byte[threshold][Math.min(secret.length, BLOCK_SIZE)];
+		for(int start = 0; start < secret.length; start += BLOCK_SIZE)
+		{
+			int count = Math.min(BLOCK_SIZE, secret.length - start);
+			for(int power = 1; power < threshold; power++)
+				randomBytes(coefficients[power], count);
+			for(int share = 0; share < shares; share++)
+			{
+				System.arraycopy(secret, start, values[share], start, count);
+				for(int power = 1; power < threshold; power++)
+					mulAddRegion(powers[share][power], coefficients[power], 0, values[share], start, count);
+			}
+		}
+		
+		SecretShare[] split = new SecretShare[shares];
+		for(int share = 0; share < shares; share++)
+			split[share] = new SecretShare(share + 1, threshold, values[share], true);
+		return split;
+	}
+	
+	/**
+	 * Combines shares of a secret back into the secret. Only the first <code>threshold</code> shares are used.
+	 * 
+	 * @param shares At least as many shares of the same secret as its threshold, with different indices.
+	 * @return The secret.
+	 * @throws IllegalArgumentException if there are fewer shares than the threshold, or the shares have different
+	 * thresholds or lengths, or two of the shares used have the same index.
+	 */
+	public static byte[] combine(SecretShare... shares)
+	{
+		if(shares.length == 0)
+			throw new IllegalArgumentException("Must have at least one share");
+		int threshold = shares[0].threshold();
+		int length = shares[0].length();
+		if(shares.length < threshold)
+			throw new IllegalArgumentException("Must have at least " + threshold + " shares");
+		for(SecretShare share : shares)
+			if(share.threshold() != threshold || share.length() != length)
+				throw new IllegalArgumentException("Shares must have the same threshold and length");
+		
+		byte[] indices = new byte[threshold];
+		ByteBuffer[] values = new ByteBuffer[threshold];
+		for(int share = 0; share < threshold; share++)
+		{
+			indices[share] = (byte) shares[share].index();
+			values[share] = ByteBuffer.wrap(shares[share].values());
+		}
+		byte[] weights;
+		try
+		{
+			weights = FiniteBytePolynomial.interpolationWeights(indices, (byte) 0);
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new IllegalArgumentException("Shares must have different indices", e);
+		}
+		
+		byte[] secret = new byte[length];
+		dotRegion(weights, values, ByteBuffer.wrap(secret));
+		return secret;
+	}
+	
+	/**
+	 * Fills the start of the given array with random bytes, without allocating when it is filled completely.
+	 */
+	private void randomBytes(byte[] bytes, int count)
+	{
+		if(count == bytes.length)
+			random.nextBytes(bytes);
+		else
+		{
+			byte[] random = new byte[count];
+			this.random.nextBytes(random);
+			System.arraycopy(random, 0, bytes, 0, count);
+		}
+	}
+}
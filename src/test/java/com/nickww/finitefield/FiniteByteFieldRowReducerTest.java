@@ -0,0 +1,111 @@
+package com.nickww.finitefield;
+
+import static org.junit.Assert.*;
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FiniteByteFieldRowReducerTest
+{
+	@Test
+	public void testSolvesRandomSystem()
+	{
+		Random random = new Random(1);
+		byte[][] unknowns = new byte[6][50];
+		for(byte[] unknown : unknowns)
+			random.nextBytes(unknown);
+		
+		FiniteByteFieldRowReducer reducer = new FiniteByteFieldRowReducer(6, 50);
+		int added = 0;
+		while(!reducer.isFullRank())
+		{
+			byte[] coefficients = new byte[6];
+			random.nextBytes(coefficients);
+			if(reducer.add(coefficients, combine(coefficients, unknowns)))
+				added++;
+			assertEquals(added, reducer.rank());
+		}
+		for(int unknown = 0; unknown < 6; unknown++)
+			assertArrayEquals(unknowns[unknown], reducer.solution(unknown));
+		assertEquals(FiniteByteFieldMatrix.identity(6), new FiniteByteFieldMatrix(sorted(reducer)));
+	}
+	
+	@Test
+	public void testDependentEquationsDropped()
+	{
+		FiniteByteFieldRowReducer reducer = new FiniteByteFieldRowReducer(3, 1);
+		assertTrue(reducer.add(new byte[] { 1, 2, 3 }, new byte[] { 4 }));
+		assertTrue(reducer.add(new byte[] { 5, 0, 7 }, new byte[] { 8 }));
+		byte[] sum = { add(mul((byte) 9, (byte) 1), (byte) 5), mul((byte) 9, (byte) 2), add(mul((byte) 9, (byte) 3),
+				(byte) 7) };
+		assertFalse(reducer.add(sum, new byte[] { add(mul((byte) 9, (byte) 4), (byte) 8) }));
+		assertFalse(reducer.add(new byte[3], new byte[1]));
+		assertEquals(2, reducer.rank());
+		assertFalse(reducer.isFullRank());
+	}
+	
+	@Test
+	public void testSolvesUnknownsBeforeFullRank()
+	{
+		FiniteByteFieldRowReducer reducer = new FiniteByteFieldRowReducer(4, 2);
+		reducer.add(new byte[] { 0, 3, 0, 0 }, new byte[] { mul((byte) 3, (byte) 10), mul((byte) 3, (byte) 11) });
+		assertTrue(reducer.isSolved(1));
+		assertArrayEquals(new byte[] { 10, 11 }, reducer.solution(1));
+		
+		reducer.add(new byte[] { 1, 0, 1, 0 }, new byte[] { 1, 1 });
+		assertFalse(reducer.isSolved(0));
+		assertFalse(reducer.isSolved(2));
+		reducer.add(new byte[] { 1, 1, 0, 0 }, new byte[] { add((byte) 5, (byte) 10), add((byte) 6, (byte) 11) });
+		assertTrue(reducer.isSolved(0));
+		assertTrue(reducer.isSolved(2));
+		assertArrayEquals(new byte[] { 5, 6 }, reducer.solution(0));
+		assertArrayEquals(new byte[] { add((byte) 5, (byte) 1), add((byte) 6, (byte) 1) }, reducer.solution(2));
+		assertFalse(reducer.isSolved(3));
+		assertEquals(3, reducer.coefficients().numRows());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testUnsolvedSolution()
+	{
+		new FiniteByteFieldRowReducer(2, 1).solution(0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongCoefficientCount()
+	{
+		new FiniteByteFieldRowReducer(2, 1).add(new byte[3], new byte[1]);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoUnknowns()
+	{
+		new FiniteByteFieldRowReducer(0, 1);
+	}
+	
+	private static byte[] combine(byte[] coefficients, byte[][] unknowns)
+	{
+		byte[] value = new byte[unknowns[0].length];
+		for(int unknown = 0; unknown < unknowns.length; unknown++)
+			mulAddRegion(coefficients[unknown], unknowns[unknown], 0, value, 0, value.length);
+		return value;
+	}
+	
+	/**
+	 * Returns the reduced coefficients with each row moved to its pivot's position.
+	 */
+	private static byte[][] sorted(FiniteByteFieldRowReducer reducer)
+	{
+		byte[][] rows = reducer.coefficients().getData();
+		byte[][] sorted = new byte[rows.length][];
+		for(byte[] row : rows)
+			for(int col = 0; col < row.length; col++)
+				if(row[col] != 0)
+				{
+					sorted[col] = row;
+					break;
+				}
+		return sorted;
+	}
+}
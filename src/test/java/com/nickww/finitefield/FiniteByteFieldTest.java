@@ -3,6 +3,9 @@ package com.nickww.finitefield;
 import static org.junit.Assert.*;
 import static com.nickww.finitefield.FiniteByteField.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import org.junit.Test;
 
 public class FiniteByteFieldTest
@@ -156,4 +159,129 @@ public class FiniteByteFieldTest
 		assertEquals(mul(fst, fst), sqr(fst));
 		assertEquals(mul(snd, snd), sqr(snd));
 	}
+	
+	@Test
+	public void testAddRegion()
+	{
+		byte[] dst = new byte[] { 1, 2, 3, 4 };
+		addRegion(new byte[] { 9, fst, snd }, 1, dst, 2, 2);
+		assertArrayEquals(new byte[] { 1, 2, add((byte) 3, fst), add((byte) 4, snd) }, dst);
+	}
+	
+	@Test
+	public void testMulRegion()
+	{
+		byte[] dst = new byte[3];
+		mulRegion(snd, new byte[] { fst, snd, 0 }, 0, dst, 0, 3);
+		assertArrayEquals(new byte[] { mul(fst, snd), mul(snd, snd), 0 }, dst);
+	}
+	
+	@Test
+	public void testMulAddRegion()
+	{
+		byte[] dst = new byte[] { 5, 6 };
+		mulAddRegion(snd, new byte[] { fst, snd }, 0, dst, 0, 2);
+		assertArrayEquals(new byte[] { add((byte) 5, mul(fst, snd)), add((byte) 6, mul(snd, snd)) }, dst);
+	}
+	
+	@Test
+	public void testMulAddRegionByZeroAndOne()
+	{
+		byte[] dst = new byte[] { 5, 6 };
+		mulAddRegion((byte) 0, new byte[] { fst, snd }, 0, dst, 0, 2);
+		assertArrayEquals(new byte[] { 5, 6 }, dst);
+		mulAddRegion((byte) 1, new byte[] { fst, snd }, 0, dst, 0, 2);
+		assertArrayEquals(new byte[] { add((byte) 5, fst), add((byte) 6, snd) }, dst);
+	}
+	
+	@Test
+	public void testAddRegionBuffers()
+	{
+		byte[] src = new byte[] { 9, 1, 2, 3, 4, 5, 6, 7, 8, 9, fst, snd };
+		ByteBuffer dst = ByteBuffer.allocateDirect(11);
+		addRegion((ByteBuffer) ByteBuffer.wrap(src).position(1), dst);
+		for(int i = 0; i < 11; i++)
+			assertEquals(src[i + 1], dst.get(i));
+		
+		addRegion(ByteBuffer.wrap(src, 1, 11).order(ByteOrder.LITTLE_ENDIAN), dst);
+		for(int i = 0; i < 11; i++)
+			assertEquals(0, dst.get(i));
+	}
+	
+	@Test
+	public void testMulAddRegionBuffers()
+	{
+		byte[] src = new byte[] { fst, snd, 3 };
+		ByteBuffer dst = ByteBuffer.wrap(new byte[] { 5, 6, 7 });
+		mulAddRegion(snd, ByteBuffer.wrap(src), dst);
+		assertArrayEquals(new byte[] { add((byte) 5, mul(fst, snd)), add((byte) 6, mul(snd, snd)),
+				add((byte) 7, mul((byte) 3, snd)) }, dst.array());
+		assertEquals(0, dst.position());
+	}
+	
+	@Test
+	public void testMulRegionBuffers()
+	{
+		ByteBuffer dst = ByteBuffer.allocate(2);
+		mulRegion(snd, ByteBuffer.wrap(new byte[] { fst, snd }), dst);
+		assertArrayEquals(new byte[] { mul(fst, snd), mul(snd, snd) }, dst.array());
+		mulRegion((byte) 1, ByteBuffer.wrap(new byte[] { fst, snd }), dst);
+		assertArrayEquals(new byte[] { fst, snd }, dst.array());
+	}
+	
+	@Test
+	public void testAbsoluteRegionBuffers()
+	{
+		byte[] src = new byte[] { 9, 1, 2, 3, 4, 5, 6, 7, 8, 9, fst, snd };
+		ByteBuffer dst = (ByteBuffer) ByteBuffer.allocateDirect(13).position(12);
+		addRegion(ByteBuffer.wrap(src), 1, dst, 2, 11);
+		for(int i = 0; i < 11; i++)
+			assertEquals(src[i + 1], dst.get(i + 2));
+		assertEquals(12, dst.position());
+		
+		mulRegion(snd, ByteBuffer.wrap(src), 10, dst, 0, 2);
+		assertEquals(mul(fst, snd), dst.get(0));
+		assertEquals(mul(snd, snd), dst.get(1));
+		mulAddRegion(snd, ByteBuffer.wrap(src), 10, dst, 0, 2);
+		assertEquals(0, dst.get(0));
+		assertEquals(0, dst.get(1));
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testAbsoluteRegionPastLimit()
+	{
+		mulAddRegion(snd, ByteBuffer.allocate(4), 0, (ByteBuffer) ByteBuffer.allocate(4).limit(3), 0, 4);
+	}
+	
+	@Test
+	public void testDotRegion()
+	{
+		byte[] coefficients = { snd, 1, 0 };
+		byte[] expected = { add(mul(fst, snd), (byte) 7), add(mul(snd, snd), (byte) 8) };
+		ByteBuffer[] heap = { ByteBuffer.wrap(new byte[] { fst, snd }),
+				(ByteBuffer) ByteBuffer.wrap(new byte[] { 0, 7, 8 }).position(1), ByteBuffer.wrap(new byte[] { 9, 9 }) };
+		ByteBuffer dst = ByteBuffer.allocate(2);
+		dotRegion(coefficients, heap, dst);
+		assertArrayEquals(expected, dst.array());
+		
+		ByteBuffer[] direct = new ByteBuffer[heap.length];
+		for(int src = 0; src < heap.length; src++)
+			direct[src] = (ByteBuffer) ByteBuffer.allocateDirect(2).put(heap[src].duplicate()).flip();
+		dotRegion(coefficients, direct, dst);
+		assertArrayEquals(expected, dst.array());
+		assertEquals(0, dst.position());
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testDotRegionSourceTooSmall()
+	{
+		dotRegion(new byte[] { 1, 1 }, new ByteBuffer[] { ByteBuffer.allocate(4), ByteBuffer.allocate(3) },
+				ByteBuffer.allocate(4));
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testAddRegionBuffersDestinationTooSmall()
+	{
+		addRegion(ByteBuffer.allocate(4), ByteBuffer.allocate(3));
+	}
 }
@@ -0,0 +1,166 @@
+package com.nickww.finitefield;
+
+import static org.junit.Assert.*;
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FiniteBytePolynomialTest
+{
+	private static final FiniteBytePolynomial poly = new FiniteBytePolynomial((byte) -1, (byte) 1, (byte) 3);
+	
+	@Test
+	public void testTrimsZeros()
+	{
+		FiniteBytePolynomial trimmed = new FiniteBytePolynomial((byte) -1, (byte) 1, (byte) 3, (byte) 0, (byte) 0);
+		assertEquals(2, trimmed.degree());
+		assertEquals(poly, trimmed);
+		assertEquals(poly.hashCode(), trimmed.hashCode());
+		assertEquals(FiniteBytePolynomial.ZERO, new FiniteBytePolynomial((byte) 0));
+		assertEquals(-1, FiniteBytePolynomial.ZERO.degree());
+	}
+	
+	@Test
+	public void testCoefficients()
+	{
+		assertEquals(3, poly.coefficient(2));
+		assertEquals(0, poly.coefficient(10));
+		assertArrayEquals(new byte[] { -1, 1, 3 }, poly.coefficients());
+		poly.coefficients()[0] = 5;
+		assertEquals(-1, poly.coefficient(0));
+	}
+	
+	@Test
+	public void testToString()
+	{
+		assertEquals("3x^2 + x + 255", poly.toString());
+		assertEquals("0", FiniteBytePolynomial.ZERO.toString());
+		assertEquals("x^3", FiniteBytePolynomial.monomial((byte) 1, 3).toString());
+	}
+	
+	@Test
+	public void testEvaluate()
+	{
+		for(int x = 0; x <= MAX_VALUE; x++)
+		{
+			byte point = (byte) x;
+			assertEquals(add(mul((byte) 3, mul(point, point)), point, (byte) -1), poly.evaluate(point));
+		}
+		assertEquals(0, FiniteBytePolynomial.ZERO.evaluate((byte) 7));
+	}
+	
+	@Test
+	public void testEvaluateManyPoints()
+	{
+		FiniteBytePolynomial random = random(new Random(1), 20);
+		byte[] points = new byte[MAX_VALUE + 1];
+		for(int x = 0; x < points.length; x++)
+			points[x] = (byte) x;
+		byte[] values = random.evaluate(points);
+		for(int x = 0; x < points.length; x++)
+			assertEquals(random.evaluate(points[x]), values[x]);
+	}
+	
+	@Test
+	public void testFromRoots()
+	{
+		byte[] roots = { 1, 2, 3, -50 };
+		FiniteBytePolynomial product = FiniteBytePolynomial.fromRoots(roots);
+		assertEquals(roots.length, product.degree());
+		assertEquals(1, product.coefficient(roots.length));
+		for(byte value : product.evaluate(roots))
+			assertEquals(0, value);
+		assertNotEquals(0, product.evaluate((byte) 4));
+	}
+	
+	@Test
+	public void testPlusAndTimes()
+	{
+		assertEquals(FiniteBytePolynomial.ZERO, poly.plus(poly));
+		assertEquals(new FiniteBytePolynomial((byte) -1, (byte) 0, (byte) 3), poly.plus(
+				FiniteBytePolynomial.monomial((byte) 1, 1)));
+		assertEquals(FiniteBytePolynomial.ZERO, poly.times((byte) 0));
+		
+		FiniteBytePolynomial product = poly.times(new FiniteBytePolynomial((byte) 2, (byte) 1));
+		assertEquals(3, product.degree());
+		for(int x = 0; x <= MAX_VALUE; x++)
+			assertEquals(mul(poly.evaluate((byte) x), add((byte) x, (byte) 2)), product.evaluate((byte) x));
+	}
+	
+	@Test
+	public void testDivideAndRemainder()
+	{
+		Random random = new Random(2);
+		for(int trial = 0; trial < 50; trial++)
+		{
+			FiniteBytePolynomial dividend = random(random, 1 + random.nextInt(30));
+			FiniteBytePolynomial divisor = random(random, 1 + random.nextInt(10));
+			FiniteBytePolynomial[] result = dividend.divideAndRemainder(divisor);
+			assertTrue(result[1].degree() < divisor.degree());
+			assertEquals(dividend, result[0].times(divisor).plus(result[1]));
+			assertEquals(result[0], dividend.divideBy(divisor));
+			assertEquals(result[1], dividend.remainder(divisor));
+		}
+		FiniteBytePolynomial roots = FiniteBytePolynomial.fromRoots((byte) 5, (byte) 6);
+		assertEquals(FiniteBytePolynomial.ZERO, roots.times(poly).remainder(poly));
+	}
+	
+	@Test(expected = ArithmeticException.class)
+	public void testDivideByZero()
+	{
+		poly.divideBy(FiniteBytePolynomial.ZERO);
+	}
+	
+	@Test
+	public void testDerivative()
+	{
+		// d/dx (3x^2 + x + 255) = 6x + 1 = 1 in characteristic 2, since 3x^2 + 3x^2 = 0
+		assertEquals(new FiniteBytePolynomial((byte) 1), poly.derivative());
+		FiniteBytePolynomial cubic = new FiniteBytePolynomial((byte) 9, (byte) 8, (byte) 7, (byte) 6);
+		assertEquals(new FiniteBytePolynomial((byte) 8, (byte) 0, (byte) 6), cubic.derivative());
+		assertEquals(FiniteBytePolynomial.ZERO, new FiniteBytePolynomial((byte) 4).derivative());
+	}
+	
+	@Test
+	public void testInterpolate()
+	{
+		FiniteBytePolynomial random = random(new Random(3), 12);
+		byte[] xs = new byte[13];
+		for(int i = 0; i < xs.length; i++)
+			xs[i] = (byte) (i * 19 + 4);
+		assertEquals(random, FiniteBytePolynomial.interpolate(xs, random.evaluate(xs)));
+		assertEquals(FiniteBytePolynomial.ZERO, FiniteBytePolynomial.interpolate(new byte[0], new byte[0]));
+	}
+	
+	@Test
+	public void testInterpolationWeights()
+	{
+		FiniteBytePolynomial random = random(new Random(4), 5);
+		byte[] xs = { 1, 2, 3, 4, 5, 6 };
+		byte[] ys = random.evaluate(xs);
+		for(int x = 0; x <= MAX_VALUE; x++)
+		{
+			byte[] weights = FiniteBytePolynomial.interpolationWeights(xs, (byte) x);
+			byte value = 0;
+			for(int i = 0; i < xs.length; i++)
+				value ^= mul(weights[i], ys[i]);
+			assertEquals(random.evaluate((byte) x), value);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInterpolateRepeatedPoint()
+	{
+		FiniteBytePolynomial.interpolate(new byte[] { 1, 2, 1 }, new byte[3]);
+	}
+	
+	private static FiniteBytePolynomial random(Random random, int degree)
+	{
+		byte[] coefficients = new byte[degree + 1];
+		random.nextBytes(coefficients);
+		coefficients[degree] = (byte) (1 + random.nextInt(MAX_VALUE));
+		return new FiniteBytePolynomial(coefficients);
+	}
+}
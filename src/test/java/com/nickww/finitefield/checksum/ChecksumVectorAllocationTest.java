@@ -0,0 +1,176 @@
+package com.nickww.finitefield.checksum;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the steady-state encode and decode paths don't allocate, by measuring the bytes this thread allocates
+ * over many calls after a warm-up. The measurement needs HotSpot's extension of ThreadMXBean, so these tests are
+ * skipped on JVMs without it. The warm-up gives the JIT a chance to compile the loops, since interpreted code can
+ * allocate where compiled code doesn't.
+ */
+public class ChecksumVectorAllocationTest
+{
+	private static final int WARM_UP = 20000;
+	private static final int MEASURED = 1000;
+	private static final int LENGTH = 1024;
+	
+	@Test
+	public void testXorIntoVariants()
+	{
+		ChecksumVector vector = ChecksumVector.build(1);
+		byte[] data = randomBytes(8);
+		byte[] checksummed = new byte[9];
+		byte[] solved = new byte[8];
+		boolean[] present = presentExcept(9, 3);
+		assertNoAllocation(() ->
+		{
+			vector.withChecksumsInto(data, checksummed);
+			vector.solveMissingValuesInto(checksummed, present, solved);
+		});
+		assertArrayEquals(data, solved);
+	}
+	
+	@Test
+	public void testXorShards()
+	{
+		ChecksumVector vector = ChecksumVector.build(1);
+		byte[][] shards = randomShards(6, 1);
+		ByteBuffer[] buffers = directShards(6, 1);
+		boolean[] present = presentExcept(7, 2);
+		assertNoAllocation(() ->
+		{
+			vector.encode(shards, 0, LENGTH);
+			vector.reconstruct(shards, present, 0, LENGTH);
+			vector.encode(buffers);
+			vector.reconstruct(buffers, present);
+		});
+	}
+	
+	@Test
+	public void testDoubleIntoVariants()
+	{
+		ChecksumVector vector = ChecksumVector.build(2);
+		byte[] data = randomBytes(8);
+		byte[] checksummed = new byte[10];
+		byte[] solved = new byte[8];
+		boolean[] present = presentExcept(10, 1, 6);
+		assertNoAllocation(() ->
+		{
+			vector.withChecksumsInto(data, checksummed);
+			vector.solveMissingValuesInto(checksummed, present, solved);
+		});
+		assertArrayEquals(data, solved);
+	}
+	
+	@Test
+	public void testDoubleBuffers()
+	{
+		ChecksumVector vector = ChecksumVector.build(2);
+		ByteBuffer[] heap = heapShards(6, 2);
+		ByteBuffer[] direct = directShards(6, 2);
+		boolean[] present = presentExcept(8, 0, 4);
+		assertNoAllocation(() ->
+		{
+			vector.encode(heap);
+			vector.reconstruct(heap, present);
+			vector.encode(direct);
+			vector.reconstruct(direct, present);
+		});
+	}
+	
+	@Test
+	public void testMatrixIntoVariantsAndEncode()
+	{
+		ChecksumVector vector = ChecksumVector.build(4);
+		byte[] data = randomBytes(10);
+		byte[] checksummed = new byte[14];
+		byte[] solved = new byte[10];
+		boolean[] present = presentExcept(14, 0, 3, 7, 11);
+		byte[][] shards = randomShards(10, 4);
+		ByteBuffer[] buffers = heapShards(10, 4);
+		ByteBuffer[] direct = directShards(10, 4);
+		assertNoAllocation(() ->
+		{
+			vector.withChecksumsInto(data, checksummed);
+			vector.solveMissingValuesInto(checksummed, present, solved);
+			vector.encode(shards, 0, LENGTH);
+			vector.reconstruct(shards, present, 0, LENGTH);
+			vector.encode(buffers);
+			vector.reconstruct(buffers, present);
+			vector.encode(direct);
+			vector.reconstruct(direct, present);
+		});
+		assertArrayEquals(data, solved);
+	}
+	
+	private static void assertNoAllocation(Runnable operation)
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		
+		for(int i = 0; i < WARM_UP; i++)
+			operation.run();
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for(int i = 0; i < MEASURED; i++)
+			operation.run();
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		assertEquals("Bytes allocated over " + MEASURED + " calls", 0, allocated);
+	}
+	
+	private static byte[] randomBytes(int length)
+	{
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+	
+	private static byte[][] randomShards(int dataCount, int checksumCount)
+	{
+		byte[][] shards = new byte[dataCount + checksumCount][];
+		for(int shard = 0; shard < shards.length; shard++)
+			shards[shard] = randomBytes(LENGTH);
+		return shards;
+	}
+	
+	private static ByteBuffer[] heapShards(int dataCount, int checksumCount)
+	{
+		byte[][] arrays = randomShards(dataCount, checksumCount);
+		ByteBuffer[] shards = new ByteBuffer[arrays.length];
+		for(int shard = 0; shard < shards.length; shard++)
+			shards[shard] = ByteBuffer.wrap(arrays[shard]);
+		return shards;
+	}
+	
+	private static ByteBuffer[] directShards(int dataCount, int checksumCount)
+	{
+		ByteBuffer[] shards = heapShards(dataCount, checksumCount);
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			ByteBuffer direct = ByteBuffer.allocateDirect(LENGTH);
+			direct.put(shards[shard]).flip();
+			shards[shard] = direct;
+		}
+		return shards;
+	}
+	
+	private static boolean[] presentExcept(int count, int... missing)
+	{
+		boolean[] present = new boolean[count];
+		Arrays.fill(present, true);
+		for(int index : missing)
+			present[index] = false;
+		return present;
+	}
+}
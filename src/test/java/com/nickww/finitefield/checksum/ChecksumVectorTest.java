@@ -13,6 +13,12 @@ public class ChecksumVectorTest
 {
 	private static class ChecksumVectorImplementation extends ChecksumVector
 	{
+		@Override
+		public int numChecksums()
+		{
+			return 1;
+		}
+		
 		@Override
 		public byte[] withChecksums(byte[] data)
 		{
@@ -99,4 +105,37 @@ public class ChecksumVectorTest
 	{
 		assertNull(clazz.copy(null, -1));
 	}
+	
+	@Test
+	public void testMissingShards()
+	{
+		List<Integer> missingShards = clazz.missingShards(new boolean[] { true, false, true, false });
+		assertEquals(2, missingShards.size());
+		assertEquals(Integer.valueOf(1), missingShards.get(0));
+		assertEquals(Integer.valueOf(3), missingShards.get(1));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testCheckShardsTooFewShards()
+	{
+		clazz.checkShards(new byte[1][10], 0, 10);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testCheckShardsRegionTooLarge()
+	{
+		clazz.checkShards(new byte[3][10], 5, 6);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testCheckShardsTooManyMissing()
+	{
+		clazz.checkShards(new byte[3][10], new boolean[] { false, true, false }, 0, 10);
+	}
+	
+	@Test
+	public void testCheckShardsReturnsDataCount()
+	{
+		assertEquals(2, clazz.checkShards(new byte[3][10], new boolean[] { false, true, true }, 0, 10));
+	}
 }
@@ -0,0 +1,44 @@
+package com.nickww.finitefield.checksum;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import org.junit.Test;
+
+public class Crc32cTest
+{
+	@Test
+	public void testCheckValue()
+	{
+		byte[] bytes = "123456789".getBytes(StandardCharsets.US_ASCII);
+		Crc32c crc = new Crc32c();
+		crc.update(bytes, 0, bytes.length);
+		assertEquals(0xe3069283L, crc.getValue());
+	}
+	
+	@Test
+	public void testMatchesCreated()
+	{
+		byte[] bytes = new byte[1003];
+		new Random(3).nextBytes(bytes);
+		Crc32c crc = new Crc32c();
+		crc.update(bytes, 0, 500);
+		for(int i = 500; i < bytes.length; i++)
+			crc.update(bytes[i]);
+		Checksum created = Crc32c.create();
+		created.update(bytes, 0, bytes.length);
+		assertEquals(created.getValue(), crc.getValue());
+	}
+	
+	@Test
+	public void testReset()
+	{
+		Crc32c crc = new Crc32c();
+		crc.update(new byte[] { 1, 2, 3 }, 0, 3);
+		crc.reset();
+		assertEquals(0L, crc.getValue());
+	}
+}
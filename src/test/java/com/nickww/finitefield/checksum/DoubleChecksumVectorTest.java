@@ -1,6 +1,12 @@
 package com.nickww.finitefield.checksum;
 
 import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 
 import com.nickww.finitefield.checksum.DoubleChecksumVector;
@@ -82,6 +88,16 @@ public class DoubleChecksumVectorTest
 		assertArrayEquals(data, originalData);
 	}
 	
+	@Test
+	public void testSolveTwoMissingDataValuesAfterFirst()
+	{
+		byte[] longer = new byte[] { 45, -123, 10, 99 };
+		byte[] dataWithChecksums = new DoubleChecksumVector().withChecksums(longer);
+		Byte[] missingData = copyWithSomeMissing(dataWithChecksums, 1, 3);
+		byte[] originalData = new DoubleChecksumVector().solveMissingValues(missingData);
+		assertArrayEquals(longer, originalData);
+	}
+	
 	@Test
 	public void testSolveMissingDataAndPValues()
 	{
@@ -136,6 +152,445 @@ public class DoubleChecksumVectorTest
 		assertArrayEquals(data, originalData);
 	}
 	
+	@Test
+	public void testIntoVariantsMatchAllocating()
+	{
+		DoubleChecksumVector vector = new DoubleChecksumVector();
+		byte[] checksummed = new byte[data.length + 2];
+		vector.withChecksumsInto(data, checksummed);
+		assertArrayEquals(vector.withChecksums(data), checksummed);
+		
+		// every pattern of up to two missing values, with garbage where they were
+		byte[] solved = new byte[data.length];
+		for(int x = 0; x < checksummed.length; x++)
+		{
+			for(int y = x; y < checksummed.length; y++)
+			{
+				boolean[] present = new boolean[checksummed.length];
+				Arrays.fill(present, true);
+				present[x] = present[y] = false;
+				byte[] damaged = checksummed.clone();
+				damaged[x] = damaged[y] = 77;
+				vector.solveMissingValuesInto(damaged, present, solved);
+				assertArrayEquals(data, solved);
+			}
+		}
+	}
+	
+	@Test
+	public void testEncodeShardsMatchesWithChecksums()
+	{
+		byte[][] shards = shards();
+		new DoubleChecksumVector().encode(shards, 0, shards[0].length);
+		for(int i = 0; i < shards[0].length; i++)
+		{
+			byte[] column = new DoubleChecksumVector().withChecksums(new byte[] { shards[0][i], shards[1][i], shards[2][i] });
+			assertEquals(column[3], shards[3][i]);
+			assertEquals(column[4], shards[4][i]);
+		}
+	}
+	
+	@Test
+	public void testReconstructTwoMissingDataShards()
+	{
+		assertReconstructs(0, 2);
+	}
+	
+	@Test
+	public void testReconstructTwoMissingDataShardsAfterFirst()
+	{
+		assertReconstructs(1, 2);
+	}
+	
+	@Test
+	public void testReconstructMissingDataAndPShards()
+	{
+		assertReconstructs(1, 3);
+	}
+	
+	@Test
+	public void testReconstructMissingDataAndQShards()
+	{
+		assertReconstructs(2, 4);
+	}
+	
+	@Test
+	public void testReconstructOneMissingDataShard()
+	{
+		assertReconstructs(1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncodeShardsTooFewDataShards()
+	{
+		new DoubleChecksumVector().encode(new byte[3][4], 0, 4);
+	}
+	
+	@Test
+	public void testEncodeBuffersMatchesArrays()
+	{
+		byte[][] expected = shards();
+		new DoubleChecksumVector().encode(expected, 0, expected[0].length);
+		
+		ByteBuffer[] buffers = buffers(shards());
+		new DoubleChecksumVector().encode(buffers);
+		for(int i = 0; i < expected.length; i++)
+			assertArrayEquals(expected[i], buffers[i].array());
+	}
+	
+	@Test
+	public void testReconstructBuffers()
+	{
+		for(int[] missing : new int[][] { { 0, 2 }, { 1, 2 }, { 1, 3 }, { 2, 4 }, { 1 } })
+		{
+			byte[][] expected = shards();
+			new DoubleChecksumVector().encode(expected, 0, expected[0].length);
+			
+			ByteBuffer[] buffers = buffers(expected);
+			boolean[] present = new boolean[] { true, true, true, true, true };
+			for(int index : missing)
+			{
+				buffers[index] = ByteBuffer.allocate(expected[index].length);
+				present[index] = false;
+			}
+			new DoubleChecksumVector().reconstruct(buffers, present);
+			for(int i = 0; i < 3; i++)
+				assertArrayEquals(expected[i], buffers[i].array());
+		}
+	}
+	
+	@Test
+	public void testEncodeLongShardsMatchesWithChecksums()
+	{
+		// long enough for the two-word loop, a single word, and a tail of single bytes, starting at an odd offset
+		byte[][] shards = randomShards(6, 3 + 16 * 4 + 8 + 5, 2);
+		new DoubleChecksumVector().encode(shards, 3, shards[0].length - 3);
+		for(int i = 3; i < shards[0].length; i++)
+		{
+			byte[] column = new byte[6];
+			for(int shard = 0; shard < 6; shard++)
+				column[shard] = shards[shard][i];
+			byte[] checksummed = new DoubleChecksumVector().withChecksums(column);
+			assertEquals(checksummed[6], shards[6][i]);
+			assertEquals(checksummed[7], shards[7][i]);
+		}
+	}
+	
+	@Test
+	public void testReconstructLongShardsEveryPair()
+	{
+		byte[][] expected = randomShards(6, 16 * 4 + 8 + 5, 2);
+		new DoubleChecksumVector().encode(expected, 0, expected[0].length);
+		for(int x = 0; x < expected.length; x++)
+		{
+			for(int y = x + 1; y < expected.length; y++)
+			{
+				byte[][] shards = new byte[expected.length][];
+				boolean[] present = new boolean[expected.length];
+				for(int i = 0; i < shards.length; i++)
+				{
+					present[i] = i != x && i != y;
+					shards[i] = present[i] ? expected[i].clone() : new byte[expected[i].length];
+				}
+				new DoubleChecksumVector().reconstruct(shards, present, 0, shards[0].length);
+				for(int i = 0; i < 6; i++)
+					assertArrayEquals("missing " + x + ", " + y, expected[i], shards[i]);
+			}
+		}
+	}
+	
+	@Test
+	public void testEncodeDirectBuffersMatchesArrays()
+	{
+		byte[][] expected = randomShards(4, 100, 2);
+		new DoubleChecksumVector().encode(expected, 0, expected[0].length);
+		
+		ByteBuffer[] buffers = new ByteBuffer[expected.length];
+		for(int i = 0; i < buffers.length; i++)
+		{
+			buffers[i] = ByteBuffer.allocateDirect(expected[i].length + 1).order(ByteOrder.LITTLE_ENDIAN);
+			buffers[i].position(1);
+			if(i < 4)
+				buffers[i].duplicate().put(expected[i]);
+		}
+		buffers[0].order(ByteOrder.BIG_ENDIAN);
+		new DoubleChecksumVector().encode(buffers);
+		for(int i = 4; i < buffers.length; i++)
+		{
+			byte[] actual = new byte[expected[i].length];
+			buffers[i].duplicate().get(actual);
+			assertArrayEquals(expected[i], actual);
+		}
+	}
+	
+	@Test
+	public void testReconstructOnlyWantedShards()
+	{
+		byte[][] expected = randomShards(4, 30, 2);
+		new DoubleChecksumVector().encode(expected, 0, 30);
+		byte[][] shards = new byte[expected.length][];
+		boolean[] present = { true, false, true, true, true, false };
+		for(int i = 0; i < shards.length; i++)
+			shards[i] = present[i] ? expected[i].clone() : new byte[30];
+		
+		new DoubleChecksumVector().reconstruct(shards, present, new int[] { 5 }, 0, 30);
+		assertArrayEquals(expected[5], shards[5]);
+		assertArrayEquals(new byte[30], shards[1]);
+	}
+	
+	@Test
+	public void testRebuildEveryPair()
+	{
+		byte[][] expected = randomShards(4, 37, 2);
+		new DoubleChecksumVector().encode(expected, 0, 37);
+		for(int x = 0; x < expected.length; x++)
+		{
+			for(int y = x; y < expected.length; y++)
+			{
+				byte[][] shards = new byte[expected.length][];
+				boolean[] present = new boolean[expected.length];
+				for(int i = 0; i < shards.length; i++)
+				{
+					present[i] = i != x && i != y;
+					shards[i] = present[i] ? expected[i].clone() : new byte[37];
+				}
+				new DoubleChecksumVector().rebuild(shards, present, 0, 37);
+				for(int i = 0; i < shards.length; i++)
+					assertArrayEquals("missing " + x + ", " + y, expected[i], shards[i]);
+			}
+		}
+	}
+	
+	@Test
+	public void testScrubClean()
+	{
+		byte[][] shards = randomShards(5, 50, 2);
+		new DoubleChecksumVector().encode(shards, 0, 50);
+		ScrubResult result = new DoubleChecksumVector().scrub(shards, 0, 50, true);
+		assertTrue(result.isClean());
+		assertEquals(-1, result.corruptShard());
+	}
+	
+	@Test
+	public void testScrubLocatesAndRepairsEveryShard()
+	{
+		byte[][] expected = randomShards(5, 50, 2);
+		new DoubleChecksumVector().encode(expected, 0, 50);
+		for(int corrupt = 0; corrupt < expected.length; corrupt++)
+		{
+			byte[][] shards = new byte[expected.length][];
+			for(int i = 0; i < shards.length; i++)
+				shards[i] = expected[i].clone();
+			shards[corrupt][17] ^= 0x5a;
+			shards[corrupt][40] ^= 0x01;
+			
+			ScrubResult result = new DoubleChecksumVector().scrub(shards, 0, 50, true);
+			assertEquals(corrupt, result.corruptShard());
+			assertEquals(2, result.corruptBytes());
+			assertEquals(17, result.firstCorruptOffset());
+			assertTrue(result.isRepaired());
+			for(int i = 0; i < shards.length; i++)
+				assertArrayEquals(expected[i], shards[i]);
+		}
+	}
+	
+	@Test
+	public void testScrubWithoutRepairLeavesShards()
+	{
+		byte[][] shards = randomShards(5, 50, 2);
+		new DoubleChecksumVector().encode(shards, 0, 50);
+		byte corrupted = shards[3][9] ^= 0x10;
+		
+		ScrubResult result = new DoubleChecksumVector().scrub(shards, 5, 45, false);
+		assertEquals(3, result.corruptShard());
+		assertEquals(4, result.firstCorruptOffset());
+		assertFalse(result.isRepaired());
+		assertEquals(corrupted, shards[3][9]);
+	}
+	
+	@Test
+	public void testScrubCannotLocateTwoCorruptShards()
+	{
+		byte[][] shards = randomShards(5, 50, 2);
+		new DoubleChecksumVector().encode(shards, 0, 50);
+		shards[1][3] ^= 0x10;
+		shards[2][30] ^= 0x20;
+		
+		ScrubResult result = new DoubleChecksumVector().scrub(shards, 0, 50, true);
+		assertFalse(result.isClean());
+		assertFalse(result.isLocated());
+		assertFalse(result.isRepaired());
+		assertEquals(2, result.corruptBytes());
+	}
+	
+	@Test
+	public void testScrubBeyondOrderOfTwo()
+	{
+		// shards 0 and 51 have the same coefficient in Q, but shard 20 has no twin among 60
+		byte[][] shards = randomShards(60, 8, 2);
+		new DoubleChecksumVector().encode(shards, 0, 8);
+		shards[51][0] ^= 1;
+		assertFalse(new DoubleChecksumVector().scrub(shards, 0, 8, true).isLocated());
+		
+		shards[51][0] ^= 1;
+		shards[20][0] ^= 1;
+		assertEquals(20, new DoubleChecksumVector().scrub(shards, 0, 8, true).corruptShard());
+	}
+	
+	@Test
+	public void testScrubBuffers()
+	{
+		byte[][] expected = randomShards(4, 30, 2);
+		new DoubleChecksumVector().encode(expected, 0, 30);
+		ByteBuffer[] buffers = buffers(expected);
+		buffers[2].put(29, (byte) (buffers[2].get(29) ^ 0x7f));
+		
+		ScrubResult result = new DoubleChecksumVector().scrub(buffers, true);
+		assertEquals(2, result.corruptShard());
+		assertArrayEquals(expected[2], buffers[2].array());
+	}
+	
+	@Test
+	public void testVerifyAcrossBlocks()
+	{
+		byte[][] shards = randomShards(4, 10000, 2);
+		new DoubleChecksumVector().encode(shards, 0, 10000);
+		assertNull(new DoubleChecksumVector().verify(shards, 0, 10000));
+		
+		shards[5][9000] ^= 1;
+		shards[4][9500] ^= 1;
+		ChecksumMismatch mismatch = new DoubleChecksumVector().verify(shards, 100, 9900);
+		assertEquals(8900, mismatch.offset());
+		assertArrayEquals(new int[] { 1 }, mismatch.checksums());
+		
+		shards[2][7000] ^= 1;
+		mismatch = new DoubleChecksumVector().verify(shards, 100, 9900);
+		assertEquals(6900, mismatch.offset());
+		assertArrayEquals(new int[] { 0, 1 }, mismatch.checksums());
+	}
+	
+	private ByteBuffer[] buffers(byte[][] shards)
+	{
+		ByteBuffer[] buffers = new ByteBuffer[shards.length];
+		for(int i = 0; i < shards.length; i++)
+			buffers[i] = ByteBuffer.wrap(shards[i].clone());
+		return buffers;
+	}
+	
+	private void assertReconstructs(int... missing)
+	{
+		byte[][] expected = shards();
+		new DoubleChecksumVector().encode(expected, 0, expected[0].length);
+		
+		byte[][] shards = new byte[expected.length][];
+		boolean[] present = new boolean[expected.length];
+		for(int i = 0; i < shards.length; i++)
+		{
+			shards[i] = expected[i].clone();
+			present[i] = true;
+		}
+		for(int index : missing)
+		{
+			shards[index] = new byte[expected[index].length];
+			present[index] = false;
+		}
+		
+		new DoubleChecksumVector().reconstruct(shards, present, 0, shards[0].length);
+		for(int i = 0; i < 3; i++)
+			assertArrayEquals(expected[i], shards[i]);
+	}
+	
+	@Test
+	public void testEncodeWithDigests()
+	{
+		byte[][] expected = randomShards(4, 200000, 2);
+		byte[][] shards = randomShards(4, 200000, 2);
+		new DoubleChecksumVector().encode(expected, 0, 200000);
+		long[] digests = new DoubleChecksumVector().encodeWithDigests(shards, 0, 200000);
+		for(int i = 0; i < shards.length; i++)
+		{
+			assertArrayEquals(expected[i], shards[i]);
+			Crc32c crc = new Crc32c();
+			crc.update(expected[i], 0, 200000);
+			assertEquals(crc.getValue(), digests[i]);
+		}
+	}
+	
+	@Test
+	public void testReconstructVerifiedDropsCorruptShard()
+	{
+		byte[][] expected = randomShards(4, 100000, 2);
+		long[] digests = new DoubleChecksumVector().encodeWithDigests(expected, 0, 100000);
+		byte[][] shards = new byte[expected.length][];
+		for(int i = 0; i < shards.length; i++)
+			shards[i] = expected[i].clone();
+		shards[1] = new byte[100000];
+		shards[2][70000] ^= 0x10;
+		boolean[] present = { true, false, true, true, true, true };
+		
+		int[] corrupt = new DoubleChecksumVector().reconstructVerified(shards, present, digests, 0, 100000);
+		assertArrayEquals(new int[] { 2 }, corrupt);
+		for(int i = 0; i < 4; i++)
+			assertArrayEquals(expected[i], shards[i]);
+	}
+	
+	@Test
+	public void testReconstructVerifiedIntact()
+	{
+		byte[][] expected = randomShards(4, 100, 2);
+		long[] digests = new DoubleChecksumVector().encodeWithDigests(expected, 0, 100);
+		byte[][] shards = expected.clone();
+		shards[0] = new byte[100];
+		boolean[] present = { false, true, true, true, true, true };
+		
+		assertEquals(0, new DoubleChecksumVector().reconstructVerified(shards, present, digests, 0, 100).length);
+		assertArrayEquals(expected[0], shards[0]);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testReconstructVerifiedTooManyCorrupt()
+	{
+		byte[][] shards = randomShards(4, 100, 2);
+		long[] digests = new DoubleChecksumVector().encodeWithDigests(shards, 0, 100);
+		shards[0][5] ^= 1;
+		shards[1][5] ^= 1;
+		boolean[] present = { true, true, true, false, true, true };
+		new DoubleChecksumVector().reconstructVerified(shards, present, digests, 0, 100);
+	}
+	
+	@Test
+	public void testReconstructShard() throws Exception
+	{
+		DoubleChecksumVector vector = new DoubleChecksumVector();
+		byte[][][] stripes = new byte[4][][];
+		for(int stripe = 0; stripe < stripes.length; stripe++)
+		{
+			stripes[stripe] = randomShards(5, stripe == 3 ? 9 : 64, 2);
+			vector.encode(stripes[stripe], 0, stripes[stripe][0].length);
+		}
+		
+		for(int lost : new int[] { 2, 6 })
+		{
+			StripedShards shards = new StripedShards(stripes, 2, 6);
+			vector.reconstructShard(lost, shards, shards);
+			assertArrayEquals(shards.shard(lost), shards.written.toByteArray());
+		}
+	}
+	
+	private byte[][] randomShards(int dataCount, int length, int checksumCount)
+	{
+		Random random = new Random(dataCount * 31 + length);
+		byte[][] shards = new byte[dataCount + checksumCount][length];
+		for(int i = 0; i < dataCount; i++)
+			random.nextBytes(shards[i]);
+		return shards;
+	}
+	
+	private byte[][] shards()
+	{
+		return new byte[][] { { 45, 1, -7, 0 }, { -123, 2, 99, -1 }, { 10, 3, -128, 17 }, new byte[4], new byte[4] };
+	}
+	
 	private Byte[] copyWithSomeMissing(byte[] array, int... indicesToNull)
 	{
 		Byte[] missingData = new Byte[array.length];
@@ -0,0 +1,169 @@
+package com.nickww.finitefield.checksum;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import static com.nickww.finitefield.FiniteByteField.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EncodePlanTest
+{
+	// zeros, ones, a repeated coefficient, and an output which no input contributes to
+	private static final byte[][] matrix = { { 1, 1, 1, 1 }, { 0, 2, 1, -7 }, { 0, 0, 0, 0 }, { 5, 0, 5, 1 } };
+	private static final int LENGTH = 20000; // several blocks, with a partial one at the end
+	
+	@Test
+	public void testArrays()
+	{
+		byte[][] inputs = randomArrays(4, LENGTH + 3, 1);
+		byte[][] outputs = randomArrays(6, LENGTH + 5, 2);
+		new EncodePlan(matrix).apply(inputs, 3, outputs, 2, 5, LENGTH);
+		
+		byte[][] expected = expected(inputs, 3);
+		for(int output = 0; output < matrix.length; output++)
+			for(int i = 0; i < LENGTH; i++)
+				assertEquals(expected[output][i], outputs[2 + output][5 + i]);
+	}
+	
+	@Test
+	public void testSameArrays()
+	{
+		byte[][] shards = randomArrays(8, LENGTH, 3);
+		new EncodePlan(matrix).apply(shards, 0, shards, 4, 0, LENGTH);
+		
+		byte[][] expected = expected(shards, 0);
+		for(int output = 0; output < matrix.length; output++)
+			assertArrayEquals(expected[output], shards[4 + output]);
+	}
+	
+	@Test
+	public void testBuffers()
+	{
+		byte[][] inputs = randomArrays(4, LENGTH, 4);
+		byte[][] expected = expected(inputs, 0);
+		
+		ByteBuffer[] heap = new ByteBuffer[8];
+		ByteBuffer[] direct = new ByteBuffer[8];
+		ByteBuffer[] mixed = new ByteBuffer[8];
+		for(int shard = 0; shard < heap.length; shard++)
+		{
+			byte[] bytes = shard < 4 ? inputs[shard] : new byte[LENGTH];
+			heap[shard] = withPosition(ByteBuffer.allocate(LENGTH + 7), 7, bytes);
+			direct[shard] = withPosition(ByteBuffer.allocateDirect(LENGTH + 2), 2, bytes);
+			mixed[shard] = shard % 2 == 0 ? direct[shard].duplicate().order(ByteOrder.LITTLE_ENDIAN)
+					: withPosition(ByteBuffer.allocate(LENGTH + 1), 1, bytes);
+		}
+		
+		EncodePlan plan = new EncodePlan(matrix);
+		for(ByteBuffer[] shards : new ByteBuffer[][] { heap, direct })
+		{
+			plan.apply(shards, shards, 4, LENGTH);
+			for(int output = 0; output < matrix.length; output++)
+				assertEquals(ByteBuffer.wrap(expected[output]), shards[4 + output]);
+			assertEquals(7, heap[0].position());
+		}
+		mixed[4].put(mixed[4].position(), (byte) 99);
+		plan.apply(mixed, mixed, 4, LENGTH);
+		for(int output = 0; output < matrix.length; output++)
+			assertEquals(ByteBuffer.wrap(expected[output]), mixed[4 + output]);
+	}
+	
+	@Test
+	public void testGeneratedKernel()
+	{
+		EncodePlan plan = new EncodePlan(matrix, true);
+		assumeTrue(plan.isGenerated());
+		byte[][] inputs = randomArrays(4, LENGTH + 3, 6);
+		byte[][] outputs = randomArrays(6, LENGTH + 5, 7);
+		plan.apply(inputs, 3, outputs, 2, 5, LENGTH);
+		
+		byte[][] expected = expected(inputs, 3);
+		for(int output = 0; output < matrix.length; output++)
+			for(int i = 0; i < LENGTH; i++)
+				assertEquals(expected[output][i], outputs[2 + output][5 + i]);
+	}
+	
+	@Test
+	public void testGeneratedKernelWithManyLocals()
+	{
+		// over 255 local variables, so the generated code needs wide loads and stores
+		Random random = new Random(8);
+		byte[][] wide = new byte[2][100];
+		for(byte[] row : wide)
+			random.nextBytes(row);
+		EncodePlan plan = new EncodePlan(wide, true);
+		assumeTrue(plan.isGenerated());
+		
+		byte[][] shards = randomArrays(102, 1000, 9);
+		plan.apply(shards, 0, shards, 100, 0, 1000);
+		for(int output = 0; output < wide.length; output++)
+		{
+			for(int i = 0; i < 1000; i++)
+			{
+				byte sum = 0;
+				for(int input = 0; input < 100; input++)
+					sum ^= mul(wide[output][input], shards[input][i]);
+				assertEquals(sum, shards[100 + output][i]);
+			}
+		}
+	}
+	
+	@Test
+	public void testNotGeneratedWhenTooLong()
+	{
+		byte[][] big = new byte[8][250];
+		new Random(10).nextBytes(big[0]);
+		for(byte[] row : big)
+			System.arraycopy(big[0], 0, row, 0, row.length);
+		assertFalse(new EncodePlan(big, true).isGenerated());
+		assertFalse(new EncodePlan(big).isGenerated());
+	}
+	
+	@Test
+	public void testMatchesVandermondeEncode()
+	{
+		ChecksumVector vector = ChecksumVector.build(4);
+		byte[][] shards = randomArrays(14, 3000, 5);
+		vector.encode(shards, 0, 3000);
+		for(int i = 0; i < 3000; i++)
+		{
+			byte[] data = new byte[10];
+			for(int shard = 0; shard < data.length; shard++)
+				data[shard] = shards[shard][i];
+			byte[] checksummed = vector.withChecksums(data);
+			for(int shard = 10; shard < 14; shard++)
+				assertEquals(checksummed[shard], shards[shard][i]);
+		}
+	}
+	
+	private static byte[][] expected(byte[][] inputs, int offset)
+	{
+		byte[][] expected = new byte[matrix.length][LENGTH];
+		for(int output = 0; output < matrix.length; output++)
+			for(int i = 0; i < LENGTH; i++)
+				for(int input = 0; input < matrix[output].length; input++)
+					expected[output][i] ^= mul(matrix[output][input], inputs[input][offset + i]);
+		return expected;
+	}
+	
+	private static ByteBuffer withPosition(ByteBuffer buffer, int position, byte[] bytes)
+	{
+		buffer.position(position);
+		buffer.put(bytes);
+		buffer.position(position);
+		return buffer;
+	}
+	
+	private static byte[][] randomArrays(int count, int length, long seed)
+	{
+		Random random = new Random(seed);
+		byte[][] arrays = new byte[count][length];
+		for(byte[] array : arrays)
+			random.nextBytes(array);
+		return arrays;
+	}
+}
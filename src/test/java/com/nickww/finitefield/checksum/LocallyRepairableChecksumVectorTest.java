@@ -0,0 +1,218 @@
+package com.nickww.finitefield.checksum;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LocallyRepairableChecksumVectorTest
+{
+	private static final int DATA = 12;
+	private static final int GROUPS = 3;
+	private static final int GLOBALS = 2;
+	
+	private final ChecksumVector vector = ChecksumVector.buildLocallyRepairable(GROUPS, GLOBALS);
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoLocalGroups()
+	{
+		ChecksumVector.buildLocallyRepairable(0, 2);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testTooFewDataShards()
+	{
+		vector.withChecksums(new byte[GROUPS - 1]);
+	}
+	
+	@Test
+	public void testNumChecksums()
+	{
+		assertEquals(GROUPS + GLOBALS, vector.numChecksums());
+	}
+	
+	@Test
+	public void testCanReconstruct()
+	{
+		boolean[] present = new boolean[DATA + GROUPS + GLOBALS];
+		Arrays.fill(present, true);
+		assertTrue(vector.canReconstruct(present));
+		present[0] = present[4] = present[8] = present[13] = present[15] = false;
+		assertTrue(vector.canReconstruct(present));
+		
+		// the first group is missing three shards, with one local and one global checksum left to solve for them
+		Arrays.fill(present, true);
+		present[0] = present[1] = present[2] = present[16] = false;
+		assertFalse(vector.canReconstruct(present));
+		present[16] = true;
+		assertTrue(vector.canReconstruct(present));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCanReconstructTooFewShards()
+	{
+		vector.canReconstruct(new boolean[GROUPS + GLOBALS]);
+	}
+	
+	@Test
+	public void testLocalChecksumsAreGroupXors()
+	{
+		byte[] data = new byte[DATA];
+		new Random(5).nextBytes(data);
+		byte[] checksummed = vector.withChecksums(data);
+		for(int group = 0; group < GROUPS; group++)
+		{
+			byte xor = 0;
+			for(int shard = group * 4; shard < group * 4 + 4; shard++)
+				xor ^= data[shard];
+			assertEquals(xor, checksummed[DATA + group]);
+		}
+	}
+	
+	@Test
+	public void testSolveMissingValues()
+	{
+		byte[] data = new byte[DATA];
+		new Random(6).nextBytes(data);
+		Byte[] checksummed = box(vector.withChecksums(data));
+		// two missing from the first group, one from the second and its local checksum
+		checksummed[0] = null;
+		checksummed[3] = null;
+		checksummed[5] = null;
+		checksummed[DATA + 1] = null;
+		assertArrayEquals(data, vector.solveMissingValues(checksummed));
+	}
+	
+	@Test
+	public void testEncodeMatchesWithChecksums()
+	{
+		byte[][] shards = randomShards(100);
+		vector.encode(shards, 0, 100);
+		for(int i = 0; i < 100; i++)
+		{
+			byte[] data = new byte[DATA];
+			for(int shard = 0; shard < DATA; shard++)
+				data[shard] = shards[shard][i];
+			byte[] checksummed = vector.withChecksums(data);
+			for(int shard = DATA; shard < shards.length; shard++)
+				assertEquals(checksummed[shard], shards[shard][i]);
+		}
+	}
+	
+	@Test
+	public void testLocalRepairOnlyReadsGroup()
+	{
+		byte[][] shards = randomShards(300);
+		vector.encode(shards, 0, 300);
+		byte[] expected = shards[6].clone();
+		
+		// only the rest of the second group and its local checksum are available
+		boolean[] present = new boolean[shards.length];
+		byte[][] fetched = new byte[shards.length][300];
+		for(int shard : new int[] {4, 5, 7, DATA + 1})
+		{
+			present[shard] = true;
+			fetched[shard] = shards[shard];
+		}
+		vector.reconstruct(fetched, present, new int[] {6}, 0, 300);
+		assertArrayEquals(expected, fetched[6]);
+	}
+	
+	@Test
+	public void testGlobalRepair()
+	{
+		byte[][] shards = randomShards(200);
+		vector.encode(shards, 0, 200);
+		byte[][] expected = new byte[shards.length][];
+		for(int shard = 0; shard < shards.length; shard++)
+			expected[shard] = shards[shard].clone();
+		
+		// three missing from one group is beyond its local checksum
+		boolean[] present = new boolean[shards.length];
+		Arrays.fill(present, true);
+		for(int shard : new int[] {8, 9, 11})
+		{
+			present[shard] = false;
+			shards[shard] = new byte[200];
+		}
+		vector.reconstruct(shards, present, 0, 200);
+		for(int shard = 0; shard < DATA; shard++)
+			assertArrayEquals(expected[shard], shards[shard]);
+	}
+	
+	@Test
+	public void testReconstructBuffers()
+	{
+		byte[][] arrays = randomShards(64);
+		vector.encode(arrays, 0, 64);
+		ByteBuffer[] shards = new ByteBuffer[arrays.length];
+		boolean[] present = new boolean[arrays.length];
+		for(int shard = 0; shard < arrays.length; shard++)
+		{
+			present[shard] = shard != 1 && shard != 4 && shard != 10;
+			shards[shard] = ByteBuffer.allocateDirect(64);
+			if(present[shard])
+				shards[shard].put(arrays[shard]).flip();
+		}
+		vector.reconstruct(shards, present);
+		for(int shard : new int[] {1, 4, 10})
+		{
+			byte[] rebuilt = new byte[64];
+			shards[shard].duplicate().get(rebuilt);
+			assertArrayEquals(arrays[shard], rebuilt);
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnsolvable()
+	{
+		byte[][] shards = randomShards(10);
+		vector.encode(shards, 0, 10);
+		boolean[] present = new boolean[shards.length];
+		Arrays.fill(present, true);
+		for(int shard : new int[] {0, 1, 2, 3})
+			present[shard] = false;
+		vector.reconstruct(shards, present, 0, 10);
+	}
+	
+	@Test
+	public void testRebuild()
+	{
+		byte[][] shards = randomShards(50);
+		vector.encode(shards, 0, 50);
+		byte[][] expected = new byte[shards.length][];
+		for(int shard = 0; shard < shards.length; shard++)
+			expected[shard] = shards[shard].clone();
+		
+		boolean[] present = new boolean[shards.length];
+		Arrays.fill(present, true);
+		for(int shard : new int[] {2, 7, DATA, DATA + 4})
+		{
+			present[shard] = false;
+			shards[shard] = new byte[50];
+		}
+		vector.rebuild(shards, present, 0, 50);
+		for(int shard = 0; shard < shards.length; shard++)
+			assertArrayEquals(expected[shard], shards[shard]);
+	}
+	
+	private static byte[][] randomShards(int length)
+	{
+		Random random = new Random(length);
+		byte[][] shards = new byte[DATA + GROUPS + GLOBALS][length];
+		for(int shard = 0; shard < DATA; shard++)
+			random.nextBytes(shards[shard]);
+		return shards;
+	}
+	
+	private static Byte[] box(byte[] bytes)
+	{
+		Byte[] boxed = new Byte[bytes.length];
+		for(int i = 0; i < bytes.length; i++)
+			boxed[i] = bytes[i];
+		return boxed;
+	}
+}
@@ -1,9 +1,12 @@
 package com.nickww.finitefield.checksum;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.*;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Random;
 
 import org.junit.AfterClass;
 
@@ -39,6 +42,37 @@ public class MatrixChecksumVectorTest
 		this.size = size;
 	}
 	
+	@Test
+	public void testCanReconstruct()
+	{
+		ChecksumVector vector = ChecksumVector.build(size);
+		boolean[] present = new boolean[data.length + size];
+		Arrays.fill(present, true);
+		assertTrue(vector.canReconstruct(present));
+		// the first rows of a Vandermonde matrix can always solve for as many data shards
+		int missing = Math.min(size, data.length);
+		for(int shard = 0; shard < size; shard++)
+			present[shard < missing ? shard : data.length + shard] = false;
+		assertTrue(vector.canReconstruct(present));
+		present[data.length] = false;
+		assertFalse(vector.canReconstruct(present));
+	}
+	
+	@Test
+	public void testCanReconstructSingularChecksums()
+	{
+		assumeTrue(size == 6);
+		// 12 is a fifth root of 1, so checksums 0 and 5 are the same over data shards 0 and 11
+		boolean[] present = new boolean[12 + size];
+		Arrays.fill(present, true);
+		present[0] = present[11] = false;
+		for(int checksum = 1; checksum < 5; checksum++)
+			present[12 + checksum] = false;
+		assertFalse(ChecksumVector.build(size).canReconstruct(present));
+		present[13] = true;
+		assertTrue(ChecksumVector.build(size).canReconstruct(present));
+	}
+	
 	@Test
 	public void testSolveAllMissingData()
 	{
@@ -105,6 +139,32 @@ public class MatrixChecksumVectorTest
 		assertArrayEquals(solution, data);
 	}
 	
+	@Test
+	public void testIntoVariantsMatchAllocating()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[] checksummed = new byte[data.length + size];
+		vector.withChecksumsInto(data, checksummed);
+		assertArrayEquals(vector.withChecksums(data), checksummed);
+		
+		byte[] solved = new byte[data.length];
+		Random random = new Random(size);
+		for(int trial = 0; trial < 50; trial++)
+		{
+			boolean[] present = new boolean[checksummed.length];
+			Arrays.fill(present, true);
+			byte[] damaged = checksummed.clone();
+			for(int i = 0; i < size; i++)
+			{
+				int missing = random.nextInt(present.length);
+				present[missing] = false;
+				damaged[missing] = (byte) random.nextInt();
+			}
+			vector.solveMissingValuesInto(damaged, present, solved);
+			assertArrayEquals(data, solved);
+		}
+	}
+	
 	@Test(expected = IllegalArgumentException.class)
 	public void testTooFewValuesForChecksums()
 	{
@@ -147,6 +207,350 @@ public class MatrixChecksumVectorTest
 		vector.solveMissingValues(new Byte[] { 10, 20 });
 	}
 	
+	@Test
+	public void testEncodeShardsMatchesWithChecksums()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] shards = shards();
+		vector.encode(shards, 0, 2);
+		
+		for(int i = 0; i < 2; i++)
+		{
+			byte[] column = new byte[data.length];
+			for(int shard = 0; shard < data.length; shard++)
+				column[shard] = shards[shard][i];
+			byte[] checksummed = vector.withChecksums(column);
+			for(int shard = data.length; shard < shards.length; shard++)
+				assertEquals(checksummed[shard], shards[shard][i]);
+		}
+	}
+	
+	@Test
+	public void testReconstructShards()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] expected = shards();
+		vector.encode(expected, 0, 2);
+		
+		byte[][] shards = new byte[expected.length][];
+		boolean[] present = new boolean[expected.length];
+		for(int i = 0; i < shards.length; i++)
+		{
+			shards[i] = expected[i].clone();
+			present[i] = true;
+		}
+		for(int missing : new int[] { 0, 2, data.length + 1 })
+		{
+			shards[missing] = new byte[2];
+			present[missing] = false;
+		}
+		
+		vector.reconstruct(shards, present, 0, 2);
+		for(int shard = 0; shard < data.length; shard++)
+			assertArrayEquals(expected[shard], shards[shard]);
+	}
+	
+	@Test
+	public void testEncodeAndReconstructBuffers()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] expected = shards();
+		vector.encode(expected, 0, 2);
+		
+		ByteBuffer[] buffers = new ByteBuffer[expected.length];
+		for(int i = 0; i < buffers.length; i++)
+			buffers[i] = ByteBuffer.allocateDirect(2).put(shards()[i], 0, 2);
+		for(ByteBuffer buffer : buffers)
+			buffer.flip();
+		vector.encode(buffers);
+		for(int i = 0; i < buffers.length; i++)
+			assertEquals(ByteBuffer.wrap(expected[i]), buffers[i]);
+		
+		boolean[] present = new boolean[buffers.length];
+		Arrays.fill(present, true);
+		for(int missing : new int[] { 1, 2, data.length })
+		{
+			buffers[missing] = ByteBuffer.allocate(2);
+			present[missing] = false;
+		}
+		vector.reconstruct(buffers, present);
+		for(int shard = 0; shard < data.length; shard++)
+			assertEquals(ByteBuffer.wrap(expected[shard]), buffers[shard]);
+	}
+	
+	@Test
+	public void testReconstructOnlyWantedShards()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] expected = randomShards(20);
+		vector.encode(expected, 0, 20);
+		
+		// losing the first checksum forces a different set of checksums to be inverted
+		int[] lost = { 1, 3, data.length };
+		byte[][] shards = new byte[expected.length][];
+		boolean[] present = new boolean[expected.length];
+		for(int i = 0; i < shards.length; i++)
+		{
+			present[i] = Arrays.binarySearch(lost, i) < 0;
+			shards[i] = present[i] ? expected[i].clone() : new byte[20];
+		}
+		
+		vector.reconstruct(shards, present, new int[] { 3 }, 0, 20);
+		assertArrayEquals(expected[3], shards[3]);
+		assertArrayEquals(new byte[20], shards[1]);
+		assertArrayEquals(new byte[20], shards[data.length]);
+		
+		vector.reconstruct(shards, present, new int[] { data.length, 1 }, 0, 20);
+		for(int i = 0; i < shards.length; i++)
+			assertArrayEquals(expected[i], shards[i]);
+	}
+	
+	@Test
+	public void testReconstructWantedChecksumBuffers()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] expected = randomShards(20);
+		vector.encode(expected, 0, 20);
+		
+		ByteBuffer[] buffers = new ByteBuffer[expected.length];
+		boolean[] present = new boolean[expected.length];
+		for(int i = 0; i < buffers.length; i++)
+		{
+			present[i] = i != 0 && i != data.length + size - 1;
+			buffers[i] = ByteBuffer.wrap(present[i] ? expected[i].clone() : new byte[20]);
+		}
+		
+		vector.reconstruct(buffers, present, new int[] { data.length + size - 1 });
+		assertEquals(ByteBuffer.wrap(expected[data.length + size - 1]), buffers[data.length + size - 1]);
+		assertEquals(ByteBuffer.wrap(new byte[20]), buffers[0]);
+	}
+	
+	@Test
+	public void testRebuildDataAndChecksumsAcrossBlocks()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] expected = randomShards(20000);
+		vector.encode(expected, 0, 20000);
+		
+		byte[][] shards = new byte[expected.length][];
+		boolean[] present = new boolean[expected.length];
+		for(int i = 0; i < shards.length; i++)
+		{
+			present[i] = i != 2 && i != data.length + 1 && i != data.length + size - 1;
+			shards[i] = present[i] ? expected[i].clone() : new byte[20000];
+		}
+		vector.rebuild(shards, present, 0, 20000);
+		for(int i = 0; i < shards.length; i++)
+			assertArrayEquals(expected[i], shards[i]);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testReconstructWantedShardOutOfRange()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] shards = randomShards(4);
+		boolean[] present = new boolean[shards.length];
+		Arrays.fill(present, true);
+		vector.reconstruct(shards, present, new int[] { shards.length }, 0, 4);
+	}
+	
+	@Test
+	public void testReconstructShard() throws Exception
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][][] stripes = new byte[3][][];
+		for(int stripe = 0; stripe < stripes.length; stripe++)
+		{
+			stripes[stripe] = randomShards(stripe == 2 ? 7 : 100);
+			vector.encode(stripes[stripe], 0, stripes[stripe][0].length);
+		}
+		
+		for(int lost : new int[] { 1, data.length + size - 1 })
+		{
+			StripedShards shards = new StripedShards(stripes, 1, data.length + size - 1);
+			vector.reconstructShard(lost, shards, shards);
+			assertArrayEquals(shards.shard(lost), shards.written.toByteArray());
+			int survivorsRead = 0;
+			for(int reads : shards.reads)
+				if(reads > 0)
+					survivorsRead++;
+			assertEquals(data.length, survivorsRead);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testReconstructShardPresent() throws Exception
+	{
+		StripedShards shards = new StripedShards(new byte[][][] { randomShards(4) }, 0);
+		new MatrixChecksumVector(size).reconstructShard(1, shards, shards);
+	}
+	
+	@Test
+	public void testScrubClean()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] shards = randomShards(40);
+		vector.encode(shards, 0, 40);
+		assertTrue(vector.scrub(shards, 0, 40, true).isClean());
+	}
+	
+	@Test
+	public void testScrubCorrectsEverySingleShard()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] expected = randomShards(40);
+		vector.encode(expected, 0, 40);
+		for(int corrupt = 0; corrupt < expected.length; corrupt++)
+			assertScrubRepairs(vector, expected, corrupt);
+	}
+	
+	@Test
+	public void testScrubCorrectsHalfAsManyShardsAsChecksums()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] expected = randomShards(40);
+		vector.encode(expected, 0, 40);
+		
+		int last = data.length + size - 1;
+		assertScrubRepairs(vector, expected, 1);
+		assertScrubRepairs(vector, expected, last);
+		if(size < 4)
+			return;
+		assertScrubRepairs(vector, expected, 1, 3);
+		assertScrubRepairs(vector, expected, 2, last);
+		assertScrubRepairs(vector, expected, data.length, last);
+		if(size >= 6)
+			assertScrubRepairs(vector, expected, 0, 4, data.length + 2);
+	}
+	
+	@Test
+	public void testScrubCannotLocateTooManyShards()
+	{
+		// with an even number of checksums, one error too many can look like a different correctable pattern
+		if(size % 2 == 0)
+			return;
+		
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] shards = randomShards(40);
+		vector.encode(shards, 0, 40);
+		for(int shard = 0; shard <= size / 2; shard++)
+			shards[shard * 2][10] ^= 0x21;
+		byte[][] corrupted = new byte[shards.length][];
+		for(int i = 0; i < shards.length; i++)
+			corrupted[i] = shards[i].clone();
+		
+		ScrubResult result = vector.scrub(shards, 0, 40, true);
+		assertFalse(result.isClean());
+		assertFalse(result.isLocated());
+		assertEquals(0, result.corruptShards().length);
+		for(int i = 0; i < shards.length; i++)
+			assertArrayEquals(corrupted[i], shards[i]);
+	}
+	
+	@Test
+	public void testVerify()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] shards = randomShards(40);
+		vector.encode(shards, 0, 40);
+		assertNull(vector.verify(shards, 0, 40));
+		
+		shards[data.length + size - 1][30] ^= 1;
+		shards[1][31] ^= 1;
+		ChecksumMismatch mismatch = vector.verify(shards, 0, 40);
+		assertEquals(30, mismatch.offset());
+		assertArrayEquals(new int[] { size - 1 }, mismatch.checksums());
+	}
+	
+	@Test
+	public void testScrubWithoutRepair()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] shards = randomShards(40);
+		vector.encode(shards, 0, 40);
+		shards[2][33] ^= 0x44;
+		
+		ScrubResult result = vector.scrub(shards, 0, 40, false);
+		assertArrayEquals(new int[] { 2 }, result.corruptShards());
+		assertEquals(33, result.firstCorruptOffset());
+		assertFalse(result.isRepaired());
+		assertFalse(vector.scrub(shards, 0, 40, false).isClean());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncodeShardsTooFewDataShards()
+	{
+		new MatrixChecksumVector(size).encode(new byte[size + 2][2], 0, 2);
+	}
+	
+	@Test
+	public void testSpecializedEncode()
+	{
+		MatrixChecksumVector vector = new MatrixChecksumVector(size);
+		byte[][] expected = randomShards(3000);
+		vector.encode(expected, 0, 3000);
+		assumeTrue(vector.specialize(data.length));
+		
+		byte[][] shards = randomShards(3000);
+		vector.encode(shards, 0, 3000);
+		for(int shard = 0; shard < shards.length; shard++)
+			assertArrayEquals(expected[shard], shards[shard]);
+		assertTrue(vector.scrub(shards, 0, 3000, false).isClean());
+	}
+	
+	@Test
+	public void testSpecializeTooManyDataShards()
+	{
+		assertFalse(new MatrixChecksumVector(size).specialize(250));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSpecializeTooFewDataShards()
+	{
+		new MatrixChecksumVector(size).specialize(2);
+	}
+	
+	private void assertScrubRepairs(MatrixChecksumVector vector, byte[][] expected, int... corrupt)
+	{
+		byte[][] shards = new byte[expected.length][];
+		for(int i = 0; i < shards.length; i++)
+			shards[i] = expected[i].clone();
+		for(int shard : corrupt)
+		{
+			shards[shard][5] ^= shard + 1;
+			shards[shard][21] ^= 0x80;
+			shards[shard][22] ^= 0x3c;
+		}
+		
+		ScrubResult result = vector.scrub(shards, 0, 40, true);
+		assertArrayEquals(corrupt, result.corruptShards());
+		assertEquals(3, result.corruptBytes());
+		assertEquals(5, result.firstCorruptOffset());
+		assertTrue(result.isRepaired());
+		for(int i = 0; i < shards.length; i++)
+			assertArrayEquals(expected[i], shards[i]);
+	}
+	
+	private byte[][] randomShards(int length)
+	{
+		Random random = new Random(size);
+		byte[][] shards = new byte[data.length + size][length];
+		for(int shard = 0; shard < data.length; shard++)
+			random.nextBytes(shards[shard]);
+		return shards;
+	}
+	
+	private byte[][] shards()
+	{
+		byte[][] shards = new byte[data.length + size][2];
+		for(int shard = 0; shard < data.length; shard++)
+		{
+			shards[shard][0] = data[shard];
+			shards[shard][1] = (byte) (data[shard] * 7 + shard);
+		}
+		return shards;
+	}
+	
 	private Byte[] copyWithSomeMissing(byte[] array, int... indicesToNull)
 	{
 		Byte[] missingData = new Byte[array.length];
@@ -0,0 +1,189 @@
+package com.nickww.finitefield.checksum;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RowDiagonalChecksumVectorTest
+{
+	private final ChecksumVector vector = ChecksumVector.buildRowDiagonal();
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testWithChecksumsUnsupported()
+	{
+		vector.withChecksums(new byte[] {1, 2, 3});
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSolveMissingValuesIntoUnsupported()
+	{
+		vector.solveMissingValuesInto(new byte[5], new boolean[] { true, false, true, true, true }, new byte[3]);
+	}
+	
+	@Test
+	public void testShardAlignment()
+	{
+		assertEquals(4 * Long.BYTES, vector.shardAlignment(4));
+		assertEquals(6 * Long.BYTES, vector.shardAlignment(5));
+		assertEquals(10 * Long.BYTES, vector.shardAlignment(10));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnalignedRegion()
+	{
+		byte[][] shards = new byte[6][100];
+		vector.encode(shards, 0, 100);
+	}
+	
+	@Test
+	public void testRowParityIsXor()
+	{
+		byte[][] shards = randomShards(5, vector.shardAlignment(5) * 3);
+		vector.encode(shards, 0, shards[0].length);
+		byte[][] xor = Arrays.copyOf(shards, 6);
+		xor[5] = new byte[shards[0].length];
+		ChecksumVector.build(1).encode(xor, 0, shards[0].length);
+		assertArrayEquals(xor[5], shards[5]);
+	}
+	
+	@Test
+	public void testDiagonalParity()
+	{
+		// p = 5, so each unit is 4 rows of longs, and diagonal d holds the elements whose row and column add up to d
+		int length = vector.shardAlignment(4) * 3;
+		byte[][] shards = randomShards(4, length);
+		vector.encode(shards, 0, length);
+		ByteBuffer[] buffers = ChecksumVector.wrap(shards, 0, length);
+		for(int unit = 0; unit < length; unit += 4 * Long.BYTES)
+		{
+			for(int diagonal = 0; diagonal < 4; diagonal++)
+			{
+				long sum = buffers[5].getLong(unit + diagonal * Long.BYTES);
+				for(int column = 0; column < 5; column++)
+					if((diagonal - column + 5) % 5 < 4)
+						sum ^= buffers[column].getLong(unit + (diagonal - column + 5) % 5 * Long.BYTES);
+				assertEquals(0, sum);
+			}
+		}
+	}
+	
+	@Test
+	public void testManyBlocksOfMixedBuffers()
+	{
+		int dataCount = 6;
+		int length = vector.shardAlignment(dataCount) * 1000;
+		byte[][] arrays = randomShards(dataCount, length + 16);
+		vector.encode(arrays, 16, length);
+		
+		// every other shard is direct, little-endian, and starts part way through its buffer
+		ByteBuffer[] shards = new ByteBuffer[arrays.length];
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			ByteBuffer buffer = shard % 2 == 0 ? ByteBuffer.allocate(length + 8) : ByteBuffer.allocateDirect(length + 8)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.position(8);
+			shards[shard] = buffer.slice().order(buffer.order());
+			if(shard < dataCount)
+				shards[shard].duplicate().put(arrays[shard], 16, length);
+			shards[shard].position(0);
+		}
+		vector.encode(shards);
+		for(int shard = 0; shard < shards.length; shard++)
+			assertEquals(ByteBuffer.wrap(arrays[shard], 16, length), shards[shard]);
+		
+		boolean[] present = new boolean[shards.length];
+		Arrays.fill(present, true);
+		present[1] = present[4] = false;
+		for(int shard : new int[] { 1, 4 })
+			shards[shard].duplicate().put(new byte[length]);
+		vector.reconstruct(shards, present);
+		for(int shard : new int[] { 1, 4 })
+			assertEquals(ByteBuffer.wrap(arrays[shard], 16, length), shards[shard]);
+	}
+	
+	@Test
+	public void testReconstructEveryPair()
+	{
+		for(int dataCount = 1; dataCount <= 8; dataCount++)
+		{
+			int length = vector.shardAlignment(dataCount) * 5;
+			byte[][] original = randomShards(dataCount, length);
+			vector.encode(original, 0, length);
+			for(int first = 0; first < dataCount + 2; first++)
+			{
+				for(int second = first + 1; second < dataCount + 2; second++)
+				{
+					byte[][] shards = new byte[original.length][];
+					boolean[] present = new boolean[original.length];
+					for(int shard = 0; shard < shards.length; shard++)
+					{
+						present[shard] = shard != first && shard != second;
+						shards[shard] = present[shard] ? original[shard].clone() : new byte[length];
+					}
+					vector.reconstruct(shards, present, 0, length);
+					for(int shard = 0; shard < dataCount; shard++)
+						assertArrayEquals(dataCount + " data, missing " + first + " and " + second, original[shard],
+								shards[shard]);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testRebuildEveryPair()
+	{
+		int dataCount = 6;
+		int length = vector.shardAlignment(dataCount) * 2;
+		byte[][] original = randomShards(dataCount, length);
+		vector.encode(original, 0, length);
+		for(int first = 0; first < dataCount + 2; first++)
+		{
+			for(int second = first + 1; second < dataCount + 2; second++)
+			{
+				ByteBuffer[] shards = new ByteBuffer[original.length];
+				boolean[] present = new boolean[original.length];
+				for(int shard = 0; shard < shards.length; shard++)
+				{
+					present[shard] = shard != first && shard != second;
+					shards[shard] = ByteBuffer.allocateDirect(length);
+					if(present[shard])
+						shards[shard].put(original[shard]).flip();
+				}
+				vector.rebuild(shards, present);
+				for(int shard = 0; shard < shards.length; shard++)
+				{
+					byte[] rebuilt = new byte[length];
+					shards[shard].duplicate().get(rebuilt);
+					assertArrayEquals(original[shard], rebuilt);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testVerifyFindsCorruption()
+	{
+		int length = vector.shardAlignment(7) * 200;
+		byte[][] shards = randomShards(7, length);
+		vector.encode(shards, 0, length);
+		assertNull(vector.verify(shards, 0, length));
+		
+		shards[3][length - 5] ^= 1;
+		assertNotNull(vector.verify(shards, 0, length));
+		assertFalse(vector.scrub(shards, 0, length, false).isClean());
+	}
+	
+	private static byte[][] randomShards(int dataCount, int length)
+	{
+		Random random = new Random(dataCount * 31 + length);
+		byte[][] shards = new byte[dataCount + 2][length];
+		for(int shard = 0; shard < dataCount; shard++)
+			random.nextBytes(shards[shard]);
+		return shards;
+	}
+}
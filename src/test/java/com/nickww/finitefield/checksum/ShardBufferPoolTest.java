@@ -0,0 +1,65 @@
+package com.nickww.finitefield.checksum;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class ShardBufferPoolTest
+{
+	@Test
+	public void testAcquireSetsLimit()
+	{
+		ByteBuffer buffer = ShardBufferPool.heap().acquire(100);
+		assertEquals(0, buffer.position());
+		assertEquals(100, buffer.limit());
+		assertEquals(128, buffer.capacity());
+		assertFalse(buffer.isDirect());
+		assertTrue(ShardBufferPool.direct().acquire(100).isDirect());
+	}
+	
+	@Test
+	public void testReleasedBufferIsReused()
+	{
+		ShardBufferPool pool = ShardBufferPool.heap();
+		ByteBuffer buffer = pool.acquire(1000);
+		buffer.position(10).limit(20);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		pool.release(buffer);
+		
+		ByteBuffer reused = pool.acquire(900);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(900, reused.limit());
+		assertEquals(ByteOrder.BIG_ENDIAN, reused.order());
+	}
+	
+	@Test
+	public void testForeignBuffersAreNotPooled()
+	{
+		ShardBufferPool pool = ShardBufferPool.heap();
+		ByteBuffer direct = ShardBufferPool.direct().acquire(64);
+		ByteBuffer odd = ByteBuffer.allocate(48);
+		pool.release(direct);
+		pool.release(odd);
+		
+		ByteBuffer acquired = pool.acquire(64);
+		assertNotSame(direct, acquired);
+		assertNotSame(odd, acquired);
+	}
+	
+	@Test
+	public void testMatching()
+	{
+		assertSame(ShardBufferPool.heap(), ShardBufferPool.matching(ByteBuffer.allocate(1)));
+		assertSame(ShardBufferPool.direct(), ShardBufferPool.matching(ByteBuffer.allocateDirect(1)));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeSize()
+	{
+		ShardBufferPool.heap().acquire(-1);
+	}
+}
@@ -0,0 +1,74 @@
+package com.nickww.finitefield.checksum;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Stripes of shards held in memory, as a source for {@link ChecksumVector#reconstructShard}, and a sink which
+ * collects the reconstructed shard.
+ */
+class StripedShards implements ShardSource, ShardSink
+{
+	final byte[][][] stripes;
+	final boolean[] present;
+	final int[] reads;
+	final ByteArrayOutputStream written = new ByteArrayOutputStream();
+	
+	StripedShards(byte[][][] stripes, int... missing)
+	{
+		this.stripes = stripes;
+		this.present = new boolean[stripes[0].length];
+		this.reads = new int[present.length];
+		Arrays.fill(present, true);
+		for(int shard : missing)
+			present[shard] = false;
+	}
+	
+	@Override
+	public int shardCount()
+	{
+		return present.length;
+	}
+	
+	@Override
+	public long stripeCount()
+	{
+		return stripes.length;
+	}
+	
+	@Override
+	public boolean isPresent(int shard)
+	{
+		return present[shard];
+	}
+	
+	@Override
+	public ByteBuffer read(long stripe, int shard)
+	{
+		if(!present[shard])
+			throw new AssertionError("Read missing shard " + shard);
+		reads[shard]++;
+		return ByteBuffer.wrap(stripes[(int) stripe][shard]).asReadOnlyBuffer();
+	}
+	
+	@Override
+	public void write(long stripe, ByteBuffer shard)
+	{
+		if(stripe != written.size() / stripes[0][0].length)
+			throw new AssertionError("Stripe " + stripe + " written out of order");
+		while(shard.hasRemaining())
+			written.write(shard.get());
+	}
+	
+	/**
+	 * Returns the given shard of every stripe, concatenated.
+	 */
+	byte[] shard(int shard)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for(byte[][] stripe : stripes)
+			bytes.write(stripe[shard], 0, stripe[shard].length);
+		return bytes.toByteArray();
+	}
+}
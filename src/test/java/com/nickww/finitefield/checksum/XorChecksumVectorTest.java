@@ -2,6 +2,8 @@ package com.nickww.finitefield.checksum;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
 
 import com.nickww.finitefield.checksum.XorChecksumVector;
@@ -68,4 +70,124 @@ public class XorChecksumVectorTest
 		Byte[] dataWithChecksums = new Byte[] {45, -123, 10, null};
 		assertArrayEquals(data, new XorChecksumVector().solveMissingValues(dataWithChecksums));
 	}
+	
+	@Test
+	public void testIntoVariants()
+	{
+		byte[] data = new byte[] {45, -123, 10};
+		byte[] checksummed = new byte[4];
+		new XorChecksumVector().withChecksumsInto(data, checksummed);
+		assertArrayEquals(new byte[] {45, -123, 10, (45 ^ -123 ^ 10)}, checksummed);
+		
+		byte[] solved = new byte[3];
+		boolean[] present = new boolean[] {true, false, true, true};
+		checksummed[1] = 99;
+		new XorChecksumVector().solveMissingValuesInto(checksummed, present, solved);
+		assertArrayEquals(data, solved);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testWithChecksumsIntoTooSmall()
+	{
+		new XorChecksumVector().withChecksumsInto(new byte[3], new byte[3]);
+	}
+	
+	@Test
+	public void testEncodeShards()
+	{
+		byte[][] shards = new byte[][] { {45, 1, 2}, {-123, 3, 4}, {10, 5, 6}, new byte[3] };
+		new XorChecksumVector().encode(shards, 0, 3);
+		assertArrayEquals(new byte[] {(45 ^ -123 ^ 10), (1 ^ 3 ^ 5), (2 ^ 4 ^ 6)}, shards[3]);
+	}
+	
+	@Test
+	public void testEncodeShardsRegion()
+	{
+		byte[][] shards = new byte[][] { {45, 1, 2}, {-123, 3, 4}, {10, 5, 6}, new byte[3] };
+		new XorChecksumVector().encode(shards, 1, 1);
+		assertArrayEquals(new byte[] {0, (1 ^ 3 ^ 5), 0}, shards[3]);
+	}
+	
+	@Test
+	public void testReconstructShards()
+	{
+		byte[][] shards = new byte[][] { {45, 1}, {-123, 3}, {10, 5}, new byte[2] };
+		new XorChecksumVector().encode(shards, 0, 2);
+		shards[1] = new byte[2];
+		new XorChecksumVector().reconstruct(shards, new boolean[] {true, false, true, true}, 0, 2);
+		assertArrayEquals(new byte[] {-123, 3}, shards[1]);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testReconstructShardsTooManyMissing()
+	{
+		new XorChecksumVector().reconstruct(new byte[3][2], new boolean[] {false, true, false}, 0, 2);
+	}
+	
+	@Test
+	public void testEncodeAndReconstructBuffers()
+	{
+		ByteBuffer[] shards = new ByteBuffer[] { ByteBuffer.wrap(new byte[] {45, 1, 2}),
+				ByteBuffer.wrap(new byte[] {-123, 3, 4}), ByteBuffer.allocateDirect(3), ByteBuffer.allocate(3) };
+		shards[2].put(new byte[] {10, 5, 6}).flip();
+		new XorChecksumVector().encode(shards);
+		assertArrayEquals(new byte[] {(45 ^ -123 ^ 10), (1 ^ 3 ^ 5), (2 ^ 4 ^ 6)}, shards[3].array());
+		
+		shards[1] = ByteBuffer.allocate(3);
+		new XorChecksumVector().reconstruct(shards, new boolean[] {true, false, true, true});
+		assertArrayEquals(new byte[] {-123, 3, 4}, shards[1].array());
+	}
+	
+	@Test
+	public void testScrubDetectsButCannotLocate()
+	{
+		byte[][] shards = { { 1, 2, 3 }, { 4, 5, 6 }, new byte[3] };
+		new XorChecksumVector().encode(shards, 0, 3);
+		assertTrue(new XorChecksumVector().scrub(shards, 0, 3, true).isClean());
+		
+		shards[1][2] ^= 9;
+		ScrubResult result = new XorChecksumVector().scrub(shards, 0, 3, true);
+		assertFalse(result.isClean());
+		assertFalse(result.isLocated());
+		assertFalse(result.isRepaired());
+		assertEquals(1, result.corruptBytes());
+		assertEquals(2, result.firstCorruptOffset());
+		assertEquals(6 ^ 9, shards[1][2]);
+	}
+	
+	
+	@Test
+	public void testVerify()
+	{
+		byte[][] shards = { { 1, 2, 3, 4 }, { 4, 5, 6, 7 }, new byte[4] };
+		new XorChecksumVector().encode(shards, 0, 4);
+		assertNull(new XorChecksumVector().verify(shards, 0, 4));
+		
+		shards[0][3] ^= 1;
+		assertNull(new XorChecksumVector().verify(shards, 0, 3));
+		ChecksumMismatch mismatch = new XorChecksumVector().verify(shards, 1, 3);
+		assertEquals(2, mismatch.offset());
+		assertArrayEquals(new int[] { 0 }, mismatch.checksums());
+	}
+	
+	
+	@Test
+	public void testRebuild()
+	{
+		for(int missing = 0; missing < 3; missing++)
+		{
+			byte[][] expected = { { 1, 2, 3 }, { 4, 5, 6 }, new byte[3] };
+			new XorChecksumVector().encode(expected, 0, 3);
+			ByteBuffer[] buffers = new ByteBuffer[3];
+			boolean[] present = new boolean[3];
+			for(int i = 0; i < 3; i++)
+			{
+				present[i] = i != missing;
+				buffers[i] = ByteBuffer.wrap(present[i] ? expected[i].clone() : new byte[3]);
+			}
+			new XorChecksumVector().rebuild(buffers, present);
+			for(int i = 0; i < 3; i++)
+				assertArrayEquals(expected[i], buffers[i].array());
+		}
+	}
 }
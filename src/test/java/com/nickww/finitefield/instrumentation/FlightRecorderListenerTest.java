@@ -0,0 +1,69 @@
+package com.nickww.finitefield.instrumentation;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecorderListenerTest
+{
+	@After
+	public void disable()
+	{
+		Instrumentation.disableFlightRecorder();
+	}
+	
+	@Test
+	public void testFlightRecorderEvents() throws Exception
+	{
+		assumeTrue(Instrumentation.enableFlightRecorder());
+		Path file = Files.createTempFile("instrumentation", ".jfr");
+		try(Recording recording = new Recording())
+		{
+			recording.enable("com.nickww.finitefield.Decode");
+			recording.enable("com.nickww.finitefield.MatrixInversion");
+			recording.start();
+			ChecksumVector vector = ChecksumVector.build(4);
+			byte[][] shards = shards(6, 4, 256);
+			vector.encode(shards, 0, 256);
+			vector.reconstruct(shards, new boolean[] { false, false, true, true, true, true, true, true, true, true },
+					0, 256);
+			recording.stop();
+			recording.dump(file);
+			
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			RecordedEvent decode = events.stream().filter(e -> e.getEventType().getName().endsWith("Decode"))
+					.findFirst().get();
+			assertEquals("MatrixChecksumVector", decode.getString("codec"));
+			assertEquals(2, decode.getInt("erasures"));
+			assertEquals(512, decode.getLong("bytes"));
+			assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().endsWith("MatrixInversion")
+					&& e.getInt("size") == 2));
+		}
+		finally
+		{
+			Files.delete(file);
+		}
+	}
+	
+	private static byte[][] shards(int dataCount, int checksumCount, int length)
+	{
+		Random random = new Random(length);
+		byte[][] shards = new byte[dataCount + checksumCount][length];
+		for(int shard = 0; shard < dataCount; shard++)
+			random.nextBytes(shards[shard]);
+		return shards;
+	}
+}
@@ -0,0 +1,225 @@
+package com.nickww.finitefield.instrumentation;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.nickww.finitefield.FiniteByteFieldMatrix;
+import com.nickww.finitefield.checksum.ChecksumVector;
+import com.nickww.finitefield.checksum.ShardSource;
+
+public class InstrumentationTest
+{
+	private final CodecMetrics metrics = new CodecMetrics();
+	
+	@After
+	public void unregister()
+	{
+		Instrumentation.unregister(metrics);
+		Instrumentation.disableFlightRecorder();
+	}
+	
+	@Test
+	public void testDisabledByDefault()
+	{
+		assertFalse(Instrumentation.isEnabled());
+		assertEquals(Instrumentation.DISABLED, Instrumentation.start());
+	}
+	
+	@Test
+	public void testBrokenServiceSkipped()
+	{
+		// the test resources list a listener class which doesn't exist, which must not stop this class loading
+		assertFalse(Instrumentation.isEnabled());
+		Instrumentation.register(metrics);
+		assertTrue(Instrumentation.isEnabled());
+	}
+	
+	@Test
+	public void testRegisterAndUnregister()
+	{
+		Instrumentation.register(metrics);
+		assertTrue(Instrumentation.isEnabled());
+		assertTrue(Instrumentation.unregister(metrics));
+		assertFalse(Instrumentation.unregister(metrics));
+		assertFalse(Instrumentation.isEnabled());
+	}
+	
+	@Test
+	public void testEncodeAndDecodeReported()
+	{
+		Instrumentation.register(metrics);
+		ChecksumVector vector = ChecksumVector.build(3);
+		byte[][] shards = shards(5, 3, 100);
+		vector.encode(shards, 0, 100);
+		vector.reconstruct(shards, new boolean[] { false, true, false, true, true, true, false, true }, 0, 100);
+		
+		assertEquals(1, metrics.encodes());
+		assertEquals(500, metrics.bytesEncoded());
+		assertEquals(1, metrics.decodes());
+		assertEquals(200, metrics.bytesDecoded());
+		assertEquals(1, sum(metrics.decodeLatencies(3)));
+		assertEquals(0, sum(metrics.decodeLatencies(2)));
+		assertEquals(1, metrics.plansComputed());
+		assertEquals(1, metrics.inversions(2));
+	}
+	
+	@Test
+	public void testDelegatingDecodeReportedOnce()
+	{
+		Instrumentation.register(metrics);
+		ChecksumVector vector = ChecksumVector.build(2);
+		byte[][] shards = shards(4, 2, 64);
+		vector.encode(shards, 0, 64);
+		vector.reconstruct(shards, new boolean[] { true, false, true, true, true, false }, 0, 64);
+		
+		assertEquals(1, metrics.encodes());
+		assertEquals(1, metrics.decodes());
+		assertEquals(64, metrics.bytesDecoded());
+	}
+	
+	@Test
+	public void testLocalRepairNotReportedAsXor()
+	{
+		Instrumentation.register(metrics);
+		ChecksumVector vector = ChecksumVector.buildLocallyRepairable(2, 2);
+		byte[][] shards = shards(6, 4, 32);
+		vector.encode(shards, 0, 32);
+		boolean[] present = new boolean[10];
+		Arrays.fill(present, true);
+		present[1] = false;
+		vector.reconstruct(shards, present, 0, 32);
+		
+		assertEquals(1, metrics.encodes());
+		assertEquals(1, metrics.decodes());
+		assertEquals(0, metrics.plansComputed());
+	}
+	
+	@Test
+	public void testPlanCacheHits()
+	{
+		Instrumentation.register(metrics);
+		ChecksumVector vector = ChecksumVector.build(3);
+		byte[] checksummed = vector.withChecksums(new byte[] { 1, 2, 3, 4 });
+		boolean[] present = { true, false, true, true, true, true, true };
+		byte[] data = new byte[4];
+		for(int i = 0; i < 3; i++)
+			vector.solveMissingValuesInto(checksummed, present, data);
+		
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, data);
+		assertEquals(metrics.plansComputed() + 2, metrics.planCacheHits() + metrics.plansComputed());
+	}
+	
+	@Test
+	public void testReconstructShardPlanCached() throws Exception
+	{
+		ChecksumVector vector = ChecksumVector.build(3);
+		byte[][] shards = shards(4, 3, 16);
+		vector.encode(shards, 0, 16);
+		ShardSource source = new ShardSource()
+		{
+			@Override
+			public int shardCount()
+			{
+				return shards.length;
+			}
+			
+			@Override
+			public long stripeCount()
+			{
+				return 1;
+			}
+			
+			@Override
+			public boolean isPresent(int shard)
+			{
+				return shard != 1 && shard != 5;
+			}
+			
+			@Override
+			public ByteBuffer read(long stripe, int shard)
+			{
+				return ByteBuffer.wrap(shards[shard]);
+			}
+		};
+		
+		Instrumentation.register(metrics);
+		byte[][] rebuilt = new byte[shards.length][16];
+		for(int shard : new int[] { 1, 5, 1 })
+			vector.reconstructShard(shard, source, (stripe, buffer) -> buffer.get(rebuilt[shard]));
+		assertArrayEquals(shards[1], rebuilt[1]);
+		assertArrayEquals(shards[5], rebuilt[5]);
+		assertEquals(1, metrics.plansComputed());
+		assertEquals(2, metrics.planCacheHits());
+	}
+	
+	@Test
+	public void testReconstructPlanCached()
+	{
+		ChecksumVector vector = ChecksumVector.build(3);
+		int length = 3 << 16; // three of reconstructVerified's blocks
+		byte[][] expected = shards(4, 3, length);
+		long[] digests = vector.encodeWithDigests(expected, 0, length);
+		byte[][] shards = new byte[expected.length][];
+		for(int shard = 0; shard < shards.length; shard++)
+			shards[shard] = expected[shard].clone();
+		boolean[] present = { true, false, true, true, true, false, true };
+		
+		Instrumentation.register(metrics);
+		assertEquals(0, vector.reconstructVerified(shards, present, digests, 0, length).length);
+		assertArrayEquals(expected[1], shards[1]);
+		assertEquals(1, metrics.plansComputed());
+		assertEquals(2, metrics.planCacheHits());
+		
+		for(int i = 0; i < 2; i++)
+			vector.reconstruct(shards, present, new int[] { 1, 5 }, 0, length);
+		assertArrayEquals(expected[5], shards[5]);
+		assertEquals(2, metrics.plansComputed());
+		assertEquals(3, metrics.planCacheHits());
+	}
+	
+	@Test
+	public void testMatrixInversionReported()
+	{
+		Instrumentation.register(metrics);
+		FiniteByteFieldMatrix matrix = FiniteByteFieldMatrix.identity(3);
+		matrix.inverse();
+		matrix.inverse();
+		
+		assertEquals(1, metrics.inversions());
+		assertEquals(1, metrics.inversions(3));
+		assertEquals(0, metrics.inversions(2));
+	}
+	
+	@Test
+	public void testBuckets()
+	{
+		assertEquals(0, CodecMetrics.bucket(0));
+		assertEquals(0, CodecMetrics.bucket(1));
+		assertEquals(1, CodecMetrics.bucket(3));
+		assertEquals(10, CodecMetrics.bucket(1024));
+		assertEquals(CodecMetrics.BUCKETS - 1, CodecMetrics.bucket(Long.MAX_VALUE));
+	}
+	
+	private static byte[][] shards(int dataCount, int checksumCount, int length)
+	{
+		Random random = new Random(length);
+		byte[][] shards = new byte[dataCount + checksumCount][length];
+		for(int shard = 0; shard < dataCount; shard++)
+			random.nextBytes(shards[shard]);
+		return shards;
+	}
+	
+	private static long sum(long[] counts)
+	{
+		long sum = 0;
+		for(long count : counts)
+			sum += count;
+		return sum;
+	}
+}
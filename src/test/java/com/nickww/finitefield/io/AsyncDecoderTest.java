@@ -0,0 +1,161 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+public class AsyncDecoderTest
+{
+	private static final ChecksumVector checksums = ChecksumVector.build(2);
+	private static final byte[] data = new byte[1000];
+	private static final ByteBuffer[] shards;
+	
+	static
+	{
+		for(int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 11 + i / 9);
+		shards = new ParallelEncoder(checksums, 3, 16, Runnable::run, 1).encode(ByteBuffer.wrap(data));
+	}
+	
+	@Test
+	public void testDecodeWithAllShards() throws Exception
+	{
+		List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+		for(ByteBuffer shard : shards)
+			futures.add(CompletableFuture.completedFuture(shard));
+		assertArrayEquals(data, new AsyncDecoder(checksums, 3, 16).decode(data.length, futures).get().array());
+	}
+	
+	@Test
+	public void testDecodeStartsBeforeSlowShards() throws Exception
+	{
+		List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+		for(int shard = 0; shard < shards.length; shard++)
+			futures.add(new CompletableFuture<>());
+		CompletableFuture<ByteBuffer> decoded = new AsyncDecoder(checksums, 3, 16, Runnable::run).decode(data.length,
+				futures);
+		
+		futures.get(4).complete(shards[4]);
+		futures.get(0).complete(shards[0]);
+		assertFalse(decoded.isDone());
+		futures.get(2).complete(shards[2]);
+		
+		// shards 1 and 3 never arrive
+		assertTrue(decoded.isDone());
+		assertArrayEquals(data, decoded.get().array());
+	}
+	
+	@Test
+	public void testDecodeTreatsFailedAndNullShardsAsMissing() throws Exception
+	{
+		CompletableFuture<ByteBuffer> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new RuntimeException("disk failure"));
+		List<CompletableFuture<ByteBuffer>> futures = Arrays.asList(failed, null, complete(2), complete(3), complete(4));
+		assertArrayEquals(data, new AsyncDecoder(checksums, 3, 16).decode(data.length, futures).get().array());
+	}
+	
+	@Test(expected = ExecutionException.class)
+	public void testDecodeFailsWithTooManyMissingShards() throws Exception
+	{
+		CompletableFuture<ByteBuffer> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new RuntimeException("disk failure"));
+		List<CompletableFuture<ByteBuffer>> futures = Arrays.asList(failed, null, null, complete(3), complete(4));
+		new AsyncDecoder(checksums, 3, 16).decode(data.length, futures).get();
+	}
+	
+	@Test
+	public void testDecodeWaitsForSolvableShards() throws Exception
+	{
+		// shard 2 is in the second local group, so the first group's checksum (shard 4) can't solve for it
+		ChecksumVector lrc = ChecksumVector.buildLocallyRepairable(2, 2);
+		ByteBuffer[] encoded = new ParallelEncoder(lrc, 4, 16, Runnable::run, 1).encode(ByteBuffer.wrap(data));
+		List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+		for(int shard = 0; shard < encoded.length; shard++)
+			futures.add(new CompletableFuture<>());
+		CompletableFuture<ByteBuffer> decoded = new AsyncDecoder(lrc, 4, 16, Runnable::run).decode(data.length,
+				futures);
+		
+		for(int shard : new int[] { 0, 1, 3, 4 })
+			futures.get(shard).complete(encoded[shard]);
+		assertFalse(decoded.isDone());
+		futures.get(5).complete(encoded[5]);
+		assertTrue(decoded.isDone());
+		assertArrayEquals(data, decoded.get().array());
+	}
+	
+	@Test(expected = ExecutionException.class)
+	public void testDecodeFailsWhenArrivalsCannotSolve() throws Exception
+	{
+		// only four shards are missing, but three of them are in the second local group
+		ChecksumVector lrc = ChecksumVector.buildLocallyRepairable(2, 2);
+		ByteBuffer[] encoded = new ParallelEncoder(lrc, 4, 16, Runnable::run, 1).encode(ByteBuffer.wrap(data));
+		List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+		for(int shard = 0; shard < encoded.length; shard++)
+			futures.add(shard == 2 || shard == 3 || shard == 5 || shard == 6 ? null : CompletableFuture.completedFuture(
+					encoded[shard]));
+		new AsyncDecoder(lrc, 4, 16).decode(data.length, futures).get();
+	}
+	
+	@Test
+	public void testSegmentsDecodeIndependently() throws Exception
+	{
+		int stripesPerSegment = 4;
+		int segments = (21 + stripesPerSegment - 1) / stripesPerSegment;
+		List<List<CompletableFuture<ByteBuffer>>> futures = new ArrayList<>();
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			List<CompletableFuture<ByteBuffer>> pieces = new ArrayList<>();
+			for(int segment = 0; segment < segments; segment++)
+				pieces.add(new CompletableFuture<>());
+			futures.add(pieces);
+		}
+		
+		CompletableFuture<ByteBuffer> decoded = new AsyncDecoder(checksums, 3, 16, Runnable::run).decodeSegments(
+				data.length, stripesPerSegment, futures);
+		for(int segment = 0; segment < segments; segment++)
+		{
+			// a different pair of shards is slow for every segment
+			for(int shard = 0; shard < shards.length; shard++)
+				if(shard != segment % shards.length && shard != (segment + 2) % shards.length)
+					futures.get(shard).get(segment).complete(segment(shard, segment, stripesPerSegment));
+		}
+		
+		assertTrue(decoded.isDone());
+		assertArrayEquals(data, decoded.get().array());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongNumberOfShards()
+	{
+		new AsyncDecoder(checksums, 3, 16).decode(data.length, Arrays.asList(complete(0), complete(1)));
+	}
+	
+	@Test
+	public void testEmptyData() throws Exception
+	{
+		assertEquals(0, new AsyncDecoder(checksums, 3, 16).decode(0, new ArrayList<>()).get().capacity());
+	}
+	
+	private static CompletableFuture<ByteBuffer> complete(int shard)
+	{
+		return CompletableFuture.completedFuture(shards[shard]);
+	}
+	
+	private static ByteBuffer segment(int shard, int segment, int stripesPerSegment)
+	{
+		ByteBuffer piece = shards[shard].duplicate();
+		int start = segment * stripesPerSegment * 16;
+		piece.limit(Math.min(piece.capacity(), start + stripesPerSegment * 16));
+		piece.position(start);
+		return piece;
+	}
+}
@@ -0,0 +1,181 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+public class ErasureContainerReaderTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testReadsWholeContainer() throws IOException
+	{
+		byte[] data = data(10000);
+		Path[] shards = write(ChecksumVector.build(2), 64, 6, data);
+		try(ErasureContainerReader reader = new ErasureContainerReader(shards))
+		{
+			assertEquals(data.length, reader.size());
+			assertEquals(4, reader.dataShards());
+			assertEquals(2, reader.checksumShards());
+			assertEquals(64, reader.chunkSize());
+			assertArrayEquals(data, readAll(reader));
+			assertEquals(0, reader.missingShards().length);
+		}
+	}
+	
+	@Test
+	public void testReadsRanges() throws IOException
+	{
+		byte[] data = data(5000);
+		Path[] shards = write(ChecksumVector.build(3), 100, 8, data);
+		try(ErasureContainerReader reader = new ErasureContainerReader(shards))
+		{
+			Random random = new Random(7);
+			for(int i = 0; i < 50; i++)
+			{
+				int position = random.nextInt(data.length);
+				int length = random.nextInt(1200);
+				byte[] read = new byte[length];
+				int count = reader.read(position, read, 0, length);
+				assertEquals(Math.min(length, data.length - position), count);
+				assertArrayEquals(Arrays.copyOfRange(data, position, position + count), Arrays.copyOf(read, count));
+			}
+			assertEquals(-1, reader.read(data.length, new byte[1], 0, 1));
+		}
+	}
+	
+	@Test
+	public void testDegradedReads() throws IOException
+	{
+		byte[] data = data(7777);
+		Path[] shards = write(ChecksumVector.build(2), 32, 7, data);
+		Files.delete(shards[1]);
+		shards[3] = null;
+		try(ErasureContainerReader reader = new ErasureContainerReader(shards))
+		{
+			assertArrayEquals(new int[] { 1, 3 }, reader.missingShards());
+			assertArrayEquals(data, readAll(reader));
+			byte[] range = new byte[50];
+			reader.read(40, range, 0, 50);
+			assertArrayEquals(Arrays.copyOfRange(data, 40, 90), range);
+		}
+	}
+	
+	@Test
+	public void testDegradedReadsSkipSingularChecksums() throws IOException
+	{
+		// with data shards 0 and 11 lost, checksums 0 and 5 can't solve for them, as 12 is a fifth root of 1, but 0
+		// and 6 can
+		byte[] data = data(3000);
+		Path[] shards = write(ChecksumVector.build(7), 16, 19, data);
+		for(int shard : new int[] { 0, 11, 13, 14, 15, 16 })
+			shards[shard] = null;
+		try(ErasureContainerReader reader = new ErasureContainerReader(shards))
+		{
+			assertArrayEquals(data, readAll(reader));
+		}
+	}
+	
+	@Test
+	public void testRowDiagonalContainer() throws IOException
+	{
+		ChecksumVector checksums = ChecksumVector.buildRowDiagonal();
+		byte[] data = data(3000);
+		Path[] shards = write(checksums, checksums.shardAlignment(5) * 2, 7, data);
+		shards[0] = null;
+		shards[4] = null;
+		try(ErasureContainerReader reader = new ErasureContainerReader(shards))
+		{
+			assertArrayEquals(data, readAll(reader));
+		}
+	}
+	
+	@Test
+	public void testTruncatedShardIsMissing() throws IOException
+	{
+		byte[] data = data(2000);
+		Path[] shards = write(ChecksumVector.build(1), 50, 5, data);
+		try(RandomAccessFile file = new RandomAccessFile(shards[2].toFile(), "rw"))
+		{
+			file.setLength(file.length() - 10);
+		}
+		try(ErasureContainerReader reader = new ErasureContainerReader(shards))
+		{
+			assertArrayEquals(new int[] { 2 }, reader.missingShards());
+			assertArrayEquals(data, readAll(reader));
+		}
+	}
+	
+	@Test
+	public void testVerifyDropsCorruptShard() throws IOException
+	{
+		byte[] data = data(4000);
+		Path[] shards = write(ChecksumVector.build(2), 64, 5, data);
+		byte[] corrupt = Files.readAllBytes(shards[0]);
+		corrupt[corrupt.length - 100] ^= 1;
+		Files.write(shards[0], corrupt);
+		try(ErasureContainerReader reader = new ErasureContainerReader(shards))
+		{
+			assertArrayEquals(new int[] { 0 }, reader.verify());
+			assertArrayEquals(new int[] { 0 }, reader.missingShards());
+			assertArrayEquals(data, readAll(reader));
+		}
+	}
+	
+	@Test(expected=IOException.class)
+	public void testTooManyMissing() throws IOException
+	{
+		Path[] shards = write(ChecksumVector.build(1), 16, 4, data(500));
+		shards[0] = null;
+		shards[1] = null;
+		new ErasureContainerReader(shards).close();
+	}
+	
+	@Test(expected=IOException.class)
+	public void testNotAContainer() throws IOException
+	{
+		Path file = folder.newFile().toPath();
+		Files.write(file, data(100));
+		new ErasureContainerReader(file, null).close();
+	}
+	
+	private Path[] write(ChecksumVector checksums, int chunkSize, int shardCount, byte[] data) throws IOException
+	{
+		Path[] shards = new Path[shardCount];
+		for(int shard = 0; shard < shardCount; shard++)
+			shards[shard] = folder.newFile().toPath();
+		try(ErasureContainerWriter writer = new ErasureContainerWriter(checksums, chunkSize, shards))
+		{
+			writer.write(data, 0, 123);
+			writer.write(data, 123, data.length - 123);
+		}
+		return shards;
+	}
+	
+	private static byte[] readAll(ErasureContainerReader reader) throws IOException
+	{
+		byte[] read = new byte[(int) reader.size()];
+		assertEquals(read.length, reader.read(0, read, 0, read.length));
+		return read;
+	}
+	
+	private static byte[] data(int length)
+	{
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,75 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+public class ErasureContainerWriterTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testHeaders() throws IOException
+	{
+		Path[] shards = shards(5);
+		try(ErasureContainerWriter writer = new ErasureContainerWriter(ChecksumVector.build(2), 10, shards))
+		{
+			writer.write(new byte[65]);
+			assertEquals(65, writer.size());
+		}
+		
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			assertEquals(ContainerHeader.length(5) + 3 * 10, Files.size(shards[shard]));
+			try(FileChannel channel = FileChannel.open(shards[shard], StandardOpenOption.READ))
+			{
+				ContainerHeader header = ContainerHeader.read(channel);
+				assertEquals(ContainerHeader.REED_SOLOMON, header.codec);
+				assertEquals(3, header.dataShards);
+				assertEquals(2, header.checksumShards);
+				assertEquals(10, header.chunkSize);
+				assertEquals(shard, header.shardIndex);
+				assertEquals(65, header.size);
+			}
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testUndescribableChecksums() throws IOException
+	{
+		new ErasureContainerWriter(ChecksumVector.buildLocallyRepairable(2, 1), 16, shards(7)).close();
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnalignedChunkSize() throws IOException
+	{
+		new ErasureContainerWriter(ChecksumVector.buildRowDiagonal(), 20, shards(6)).close();
+	}
+	
+	@Test(expected=IOException.class)
+	public void testWriteAfterClose() throws IOException
+	{
+		ErasureContainerWriter writer = new ErasureContainerWriter(ChecksumVector.build(1), 8, shards(3));
+		writer.close();
+		writer.write(1);
+	}
+	
+	private Path[] shards(int count) throws IOException
+	{
+		Path[] shards = new Path[count];
+		for(int shard = 0; shard < count; shard++)
+			shards[shard] = folder.newFile().toPath();
+		return shards;
+	}
+}
@@ -0,0 +1,166 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+public class ErasureDecodingInputStreamTest
+{
+	private static final byte[] data = new byte[1234];
+	
+	static
+	{
+		for(int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 13 + i / 7);
+	}
+	
+	@Test
+	public void testDecodesWithNoMissingShards() throws IOException
+	{
+		assertDecodes(ChecksumVector.build(1), 4, 32);
+	}
+	
+	@Test
+	public void testDecodesWithMissingDataShard() throws IOException
+	{
+		assertDecodes(ChecksumVector.build(1), 4, 32, 2);
+	}
+	
+	@Test
+	public void testDecodesWithTwoMissingShards() throws IOException
+	{
+		assertDecodes(ChecksumVector.build(2), 3, 50, 0, 4);
+	}
+	
+	@Test
+	public void testDecodesWithThreeMissingShards() throws IOException
+	{
+		assertDecodes(ChecksumVector.build(3), 5, 64, 1, 3, 6);
+	}
+	
+	@Test
+	public void testDecodesLocallyRepairable() throws IOException
+	{
+		assertDecodes(ChecksumVector.buildLocallyRepairable(2, 2), 4, 16, 2);
+		assertDecodes(ChecksumVector.buildLocallyRepairable(2, 2), 4, 16, 0, 3, 4);
+	}
+	
+	@Test
+	public void testDecodesWhenSizeIsMultipleOfStripe() throws IOException
+	{
+		byte[][] shards = encode(ChecksumVector.build(1), 2, 5, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+		shards[0] = null;
+		try(InputStream stream = new ErasureDecodingInputStream(ChecksumVector.build(1), 5, 10, channels(shards)))
+		{
+			assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 }, readAll(stream));
+		}
+	}
+	
+	@Test
+	public void testDecodesOnExecutor() throws IOException
+	{
+		ChecksumVector checksums = ChecksumVector.build(2);
+		byte[][] shards = encode(checksums, 4, 16, data);
+		shards[1] = null;
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try(InputStream stream = new ErasureDecodingInputStream(checksums, 16, data.length, executor, channels(shards)))
+		{
+			assertArrayEquals(data, readAll(stream));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testSingleByteReads() throws IOException
+	{
+		byte[][] shards = encode(ChecksumVector.build(1), 3, 4, new byte[] { 1, 2, 3, 4, 5 });
+		try(InputStream stream = new ErasureDecodingInputStream(ChecksumVector.build(1), 4, 5, channels(shards)))
+		{
+			for(int i = 1; i <= 5; i++)
+				assertEquals(i, stream.read());
+			assertEquals(-1, stream.read());
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void testTruncatedShard() throws IOException
+	{
+		byte[][] shards = encode(ChecksumVector.build(1), 2, 4, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		shards[1] = new byte[2];
+		try(InputStream stream = new ErasureDecodingInputStream(ChecksumVector.build(1), 4, 8, channels(shards)))
+		{
+			readAll(stream);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyMissingShards()
+	{
+		byte[][] shards = new byte[4][4];
+		shards[0] = null;
+		shards[3] = null;
+		new ErasureDecodingInputStream(ChecksumVector.build(1), 4, 8, channels(shards));
+	}
+	
+	private void assertDecodes(ChecksumVector checksums, int dataShards, int chunkSize, int... missing)
+			throws IOException
+	{
+		byte[][] shards = encode(checksums, dataShards, chunkSize, data);
+		for(int index : missing)
+			shards[index] = null;
+		
+		try(InputStream stream = new ErasureDecodingInputStream(checksums, chunkSize, data.length, channels(shards)))
+		{
+			assertArrayEquals(data, readAll(stream));
+		}
+	}
+	
+	private byte[][] encode(ChecksumVector checksums, int dataShards, int chunkSize, byte[] bytes) throws IOException
+	{
+		ByteArrayOutputStream[] outputs = ErasureEncodingOutputStreamTest.outputs(dataShards + checksums.numChecksums());
+		try(ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(checksums, chunkSize,
+				ErasureEncodingOutputStreamTest.channels(outputs)))
+		{
+			stream.write(bytes);
+		}
+		
+		byte[][] shards = new byte[outputs.length][];
+		for(int i = 0; i < outputs.length; i++)
+			shards[i] = outputs[i].toByteArray();
+		return shards;
+	}
+	
+	private ReadableByteChannel[] channels(byte[][] shards)
+	{
+		ReadableByteChannel[] channels = new ReadableByteChannel[shards.length];
+		for(int i = 0; i < shards.length; i++)
+			if(shards[i] != null)
+				channels[i] = Channels.newChannel(new ByteArrayInputStream(shards[i]));
+		return channels;
+	}
+	
+	private byte[] readAll(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[100];
+		int read;
+		while((read = stream.read(buffer)) >= 0)
+			output.write(buffer, 0, read);
+		return output.toByteArray();
+	}
+}
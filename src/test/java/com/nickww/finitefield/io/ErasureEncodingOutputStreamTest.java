@@ -0,0 +1,127 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+public class ErasureEncodingOutputStreamTest
+{
+	@Test
+	public void testShardsHoldStripedData() throws IOException
+	{
+		ByteArrayOutputStream[] outputs = outputs(4);
+		try(ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(ChecksumVector.build(1), 2,
+				channels(outputs)))
+		{
+			stream.write(new byte[] { 1, 2, 3, 4, 5, 6, 7 });
+		}
+		
+		assertArrayEquals(new byte[] { 1, 2, 7, 0 }, outputs[0].toByteArray());
+		assertArrayEquals(new byte[] { 3, 4, 0, 0 }, outputs[1].toByteArray());
+		assertArrayEquals(new byte[] { 5, 6, 0, 0 }, outputs[2].toByteArray());
+		assertArrayEquals(new byte[] { 1 ^ 3 ^ 5, 2 ^ 4 ^ 6, 7, 0 }, outputs[3].toByteArray());
+	}
+	
+	@Test
+	public void testSingleByteWritesMatchBulkWrites() throws IOException
+	{
+		byte[] data = new byte[100];
+		for(int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 31);
+		
+		ByteArrayOutputStream[] bulk = outputs(6);
+		try(ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(ChecksumVector.build(2), 8,
+				channels(bulk)))
+		{
+			stream.write(data);
+		}
+		
+		ByteArrayOutputStream[] single = outputs(6);
+		try(ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(ChecksumVector.build(2), 8,
+				channels(single)))
+		{
+			for(byte b : data)
+				stream.write(b);
+			assertEquals(data.length, stream.size());
+		}
+		
+		for(int shard = 0; shard < bulk.length; shard++)
+			assertArrayEquals(bulk[shard].toByteArray(), single[shard].toByteArray());
+	}
+	
+	@Test
+	public void testWritesOnExecutor() throws IOException
+	{
+		byte[] data = new byte[1000];
+		for(int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 7);
+		
+		ByteArrayOutputStream[] expected = outputs(7);
+		try(ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(ChecksumVector.build(3), 16,
+				channels(expected)))
+		{
+			stream.write(data);
+		}
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		ByteArrayOutputStream[] actual = outputs(7);
+		try(ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(ChecksumVector.build(3), 16, executor,
+				channels(actual)))
+		{
+			stream.write(data);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		for(int shard = 0; shard < expected.length; shard++)
+			assertArrayEquals(expected[shard].toByteArray(), actual[shard].toByteArray());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testWriteAfterClose() throws IOException
+	{
+		ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(ChecksumVector.build(1), 2,
+				channels(outputs(2)));
+		stream.close();
+		stream.write(1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooFewChannels()
+	{
+		new ErasureEncodingOutputStream(ChecksumVector.build(2), 2, channels(outputs(2)));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNonPositiveChunkSize()
+	{
+		new ErasureEncodingOutputStream(ChecksumVector.build(1), 0, channels(outputs(2)));
+	}
+	
+	static ByteArrayOutputStream[] outputs(int count)
+	{
+		ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[count];
+		for(int i = 0; i < count; i++)
+			outputs[i] = new ByteArrayOutputStream();
+		return outputs;
+	}
+	
+	static WritableByteChannel[] channels(ByteArrayOutputStream[] outputs)
+	{
+		WritableByteChannel[] channels = new WritableByteChannel[outputs.length];
+		for(int i = 0; i < outputs.length; i++)
+			channels[i] = Channels.newChannel(outputs[i]);
+		return channels;
+	}
+}
@@ -0,0 +1,151 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+public class MappedFileCodecTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testShardsMatchStreamEncoding() throws IOException
+	{
+		byte[] data = data(1000);
+		ChecksumVector checksums = ChecksumVector.build(2);
+		Path[] shards = encode(new MappedFileCodec(checksums, 3, 64), data, 5);
+		
+		ByteArrayOutputStream[] expected = ErasureEncodingOutputStreamTest.outputs(5);
+		try(ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(checksums, 64,
+				ErasureEncodingOutputStreamTest.channels(expected)))
+		{
+			stream.write(data);
+		}
+		
+		for(int shard = 0; shard < shards.length; shard++)
+			assertArrayEquals(expected[shard].toByteArray(), Files.readAllBytes(shards[shard]));
+	}
+	
+	@Test
+	public void testChannelEncodingMatchesFileEncoding() throws IOException
+	{
+		byte[] data = data(777);
+		MappedFileCodec codec = new MappedFileCodec(ChecksumVector.build(3), 4, 16, 3);
+		Path[] shards = encode(codec, data, 7);
+		
+		Path input = folder.newFile().toPath();
+		Files.write(input, data);
+		ByteArrayOutputStream[] outputs = ErasureEncodingOutputStreamTest.outputs(7);
+		WritableByteChannel[] channels = ErasureEncodingOutputStreamTest.channels(outputs);
+		assertEquals(data.length, codec.encode(input, channels));
+		
+		for(int shard = 0; shard < shards.length; shard++)
+			assertArrayEquals(Files.readAllBytes(shards[shard]), outputs[shard].toByteArray());
+	}
+	
+	@Test
+	public void testDecodeWithNoMissingShards() throws IOException
+	{
+		assertDecodes(new MappedFileCodec(ChecksumVector.build(1), 4, 32), data(1000), 5);
+	}
+	
+	@Test
+	public void testDecodeWithMissingShards() throws IOException
+	{
+		assertDecodes(new MappedFileCodec(ChecksumVector.build(3), 4, 32), data(1000), 7, 0, 2, 5);
+	}
+	
+	@Test
+	public void testDecodeLocallyRepairable() throws IOException
+	{
+		MappedFileCodec codec = new MappedFileCodec(ChecksumVector.buildLocallyRepairable(2, 2), 4, 16);
+		assertDecodes(codec, data(1000), 8, 2);
+		assertDecodes(codec, data(1000), 8, 0, 3, 4);
+	}
+	
+	@Test
+	public void testDecodeAcrossSeveralWindows() throws IOException
+	{
+		assertDecodes(new MappedFileCodec(ChecksumVector.build(2), 3, 8, 2), data(1001), 5, 1, 2);
+	}
+	
+	@Test
+	public void testDecodeExactMultipleOfStripe() throws IOException
+	{
+		assertDecodes(new MappedFileCodec(ChecksumVector.build(2), 3, 8, 2), data(96), 5, 0, 4);
+	}
+	
+	@Test
+	public void testEmptyFile() throws IOException
+	{
+		assertDecodes(new MappedFileCodec(ChecksumVector.build(1), 2, 8), new byte[0], 3, 1);
+	}
+	
+	@Test(expected = IOException.class)
+	public void testDecodeTruncatedShard() throws IOException
+	{
+		MappedFileCodec codec = new MappedFileCodec(ChecksumVector.build(1), 2, 8);
+		Path[] shards = encode(codec, data(100), 3);
+		Files.write(shards[0], new byte[3]);
+		codec.decode(folder.newFile().toPath(), 100, shards);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeTooManyMissingShards() throws IOException
+	{
+		MappedFileCodec codec = new MappedFileCodec(ChecksumVector.build(1), 2, 8);
+		Path[] shards = encode(codec, data(100), 3);
+		shards[0] = null;
+		shards[1] = null;
+		codec.decode(folder.newFile().toPath(), 100, shards);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongNumberOfShards() throws IOException
+	{
+		new MappedFileCodec(ChecksumVector.build(2), 3, 8).encode(folder.newFile().toPath(), new Path[4]);
+	}
+	
+	private void assertDecodes(MappedFileCodec codec, byte[] data, int shardCount, int... missing) throws IOException
+	{
+		Path[] shards = encode(codec, data, shardCount);
+		for(Path shard : shards)
+			assertEquals(codec.shardSize(data.length), Files.size(shard));
+		for(int index : missing)
+			shards[index] = null;
+		
+		Path output = folder.newFile().toPath();
+		codec.decode(output, data.length, shards);
+		assertArrayEquals(data, Files.readAllBytes(output));
+	}
+	
+	private Path[] encode(MappedFileCodec codec, byte[] data, int shardCount) throws IOException
+	{
+		Path input = folder.newFile().toPath();
+		Files.write(input, data);
+		Path[] shards = new Path[shardCount];
+		for(int shard = 0; shard < shardCount; shard++)
+			shards[shard] = folder.newFile().toPath();
+		assertEquals(data.length, codec.encode(input, shards));
+		return shards;
+	}
+	
+	private static byte[] data(int length)
+	{
+		byte[] data = new byte[length];
+		for(int i = 0; i < length; i++)
+			data[i] = (byte) (i * 29 + i / 3);
+		return data;
+	}
+}
@@ -0,0 +1,145 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+public class ParallelEncoderTest
+{
+	private static final ExecutorService executor = Executors.newFixedThreadPool(4);
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@AfterClass
+	public static void shutdown()
+	{
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testBufferEncodingMatchesStreamEncoding() throws IOException
+	{
+		byte[] data = data(5000);
+		ChecksumVector checksums = ChecksumVector.build(3);
+		ByteBuffer[] shards = new ParallelEncoder(checksums, 4, 32, executor, 3).encode(ByteBuffer.wrap(data));
+		
+		ByteArrayOutputStream[] expected = ErasureEncodingOutputStreamTest.outputs(7);
+		try(ErasureEncodingOutputStream stream = new ErasureEncodingOutputStream(checksums, 32,
+				ErasureEncodingOutputStreamTest.channels(expected)))
+		{
+			stream.write(data);
+		}
+		
+		for(int shard = 0; shard < shards.length; shard++)
+			assertArrayEquals(expected[shard].toByteArray(), shards[shard].array());
+	}
+	
+	@Test
+	public void testOutputDoesNotDependOnTaskSize()
+	{
+		byte[] data = data(3001);
+		ChecksumVector checksums = ChecksumVector.build(2);
+		ByteBuffer[] single = new ParallelEncoder(checksums, 3, 16, Runnable::run, 1000).encode(ByteBuffer.wrap(data));
+		ByteBuffer[] split = new ParallelEncoder(checksums, 3, 16, executor, 1).encode(ByteBuffer.wrap(data));
+		ByteBuffer[] common = new ParallelEncoder(checksums, 3, 16).encode(ByteBuffer.wrap(data));
+		
+		for(int shard = 0; shard < single.length; shard++)
+		{
+			assertEquals(single[shard], split[shard]);
+			assertEquals(single[shard], common[shard]);
+		}
+	}
+	
+	@Test
+	public void testEncodeIntoBuffersOverwritesPadding()
+	{
+		byte[] data = data(100);
+		ParallelEncoder encoder = new ParallelEncoder(ChecksumVector.build(1), 2, 16, executor, 1);
+		ByteBuffer[] expected = encoder.encode(ByteBuffer.wrap(data));
+		
+		ByteBuffer[] shards = new ByteBuffer[3];
+		for(int shard = 0; shard < shards.length; shard++)
+		{
+			shards[shard] = ByteBuffer.allocateDirect(70);
+			for(int i = 0; i < 70; i++)
+				shards[shard].put(i, (byte) -1);
+			shards[shard].position(6);
+		}
+		encoder.encode(ByteBuffer.wrap(data), shards);
+		for(int shard = 0; shard < shards.length; shard++)
+			assertEquals(expected[shard], shards[shard]);
+	}
+	
+	@Test
+	public void testFileEncodingDecodes() throws IOException
+	{
+		byte[] data = data(10001);
+		Path input = folder.newFile().toPath();
+		Files.write(input, data);
+		Path[] shards = new Path[6];
+		for(int shard = 0; shard < shards.length; shard++)
+			shards[shard] = folder.newFile().toPath();
+		
+		ChecksumVector checksums = ChecksumVector.build(2);
+		assertEquals(data.length, new ParallelEncoder(checksums, 4, 64, executor, 5).encode(input, shards));
+		
+		shards[1] = null;
+		shards[2] = null;
+		Path output = folder.newFile().toPath();
+		new MappedFileCodec(checksums, 4, 64).decode(output, data.length, shards);
+		assertArrayEquals(data, Files.readAllBytes(output));
+	}
+	
+	@Test
+	public void testFileEncodingInWindowsMatchesBuffers() throws IOException
+	{
+		byte[] data = data(10001);
+		Path input = folder.newFile().toPath();
+		Files.write(input, data);
+		Path[] shards = new Path[6];
+		for(int shard = 0; shard < shards.length; shard++)
+			shards[shard] = folder.newFile().toPath();
+		
+		// 40 stripes, mapped six at a time
+		ChecksumVector checksums = ChecksumVector.build(2);
+		new ParallelEncoder(checksums, 4, 64, executor, 3, 2).encode(input, shards);
+		ByteBuffer[] expected = new ParallelEncoder(checksums, 4, 64).encode(ByteBuffer.wrap(data));
+		for(int shard = 0; shard < shards.length; shard++)
+			assertEquals(expected[shard], ByteBuffer.wrap(Files.readAllBytes(shards[shard])));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testShardsTooSmall()
+	{
+		ByteBuffer[] shards = new ByteBuffer[] { ByteBuffer.allocate(8), ByteBuffer.allocate(8), ByteBuffer.allocate(4) };
+		new ParallelEncoder(ChecksumVector.build(1), 2, 8).encode(ByteBuffer.allocate(32), shards);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNonPositiveTaskSize()
+	{
+		new ParallelEncoder(ChecksumVector.build(1), 2, 8, executor, 0);
+	}
+	
+	private static byte[] data(int length)
+	{
+		byte[] data = new byte[length];
+		for(int i = 0; i < length; i++)
+			data[i] = (byte) (i * 17 + i / 5);
+		return data;
+	}
+}
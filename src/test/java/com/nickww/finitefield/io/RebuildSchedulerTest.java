@@ -0,0 +1,325 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+import com.nickww.finitefield.checksum.ShardSink;
+import com.nickww.finitefield.checksum.ShardSource;
+
+public class RebuildSchedulerTest
+{
+	private static final ChecksumVector checksums = ChecksumVector.build(3);
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testRebuildsTargetedShards() throws Exception
+	{
+		byte[][][] stripes = stripes(10, 4, 64);
+		Source source = new Source(stripes, 1, 5, 6);
+		Target data = new Target();
+		Target checksum = new Target();
+		ShardSink[] targets = targets(7, 1, data);
+		targets[5] = checksum;
+		RebuildCheckpoint checkpoint = RebuildCheckpoint.file(folder.getRoot().toPath().resolve("checkpoint"));
+		try(RebuildScheduler scheduler = new RebuildScheduler(checksums, Long.MAX_VALUE, 1, 2, 3))
+		{
+			long rebuilt = scheduler.rebuild(source, targets, checkpoint).get(5,
+					TimeUnit.SECONDS);
+			assertEquals(10, rebuilt);
+		}
+		assertArrayEquals(shard(stripes, 1), data.bytes.toByteArray());
+		assertArrayEquals(shard(stripes, 5), checksum.bytes.toByteArray());
+		assertEquals(10, checkpoint.load());
+	}
+	
+	@Test
+	public void testResumesFromCheckpoint() throws Exception
+	{
+		byte[][][] stripes = stripes(10, 4, 16);
+		RebuildCheckpoint checkpoint = RebuildCheckpoint.file(folder.getRoot().toPath().resolve("checkpoint"));
+		checkpoint.save(6);
+		Target target = new Target();
+		try(RebuildScheduler scheduler = new RebuildScheduler(checksums, Long.MAX_VALUE, 1))
+		{
+			assertEquals(4L, (long) scheduler.rebuild(new Source(stripes, 0), targets(7, 0, target), checkpoint)
+					.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(Arrays.asList(6L, 7L, 8L, 9L), target.stripes);
+		assertArrayEquals(Arrays.copyOfRange(shard(stripes, 0), 6 * 16, 10 * 16), target.bytes.toByteArray());
+	}
+	
+	@Test
+	public void testFinishedCheckpointRebuildsNothing() throws Exception
+	{
+		RebuildCheckpoint checkpoint = RebuildCheckpoint.file(folder.getRoot().toPath().resolve("checkpoint"));
+		checkpoint.save(3);
+		Target target = new Target();
+		try(RebuildScheduler scheduler = new RebuildScheduler(checksums, Long.MAX_VALUE, 1))
+		{
+			assertEquals(0L, (long) scheduler.rebuild(new Source(stripes(3, 4, 8), 2), targets(7, 2, target),
+					checkpoint).get());
+		}
+		assertTrue(target.stripes.isEmpty());
+	}
+	
+	@Test
+	public void testForegroundRunsBeforeRebuild() throws Exception
+	{
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch blocked = new CountDownLatch(1);
+		try(RebuildScheduler scheduler = new RebuildScheduler(checksums, Long.MAX_VALUE, 1))
+		{
+			CompletableFuture<?> blocker = scheduler.submit(() -> blocked.await(5, TimeUnit.SECONDS));
+			CompletableFuture<Long> rebuild = scheduler.rebuild(new Source(stripes(2, 4, 8), 3),
+					targets(7, 3, (stripe, shard) -> order.add("stripe " + stripe)), RebuildCheckpoint.none());
+			CompletableFuture<Boolean> read = scheduler.submit(() -> order.add("read"));
+			blocked.countDown();
+			
+			blocker.get(5, TimeUnit.SECONDS);
+			read.get(5, TimeUnit.SECONDS);
+			rebuild.get(5, TimeUnit.SECONDS);
+		}
+		assertEquals(Arrays.asList("read", "stripe 0", "stripe 1"), order);
+	}
+	
+	@Test
+	public void testBandwidthLimit() throws Exception
+	{
+		// each stripe reads the 3 other data shards and the first checksum, and writes 1, so 5 * 100 bytes, and 10
+		// stripes at 10000 bytes/s take 0.5s
+		byte[][][] stripes = stripes(10, 4, 100);
+		Target target = new Target();
+		try(RebuildScheduler scheduler = new RebuildScheduler(checksums, 10000, 1))
+		{
+			long start = System.nanoTime();
+			scheduler.rebuild(new Source(stripes, 0), targets(7, 0, target), RebuildCheckpoint.none()).get(5,
+					TimeUnit.SECONDS);
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+		}
+		assertArrayEquals(shard(stripes, 0), target.bytes.toByteArray());
+	}
+	
+	@Test
+	public void testReadsOnlyNeededSurvivors() throws Exception
+	{
+		int[] reads = new int[7];
+		Source source = new Source(stripes(10, 4, 32), 1, 5)
+		{
+			@Override
+			public ByteBuffer read(long stripe, int shard) throws IOException
+			{
+				reads[shard]++;
+				return super.read(stripe, shard);
+			}
+		};
+		ShardSink[] targets = targets(7, 1, new Target());
+		targets[5] = new Target();
+		try(RebuildScheduler scheduler = new RebuildScheduler(checksums, Long.MAX_VALUE, 1))
+		{
+			scheduler.rebuild(source, targets, RebuildCheckpoint.none()).get(5, TimeUnit.SECONDS);
+		}
+		
+		// both shards are made from the present data and the first checksum, which are read once per stripe
+		assertArrayEquals(new int[] { 10, 0, 10, 10, 10, 0, 0 }, reads);
+	}
+	
+	@Test
+	public void testCloseSavesCheckpointAndCancels() throws Exception
+	{
+		RebuildCheckpoint checkpoint = RebuildCheckpoint.file(folder.getRoot().toPath().resolve("checkpoint"));
+		CountDownLatch written = new CountDownLatch(2);
+		RebuildScheduler scheduler = new RebuildScheduler(checksums, 1000, 1, 1, 1000);
+		CompletableFuture<Long> rebuild = scheduler.rebuild(new Source(stripes(100, 4, 10), 0), targets(7, 0,
+				(stripe, shard) -> written.countDown()), checkpoint);
+		assertTrue(written.await(5, TimeUnit.SECONDS));
+		scheduler.close();
+		
+		assertTrue(rebuild.isCancelled());
+		assertTrue(checkpoint.load() >= 2);
+		assertTrue(checkpoint.load() < 100);
+		try
+		{
+			scheduler.submit(() -> null);
+			fail();
+		}
+		catch(RejectedExecutionException e)
+		{
+		}
+	}
+	
+	@Test
+	public void testFailedReadFailsRebuild() throws Exception
+	{
+		Source source = new Source(stripes(4, 4, 8), 0)
+		{
+			@Override
+			public ByteBuffer read(long stripe, int shard) throws IOException
+			{
+				if(stripe == 2)
+					throw new IOException("Disk error");
+				return super.read(stripe, shard);
+			}
+		};
+		try(RebuildScheduler scheduler = new RebuildScheduler(checksums, Long.MAX_VALUE, 1))
+		{
+			scheduler.rebuild(source, targets(7, 0, new Target()), RebuildCheckpoint.none()).get(5, TimeUnit.SECONDS);
+			fail();
+		}
+		catch(ExecutionException e)
+		{
+			assertEquals("Disk error", e.getCause().getMessage());
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTargetForPresentShard() throws Exception
+	{
+		try(RebuildScheduler scheduler = new RebuildScheduler(checksums, Long.MAX_VALUE, 1))
+		{
+			scheduler.rebuild(new Source(stripes(1, 4, 8), 0), targets(7, 1, new Target()), RebuildCheckpoint.none());
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCpuLimitTooLarge()
+	{
+		new RebuildScheduler(checksums, Long.MAX_VALUE, 1.5);
+	}
+	
+	@Test
+	public void testCorruptCheckpointLoadsZero() throws IOException
+	{
+		Path file = folder.getRoot().toPath().resolve("checkpoint");
+		RebuildCheckpoint checkpoint = RebuildCheckpoint.file(file);
+		assertEquals(0, checkpoint.load());
+		checkpoint.save(12345);
+		assertEquals(12345, checkpoint.load());
+		
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[7] ^= 1;
+		Files.write(file, bytes);
+		assertEquals(0, checkpoint.load());
+	}
+	
+	@Test(expected = CancellationException.class)
+	public void testCloseCancelsQueuedForegroundTasks() throws Exception
+	{
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		RebuildScheduler scheduler = new RebuildScheduler(checksums, Long.MAX_VALUE, 1);
+		scheduler.submit(() ->
+		{
+			started.countDown();
+			return blocked.await(5, TimeUnit.SECONDS);
+		});
+		CompletableFuture<Object> queued = scheduler.submit(() -> null);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		new Thread(blocked::countDown).start();
+		scheduler.close();
+		queued.get();
+	}
+	
+	private static byte[][][] stripes(int count, int dataShards, int length)
+	{
+		Random random = new Random(count * 31 + length);
+		byte[][][] stripes = new byte[count][dataShards + checksums.numChecksums()][length];
+		for(byte[][] stripe : stripes)
+		{
+			for(int shard = 0; shard < dataShards; shard++)
+				random.nextBytes(stripe[shard]);
+			checksums.encode(stripe, 0, length);
+		}
+		return stripes;
+	}
+	
+	private static byte[] shard(byte[][][] stripes, int shard)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for(byte[][] stripe : stripes)
+			bytes.write(stripe[shard], 0, stripe[shard].length);
+		return bytes.toByteArray();
+	}
+	
+	private static ShardSink[] targets(int shards, int shard, ShardSink target)
+	{
+		ShardSink[] targets = new ShardSink[shards];
+		targets[shard] = target;
+		return targets;
+	}
+	
+	private static class Source implements ShardSource
+	{
+		private final byte[][][] stripes;
+		private final boolean[] present;
+		
+		private Source(byte[][][] stripes, int... missing)
+		{
+			this.stripes = stripes;
+			this.present = new boolean[stripes[0].length];
+			Arrays.fill(present, true);
+			for(int shard : missing)
+				present[shard] = false;
+		}
+		
+		@Override
+		public int shardCount()
+		{
+			return present.length;
+		}
+		
+		@Override
+		public long stripeCount()
+		{
+			return stripes.length;
+		}
+		
+		@Override
+		public boolean isPresent(int shard)
+		{
+			return present[shard];
+		}
+		
+		@Override
+		public ByteBuffer read(long stripe, int shard) throws IOException
+		{
+			return ByteBuffer.wrap(stripes[(int) stripe][shard]).asReadOnlyBuffer();
+		}
+	}
+	
+	private static class Target implements ShardSink
+	{
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final List<Long> stripes = new ArrayList<>();
+		
+		@Override
+		public synchronized void write(long stripe, ByteBuffer shard)
+		{
+			stripes.add(stripe);
+			while(shard.hasRemaining())
+				bytes.write(shard.get());
+		}
+	}
+}
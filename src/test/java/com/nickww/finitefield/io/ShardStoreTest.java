@@ -0,0 +1,245 @@
+package com.nickww.finitefield.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.nickww.finitefield.checksum.ChecksumVector;
+
+public class ShardStoreTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private Path[] directories;
+	
+	@Before
+	public void createDirectories() throws IOException
+	{
+		directories = new Path[7];
+		for(int shard = 0; shard < directories.length; shard++)
+			directories[shard] = folder.newFolder("disk" + shard).toPath();
+	}
+	
+	@After
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void testWriteAndRead() throws IOException
+	{
+		try(ShardStore store = new ShardStore(ChecksumVector.build(3), directories))
+		{
+			for(int size : new int[] { 0, 1, 4, 1001 })
+			{
+				byte[] value = value(size);
+				store.write("value" + size, value);
+				assertArrayEquals(value, store.read("value" + size));
+			}
+		}
+		for(Path directory : directories)
+			assertTrue(Files.exists(directory.resolve("value1001")));
+	}
+	
+	@Test
+	public void testReadsWithLostAndCorruptShards() throws IOException
+	{
+		byte[] value = value(5000);
+		try(ShardStore store = new ShardStore(ChecksumVector.build(3), 0, executor, directories))
+		{
+			store.write("key", value);
+			Files.delete(directories[0].resolve("key"));
+			byte[] corrupt = Files.readAllBytes(directories[2].resolve("key"));
+			corrupt[100] ^= 1;
+			Files.write(directories[2].resolve("key"), corrupt);
+			Files.write(directories[4].resolve("key"), new byte[3]);
+			assertArrayEquals(value, store.read("key"));
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void testTooManyLostShards() throws IOException
+	{
+		try(ShardStore store = new ShardStore(ChecksumVector.build(3), directories))
+		{
+			store.write("key", value(100));
+			for(int shard = 3; shard < 7; shard++)
+				Files.delete(directories[shard].resolve("key"));
+			store.read("key");
+		}
+	}
+	
+	@Test
+	public void testSlowShardDoesNotDelayHedgedRead() throws IOException
+	{
+		byte[] value = value(4000);
+		ShardStore store = new ShardStore(ChecksumVector.build(3), 1, executor, directories)
+		{
+			@Override
+			ByteBuffer readShard(int shard, String key) throws IOException
+			{
+				if(shard == 1)
+				{
+					try
+					{
+						Thread.sleep(5000);
+					}
+					catch(InterruptedException e)
+					{
+						throw new IOException(e);
+					}
+				}
+				return super.readShard(shard, key);
+			}
+		};
+		store.write("key", value);
+		long start = System.nanoTime();
+		assertArrayEquals(value, store.read("key"));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+	}
+	
+	@Test
+	public void testShardsOfAnotherWriteAreNotMixed() throws IOException
+	{
+		byte[] first = value(5000);
+		byte[] second = first.clone();
+		for(int i = 0; i < second.length; i++)
+			second[i] ^= 0x5a;
+		try(ShardStore store = new ShardStore(ChecksumVector.build(3), 0, executor, directories))
+		{
+			store.write("key", first);
+			byte[][] files = new byte[directories.length][];
+			for(int shard = 0; shard < directories.length; shard++)
+				files[shard] = Files.readAllBytes(directories[shard].resolve("key"));
+			store.write("key", second);
+			
+			// two shards left by the first write, as if the second had failed to replace them, are lost
+			for(int shard = 0; shard < 2; shard++)
+				Files.write(directories[shard].resolve("key"), files[shard]);
+			assertArrayEquals(second, store.read("key"));
+			
+			// with four left by the first write, only the first write has enough shards to read
+			for(int shard = 2; shard < 4; shard++)
+				Files.write(directories[shard].resolve("key"), files[shard]);
+			assertArrayEquals(first, store.read("key"));
+		}
+	}
+	
+	@Test
+	public void testConcurrentWritesOfSameKey() throws Exception
+	{
+		try(ShardStore store = new ShardStore(ChecksumVector.build(3), directories))
+		{
+			List<Future<?>> writes = new ArrayList<>();
+			for(int writer = 0; writer < 8; writer++)
+			{
+				byte[] value = value(1000 + writer);
+				writes.add(executor.submit(() ->
+				{
+					for(int write = 0; write < 20; write++)
+						store.write("key", value);
+					return null;
+				}));
+			}
+			for(int read = 0; read < 20; read++)
+			{
+				try
+				{
+					byte[] value = store.read("key");
+					assertArrayEquals(value(value.length), value);
+				}
+				catch(IOException e)
+				{
+					// no write has enough shards left at the moment
+				}
+			}
+			for(Future<?> write : writes)
+				write.get(10, TimeUnit.SECONDS);
+			
+			store.write("key", value(500));
+			assertArrayEquals(value(500), store.read("key"));
+		}
+		for(Path directory : directories)
+			try(Stream<Path> files = Files.list(directory))
+			{
+				assertEquals(Arrays.asList(directory.resolve("key")), files.collect(Collectors.toList()));
+			}
+	}
+	
+	@Test
+	public void testReadAsksForMoreShardsUntilSolvable() throws IOException
+	{
+		// three data shards in local groups {0, 1} and {2}: shard 3 is the first group's local checksum, so it can't
+		// stand in for shard 2, and the read has to ask for shard 4 as well
+		byte[] value = value(3000);
+		try(ShardStore store = new ShardStore(ChecksumVector.buildLocallyRepairable(2, 2), 0, executor, directories))
+		{
+			store.write("key", value);
+			Files.delete(directories[2].resolve("key"));
+			assertArrayEquals(value, store.read("key"));
+			Files.delete(directories[4].resolve("key"));
+			Files.delete(directories[5].resolve("key"));
+			Files.delete(directories[6].resolve("key"));
+			try
+			{
+				store.read("key");
+				fail("Shards 0, 1 and 3 cannot solve for shard 2");
+			}
+			catch(IOException expected)
+			{
+			}
+		}
+	}
+	
+	@Test
+	public void testDelete() throws IOException
+	{
+		try(ShardStore store = new ShardStore(ChecksumVector.buildRowDiagonal(), directories))
+		{
+			store.write("key", value(77));
+			assertArrayEquals(value(77), store.read("key"));
+			assertTrue(store.delete("key"));
+			assertFalse(store.delete("key"));
+			for(Path directory : directories)
+				assertFalse(Files.exists(directory.resolve("key")));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeyWithSeparator() throws IOException
+	{
+		try(ShardStore store = new ShardStore(ChecksumVector.build(3), directories))
+		{
+			store.write("a/b", new byte[1]);
+		}
+	}
+	
+	private static byte[] value(int size)
+	{
+		byte[] value = new byte[size];
+		new Random(size).nextBytes(value);
+		return value;
+	}
+}
@@ -0,0 +1,100 @@
+package com.nickww.finitefield.network;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NetworkCodingTest
+{
+	private static final int GENERATION = 16;
+	private static final int LENGTH = 1200;
+	
+	@Test
+	public void testDecodesOverLossyLink()
+	{
+		byte[][] sources = sources(1);
+		NetworkEncoder encoder = new NetworkEncoder(new Random(2), sources);
+		NetworkDecoder decoder = new NetworkDecoder(GENERATION, LENGTH);
+		Random loss = new Random(3);
+		int received = 0;
+		while(!decoder.isComplete())
+		{
+			CodedPacket packet = encoder.next();
+			if(loss.nextInt(3) == 0)
+				continue;
+			received++;
+			int rank = decoder.rank();
+			assertEquals(decoder.receive(packet), decoder.rank() == rank + 1);
+		}
+		assertTrue(received < GENERATION + 5);
+		assertArrayEquals(sources, decoder.sources());
+		assertFalse(decoder.receive(encoder.next()));
+	}
+	
+	@Test
+	public void testSystematicPacketsDecodeEarly()
+	{
+		byte[][] sources = sources(4);
+		NetworkEncoder encoder = new NetworkEncoder(new Random(5), sources);
+		NetworkDecoder decoder = new NetworkDecoder(GENERATION, LENGTH);
+		for(int index = 0; index < GENERATION; index += 2)
+			assertTrue(decoder.receive(encoder.source(index)));
+		for(int index = 0; index < GENERATION; index++)
+			assertEquals(index % 2 == 0, decoder.isDecoded(index));
+		assertArrayEquals(sources[6], decoder.source(6));
+		
+		while(!decoder.isComplete())
+			decoder.receive(encoder.next());
+		assertEquals(GENERATION, decoder.rank());
+		assertArrayEquals(sources, decoder.sources());
+	}
+	
+	@Test
+	public void testPacketRoundTrip()
+	{
+		CodedPacket packet = new NetworkEncoder(new Random(6), sources(7)).next();
+		assertEquals(GENERATION, packet.generationSize());
+		assertEquals(LENGTH, packet.length());
+		byte[] bytes = packet.toByteArray();
+		assertEquals(2 + GENERATION + LENGTH, bytes.length);
+		assertEquals(packet, CodedPacket.fromByteArray(bytes));
+		assertEquals(packet.hashCode(), CodedPacket.fromByteArray(bytes).hashCode());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testSourcesBeforeComplete()
+	{
+		NetworkDecoder decoder = new NetworkDecoder(GENERATION, LENGTH);
+		decoder.receive(new NetworkEncoder(new Random(8), sources(9)).next());
+		decoder.sources();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongGeneration()
+	{
+		new NetworkDecoder(GENERATION + 1, LENGTH).receive(new NetworkEncoder(sources(10)).next());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentSourceLengths()
+	{
+		new NetworkEncoder(new byte[3], new byte[4]);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncatedPacket()
+	{
+		CodedPacket.fromByteArray(new byte[] { 0, 5, 1, 2 });
+	}
+	
+	private static byte[][] sources(long seed)
+	{
+		Random random = new Random(seed);
+		byte[][] sources = new byte[GENERATION][LENGTH];
+		for(byte[] source : sources)
+			random.nextBytes(source);
+		return sources;
+	}
+}
@@ -0,0 +1,109 @@
+package com.nickww.finitefield.sharing;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SecretSharingTest
+{
+	private static final byte[] secret = "correct horse battery staple".getBytes();
+	
+	@Test
+	public void testAnyThresholdSharesCombine()
+	{
+		SecretShare[] shares = new SecretSharing(3, 5, new Random(1)).split(secret);
+		assertEquals(5, shares.length);
+		for(int a = 0; a < 5; a++)
+			for(int b = a + 1; b < 5; b++)
+				for(int c = b + 1; c < 5; c++)
+					assertArrayEquals(secret, SecretSharing.combine(shares[c], shares[a], shares[b]));
+	}
+	
+	@Test
+	public void testExtraSharesIgnored()
+	{
+		SecretShare[] shares = new SecretSharing(2, 4, new Random(2)).split(secret);
+		assertArrayEquals(secret, SecretSharing.combine(shares));
+	}
+	
+	@Test
+	public void testSharesDontContainSecret()
+	{
+		for(SecretShare share : new SecretSharing(2, 3, new Random(3)).split(secret))
+		{
+			assertEquals(secret.length, share.length());
+			assertFalse(Arrays.equals(secret, share.value()));
+		}
+	}
+	
+	@Test
+	public void testThresholdOfOneCopiesSecret()
+	{
+		for(SecretShare share : new SecretSharing(1, 3).split(secret))
+		{
+			assertArrayEquals(secret, share.value());
+			assertArrayEquals(secret, SecretSharing.combine(share));
+		}
+	}
+	
+	@Test
+	public void testLargeSecretAcrossBlocks()
+	{
+		byte[] large = new byte[100003];
+		new Random(4).nextBytes(large);
+		SecretShare[] shares = new SecretSharing(4, 7).split(large);
+		assertArrayEquals(large, SecretSharing.combine(shares[6], shares[1], shares[3], shares[4]));
+	}
+	
+	@Test
+	public void testMaximumShares()
+	{
+		SecretShare[] shares = new SecretSharing(255, 255, new Random(5)).split(secret);
+		assertArrayEquals(secret, SecretSharing.combine(shares));
+	}
+	
+	@Test
+	public void testEmptySecret()
+	{
+		assertArrayEquals(new byte[0], SecretSharing.combine(new SecretSharing(2, 2).split(new byte[0])));
+	}
+	
+	@Test
+	public void testShareBytes()
+	{
+		SecretShare share = new SecretSharing(2, 3, new Random(6)).split(secret)[2];
+		SecretShare read = SecretShare.fromByteArray(share.toByteArray());
+		assertEquals(share, read);
+		assertEquals(3, read.index());
+		assertEquals(2, read.threshold());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooFewShares()
+	{
+		SecretShare[] shares = new SecretSharing(3, 5).split(secret);
+		SecretSharing.combine(shares[0], shares[1]);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateShares()
+	{
+		SecretShare[] shares = new SecretSharing(2, 3).split(secret);
+		SecretSharing.combine(shares[1], shares[1]);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testThresholdMoreThanShares()
+	{
+		new SecretSharing(4, 3);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyShares()
+	{
+		new SecretSharing(2, 256);
+	}
+}